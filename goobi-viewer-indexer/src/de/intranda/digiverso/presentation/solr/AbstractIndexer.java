@@ -22,8 +22,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -41,11 +44,16 @@ import org.jdom2.input.SAXBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.intranda.digiverso.presentation.solr.helper.Configuration;
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
+import de.intranda.digiverso.presentation.solr.helper.IddocAllocator;
 import de.intranda.digiverso.presentation.solr.helper.JDomXP;
 import de.intranda.digiverso.presentation.solr.helper.MetadataHelper;
+import de.intranda.digiverso.presentation.solr.helper.RecordLookupContext;
+import de.intranda.digiverso.presentation.solr.helper.SolrDocumentCursor;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
 import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.IndexObject;
 import de.intranda.digiverso.presentation.solr.model.LuceneField;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
@@ -59,7 +67,12 @@ public abstract class AbstractIndexer {
 
     public static boolean noTimestampUpdate = false;
 
-    private static long nextIddoc = -1;
+    private static IddocAllocator iddocAllocator;
+
+    /** Fields required for removing records from the index. */
+    private static final String[] DELETE_FIELDS = { SolrConstants.IDDOC, SolrConstants.PI, SolrConstants.PI_TOPSTRUCT, SolrConstants.DOCTYPE,
+            SolrConstants.ISANCHOR, SolrConstants.URN, SolrConstants.IMAGEURN, SolrConstants.DATEDELETED, SolrConstants.SOURCEDOCFORMAT,
+            SolrConstants.DATAREPOSITORY };
 
     // TODO cyclic dependency; find a more elegant way to select a repository w/o passing the hotfolder instance to the indexer
     protected Hotfolder hotfolder;
@@ -69,6 +82,15 @@ public abstract class AbstractIndexer {
 
     protected StringBuilder sbLog = new StringBuilder();
 
+    /** Record locks acquired by this indexer instance. */
+    private final List<String> heldRecordLocks = new ArrayList<>(2);
+
+    /** Index documents looked up by this indexer instance; created on first use. */
+    private RecordLookupContext recordLookup;
+
+    /** True if the current record is written as a single block of nested documents. */
+    protected boolean writeBlock = false;
+
     /**
      * Removes the document represented by the given METS or LIDO file from the index.
      * 
@@ -90,6 +112,7 @@ public abstract class AbstractIndexer {
         if (solrHelper == null) {
             throw new IllegalArgumentException("solrHelper may not be null.");
         }
+        solrHelper.ensureVisible(pi);
         // Check whether this is an anchor record
         try {
             SolrDocumentList hits = solrHelper.search(new StringBuilder(SolrConstants.PI).append(":").append(pi).toString(), Collections
@@ -111,7 +134,8 @@ public abstract class AbstractIndexer {
         // Delete
         try {
             if (deleteWithPI(pi, trace, solrHelper)) {
-                solrHelper.commit(SolrHelper.optimize);
+                solrHelper.registerChange(pi);
+                solrHelper.commitRecord(SolrHelper.optimize);
                 return true;
             }
         } catch (SolrServerException e) {
@@ -123,7 +147,190 @@ public abstract class AbstractIndexer {
     }
 
     /**
-     * Löscht aus dem Index alle Documente die zu folgendem PI gehören. Das Löschen ist rekursiv. Unterelemente werden auch gelöscht.
+     * Retrieves the index documents required for removing the given records (and creating trace documents) with a single query: the top-level
+     * documents and all page documents that have a URN. Only the fields required for this are returned. All other child documents are removed
+     * via delete-by-query and are not retrieved.
+     * 
+     * @param pis Record identifiers
+     * @param solrHelper
+     * @return Map with the record identifier as key and the record's documents as value. The top-level documents of each record (PI equals the
+     *         record identifier) always come first. Records that could not be found are not contained.
+     * @throws SolrServerException
+     * @should return documents for all given records
+     * @should list top-level documents first
+     */
+    public static Map<String, SolrDocumentList> findRecordDocuments(Collection<String> pis, SolrHelper solrHelper) throws SolrServerException,
+            FatalIndexerException {
+        if (pis == null) {
+            throw new IllegalArgumentException("pis may not be null.");
+        }
+        if (solrHelper == null) {
+            throw new IllegalArgumentException("solrHelper may not be null.");
+        }
+        Map<String, SolrDocumentList> ret = new LinkedHashMap<>();
+        if (pis.isEmpty()) {
+            return ret;
+        }
+
+        String query = new StringBuilder(SolrHelper.buildOrQuery(SolrConstants.PI, pis)).append(" OR (").append(SolrHelper.buildOrQuery(
+                SolrConstants.PI_TOPSTRUCT, pis)).append(" AND ").append(SolrConstants.DOCTYPE).append(':').append(DocType.PAGE.name()).append(
+                        " AND ").append(SolrConstants.IMAGEURN).append(":[* TO *])").toString();
+        SolrDocumentList hits = new SolrDocumentList();
+        SolrDocumentCursor cursor = solrHelper.iterate(query, Arrays.asList(DELETE_FIELDS));
+        while (cursor.hasNext()) {
+            hits.add(cursor.next());
+        }
+
+        // Top-level documents first, then all other documents of the record
+        for (int pass = 0; pass < 2; ++pass) {
+            for (SolrDocument doc : hits) {
+                String pi = (String) doc.getFieldValue(SolrConstants.PI);
+                boolean topLevel = pi != null && pis.contains(pi);
+                if (topLevel != (pass == 0)) {
+                    continue;
+                }
+                String key = topLevel ? pi : (String) doc.getFieldValue(SolrConstants.PI_TOPSTRUCT);
+                if (key == null || !pis.contains(key)) {
+                    continue;
+                }
+                SolrDocumentList docs = ret.get(key);
+                if (docs == null) {
+                    docs = new SolrDocumentList();
+                    ret.put(key, docs);
+                }
+                docs.add(doc);
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Removes all given records from the index in one batch. The records must have been looked up via <code>findRecordDocuments()</code>. All
+     * documents of the records are deleted with a single delete-by-query request, followed by a single commit. Trace documents are created for
+     * all records where requested. Anchor records that still have indexed volumes which are not part of this batch are skipped.
+     * 
+     * @param traceByPi Map with the identifiers of the records to delete as keys; a trace document is created for each record with the value true
+     * @param recordDocs Index documents of the records, as returned by <code>findRecordDocuments()</code>
+     * @param solrHelper
+     * @return Set containing the identifiers of all records that have been deleted
+     * @throws FatalIndexerException
+     * @should delete all records in batch
+     * @should leave trace documents if requested
+     * @should skip anchors with indexed volumes
+     * @should escape special characters in anchor identifiers
+     */
+    public static Set<String> delete(Map<String, Boolean> traceByPi, Map<String, SolrDocumentList> recordDocs, SolrHelper solrHelper)
+            throws FatalIndexerException {
+        if (traceByPi == null) {
+            throw new IllegalArgumentException("traceByPi may not be null.");
+        }
+        if (recordDocs == null) {
+            throw new IllegalArgumentException("recordDocs may not be null.");
+        }
+        if (solrHelper == null) {
+            throw new IllegalArgumentException("solrHelper may not be null.");
+        }
+        Set<String> ret = new HashSet<>(traceByPi.size());
+        List<String> anchorPis = new ArrayList<>();
+        for (String pi : traceByPi.keySet()) {
+            SolrDocumentList docs = recordDocs.get(pi);
+            if (docs == null || !pi.equals(docs.get(0).getFieldValue(SolrConstants.PI))) {
+                logger.error("Not found: {}", pi);
+                continue;
+            }
+            ret.add(pi);
+            if (Boolean.TRUE.equals(docs.get(0).getFieldValue(SolrConstants.ISANCHOR))) {
+                anchorPis.add(pi);
+            }
+        }
+
+        try {
+            // Only empty anchors may be deleted (volumes deleted in this batch don't count)
+            if (!anchorPis.isEmpty()) {
+                SolrDocumentList hits = solrHelper.search(SolrHelper.buildOrQuery(SolrConstants.PI_PARENT, anchorPis), Arrays.asList(new String[] {
+                        SolrConstants.PI, SolrConstants.PI_PARENT }));
+                for (SolrDocument doc : hits) {
+                    String parentPi = (String) doc.getFieldValue(SolrConstants.PI_PARENT);
+                    if (ret.contains(parentPi) && !ret.contains(doc.getFieldValue(SolrConstants.PI))) {
+                        logger.error("'{}' is a multi-volume work that has indexed children. It may not be deleted at this moment!", parentPi);
+                        ret.remove(parentPi);
+                    }
+                }
+            }
+        } catch (SolrServerException e) {
+            logger.error(e.getMessage(), e);
+            return Collections.emptySet();
+        }
+        if (ret.isEmpty()) {
+            return ret;
+        }
+
+        List<SolrInputDocument> traceDocs = new ArrayList<>();
+        String now = String.valueOf(System.currentTimeMillis());
+        for (String pi : ret) {
+            SolrDocumentList docs = recordDocs.get(pi);
+            List<String> pageUrns = null;
+            for (SolrDocument doc : docs) {
+                if (doc.getFieldValue(SolrConstants.IDDOC) == null) {
+                    continue;
+                }
+                if (!pi.equals(doc.getFieldValue(SolrConstants.PI)) || !traceByPi.get(pi) || doc.getFieldValue(SolrConstants.DATEDELETED) != null) {
+                    continue;
+                }
+                // Build replacement document that is marked as deleted
+                if (pageUrns == null) {
+                    pageUrns = new ArrayList<>();
+                    for (SolrDocument pageDoc : docs) {
+                        if (DocType.PAGE.name().equals(pageDoc.getFieldValue(SolrConstants.DOCTYPE)) && pageDoc.getFieldValue(
+                                SolrConstants.IMAGEURN) != null) {
+                            pageUrns.add((String) pageDoc.getFieldValue(SolrConstants.IMAGEURN));
+                        }
+                    }
+                }
+                traceDocs.add(createDeletedDoc(pi, (String) doc.getFieldValue(SolrConstants.URN), pageUrns, now, now, solrHelper));
+            }
+        }
+
+        // Trace documents have the same PI and must therefore be added after the deletion
+        solrHelper.deleteRecords(ret);
+        if (!traceDocs.isEmpty()) {
+            solrHelper.writeToIndex(traceDocs);
+        }
+        solrHelper.commitRecord(SolrHelper.optimize);
+        logger.info("{} records deleted.", ret.size());
+
+        return ret;
+    }
+
+    /**
+     * Checks whether the previous instance of the given record can be replaced by writing the new record as a block. This is the case if the new
+     * record is written as a block and the previous instance is a single intact block. The IDDOC of the previous top-level document is then set on
+     * the given IndexObject, so that writing the new block replaces all previous documents in one step.
+     * 
+     * @param indexObj {@link IndexObject} of the new top-level document
+     * @param oldDoc Previous top-level document
+     * @return true if the previous instance will be replaced by the new block; false if it must be deleted beforehand
+     * @throws SolrServerException
+     */
+    protected boolean reuseBlock(IndexObject indexObj, SolrDocument oldDoc) throws SolrServerException {
+        if (!writeBlock) {
+            return false;
+        }
+        String pi = indexObj.getPi().trim();
+        String iddoc = (String) oldDoc.getFieldValue(SolrConstants.IDDOC);
+        if (iddoc == null || !hotfolder.getSolrHelper().isIntactBlock(pi, iddoc)) {
+            logger.info("Previous instance of '{}' is not a single block and will be deleted first.", pi);
+            return false;
+        }
+        indexObj.setIddoc(Long.valueOf(iddoc));
+        logger.debug("Previous instance of '{}' will be replaced by the new block.", pi);
+        return true;
+    }
+
+    /**
+     * Löscht aus dem Index alle Documente die zu folgendem PI gehören. Das Löschen ist rekursiv. Unterelemente werden auch gelöscht. All documents
+     * are removed with a single delete-by-query request; only the fields required for the trace document are retrieved beforehand.
      * 
      * @param pi String
      * @param createTraceDoc
@@ -133,11 +340,10 @@ public abstract class AbstractIndexer {
      * @throws FatalIndexerException 
      */
     protected static boolean deleteWithPI(String pi, boolean createTraceDoc, SolrHelper solrHelper) throws IOException, SolrServerException, FatalIndexerException {
-        Set<String> iddocsToDelete = new HashSet<>();
-
-        String query = SolrConstants.PI + ":" + pi;
-        SolrDocumentList hits = solrHelper.search(query, null);
-        if (!hits.isEmpty()) {
+        List<SolrInputDocument> traceDocs = new ArrayList<>();
+        SolrDocumentCursor hits = solrHelper.iterate(SolrHelper.buildOrQuery(SolrConstants.PI, Collections.singleton(pi)), Arrays.asList(
+                SolrConstants.IDDOC, SolrConstants.URN, SolrConstants.DATEDELETED));
+        if (hits.hasNext()) {
             if (hits.getNumFound() == 1) {
                 logger.info("Removing previous instance of this volume from the index...");
             } else {
@@ -145,32 +351,19 @@ public abstract class AbstractIndexer {
                         "{} previous instances of this volume have been found in the index. This shouldn't ever be the case. Check whether there is more than one indexer instance running! All instances will be removed...",
                         hits.getNumFound());
             }
-            String queryPageUrns = new StringBuilder(SolrConstants.PI_TOPSTRUCT).append(":").append(pi).append(" AND ").append(SolrConstants.DOCTYPE)
-                    .append(":PAGE").toString();
-            for (SolrDocument doc : hits) {
+            List<String> pageUrns = null;
+            while (hits.hasNext()) {
+                SolrDocument doc = hits.next();
                 String iddoc = (String) doc.getFieldValue(SolrConstants.IDDOC);
                 if (iddoc != null) {
                     logger.debug("Removing instance: {}", iddoc);
-                    iddocsToDelete.add(iddoc);
                     if (createTraceDoc && doc.getFieldValue(SolrConstants.DATEDELETED) == null) {
                         // Build replacement document that is marked as deleted
-                        String urn = null;
-                        if (doc.getFieldValue(SolrConstants.URN) != null) {
-                            urn = (String) doc.getFieldValue(SolrConstants.URN);
-                        }
-                        // Collect page URNs
-                        hits = solrHelper.search(queryPageUrns, Collections.singletonList(SolrConstants.IMAGEURN));
-                        List<String> pageUrns = new ArrayList<>(hits.size());
-                        if (!hits.isEmpty()) {
-                            for (SolrDocument hit : hits) {
-                                String pageUrn = (String) hit.getFieldValue(SolrConstants.IMAGEURN);
-                                if (pageUrn != null) {
-                                    pageUrns.add(pageUrn);
-                                }
-                            }
+                        if (pageUrns == null) {
+                            pageUrns = findPageUrns(pi, solrHelper);
                         }
                         String now = String.valueOf(System.currentTimeMillis());
-                        createDeletedDoc(pi, urn, pageUrns, now, now, solrHelper);
+                        traceDocs.add(createDeletedDoc(pi, (String) doc.getFieldValue(SolrConstants.URN), pageUrns, now, now, solrHelper));
                     }
                 }
             }
@@ -178,42 +371,40 @@ public abstract class AbstractIndexer {
             logger.error("Not found: {}", pi);
         }
 
-        // Retrieve all docs for this record via PI_TOPSTRUCT
-        hits = solrHelper.search(new StringBuilder(SolrConstants.PI_TOPSTRUCT).append(":").append(pi).toString(), Collections.singletonList(
-                SolrConstants.IDDOC));
-        for (SolrDocument doc : hits) {
-            String iddoc = (String) doc.getFieldValue(SolrConstants.IDDOC);
-            if (iddoc != null) {
-                iddocsToDelete.add(iddoc);
-            }
+        // Remove the record and all its child documents; trace documents have the same PI and must therefore be added afterwards
+        boolean success = solrHelper.deleteRecords(Collections.singletonList(pi));
+        if (!traceDocs.isEmpty()) {
+            solrHelper.writeToIndex(traceDocs);
         }
-
-        //        // This cleans up any docs that for some reason weren't deleted via the IDDOC route. Also, docs for user generated contents.
-        //        {
-        //            hits = solrHelper.search(SolrConstants.PI_TOPSTRUCT + ":" + pi, Collections.singletonList(SolrConstants.IDDOC));
-        //            if (!hits.isEmpty()) {
-        //                int numRegularDocsToDelete = iddocsToDelete.size();
-        //                logger.debug("Removing " + hits.getNumFound() + " (possibly) lost subelements of this volume from the index...");
-        //                for (SolrDocument doc : hits) {
-        //                    String iddoc = (String) doc.getFieldValue(SolrConstants.IDDOC);
-        //                    if (iddoc != null && !iddocsToDelete.contains(iddoc)) {
-        //                        iddocsToDelete.addAll(deleteWithIDDOC(iddoc, solrHelper));
-        //                    }
-        //                }
-        //                int numLostDocs = iddocsToDelete.size() - numRegularDocsToDelete;
-        //                if (numLostDocs > 0) {
-        //                    logger.warn("Found " + numLostDocs
-        //                            + " lost documents belonging to this record, but having no connection to the currently indexed document structure.");
-        //                }
-        //            }
-        //        }
-
-        boolean success = solrHelper.deleteDocuments(new ArrayList<>(iddocsToDelete));
-        logger.info("{} docs deleted.", iddocsToDelete.size());
+        logger.info("Record '{}' deleted.", pi);
 
         return success;
     }
 
+    /**
+     * 
+     * @param pi
+     * @param solrHelper
+     * @return URNs of all pages of the given record
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     */
+    private static List<String> findPageUrns(String pi, SolrHelper solrHelper) throws SolrServerException, FatalIndexerException {
+        String query = new StringBuilder(SolrHelper.buildOrQuery(SolrConstants.PI_TOPSTRUCT, Collections.singleton(pi))).append(" AND ").append(
+                SolrConstants.DOCTYPE).append(':').append(DocType.PAGE.name()).append(" AND ").append(SolrConstants.IMAGEURN).append(":[* TO *]")
+                .toString();
+        List<String> ret = new ArrayList<>();
+        SolrDocumentCursor hits = solrHelper.iterate(query, Collections.singletonList(SolrConstants.IMAGEURN));
+        while (hits.hasNext()) {
+            String pageUrn = (String) hits.next().getFieldValue(SolrConstants.IMAGEURN);
+            if (pageUrn != null) {
+                ret.add(pageUrn);
+            }
+        }
+
+        return ret;
+    }
+
     /**
      * Recursively adds the given IDDOC and all IDDOCs of child documents to 'iddocsToDelete'. Does not perform the actual deletion, so it should only
      * be called by 'deleteWithPI()'! TODO This method is (almost) identical to MetsIndexer.deleteWithIDDOC()
@@ -266,12 +457,12 @@ public abstract class AbstractIndexer {
      * @param pageUrns
      * @param dateDeleted
      * @param dateCreated
-     * @throws IOException
-     * @throws NumberFormatException
+     * @param solrHelper
+     * @return {@link SolrInputDocument}
      * @throws FatalIndexerException 
      */
-    private static void createDeletedDoc(String pi, String urn, List<String> pageUrns, String dateDeleted, String dateUpdated, SolrHelper solrHelper)
-            throws NumberFormatException, IOException, FatalIndexerException {
+    private static SolrInputDocument createDeletedDoc(String pi, String urn, List<String> pageUrns, String dateDeleted, String dateUpdated,
+            SolrHelper solrHelper) throws FatalIndexerException {
         // Build replacement document that is marked as deleted
         logger.info("Creating 'DELETED' document for {}...", pi);
         List<LuceneField> fields = new ArrayList<>();
@@ -293,7 +484,45 @@ public abstract class AbstractIndexer {
         }
         fields.add(new LuceneField(SolrConstants.DATEDELETED, dateDeleted));
         fields.add(new LuceneField(SolrConstants.DATEUPDATED, dateUpdated));
-        solrHelper.writeToIndex(SolrHelper.createDocument(fields));
+        return SolrHelper.createDocument(fields);
+    }
+
+    /**
+     * Acquires the hotfolder lock for the given record identifier so that no other hotfolder worker can index the same record at the same time.
+     * All locks acquired this way are released by <code>releaseRecordLocks()</code>.
+     * 
+     * @param pi Record identifier
+     * @throws InterruptedException
+     */
+    protected void lockRecord(String pi) throws InterruptedException {
+        if (hotfolder == null || StringUtils.isEmpty(pi)) {
+            return;
+        }
+        hotfolder.getRecordLockManager().lockRecord(pi);
+        heldRecordLocks.add(pi);
+    }
+
+    /**
+     * Releases all record locks acquired by this indexer.
+     */
+    protected void releaseRecordLocks() {
+        for (String pi : heldRecordLocks) {
+            hotfolder.getRecordLockManager().unlockRecord(pi);
+        }
+        heldRecordLocks.clear();
+    }
+
+    /**
+     * Returns the lookup context of this indexer. Since an indexer instance processes a single record, the context holds the snapshot of the
+     * existing index documents relevant to that record.
+     * 
+     * @return {@link RecordLookupContext}
+     */
+    public RecordLookupContext getRecordLookup() {
+        if (recordLookup == null) {
+            recordLookup = new RecordLookupContext(hotfolder.getSolrHelper());
+        }
+        return recordLookup;
     }
 
     /**
@@ -304,20 +533,28 @@ public abstract class AbstractIndexer {
      * @throws FatalIndexerException 
      */
     protected static long getNextIddoc(SolrHelper solrHelper) throws FatalIndexerException {
-        if (nextIddoc < 0) {
-            // Only determine the next IDDOC from Solr once per indexer lifetime, otherwise it might return numbers that already exist
-            nextIddoc = System.currentTimeMillis();
-        }
-
-        while (!solrHelper.checkIddocAvailability(nextIddoc)) {
-            logger.debug("IDDOC '{}' is already taken.", nextIddoc);
-            nextIddoc = System.currentTimeMillis();
-        }
+        return getIddocAllocator().next(solrHelper);
+    }
 
-        long ret = nextIddoc;
-        nextIddoc++;
+    /**
+     * Makes sure that IDDOC values up to and including the given value are not handed out again. Used when documents from an interrupted
+     * indexing run are restored, since their IDDOCs are not yet known to Solr.
+     * 
+     * @param lastIddoc Highest IDDOC that is already in use
+     * @throws FatalIndexerException
+     */
+    protected static void reserveIddocs(long lastIddoc) throws FatalIndexerException {
+        getIddocAllocator().reserveUpTo(lastIddoc);
+    }
 
-        return ret;
+    private static synchronized IddocAllocator getIddocAllocator() throws FatalIndexerException {
+        if (iddocAllocator == null) {
+            // Reservations are shared via the hotfolder, since all nodes that write to the same index share it
+            String hotfolder = Configuration.getInstance().getConfiguration("hotFolder");
+            iddocAllocator = new IddocAllocator(Configuration.getInstance().getIddocBlockSize(), StringUtils.isNotEmpty(hotfolder) ? Paths.get(
+                    hotfolder, IddocAllocator.RESERVATION_FILE) : null);
+        }
+        return iddocAllocator;
     }
 
     /**
@@ -27,7 +27,6 @@ import java.util.Map;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.jdom2.JDOMException;
 import org.jsoup.Jsoup;
@@ -83,12 +82,12 @@ public class DocUpdateIndexer extends AbstractIndexer {
         hotfolder.selectDataRepository(null, pi);
 
         try {
-            SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.IDDOC + ":" + iddoc, null);
-            if (docList == null || docList.isEmpty()) {
+            // Real-time get also finds documents that have been written but not committed yet
+            SolrDocument doc = hotfolder.getSolrHelper().getDocumentByIddoc(iddoc, null);
+            if (doc == null) {
                 ret[1] = "IDDOC not found in index: " + iddoc;
                 return ret;
             }
-            SolrDocument doc = docList.get(0);
             int order = (int) doc.getFieldValue(SolrConstants.ORDER);
             String pageFileName = doc.containsKey(SolrConstants.FILENAME + "_HTML-SANDBOXED") ? (String) doc.getFieldValue(SolrConstants.FILENAME
                     + "_HTML-SANDBOXED") : (String) doc.getFieldValue(SolrConstants.FILENAME);
@@ -35,7 +35,6 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -57,6 +56,7 @@ import de.intranda.digiverso.presentation.solr.model.LuceneField;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
 import de.intranda.digiverso.presentation.solr.model.config.MetadataConfigurationManager;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.HierarchicalLazySolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.ISolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.SerializingSolrWriteStrategy;
@@ -97,6 +97,8 @@ public class LidoIndexer extends AbstractIndexer {
     public String[] index(Document doc, Map<String, Path> dataFolders, ISolrWriteStrategy writeStrategy, int pageCountStart) {
         String[] ret = { "ERROR", null };
         String pi = null;
+        // Identifier of the record once its documents are being changed in the index
+        String changedPi = null;
         try {
             this.xp = new JDomXP(doc);
             if (this.xp == null) {
@@ -172,15 +174,15 @@ public class LidoIndexer extends AbstractIndexer {
                     writeStrategy = new SerializingSolrWriteStrategy(hotfolder.getSolrHelper(), hotfolder.getTempFolder());
 
                 }
-                //                else if (IndexerConfig.getInstance().getBoolean("init.aggregateRecords")) {
-                //                    writeStrategy = new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper());
-                //                }
-                else {
+                else if (Configuration.getInstance().isBlockJoin()) {
+                    writeStrategy = new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper());
+                } else {
                     writeStrategy = new LazySolrWriteStrategy(hotfolder.getSolrHelper());
                 }
             } else {
                 logger.info("Solr write strategy injected by caller: {}", writeStrategy.getClass().getName());
             }
+            writeBlock = writeStrategy instanceof HierarchicalLazySolrWriteStrategy;
 
             // Set partner ID
             if (Boolean.valueOf(Configuration.getInstance().getConfiguration("piContainsPartnerId"))) {
@@ -201,7 +203,9 @@ public class LidoIndexer extends AbstractIndexer {
             // Set source doc format
             indexObj.addToLucene(SolrConstants.SOURCEDOCFORMAT, SolrConstants._LIDO);
 
-            prepareUpdate(indexObj);
+            if (prepareUpdate(indexObj)) {
+                changedPi = pi;
+            }
             indexObj.pushSimpleDataToLuceneArray();
             MetadataHelper.writeMetadataToObject(indexObj, indexObj.getRootStructNode(), "", xp);
 
@@ -209,10 +213,9 @@ public class LidoIndexer extends AbstractIndexer {
             if (indexObj.isVolume()) {
                 String anchorPi = MetadataHelper.getAnchorPi(xp);
                 if (anchorPi != null) {
-                    SolrDocumentList hits = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + anchorPi, Collections.singletonList(
-                            SolrConstants.ACCESSCONDITION));
-                    if (hits != null && hits.getNumFound() > 0) {
-                        Collection<Object> fields = hits.get(0).getFieldValues(SolrConstants.ACCESSCONDITION);
+                    SolrDocument anchorDoc = getRecordLookup().getDocument(anchorPi);
+                    if (anchorDoc != null && anchorDoc.getFieldValues(SolrConstants.ACCESSCONDITION) != null) {
+                        Collection<Object> fields = anchorDoc.getFieldValues(SolrConstants.ACCESSCONDITION);
                         for (Object o : fields) {
                             indexObj.getAccessConditions().add(o.toString());
                         }
@@ -288,7 +291,13 @@ public class LidoIndexer extends AbstractIndexer {
 
             // WRITE TO SOLR (POINT OF NO RETURN: any indexObj modifications from here on will not be included in the index!)
             logger.debug("Writing document to index...");
+            if (!writeBlock) {
+                // Unlike a block, the documents are written in several requests
+                changedPi = pi;
+            }
             writeStrategy.writeDocs(Configuration.getInstance().isAggregateRecords());
+            // The record has been written completely
+            changedPi = null;
 
             // Return image file names
             if (StringUtils.isNotEmpty(imgFileNames) && imgFileNames.charAt(0) == ';') {
@@ -305,7 +314,7 @@ public class LidoIndexer extends AbstractIndexer {
             }
             ret[0] = "ERROR";
             ret[1] = e.getMessage();
-            hotfolder.getSolrHelper().rollback();
+            hotfolder.getSolrHelper().rollback(changedPi);
         } finally {
             if (writeStrategy != null) {
                 writeStrategy.cleanup();
@@ -726,17 +735,18 @@ public class LidoIndexer extends AbstractIndexer {
      * Prepares the given record for an update. Creation timestamp is preserved. A new update timestamp is added, child docs are removed.
      * 
      * @param indexObj {@link IndexObject}
+     * @return true if documents of the previous instance have been deleted; false if the index is unchanged
      * @throws IOException -
      * @throws SolrServerException
      * @throws FatalIndexerException
      */
-    private void prepareUpdate(IndexObject indexObj) throws IOException, SolrServerException, FatalIndexerException {
+    private boolean prepareUpdate(IndexObject indexObj) throws IOException, SolrServerException, FatalIndexerException {
+        boolean ret = false;
         String pi = indexObj.getPi().trim();
-        SolrDocumentList hits = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + pi, null);
-        if (hits != null && hits.getNumFound() > 0) {
+        SolrDocument doc = getRecordLookup().getDocument(pi);
+        if (doc != null) {
             logger.debug("This file has already been indexed, initiating an UPDATE instead...");
             indexObj.setUpdate(true);
-            SolrDocument doc = hits.get(0);
             // Set creation timestamp, if exists (should never be updated)
             Object dateCreated = doc.getFieldValue(SolrConstants.DATECREATED);
             if (dateCreated != null) {
@@ -750,9 +760,15 @@ public class LidoIndexer extends AbstractIndexer {
                     indexObj.getDateUpdated().add((Long) date);
                 }
             }
-            // Recursively delete all children
-            deleteWithPI(pi, false, hotfolder.getSolrHelper());
+            if (!reuseBlock(indexObj, doc)) {
+                // Recursively delete all children
+                deleteWithPI(pi, false, hotfolder.getSolrHelper());
+                ret = true;
+            }
+            getRecordLookup().invalidate(pi);
         }
+
+        return ret;
     }
 
     /**
@@ -35,9 +35,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
@@ -50,7 +53,6 @@ import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
-import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.jdom2.Attribute;
 import org.jdom2.Document;
@@ -60,6 +62,7 @@ import org.jdom2.Namespace;
 import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
@@ -74,6 +77,8 @@ import de.intranda.digiverso.presentation.solr.helper.Configuration;
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
 import de.intranda.digiverso.presentation.solr.helper.JDomXP;
 import de.intranda.digiverso.presentation.solr.helper.MetadataHelper;
+import de.intranda.digiverso.presentation.solr.helper.ReindexQueue;
+import de.intranda.digiverso.presentation.solr.helper.SolrDocumentCursor;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
 import de.intranda.digiverso.presentation.solr.helper.TextHelper;
 import de.intranda.digiverso.presentation.solr.helper.Utils;
@@ -87,9 +92,12 @@ import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
 import de.intranda.digiverso.presentation.solr.model.config.FieldConfig;
 import de.intranda.digiverso.presentation.solr.model.config.MetadataConfigurationManager;
 import de.intranda.digiverso.presentation.solr.model.config.XPathConfig;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.AdaptiveSolrWriteStrategy;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.HierarchicalLazySolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.ISolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.SerializingSolrWriteStrategy;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.StreamingPageWriteStrategy;
 
 /**
  * Indexer implementation for METS documents.
@@ -107,10 +115,18 @@ public class MetsIndexer extends AbstractIndexer {
 
     public static String fulltextCharset = DEFAULT_FULLTEXT_CHARSET;
 
-    private static List<Path> reindexedChildrenFileList = new ArrayList<>();
+    private static final String CHECKPOINT_LAST_IDDOC = "lastIddoc";
+    private static final String CHECKPOINT_HAS_FULLTEXT = "hasFulltext";
+    private static final String CHECKPOINT_FILE_GROUP = "useFileGroup";
+    private static final String CHECKPOINT_PARENT_PI = "parentPi";
+    private static final String CHECKPOINT_REINDEX_ANCHOR = "reindexAnchor";
+
+    private static List<Path> reindexedChildrenFileList = new CopyOnWriteArrayList<>();
 
     private String useFileGroup = null;
     private boolean hasFulltext = false;
+    /** ALTO URLs from the METS file group of pages whose content is added later by the streaming write strategy (PHYSID -> URL). */
+    private final Map<String, String> streamedAltoUrls = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -124,13 +140,14 @@ public class MetsIndexer extends AbstractIndexer {
     }
 
     /**
-     * Indexes the given METS file.
+     * Indexes the given METS file. Large records that use the {@link SerializingSolrWriteStrategy} write checkpoints after page generation and
+     * after structure generation, so an interrupted run for the same METS file resumes from the last completed phase.
      * 
      * @param metsFile {@link Path}
      * @param fromReindexQueue
      * @param dataFolders
      * @param writeStragegy Implementation of {@link ISolrWriteStrategy} (optional). If null, a new one will be created based on METS file and data
-     *            folder sizes.
+     *            folder sizes. Passing a {@link HierarchicalLazySolrWriteStrategy} writes the record as a single block.
      * @param pageCountStart Order number for the first page.
      * @return
      * @should index record correctly
@@ -139,6 +156,9 @@ public class MetsIndexer extends AbstractIndexer {
      * @should update record correctly
      * @should set access conditions correctly
      * @should write overview page texts into index
+     * @should write same documents in block mode
+     * @should replace previous block on update
+     * @should keep previous block if writing fails in concurrent mode
      */
     public String[] index(Path metsFile, boolean fromReindexQueue, Map<String, Path> dataFolders, ISolrWriteStrategy writeStrategy,
             int pageCountStart) {
@@ -152,6 +172,10 @@ public class MetsIndexer extends AbstractIndexer {
         }
 
         logger.debug("Indexing METS file '{}'...", metsFile.getFileName());
+        SerializingSolrWriteStrategy checkpointStrategy = null;
+        // Identifier of the record once its previous documents have been deleted or new documents are being sent; a record whose index state is
+        // unchanged is left alone on failure
+        String changedPi = null;
         try {
             initJDomXP(metsFile);
             IndexObject indexObj = new IndexObject(getNextIddoc(hotfolder.getSolrHelper()));
@@ -214,6 +238,7 @@ public class MetsIndexer extends AbstractIndexer {
                     indexObj.setPi(pi);
                     indexObj.setTopstructPI(pi);
                     logger.debug("PI: {}", indexObj.getPi());
+                    lockRecord(pi);
 
                     // Determine the data repository to use
                     hotfolder.selectDataRepository(null, pi);
@@ -340,7 +365,18 @@ public class MetsIndexer extends AbstractIndexer {
                 }
             }
 
-            if (writeStrategy == null) {
+            if (writeStrategy == null && Configuration.getInstance().isBlockJoin()) {
+                writeStrategy = new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper());
+                logger.info("Writing the record as a single block of nested documents.");
+            } else if (writeStrategy == null && Configuration.getInstance().isStreamPageDocuments()) {
+                // Page content is sent to Solr page by page, so the size of the record does not matter here
+                writeStrategy = new StreamingPageWriteStrategy(hotfolder.getSolrHelper());
+                logger.info("Streaming page documents to the index.");
+            } else if (writeStrategy == null && Configuration.getInstance().getHeapWatermark() > 0) {
+                // Page contents are only moved to disk if the heap actually runs full, so the size of the record does not matter here
+                writeStrategy = new AdaptiveSolrWriteStrategy(hotfolder.getSolrHelper(), hotfolder.getTempFolder(), Configuration.getInstance()
+                        .getHeapWatermark());
+            } else if (writeStrategy == null) {
                 boolean useSerializingStrategy = false;
                 long size = Files.size(metsFile);
                 if (size >= hotfolder.metsFileSizeThreshold) {
@@ -373,23 +409,54 @@ public class MetsIndexer extends AbstractIndexer {
                     }
                 }
                 if (useSerializingStrategy) {
-                    writeStrategy = new SerializingSolrWriteStrategy(hotfolder.getSolrHelper(), hotfolder.getTempFolder());
-
+                    // Keep the temp files in a record folder, so that an interrupted run can be resumed from the last checkpoint
+                    checkpointStrategy = new SerializingSolrWriteStrategy(hotfolder.getSolrHelper(), hotfolder.getTempFolder(), indexObj.getPi());
+                    writeStrategy = checkpointStrategy;
                 }
-                //                else if (IndexerConfig.getInstance().getBoolean("init.aggregateRecords")) {
-                //                    writeStrategy = new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper());
-                //                }
                 else {
                     writeStrategy = new LazySolrWriteStrategy(hotfolder.getSolrHelper());
                 }
             } else {
                 logger.info("Solr write strategy injected by caller: {}", writeStrategy.getClass().getName());
             }
+            writeBlock = writeStrategy instanceof HierarchicalLazySolrWriteStrategy;
+
+            // Resume from the last checkpoint of an interrupted run for the same METS file
+            SerializingSolrWriteStrategy.Phase resumePhase = null;
+            String checkpointSource = null;
+            Properties checkpoint = null;
+            if (checkpointStrategy != null) {
+                checkpointSource = getCheckpointSource(metsFile, dataFolders, pageCountStart);
+                checkpoint = checkpointStrategy.resumeCheckpoint(checkpointSource);
+                if (checkpoint != null) {
+                    resumePhase = SerializingSolrWriteStrategy.Phase.valueOf(checkpoint.getProperty(SerializingSolrWriteStrategy.CHECKPOINT_PHASE));
+                    reserveIddocs(Long.parseLong(checkpoint.getProperty(CHECKPOINT_LAST_IDDOC)));
+                }
+            }
+            if (resumePhase == SerializingSolrWriteStrategy.Phase.STRUCTURE) {
+                logger.info("All documents of '{}' have already been generated by an interrupted run, writing them to the index...", metsFile
+                        .getFileName());
+                String parentPi = checkpoint.getProperty(CHECKPOINT_PARENT_PI);
+                if (StringUtils.isNotEmpty(parentPi)) {
+                    lockRecord(parentPi);
+                }
+                changedPi = indexObj.getPi();
+                checkpointStrategy.writeDocs(Configuration.getInstance().isAggregateRecords());
+                changedPi = null;
+                if (Boolean.valueOf(checkpoint.getProperty(CHECKPOINT_REINDEX_ANCHOR))) {
+                    logger.info("Re-indexing anchor...");
+                    copyAndReIndexAnchor(parentPi, hotfolder);
+                }
+                logger.info("Successfully finished indexing '{}'.", metsFile.getFileName());
+                return ret;
+            }
 
             // Set source doc format
             indexObj.addToLucene(SolrConstants.SOURCEDOCFORMAT, SolrConstants._METS);
 
-            prepareUpdate(indexObj);
+            if (prepareUpdate(indexObj)) {
+                changedPi = indexObj.getPi();
+            }
 
             int workDepth = 0; // depth of the docstrct that has ISWORK (volume or monograph)
             if (indexObj.isVolume()) {
@@ -403,14 +470,14 @@ public class MetsIndexer extends AbstractIndexer {
                     String parentPi = piList.get(0).getText().trim();
                     parentPi = MetadataHelper.applyIdentifierModifications(parentPi);
                     indexObj.setParentPI(parentPi);
-                    String[] fields = { SolrConstants.IDDOC, SolrConstants.DOCSTRCT };
+                    // Make sure the anchor is not being re-indexed while this volume is being indexed
+                    lockRecord(parentPi);
                     String parentIddoc = null;
                     String parentDocstrct = null;
-                    SolrDocumentList hits = hotfolder.getSolrHelper().search(new StringBuilder().append(SolrConstants.PI).append(":").append(parentPi)
-                            .toString(), Arrays.asList(fields));
-                    if (hits != null && hits.getNumFound() > 0) {
-                        parentIddoc = (String) hits.get(0).getFieldValue(SolrConstants.IDDOC);
-                        parentDocstrct = (String) hits.get(0).getFieldValue(SolrConstants.DOCSTRCT);
+                    SolrDocument parentDoc = getRecordLookup().getDocument(parentPi);
+                    if (parentDoc != null) {
+                        parentIddoc = (String) parentDoc.getFieldValue(SolrConstants.IDDOC);
+                        parentDocstrct = (String) parentDoc.getFieldValue(SolrConstants.DOCSTRCT);
                     }
                     // Create parent IndexObject
                     if (parentPi != null && parentIddoc != null) {
@@ -473,10 +540,9 @@ public class MetsIndexer extends AbstractIndexer {
             if (indexObj.isVolume() && indexObj.getAccessConditions().isEmpty()) {
                 String anchorPi = MetadataHelper.getAnchorPi(xp);
                 if (anchorPi != null) {
-                    SolrDocumentList hits = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + anchorPi, Collections.singletonList(
-                            SolrConstants.ACCESSCONDITION));
-                    if (hits != null && !hits.isEmpty()) {
-                        Collection<Object> fields = hits.get(0).getFieldValues(SolrConstants.ACCESSCONDITION);
+                    SolrDocument anchorDoc = getRecordLookup().getDocument(anchorPi);
+                    if (anchorDoc != null && anchorDoc.getFieldValues(SolrConstants.ACCESSCONDITION) != null) {
+                        Collection<Object> fields = anchorDoc.getFieldValues(SolrConstants.ACCESSCONDITION);
                         for (Object o : fields) {
                             indexObj.getAccessConditions().add(o.toString());
                         }
@@ -499,8 +565,22 @@ public class MetsIndexer extends AbstractIndexer {
             indexObj.writeDateModified(!fromReindexQueue && !noTimestampUpdate);
 
             if (!indexObj.isAnchor()) {
-                // Generate docs for all pages and add to the write strategy
-                generatePageDocuments(writeStrategy, dataFolders, pageCountStart);
+                if (resumePhase == SerializingSolrWriteStrategy.Phase.PAGES) {
+                    logger.info("Re-using {} page documents generated by an interrupted run.", writeStrategy.getPageDocsSize());
+                    hasFulltext = Boolean.valueOf(checkpoint.getProperty(CHECKPOINT_HAS_FULLTEXT));
+                    useFileGroup = checkpoint.getProperty(CHECKPOINT_FILE_GROUP);
+                } else {
+                    // Generate docs for all pages and add to the write strategy
+                    generatePageDocuments(writeStrategy, dataFolders, pageCountStart);
+                    if (checkpointStrategy != null) {
+                        Properties properties = new Properties();
+                        properties.setProperty(CHECKPOINT_HAS_FULLTEXT, String.valueOf(hasFulltext));
+                        if (useFileGroup != null) {
+                            properties.setProperty(CHECKPOINT_FILE_GROUP, useFileGroup);
+                        }
+                        writeCheckpoint(checkpointStrategy, SerializingSolrWriteStrategy.Phase.PAGES, checkpointSource, properties);
+                    }
+                }
 
                 // If full-text has been indexed for any page, set a boolean in the root doc indicating that the records does have full-text
                 if (hasFulltext) {
@@ -522,6 +602,8 @@ public class MetsIndexer extends AbstractIndexer {
             } else {
                 // Anchors
                 indexObj.addToLucene(SolrConstants.ISANCHOR, "true");
+                // Volumes that have just been indexed must be counted as well
+                hotfolder.getSolrHelper().ensureVisible(indexObj.getPi());
                 long numVolumes = hotfolder.getSolrHelper().getNumHits(new StringBuilder(SolrConstants.PI_PARENT).append(":").append(indexObj.getPi())
                         .append(" AND ").append(SolrConstants.ISWORK).append(":true").toString());
                 indexObj.addToLucene(SolrConstants.NUMVOLUMES, String.valueOf(numVolumes));
@@ -572,6 +654,7 @@ public class MetsIndexer extends AbstractIndexer {
             }
 
             // Create group documents if this record is part of a group and no doc exists for that group yet
+            getRecordLookup().prefetch(indexObj.getGroupIds().values());
             for (String groupIdField : indexObj.getGroupIds().keySet()) {
                 Map<String, String> moreMetadata = new HashMap<>();
                 if (indexObj.getLuceneFieldWithName("MD_SHELFMARK") != null) {
@@ -581,13 +664,16 @@ public class MetsIndexer extends AbstractIndexer {
                     moreMetadata.put("LABEL", indexObj.getLuceneFieldWithName("MD_SERIESTITLE").getValue());
                     moreMetadata.put("MD_TITLE", indexObj.getLuceneFieldWithName("MD_SERIESTITLE").getValue());
                 }
-                SolrInputDocument doc = hotfolder.getSolrHelper().checkAndCreateGroupDoc(groupIdField, indexObj.getGroupIds().get(groupIdField),
-                        moreMetadata, getNextIddoc(hotfolder.getSolrHelper()));
-                if (doc != null) {
-                    writeStrategy.addDoc(doc);
-                    logger.debug("Created group document for {}: {}", groupIdField, indexObj.getGroupIds().get(groupIdField));
+                String groupId = indexObj.getGroupIds().get(groupIdField);
+                SolrDocument oldGroupDoc = getRecordLookup().getDocument(groupId);
+                if (oldGroupDoc == null) {
+                    writeStrategy.addDoc(SolrHelper.createGroupDoc(groupIdField, groupId, moreMetadata, getNextIddoc(hotfolder.getSolrHelper()),
+                            null));
+                    logger.debug("Created group document for {}: {}", groupIdField, groupId);
                 } else {
-                    logger.debug("Group document already exists for {}: {}", groupIdField, indexObj.getGroupIds().get(groupIdField));
+                    writeStrategy.addDoc(SolrHelper.createGroupDoc(groupIdField, groupId, moreMetadata, Long.valueOf(oldGroupDoc.getFieldValue(
+                            SolrConstants.IDDOC).toString()), oldGroupDoc));
+                    logger.debug("Updated group document for {}: {}", groupIdField, groupId);
                 }
             }
 
@@ -640,12 +726,36 @@ public class MetsIndexer extends AbstractIndexer {
                 updateAllAnchorChildren(indexObj);
             }
 
+            if (writeStrategy instanceof StreamingPageWriteStrategy) {
+                // All structure elements have been mapped to the pages, so their content can now be added and the pages written right away
+                changedPi = indexObj.getPi();
+                writePageDocsStreamed((StreamingPageWriteStrategy) writeStrategy, dataFolders);
+                if (hasFulltext) {
+                    indexObj.addToLucene(SolrConstants.FULLTEXTAVAILABLE, "true");
+                }
+            }
+
             // WRITE TO SOLR (POINT OF NO RETURN: any indexObj modifications from here on will not be included in the index!)
             logger.debug("Writing document to index...");
             SolrInputDocument rootDoc = SolrHelper.createDocument(indexObj.getLuceneFields());
             writeStrategy.setRootDoc(rootDoc);
+            boolean reindexAnchor = indexObj.isVolume() && (!indexObj.isUpdate() || indexedChildrenFileList);
+            if (checkpointStrategy != null) {
+                Properties properties = new Properties();
+                properties.setProperty(CHECKPOINT_REINDEX_ANCHOR, String.valueOf(reindexAnchor && indexObj.getParent() != null));
+                if (indexObj.getParentPI() != null) {
+                    properties.setProperty(CHECKPOINT_PARENT_PI, indexObj.getParentPI());
+                }
+                writeCheckpoint(checkpointStrategy, SerializingSolrWriteStrategy.Phase.STRUCTURE, checkpointSource, properties);
+            }
+            if (!writeBlock) {
+                // Unlike a block, the documents are written in several requests
+                changedPi = indexObj.getPi();
+            }
             writeStrategy.writeDocs(Configuration.getInstance().isAggregateRecords());
-            if (indexObj.isVolume() && (!indexObj.isUpdate() || indexedChildrenFileList)) {
+            // The record has been written completely
+            changedPi = null;
+            if (reindexAnchor) {
                 logger.info("Re-indexing anchor...");
                 copyAndReIndexAnchor(indexObj, hotfolder);
             }
@@ -654,16 +764,62 @@ public class MetsIndexer extends AbstractIndexer {
             logger.error("Indexing of '{}' could not be finished due to an error.", metsFile.getFileName());
             logger.error(e.getMessage(), e);
             ret[1] = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
-            hotfolder.getSolrHelper().rollback();
+            hotfolder.getSolrHelper().rollback(changedPi);
         } finally {
             if (writeStrategy != null) {
                 writeStrategy.cleanup();
             }
+            releaseRecordLocks();
         }
 
         return ret;
     }
 
+    /**
+     * Returns a fingerprint of the METS file and the indexing parameters that determine the generated documents. A checkpoint is only resumed if
+     * the fingerprint still matches.
+     * 
+     * @param metsFile
+     * @param dataFolders
+     * @param pageCountStart
+     * @return Fingerprint string
+     * @throws IOException
+     * @should change if METS file is modified
+     */
+    static String getCheckpointSource(Path metsFile, Map<String, Path> dataFolders, int pageCountStart) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(metsFile.getFileName()).append('|').append(Files.size(metsFile)).append('|').append(Files.getLastModifiedTime(metsFile).toMillis())
+                .append('|').append(pageCountStart);
+        List<String> keys = new ArrayList<>(dataFolders.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            if (dataFolders.get(key) != null) {
+                sb.append('|').append(key);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a checkpoint for the given phase. The highest IDDOC handed out so far is added, so that a resumed run does not re-use IDDOCs of the
+     * restored documents. Failure to write a checkpoint does not interrupt indexing.
+     * 
+     * @param checkpointStrategy
+     * @param phase
+     * @param source
+     * @param properties
+     * @throws FatalIndexerException
+     */
+    private void writeCheckpoint(SerializingSolrWriteStrategy checkpointStrategy, SerializingSolrWriteStrategy.Phase phase, String source,
+            Properties properties) throws FatalIndexerException {
+        properties.setProperty(CHECKPOINT_LAST_IDDOC, String.valueOf(getNextIddoc(hotfolder.getSolrHelper())));
+        try {
+            checkpointStrategy.writeCheckpoint(phase, source, properties);
+        } catch (IOException e) {
+            logger.warn("Could not write checkpoint {}: {}", phase, e.getMessage());
+        }
+    }
+
     /**
      * Creates the JDomXP instance for this indexer using the given METS file.
      * 
@@ -905,6 +1061,8 @@ public class MetsIndexer extends AbstractIndexer {
 
         if (Configuration.getInstance().getThreads() > 1) {
             ExecutorService executor = Executors.newFixedThreadPool(Configuration.getInstance().getThreads());
+            // Pass the job's MDC on to the threads, so that their log messages are included in the job log
+            final Map<String, String> mdc = MDC.getCopyOfContextMap();
             for (final Element eleStructMapPhysical : eleStructMapPhysicalList) {
 
                 // Generate each page document in its own thread
@@ -912,12 +1070,16 @@ public class MetsIndexer extends AbstractIndexer {
 
                     @Override
                     public void run() {
+                        if (mdc != null) {
+                            MDC.setContextMap(mdc);
+                        }
                         try {
                             generatePageDocument(eleStructMapPhysical, String.valueOf(getNextIddoc(hotfolder.getSolrHelper())), null, writeStrategy,
                                     dataFolders);
                         } catch (FatalIndexerException e) {
                             logger.error("Should be exiting here now...");
                         } finally {
+                            MDC.clear();
                         }
                     }
                 };
@@ -943,6 +1105,33 @@ public class MetsIndexer extends AbstractIndexer {
         logger.info("Generated {} page documents.", writeStrategy.getPageDocsSize());
     }
 
+    /**
+     * Adds the content to the page documents held by the given streaming write strategy and writes each page to the index as soon as it is
+     * complete. Must be called after all structure elements have been mapped to the pages.
+     * 
+     * @param writeStrategy
+     * @param dataFolders
+     * @return Number of written page documents
+     * @throws IndexerException
+     * @throws FatalIndexerException
+     */
+    int writePageDocsStreamed(StreamingPageWriteStrategy writeStrategy, final Map<String, Path> dataFolders) throws IndexerException,
+            FatalIndexerException {
+        try {
+            return writeStrategy.writePageDocs(new StreamingPageWriteStrategy.PageContentGenerator() {
+
+                @Override
+                public void addContent(SolrInputDocument pageDoc) throws FatalIndexerException {
+                    if (dataFolders != null) {
+                        addPageContent(pageDoc, dataFolders, streamedAltoUrls.remove(pageDoc.getFieldValue(SolrConstants.PHYSID)));
+                    }
+                }
+            }, Configuration.getInstance().getThreads(), Configuration.getInstance().isAggregateRecords());
+        } finally {
+            streamedAltoUrls.clear();
+        }
+    }
+
     /**
      * 
      * @param eleStructMapPhysical
@@ -966,6 +1155,7 @@ public class MetsIndexer extends AbstractIndexer {
      * @should add width and height from ABBYY correctly
      * @should add width and height from MIX correctly
      * @should add page metadata correctly
+     * @should defer page content for streaming write strategy
      */
     boolean generatePageDocument(Element eleStructMapPhysical, String iddoc, Integer order, ISolrWriteStrategy writeStrategy,
             Map<String, Path> dataFolders) throws FatalIndexerException {
@@ -1221,200 +1411,179 @@ public class MetsIndexer extends AbstractIndexer {
         }
 
         if (dataFolders != null) {
-            Map<String, Object> altoData = null;
-            String baseFileName = FilenameUtils.getBaseName((String) doc.getFieldValue(SolrConstants.FILENAME));
-
-            // Check for tiled images
-            if (dataFolders.get(DataRepository.PARAM_TILEDIMAGES) != null && Files.isDirectory(dataFolders.get(DataRepository.PARAM_TILEDIMAGES))) {
-                Path rotated0PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                        + "_0degree.tif");
-                if (!Files.exists(rotated0PyramidTiff)) {
-                    rotated0PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                            + "_0degree.jp2");
-                }
-                if (Files.isRegularFile(rotated0PyramidTiff)) {
-                    doc.addField(SolrConstants.FILENAME_TILED_0, rotated0PyramidTiff.getFileName().toString());
-                    logger.debug("Found 0° tiled image: {}", rotated0PyramidTiff.toAbsolutePath());
-                    Path rotated90PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                            + "_90degree.tif");
-                    if (!Files.exists(rotated90PyramidTiff)) {
-                        rotated90PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                                + "_90degree.jp2");
-                    }
-                    Path rotated180PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                            + "_180degree.tif");
-                    if (!Files.exists(rotated180PyramidTiff)) {
-                        rotated180PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                                + "_180degree.jp2");
-                    }
-                    Path rotated270PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                            + "_270degree.tif");
-                    if (!Files.exists(rotated270PyramidTiff)) {
-                        rotated270PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
-                                + "_270degree.jp2");
-                    }
-                    if (Files.isRegularFile(rotated90PyramidTiff) && Files.isRegularFile(rotated180PyramidTiff) && Files.isRegularFile(
-                            rotated270PyramidTiff)) {
-                        doc.addField(SolrConstants.FILENAME_TILED_90, rotated90PyramidTiff.getFileName().toString());
-                        doc.addField(SolrConstants.FILENAME_TILED_180, rotated180PyramidTiff.getFileName().toString());
-                        doc.addField(SolrConstants.FILENAME_TILED_270, rotated270PyramidTiff.getFileName().toString());
-                        logger.debug("Found rotated tiled images.");
-                    }
+            if (writeStrategy instanceof StreamingPageWriteStrategy) {
+                // The content is added right before the page is written, see writePageDocsStreamed()
+                if (altoURL != null) {
+                    streamedAltoUrls.put(id, altoURL);
                 }
+            } else {
+                addPageContent(doc, dataFolders, altoURL);
             }
+        }
 
-            // Add complete crowdsourcing ALTO document and full-text generated from ALTO, if available
-            boolean foundCrowdsourcingData = false;
-            if (dataFolders.get(DataRepository.PARAM_ALTOCROWD) != null) {
-                try {
-                    altoData = TextHelper.readAltoFile(new File(dataFolders.get(DataRepository.PARAM_ALTOCROWD).toAbsolutePath().toString(),
-                            baseFileName + AbstractIndexer.XML_EXTENSION));
-                } catch (FileNotFoundException e) {
-                    // Not all pages will have custom ALTO docs
-                } catch (JDOMException | IOException e) {
-                    logger.error(e.getMessage(), e);
-                }
-                if (altoData != null) {
-                    foundCrowdsourcingData = true;
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO))) {
-                        doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
-                        logger.debug("Added ALTO from crowdsourcing ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT))) {
-                        doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
-                        doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
-                        logger.debug("Added FULLTEXT from crowdsourcing ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
-                        doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
-                        logger.debug("Added WIDTH from crowdsourcing ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
-                        doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
-                        logger.debug("Added WIDTH from crowdsourcing ALTO for page {}", order);
-                    }
-                    if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
-                        addNamedEntitiesFields(altoData, doc);
-                    }
+        writeStrategy.addPageDoc(doc);
+        return true;
+    }
+
+    /**
+     * Adds tiled image names, ALTO, full-text, named entities and MIX data from the given data folders to the given page document.
+     * 
+     * @param doc Page document
+     * @param dataFolders
+     * @param altoURL URL of the ALTO document from the METS file group, if any
+     * @throws FatalIndexerException
+     */
+    void addPageContent(SolrInputDocument doc, Map<String, Path> dataFolders, String altoURL) throws FatalIndexerException {
+        Object order = doc.getFieldValue(SolrConstants.ORDER);
+        Map<String, Object> altoData = null;
+        String baseFileName = FilenameUtils.getBaseName((String) doc.getFieldValue(SolrConstants.FILENAME));
+
+        // Check for tiled images
+        if (dataFolders.get(DataRepository.PARAM_TILEDIMAGES) != null && Files.isDirectory(dataFolders.get(DataRepository.PARAM_TILEDIMAGES))) {
+            Path rotated0PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                    + "_0degree.tif");
+            if (!Files.exists(rotated0PyramidTiff)) {
+                rotated0PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                        + "_0degree.jp2");
+            }
+            if (Files.isRegularFile(rotated0PyramidTiff)) {
+                doc.addField(SolrConstants.FILENAME_TILED_0, rotated0PyramidTiff.getFileName().toString());
+                logger.debug("Found 0° tiled image: {}", rotated0PyramidTiff.toAbsolutePath());
+                Path rotated90PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                        + "_90degree.tif");
+                if (!Files.exists(rotated90PyramidTiff)) {
+                    rotated90PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                            + "_90degree.jp2");
+                }
+                Path rotated180PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                        + "_180degree.tif");
+                if (!Files.exists(rotated180PyramidTiff)) {
+                    rotated180PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                            + "_180degree.jp2");
+                }
+                Path rotated270PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                        + "_270degree.tif");
+                if (!Files.exists(rotated270PyramidTiff)) {
+                    rotated270PyramidTiff = Paths.get(dataFolders.get(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath().toString(), baseFileName
+                            + "_270degree.jp2");
+                }
+                if (Files.isRegularFile(rotated90PyramidTiff) && Files.isRegularFile(rotated180PyramidTiff) && Files.isRegularFile(
+                        rotated270PyramidTiff)) {
+                    doc.addField(SolrConstants.FILENAME_TILED_90, rotated90PyramidTiff.getFileName().toString());
+                    doc.addField(SolrConstants.FILENAME_TILED_180, rotated180PyramidTiff.getFileName().toString());
+                    doc.addField(SolrConstants.FILENAME_TILED_270, rotated270PyramidTiff.getFileName().toString());
+                    logger.debug("Found rotated tiled images.");
                 }
             }
+        }
 
-            // Look for plain fulltext from crowdsouring, if the FULLTEXT field is still empty
-            if (doc.getField(SolrConstants.FULLTEXT) == null && dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD) != null) {
-                String fulltext = TextHelper.generateFulltext(baseFileName, dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD), false);
-                if (fulltext != null) {
-                    foundCrowdsourcingData = true;
-                    doc.addField(SolrConstants.FULLTEXT, Jsoup.parse(fulltext).text());
-                    doc.addField("MD_FULLTEXT", fulltext);
-                    logger.debug("Added FULLTEXT from crowdsourcing plain text for page {}", order);
-                }
+        // Add complete crowdsourcing ALTO document and full-text generated from ALTO, if available
+        boolean foundCrowdsourcingData = false;
+        if (dataFolders.get(DataRepository.PARAM_ALTOCROWD) != null) {
+            try {
+                altoData = TextHelper.readAltoFile(new File(dataFolders.get(DataRepository.PARAM_ALTOCROWD).toAbsolutePath().toString(),
+                        baseFileName + AbstractIndexer.XML_EXTENSION));
+            } catch (FileNotFoundException e) {
+                // Not all pages will have custom ALTO docs
+            } catch (JDOMException | IOException e) {
+                logger.error(e.getMessage(), e);
             }
-            // Look for a regular ALTO document for this page and fill ALTO and/or FULLTEXT fields, whichever is still empty
-            if (!foundCrowdsourcingData && (doc.getField(SolrConstants.ALTO) == null || doc.getField(SolrConstants.FULLTEXT) == null) && dataFolders
-                    .get(DataRepository.PARAM_ALTO) != null) {
-                try {
-                    altoData = TextHelper.readAltoFile(new File(dataFolders.get(DataRepository.PARAM_ALTO).toAbsolutePath().toString(), baseFileName
-                            + AbstractIndexer.XML_EXTENSION));
-                } catch (JDOMException e) {
-                    logger.error(e.getMessage(), e);
-                } catch (IOException e) {
-                    logger.warn(e.getMessage());
+            if (altoData != null) {
+                foundCrowdsourcingData = true;
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO))) {
+                    doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
+                    logger.debug("Added ALTO from crowdsourcing ALTO for page {}", order);
                 }
-                if (altoData != null) {
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
-                        doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
-                        logger.debug("Added ALTO from regular ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
-                        doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
-                        doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
-                        logger.debug("Added FULLTEXT from regular ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
-                        doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
-                        logger.debug("Added WIDTH from regular ALTO for page {}", order);
-                    }
-                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
-                        doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
-                        logger.debug("Added WIDTH from regular ALTO for page {}", order);
-                    }
-                    if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
-                        addNamedEntitiesFields(altoData, doc);
-                    }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT))) {
+                    doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
+                    doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
+                    logger.debug("Added FULLTEXT from crowdsourcing ALTO for page {}", order);
+                }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
+                    doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
+                    logger.debug("Added WIDTH from crowdsourcing ALTO for page {}", order);
+                }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
+                    doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
+                    logger.debug("Added WIDTH from crowdsourcing ALTO for page {}", order);
+                }
+                if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
+                    addNamedEntitiesFields(altoData, doc);
                 }
             }
+        }
 
-            // If FULLTEXT is still empty, look for a plain full-text
-            if (!foundCrowdsourcingData && doc.getField(SolrConstants.FULLTEXT) == null && dataFolders.get(DataRepository.PARAM_FULLTEXT) != null) {
-                String fulltext = TextHelper.generateFulltext(baseFileName, dataFolders.get(DataRepository.PARAM_FULLTEXT), true);
-                if (fulltext != null) {
-                    doc.addField(SolrConstants.FULLTEXT, Jsoup.parse(fulltext).text());
-                    doc.addField("MD_FULLTEXT", fulltext);
-                    logger.debug("Added FULLTEXT from regular plain text for page {}", order);
+        // Look for plain fulltext from crowdsouring, if the FULLTEXT field is still empty
+        if (doc.getField(SolrConstants.FULLTEXT) == null && dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD) != null) {
+            String fulltext = TextHelper.generateFulltext(baseFileName, dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD), false);
+            if (fulltext != null) {
+                foundCrowdsourcingData = true;
+                doc.addField(SolrConstants.FULLTEXT, Jsoup.parse(fulltext).text());
+                doc.addField("MD_FULLTEXT", fulltext);
+                logger.debug("Added FULLTEXT from crowdsourcing plain text for page {}", order);
+            }
+        }
+        // Look for a regular ALTO document for this page and fill ALTO and/or FULLTEXT fields, whichever is still empty
+        if (!foundCrowdsourcingData && (doc.getField(SolrConstants.ALTO) == null || doc.getField(SolrConstants.FULLTEXT) == null) && dataFolders
+                .get(DataRepository.PARAM_ALTO) != null) {
+            try {
+                altoData = TextHelper.readAltoFile(new File(dataFolders.get(DataRepository.PARAM_ALTO).toAbsolutePath().toString(), baseFileName
+                        + AbstractIndexer.XML_EXTENSION));
+            } catch (JDOMException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
+            }
+            if (altoData != null) {
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
+                    doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
+                    logger.debug("Added ALTO from regular ALTO for page {}", order);
+                }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
+                    doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
+                    doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
+                    logger.debug("Added FULLTEXT from regular ALTO for page {}", order);
+                }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
+                    doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
+                    logger.debug("Added WIDTH from regular ALTO for page {}", order);
+                }
+                if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
+                    doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
+                    logger.debug("Added WIDTH from regular ALTO for page {}", order);
+                }
+                if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
+                    addNamedEntitiesFields(altoData, doc);
                 }
             }
+        }
 
-            // ABBYY XML (converted to ALTO)
-            if (!foundCrowdsourcingData && dataFolders.get(DataRepository.PARAM_ABBYY) != null) {
-                try {
-                    try {
-                        altoData = TextHelper.readAbbyyToAlto(new File(dataFolders.get(DataRepository.PARAM_ABBYY).toAbsolutePath().toString(),
-                                baseFileName + AbstractIndexer.XML_EXTENSION));
-                        if (altoData != null) {
-                            if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
-                                doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
-                                logger.debug("Added ALTO from regular ALTO for page {}", order);
-                            }
-                            if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(
-                                    SolrConstants.FULLTEXT) == null) {
-                                doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
-                                doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
-                                logger.debug("Added FULLTEXT from regular ALTO for page {}", order);
-                            }
-                            if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
-                                doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
-                                logger.debug("Added WIDTH from regular ALTO for page {}", order);
-                            }
-                            if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
-                                doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
-                                logger.debug("Added WIDTH from regular ALTO for page {}", order);
-                            }
-                            if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
-                                addNamedEntitiesFields(altoData, doc);
-                            }
-                        }
-                    } catch (FileNotFoundException e) {
-                        logger.warn(e.getMessage());
-                    }
-                    //                        for (String key : abbyyData.keySet()) {
-                    //                            
-                    //                            if (!(key.equals(SolrConstants.WIDTH) && doc.getField(SolrConstants.WIDTH) != null)
-                    //                                    && !(key.equals(SolrConstants.HEIGHT) && doc.getField(SolrConstants.HEIGHT) != null)) {
-                    //                                doc.addField(key, abbyyData.get(key));
-                    //                            }
-                    //                        }
-                } catch (XMLStreamException e) {
-                    logger.error(e.getMessage(), e);
-                } catch (IOException e) {
-                    logger.warn(e.getMessage());
-                }
+        // If FULLTEXT is still empty, look for a plain full-text
+        if (!foundCrowdsourcingData && doc.getField(SolrConstants.FULLTEXT) == null && dataFolders.get(DataRepository.PARAM_FULLTEXT) != null) {
+            String fulltext = TextHelper.generateFulltext(baseFileName, dataFolders.get(DataRepository.PARAM_FULLTEXT), true);
+            if (fulltext != null) {
+                doc.addField(SolrConstants.FULLTEXT, Jsoup.parse(fulltext).text());
+                doc.addField("MD_FULLTEXT", fulltext);
+                logger.debug("Added FULLTEXT from regular plain text for page {}", order);
             }
+        }
 
-            // Read word coords from TEI only if none has been read from ALTO for this page yet
-            if (!foundCrowdsourcingData && dataFolders.get(DataRepository.PARAM_TEI) != null) {
+        // ABBYY XML (converted to ALTO)
+        if (!foundCrowdsourcingData && dataFolders.get(DataRepository.PARAM_ABBYY) != null) {
+            try {
                 try {
-                    altoData = TextHelper.readTeiToAlto(new File(dataFolders.get(DataRepository.PARAM_TEI).toAbsolutePath().toString(), baseFileName
-                            + AbstractIndexer.XML_EXTENSION));
+                    altoData = TextHelper.readAbbyyToAlto(new File(dataFolders.get(DataRepository.PARAM_ABBYY).toAbsolutePath().toString(),
+                            baseFileName + AbstractIndexer.XML_EXTENSION));
                     if (altoData != null) {
                         if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
                             doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
                             logger.debug("Added ALTO from regular ALTO for page {}", order);
                         }
-                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
+                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(
+                                SolrConstants.FULLTEXT) == null) {
                             doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
                             doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
                             logger.debug("Added FULLTEXT from regular ALTO for page {}", order);
-
                         }
                         if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
                             doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
@@ -1428,81 +1597,121 @@ public class MetsIndexer extends AbstractIndexer {
                             addNamedEntitiesFields(altoData, doc);
                         }
                     }
-                    //                        doc.addField(SolrConstants.WORDCOORDS, TextHelper.readXmlFileToString(new File(dataFolders.get(DataRepository.PARAM_WC),
-                    //                                baseFileName + AbstractIndexer.XML_EXTENSION)));
-                } catch (JDOMException e) {
-                    logger.error(e.getMessage(), e);
-                } catch (IOException e) {
+                } catch (FileNotFoundException e) {
                     logger.warn(e.getMessage());
                 }
+                //                        for (String key : abbyyData.keySet()) {
+                //                            
+                //                            if (!(key.equals(SolrConstants.WIDTH) && doc.getField(SolrConstants.WIDTH) != null)
+                //                                    && !(key.equals(SolrConstants.HEIGHT) && doc.getField(SolrConstants.HEIGHT) != null)) {
+                //                                doc.addField(key, abbyyData.get(key));
+                //                            }
+                //                        }
+            } catch (XMLStreamException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
             }
+        }
 
-            if (dataFolders.get(DataRepository.PARAM_MIX) != null) {
-                try {
-                    Map<String, String> mixData = TextHelper.readMix(new File(dataFolders.get(DataRepository.PARAM_MIX).toAbsolutePath().toString(),
-                            baseFileName + AbstractIndexer.XML_EXTENSION));
-                    for (String key : mixData.keySet()) {
-                        if (!(key.equals(SolrConstants.WIDTH) && doc.getField(SolrConstants.WIDTH) != null) && !(key.equals(SolrConstants.HEIGHT)
-                                && doc.getField(SolrConstants.HEIGHT) != null)) {
-                            doc.addField(key, mixData.get(key));
-                        }
+        // Read word coords from TEI only if none has been read from ALTO for this page yet
+        if (!foundCrowdsourcingData && dataFolders.get(DataRepository.PARAM_TEI) != null) {
+            try {
+                altoData = TextHelper.readTeiToAlto(new File(dataFolders.get(DataRepository.PARAM_TEI).toAbsolutePath().toString(), baseFileName
+                        + AbstractIndexer.XML_EXTENSION));
+                if (altoData != null) {
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
+                        doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
+                        logger.debug("Added ALTO from regular ALTO for page {}", order);
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
+                        doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
+                        doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
+                        logger.debug("Added FULLTEXT from regular ALTO for page {}", order);
+
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
+                        doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
+                        logger.debug("Added WIDTH from regular ALTO for page {}", order);
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
+                        doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
+                        logger.debug("Added WIDTH from regular ALTO for page {}", order);
+                    }
+                    if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
+                        addNamedEntitiesFields(altoData, doc);
                     }
-                } catch (JDOMException e) {
-                    logger.error(e.getMessage(), e);
-                } catch (IOException e) {
-                    logger.warn(e.getMessage());
                 }
+                //                        doc.addField(SolrConstants.WORDCOORDS, TextHelper.readXmlFileToString(new File(dataFolders.get(DataRepository.PARAM_WC),
+                //                                baseFileName + AbstractIndexer.XML_EXTENSION)));
+            } catch (JDOMException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
             }
+        }
 
-            // If there is still no ALTO at this point and the METS document contains a file group for ALTO, download and use it
-            if (!foundCrowdsourcingData && doc.getField(SolrConstants.ALTO) == null && altoURL != null) {
-                try {
-                    logger.debug("Downloading ALTO from {}", altoURL);
-                    String alto = Utils.callUrl(altoURL);
-                    Document altoDoc = Utils.getDocumentFromString(alto, null);
-                    altoData = TextHelper.readAltoDoc(altoDoc, altoURL);
-                    if (altoData != null) {
-                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
-                            doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
-                            logger.debug("Added ALTO from downloaded ALTO for page {}", order);
-                        }
-                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
-                            doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
-                            doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
-                            logger.debug("Added FULLTEXT from downloaded ALTO for page {}", order);
-                        }
-                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
-                            doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
-                            logger.debug("Added WIDTH from downloaded ALTO for page {}", order);
-                        }
-                        if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
-                            doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
-                            logger.debug("Added HEIGHT from downloaded ALTO for page {}", order);
-                        }
-                        if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
-                            addNamedEntitiesFields(altoData, doc);
-                        }
+        if (dataFolders.get(DataRepository.PARAM_MIX) != null) {
+            try {
+                Map<String, String> mixData = TextHelper.readMix(new File(dataFolders.get(DataRepository.PARAM_MIX).toAbsolutePath().toString(),
+                        baseFileName + AbstractIndexer.XML_EXTENSION));
+                for (String key : mixData.keySet()) {
+                    if (!(key.equals(SolrConstants.WIDTH) && doc.getField(SolrConstants.WIDTH) != null) && !(key.equals(SolrConstants.HEIGHT)
+                            && doc.getField(SolrConstants.HEIGHT) != null)) {
+                        doc.addField(key, mixData.get(key));
                     }
-                } catch (JDOMException e) {
-                    logger.error(e.getMessage(), e);
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
                 }
-
+            } catch (JDOMException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                logger.warn(e.getMessage());
             }
-            //De-skew ALTO if necessary
-            deskewAlto(dataFolders, doc);
+        }
 
-            // If the doc has FULLTEXT, indicate it so that the main doc can get a FULLTEXTAVAILABLE field later
-            if (doc.getField(SolrConstants.FULLTEXT) != null) {
-                doc.addField(SolrConstants.FULLTEXTAVAILABLE, true);
-                hasFulltext = true;
+        // If there is still no ALTO at this point and the METS document contains a file group for ALTO, download and use it
+        if (!foundCrowdsourcingData && doc.getField(SolrConstants.ALTO) == null && altoURL != null) {
+            try {
+                logger.debug("Downloading ALTO from {}", altoURL);
+                String alto = Utils.callUrl(altoURL);
+                Document altoDoc = Utils.getDocumentFromString(alto, null);
+                altoData = TextHelper.readAltoDoc(altoDoc, altoURL);
+                if (altoData != null) {
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.ALTO)) && doc.getField(SolrConstants.ALTO) == null) {
+                        doc.addField(SolrConstants.ALTO, altoData.get(SolrConstants.ALTO));
+                        logger.debug("Added ALTO from downloaded ALTO for page {}", order);
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.FULLTEXT)) && doc.getField(SolrConstants.FULLTEXT) == null) {
+                        doc.addField(SolrConstants.FULLTEXT, Jsoup.parse((String) altoData.get(SolrConstants.FULLTEXT)).text());
+                        doc.addField("MD_FULLTEXT", altoData.get(SolrConstants.FULLTEXT));
+                        logger.debug("Added FULLTEXT from downloaded ALTO for page {}", order);
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.WIDTH)) && doc.getField(SolrConstants.WIDTH) == null) {
+                        doc.addField(SolrConstants.WIDTH, altoData.get(SolrConstants.WIDTH));
+                        logger.debug("Added WIDTH from downloaded ALTO for page {}", order);
+                    }
+                    if (StringUtils.isNotEmpty((String) altoData.get(SolrConstants.HEIGHT)) && doc.getField(SolrConstants.HEIGHT) == null) {
+                        doc.addField(SolrConstants.HEIGHT, altoData.get(SolrConstants.HEIGHT));
+                        logger.debug("Added HEIGHT from downloaded ALTO for page {}", order);
+                    }
+                    if (altoData.get(SolrConstants.NAMEDENTITIES) != null) {
+                        addNamedEntitiesFields(altoData, doc);
+                    }
+                }
+            } catch (JDOMException e) {
+                logger.error(e.getMessage(), e);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
             }
 
         }
+        //De-skew ALTO if necessary
+        deskewAlto(dataFolders, doc);
 
-        writeStrategy.addPageDoc(doc);
-        return true;
+        // If the doc has FULLTEXT, indicate it so that the main doc can get a FULLTEXTAVAILABLE field later
+        if (doc.getField(SolrConstants.FULLTEXT) != null) {
+            doc.addField(SolrConstants.FULLTEXTAVAILABLE, true);
+            hasFulltext = true;
+        }
     }
 
     /**
@@ -1598,9 +1807,10 @@ public class MetsIndexer extends AbstractIndexer {
      */
     private void anchorMerge(IndexObject indexObj) throws IndexerException, IOException, SolrServerException, FatalIndexerException {
         logger.debug("anchorMerge: {}", indexObj.getPi());
-        SolrDocumentList hits = hotfolder.getSolrHelper().search(SolrConstants.PI_PARENT + ":" + indexObj.getPi() + " AND " + SolrConstants.ISWORK
-                + ":true", null);
-        if (hits.isEmpty()) {
+        SolrDocumentCursor hits = hotfolder.getSolrHelper().iterate(SolrConstants.PI_PARENT + ":" + indexObj.getPi() + " AND "
+                + SolrConstants.ISWORK + ":true", Arrays.asList(SolrConstants.PI, SolrConstants.CURRENTNOSORT, SolrConstants.LABEL,
+                        SolrConstants.URN, SolrConstants.DOCSTRCT, SolrConstants.DC));
+        if (!hits.hasNext()) {
             logger.warn("Anchor '{}' has no volumes, no merge needed.", indexObj.getPi());
             return;
         }
@@ -1613,7 +1823,8 @@ public class MetsIndexer extends AbstractIndexer {
         List<String> childrenInfoUnsorted = new ArrayList<>();
         List<String> collections = new ArrayList<>();
         boolean labelSort = false;
-        for (SolrDocument doc : hits) {
+        while (hits.hasNext()) {
+            SolrDocument doc = hits.next();
             String pi = null;
             int num = 0;
             if (doc.getFieldValue(SolrConstants.PI) != null) {
@@ -1832,12 +2043,12 @@ public class MetsIndexer extends AbstractIndexer {
             extension = ANCHOR_UPDATE_EXTENSION;
         }
 
-        Path updatedAnchorFile = Utils.getCollisionFreeDataFilePath(hotfolder.getHotfolder().toAbsolutePath().toString(), indexObj.getPi(), "#",
+        Path updatedAnchorFile = Utils.getCollisionFreeDataFilePath(hotfolder.getWorkingDirectory().toAbsolutePath().toString(), indexObj.getPi(), "#",
                 extension);
         try {
             xp.writeDocumentToFile(updatedAnchorFile.toAbsolutePath().toString());
             if (Files.exists(updatedAnchorFile)) {
-                hotfolder.getReindexQueue().add(updatedAnchorFile);
+                hotfolder.getReindexQueue().add(updatedAnchorFile, ReindexQueue.Priority.INGEST);
             }
         } catch (IOException e) {
             logger.error("Error while merging the anchor.", e);
@@ -1846,7 +2057,8 @@ public class MetsIndexer extends AbstractIndexer {
     }
 
     /**
-     * Adds the anchor for the given volume object to the re-index queue.
+     * Adds the anchor for the given volume object to the re-index queue. The anchor job is debounced, so that a delivery of many volumes for the
+     * same anchor only results in a single anchor update once the volumes have been indexed.
      * 
      * @param indexObj {@link IndexObject}
      * @throws UnsupportedEncodingException
@@ -1854,12 +2066,25 @@ public class MetsIndexer extends AbstractIndexer {
     static void copyAndReIndexAnchor(IndexObject indexObj, Hotfolder hotfolder) throws UnsupportedEncodingException {
         logger.debug("copyAndReIndexAnchor: {}", indexObj.getPi());
         if (indexObj.getParent() != null) {
-            String piParent = indexObj.getParent().getPi();
+            copyAndReIndexAnchor(indexObj.getParent().getPi(), hotfolder);
+        } else {
+            logger.warn("No anchor file has been indexed for this work yet.");
+        }
+    }
+
+    /**
+     * Adds the indexed anchor file with the given identifier to the re-index queue (debounced).
+     * 
+     * @param piParent Anchor identifier
+     * @param hotfolder
+     */
+    static void copyAndReIndexAnchor(String piParent, Hotfolder hotfolder) {
+        if (StringUtils.isNotEmpty(piParent)) {
             String indexedAnchorFilePath = new StringBuilder(hotfolder.getDataRepository().getDir(DataRepository.PARAM_INDEXED_METS).toAbsolutePath()
                     .toString()).append("/").append(piParent).append(AbstractIndexer.XML_EXTENSION).toString();
             Path indexedAnchor = Paths.get(indexedAnchorFilePath);
             if (Files.exists(indexedAnchor)) {
-                hotfolder.getReindexQueue().add(indexedAnchor);
+                hotfolder.getReindexQueue().add(indexedAnchor, ReindexQueue.Priority.REFRESH, hotfolder.getAnchorDebounceInterval());
             }
         } else {
             logger.warn("No anchor file has been indexed for this work yet.");
@@ -1872,15 +2097,18 @@ public class MetsIndexer extends AbstractIndexer {
      * @param indexObj {@link IndexObject}
      * @throws IOException -
      * @throws SolrServerException
+     * @throws FatalIndexerException
      */
-    private void updateAllAnchorChildren(IndexObject indexObj) throws IOException, SolrServerException {
+    private void updateAllAnchorChildren(IndexObject indexObj) throws IOException, SolrServerException, FatalIndexerException {
         logger.debug("Scheduling all METS files that belong to this anchor for re-indexing...");
-        SolrDocumentList hits = hotfolder.getSolrHelper().search(new StringBuilder(SolrConstants.PI_PARENT).append(":").append(indexObj.getPi())
-                .append(" AND ").append(SolrConstants.ISWORK).append(":true").toString(), null);
-        if (hits.isEmpty()) {
+        SolrDocumentCursor hits = hotfolder.getSolrHelper().iterate(new StringBuilder(SolrConstants.PI_PARENT).append(":").append(indexObj
+                .getPi()).append(" AND ").append(SolrConstants.ISWORK).append(":true").toString(), Arrays.asList(SolrConstants.PI,
+                        SolrConstants.IDDOC_PARENT));
+        if (!hits.hasNext()) {
             logger.debug("No volume METS files found for this anchor.");
         }
-        for (SolrDocument doc : hits) {
+        while (hits.hasNext()) {
+            SolrDocument doc = hits.next();
             // Do not use PI here, as older documents might not have that field, use PPN instead
             String pi = doc.getFieldValue(SolrConstants.PI).toString();
             if (doc.getFieldValue(SolrConstants.IDDOC_PARENT) != null && doc.getFieldValue(SolrConstants.IDDOC_PARENT).toString().equals(String
@@ -1893,7 +2121,7 @@ public class MetsIndexer extends AbstractIndexer {
                     + AbstractIndexer.XML_EXTENSION;
             Path indexedMets = Paths.get(indexedMetsFilePath);
             if (Files.exists(indexedMets)) {
-                hotfolder.getReindexQueue().add(indexedMets);
+                hotfolder.getReindexQueue().add(indexedMets, ReindexQueue.Priority.REFRESH);
                 MetsIndexer.reindexedChildrenFileList.add(indexedMets);
                 if (logger.isDebugEnabled()) {
                     logger.debug("Added '" + pi + "' to reindexedChildrenPiList.");
@@ -1907,6 +2135,7 @@ public class MetsIndexer extends AbstractIndexer {
      * is added, child docs are removed.
      * 
      * @param indexObj {@link IndexObject}
+     * @return true if documents of the previous instance have been deleted; false if the index is unchanged
      * @throws IOException
      * @throws SolrServerException
      * @throws FatalIndexerException
@@ -1916,13 +2145,13 @@ public class MetsIndexer extends AbstractIndexer {
      * @should keep anchor IDDOC
      * @should delete anchor secondary docs
      */
-    protected void prepareUpdate(IndexObject indexObj) throws IOException, SolrServerException, FatalIndexerException {
+    protected boolean prepareUpdate(IndexObject indexObj) throws IOException, SolrServerException, FatalIndexerException {
+        boolean ret = false;
         String pi = indexObj.getPi().trim();
-        SolrDocumentList hits = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + pi, null);
-        if (hits != null && hits.getNumFound() > 0) {
+        SolrDocument doc = getRecordLookup().getDocument(pi);
+        if (doc != null) {
             logger.debug("This file has already been indexed, initiating an UPDATE instead...");
             indexObj.setUpdate(true);
-            SolrDocument doc = hits.get(0);
             // Set creation timestamp, if exists (should never be updated)
             Object dateCreated = doc.getFieldValue(SolrConstants.DATECREATED);
             if (dateCreated != null) {
@@ -1941,27 +2170,23 @@ public class MetsIndexer extends AbstractIndexer {
             if (thumbnail != null) {
                 indexObj.setThumbnailRepresent((String) thumbnail);
             }
-            if (isAnchor()) {
-                // Keep old IDDOC
-                indexObj.setIddoc(Long.valueOf(doc.getFieldValue(SolrConstants.IDDOC).toString()));
-                // Delete old doc
-                hotfolder.getSolrHelper().deleteDocument(String.valueOf(indexObj.getIddoc()));
-                // Delete secondary docs (aggregated metadata, events)
-                List<String> iddocsToDelete = new ArrayList<>();
-                hits = hotfolder.getSolrHelper().search(SolrConstants.IDDOC_OWNER + ":" + indexObj.getIddoc(), Collections.singletonList(
-                        SolrConstants.IDDOC));
-                for (SolrDocument doc2 : hits) {
-                    iddocsToDelete.add((String) doc2.getFieldValue(SolrConstants.IDDOC));
-                }
-                if (!iddocsToDelete.isEmpty()) {
-                    logger.info("Deleting {} secondary documents...", iddocsToDelete.size());
-                    hotfolder.getSolrHelper().deleteDocuments(new ArrayList<>(iddocsToDelete));
+            if (!reuseBlock(indexObj, doc)) {
+                if (isAnchor()) {
+                    // Keep old IDDOC
+                    indexObj.setIddoc(Long.valueOf(doc.getFieldValue(SolrConstants.IDDOC).toString()));
+                    // Delete old doc and secondary docs (aggregated metadata, events)
+                    hotfolder.getSolrHelper().deleteByQuery(new StringBuilder(SolrConstants.IDDOC).append(':').append(indexObj.getIddoc()).append(
+                            " OR ").append(SolrConstants.IDDOC_OWNER).append(':').append(indexObj.getIddoc()).toString());
+                } else {
+                    // Recursively delete all children, if not an anchor
+                    deleteWithPI(pi, false, hotfolder.getSolrHelper());
                 }
-            } else {
-                // Recursively delete all children, if not an anchor
-                deleteWithPI(pi, false, hotfolder.getSolrHelper());
+                ret = true;
             }
+            getRecordLookup().invalidate(pi);
         }
+
+        return ret;
     }
 
     /**
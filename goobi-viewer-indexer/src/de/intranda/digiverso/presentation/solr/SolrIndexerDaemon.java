@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import de.intranda.digiverso.presentation.solr.helper.Configuration;
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
+import de.intranda.digiverso.presentation.solr.helper.IndexMaintenance;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
 import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.config.MetadataConfigurationManager;
@@ -70,6 +71,7 @@ public final class SolrIndexerDaemon {
         String configFileName = null;
         boolean noUpdate = false;
         boolean cleanupAnchors = false;
+        boolean maintenance = false;
 
         if (args.length > 0) {
             configFileName = args[0];
@@ -78,12 +80,14 @@ public final class SolrIndexerDaemon {
                     noUpdate = true;
                 } else if (args[1].equalsIgnoreCase("-cleanupGrievingAnchors")) {
                     cleanupAnchors = true;
+                } else if (args[1].equalsIgnoreCase("-maintenance")) {
+                    maintenance = true;
                 }
             }
         }
 
         try {
-            SolrIndexerDaemon.getInstance().start(configFileName, noUpdate, cleanupAnchors);
+            SolrIndexerDaemon.getInstance().start(configFileName, noUpdate, cleanupAnchors, maintenance);
         } catch (FatalIndexerException e) {
             logger.error(e.getMessage());
             System.exit(-1);
@@ -94,10 +98,11 @@ public final class SolrIndexerDaemon {
      * 
      * @param configFilePath
      * @param noUpdate
-     * @param cleanupAnchors
+     * @param cleanupAnchors If true, only anchors without volumes are removed and the indexer exits
+     * @param maintenance If true, index maintenance is run once and the indexer exits
      * @throws FatalIndexerException
      */
-    public void start(String configFilePath, boolean noUpdate, boolean cleanupAnchors) throws FatalIndexerException {
+    public void start(String configFilePath, boolean noUpdate, boolean cleanupAnchors, boolean maintenance) throws FatalIndexerException {
         if (running) {
             logger.warn("Indexer is already running");
             return;
@@ -115,7 +120,7 @@ public final class SolrIndexerDaemon {
         }
 
         // create hotfolder
-        Hotfolder hotfolder = new Hotfolder(confFilename, SolrHelper.getNewHttpSolrServer(confFilename));
+        Hotfolder hotfolder = new Hotfolder(confFilename, SolrHelper.getNewSolrServer(confFilename));
 
         // TODO move to Hotfolder.java
         if (hotfolder.isDataRepositoriesEnabled() && (hotfolder.getDataRepositories() == null || hotfolder.getDataRepositories().isEmpty())) {
@@ -132,8 +137,20 @@ public final class SolrIndexerDaemon {
 
         if (cleanupAnchors) {
             logger.info("GRIEVING ANCHOR CLEANUP MODE");
-            logger.info("Removed {} anchor documents with no volumes.", hotfolder.getSolrHelper().removeGrievingAnchors());
+            IndexMaintenance indexMaintenance = IndexMaintenance.create(hotfolder.getSolrHelper(), null);
+            if (indexMaintenance.removeAnchorsWithoutVolumes() > 0) {
+                hotfolder.getSolrHelper().commitRecord(false);
+            }
+            logger.info("Shutting down...");
+            hotfolder.shutdown();
+            running = false;
+            return;
+        }
+        if (maintenance) {
+            logger.info("INDEX MAINTENANCE MODE");
+            IndexMaintenance.create(hotfolder.getSolrHelper(), null).run();
             logger.info("Shutting down...");
+            hotfolder.shutdown();
             running = false;
             return;
         }
@@ -162,11 +179,12 @@ public final class SolrIndexerDaemon {
         while (running) {
             hotfolder.scan();
             try {
-                Thread.sleep(sleepInterval);
+                hotfolder.waitForChanges(sleepInterval);
             } catch (InterruptedException e) {
                 logger.error(e.getMessage(), e);
             }
         }
+        hotfolder.shutdown();
     }
 
     public void stop() {
@@ -0,0 +1,262 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+
+/**
+ * Decides when changes written to Solr are committed. Without any of <code>commitWithin</code>, <code>softCommitRecords</code> or
+ * <code>softCommitInterval</code>, every finished record is followed by a hard commit. Otherwise, changes are made visible via Solr's commitWithin
+ * and/or soft commits after a number of records or a period of time, and hard commits (which do not open a new searcher) are only performed on a
+ * schedule. The identifiers of records with changes that may not be visible yet are tracked, so that lookups of these records can make them
+ * visible first.
+ */
+public class CommitPolicy implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommitPolicy.class);
+
+    /** Number of tracked identifiers after which expired entries are purged. */
+    private static final int PURGE_THRESHOLD = 1000;
+
+    private final int commitWithin;
+    private final int softCommitRecords;
+    private final long softCommitInterval;
+    private final long hardCommitInterval;
+
+    /** Identifiers of records with changes since the last soft commit, with the time of the change. */
+    private final Map<String, Long> pendingPis = new ConcurrentHashMap<>();
+    private int pendingRecords = 0;
+    private long lastSoftCommit = System.currentTimeMillis();
+    private volatile boolean uncommittedChanges = false;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 
+     * @param commitWithin Time in ms within which Solr commits added or deleted documents on its own (0 to disable)
+     * @param softCommitRecords Number of finished records after which a soft commit is performed (0 to disable)
+     * @param softCommitInterval Time in ms after which finished records are made visible with a soft commit (0 to disable)
+     * @param hardCommitInterval Time in ms between scheduled hard commits
+     */
+    public CommitPolicy(int commitWithin, int softCommitRecords, long softCommitInterval, long hardCommitInterval) {
+        this.commitWithin = Math.max(0, commitWithin);
+        this.softCommitRecords = Math.max(0, softCommitRecords);
+        this.softCommitInterval = Math.max(0, softCommitInterval);
+        this.hardCommitInterval = hardCommitInterval;
+    }
+
+    /**
+     * Creates a commit policy with the values from the configuration.
+     * 
+     * @return New commit policy
+     * @throws FatalIndexerException
+     */
+    public static CommitPolicy create() throws FatalIndexerException {
+        Configuration config = Configuration.getInstance();
+        return new CommitPolicy(config.getCommitWithin(), config.getSoftCommitRecords(), config.getSoftCommitInterval(), config
+                .getHardCommitInterval());
+    }
+
+    /**
+     * 
+     * @return true if commits are deferred; false if each record is followed by a hard commit
+     */
+    public boolean isDeferred() {
+        return commitWithin > 0 || softCommitRecords > 0 || softCommitInterval > 0;
+    }
+
+    /**
+     * 
+     * @return commitWithin value for update requests; -1 if disabled
+     */
+    public int getCommitWithin() {
+        return commitWithin > 0 ? commitWithin : -1;
+    }
+
+    /**
+     * Starts the scheduled soft and hard commits for the given Solr connection. Does nothing if commits are not deferred.
+     * 
+     * @param solrHelper
+     */
+    public synchronized void start(final SolrHelper solrHelper) {
+        if (!isDeferred() || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "solr-commit");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (softCommitInterval > 0) {
+            // Make the last records visible even if no more records are finished
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        if (isSoftCommitDue()) {
+                            solrHelper.softCommit();
+                        }
+                    } catch (FatalIndexerException | RuntimeException e) {
+                        logger.error("Scheduled soft commit failed: {}", e.getMessage());
+                    }
+                }
+            }, softCommitInterval, softCommitInterval, TimeUnit.MILLISECONDS);
+        }
+        if (hardCommitInterval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        if (uncommittedChanges) {
+                            solrHelper.hardCommit(false);
+                        }
+                    } catch (FatalIndexerException | RuntimeException e) {
+                        logger.error("Scheduled hard commit failed: {}", e.getMessage());
+                    }
+                }
+            }, hardCommitInterval, hardCommitInterval, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Commit policy: commitWithin={} ms, soft commit every {} records / {} ms, hard commit every {} ms", commitWithin,
+                softCommitRecords, softCommitInterval, hardCommitInterval);
+    }
+
+    /**
+     * Registers a change to the record with the given identifier.
+     * 
+     * @param pi Record identifier; may be null
+     */
+    public void changed(String pi) {
+        uncommittedChanges = true;
+        if (pi == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        pendingPis.put(pi, now);
+        if (commitWithin > 0 && pendingPis.size() > PURGE_THRESHOLD) {
+            for (Iterator<Long> i = pendingPis.values().iterator(); i.hasNext();) {
+                if (isExpired(i.next(), now)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers a finished record.
+     * 
+     * @return true if a soft commit is due now; false otherwise
+     * @should request soft commit after configured number of records
+     * @should request soft commit after configured interval
+     * @should never request soft commit if not deferred
+     */
+    public synchronized boolean recordFinished() {
+        if (!isDeferred()) {
+            return false;
+        }
+        pendingRecords++;
+        if (softCommitRecords > 0 && pendingRecords >= softCommitRecords) {
+            return true;
+        }
+        return softCommitInterval > 0 && System.currentTimeMillis() - lastSoftCommit >= softCommitInterval;
+    }
+
+    /**
+     * 
+     * @return true if there are finished records and the soft commit interval has passed since the last soft commit
+     */
+    synchronized boolean isSoftCommitDue() {
+        return (pendingRecords > 0 || !pendingPis.isEmpty()) && System.currentTimeMillis() - lastSoftCommit >= softCommitInterval;
+    }
+
+    /**
+     * Checks whether changes to the record with the given identifier might not be visible to searches yet.
+     * 
+     * @param pi Record identifier
+     * @return true if a soft commit is required to see all changes to the record; false otherwise
+     * @should return true for changed records until soft commit
+     * @should return false for records changed before commitWithin expired
+     */
+    public boolean isPending(String pi) {
+        if (pi == null) {
+            return false;
+        }
+        Long time = pendingPis.get(pi);
+        if (time == null) {
+            return false;
+        }
+        if (isExpired(time, System.currentTimeMillis())) {
+            pendingPis.remove(pi);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Changes older than twice the commitWithin time are assumed to be visible (Solr also needs to open a new searcher after committing).
+     * 
+     * @param time
+     * @param now
+     * @return
+     */
+    private boolean isExpired(long time, long now) {
+        return commitWithin > 0 && now - time > 2L * commitWithin;
+    }
+
+    /**
+     * Resets the soft commit state. Must be called right before a soft commit (or a hard commit that opens a new searcher) is sent, so that changes
+     * registered while the commit is in progress remain pending.
+     */
+    synchronized void softCommitStarted() {
+        pendingRecords = 0;
+        lastSoftCommit = System.currentTimeMillis();
+        pendingPis.clear();
+    }
+
+    /**
+     * Resets the hard commit state. Must be called right before a hard commit is sent.
+     */
+    void hardCommitStarted() {
+        uncommittedChanges = false;
+    }
+
+    /**
+     * Stops the scheduled commits.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -112,6 +112,22 @@ public final class Configuration {
         return config.getList(inPath, config.getList(inPath));
     }
 
+    /**
+     * 
+     * @return ZooKeeper ensemble of a SolrCloud cluster (e.g. "zk1:2181,zk2:2181/solr"); null if a single Solr server is used via solrUrl
+     */
+    public String getSolrCloudZkHost() {
+        return config.getString("init.solrCloud.zkHost", null);
+    }
+
+    /**
+     * 
+     * @return Name of the SolrCloud collection to index into
+     */
+    public String getSolrCloudCollection() {
+        return config.getString("init.solrCloud.collection", null);
+    }
+
     /**
      * 
      * @return
@@ -152,6 +168,14 @@ public final class Configuration {
         return getBoolean("init.aggregateRecords", false);
     }
 
+    /**
+     * 
+     * @return true if each record is to be written as a single block of nested documents; false otherwise
+     */
+    public boolean isBlockJoin() {
+        return getBoolean("init.blockJoin", false);
+    }
+
     /**
      * 
      * @return
@@ -160,6 +184,30 @@ public final class Configuration {
         return getBoolean("performance.autoOptimize", false);
     }
 
+    /**
+     * 
+     * @return true if spilled documents are to be compressed; false otherwise
+     */
+    public boolean isSpillCompression() {
+        return getBoolean("performance.spillCompression", false);
+    }
+
+    /**
+     * 
+     * @return Heap usage in percent above which page payloads are spilled to disk; 0 if disabled
+     */
+    public int getHeapWatermark() {
+        return getInt("performance.heapWatermark", 0);
+    }
+
+    /**
+     * 
+     * @return Maximum number of page documents that the serializing write strategy keeps in memory
+     */
+    public int getPageDocCacheSize() {
+        return getInt("performance.pageDocCacheSize", 1000);
+    }
+
     /**
      * 
      * @return
@@ -168,6 +216,238 @@ public final class Configuration {
         return getInt("performance.threads", 1);
     }
 
+    /**
+     * 
+     * @return Number of records the hotfolder may index at the same time
+     */
+    public int getHotfolderWorkers() {
+        return getInt("performance.hotfolderWorkers", 1);
+    }
+
+    /**
+     * 
+     * @return Number of additional worker slots reserved for records above the size thresholds
+     */
+    public int getLargeRecordWorkers() {
+        return getInt("performance.largeRecordWorkers", 0);
+    }
+
+    /**
+     * 
+     * @return Identifier of this node if the hotfolder is shared with other indexer nodes; null or empty otherwise
+     */
+    public String getNodeId() {
+        return getString("performance.nodeId");
+    }
+
+    /**
+     * 
+     * @return Time (in ms) after which a node whose lease has not been renewed is considered gone
+     */
+    public long getLeaseTimeout() {
+        return getInt("performance.leaseTimeout", 120000);
+    }
+
+    /**
+     * 
+     * @return true if the hotfolder is to be watched for changes instead of being listed in every cycle; false otherwise
+     */
+    public boolean isWatchHotfolder() {
+        return getBoolean("performance.watchHotfolder", true);
+    }
+
+    /**
+     * 
+     * @return Interval (in ms) after which a watched hotfolder is listed even if no changes have been reported
+     */
+    public long getReconcileInterval() {
+        return getInt("performance.reconcileInterval", 60000);
+    }
+
+    /**
+     * 
+     * @return Extension of the optional file that marks a hotfolder export as complete (e.g. ".ready"); null if not configured
+     */
+    public String getExportCompletionMarker() {
+        return getString("performance.exportCompletionMarker");
+    }
+
+    /**
+     * 
+     * @return Time (in ms) a hotfolder export must remain unchanged before it is considered complete
+     */
+    public long getExportStableTime() {
+        return getInt("performance.exportStableTime", 1000);
+    }
+
+    /**
+     * 
+     * @return Time (in ms) an anchor update waits for further volumes of the same anchor
+     */
+    public long getAnchorDebounceInterval() {
+        return getInt("performance.anchorDebounceInterval", 10000);
+    }
+
+    /**
+     * 
+     * @return Maximum number of delete/purge files that are removed from the index in one batch
+     */
+    public int getDeleteBatchSize() {
+        return getInt("performance.deleteBatchSize", 100);
+    }
+
+    /**
+     * 
+     * @return Minimum level of log messages that are captured per job for the error report; null if not configured
+     */
+    public String getJobLogLevel() {
+        return getString("performance.jobLogLevel");
+    }
+
+    /**
+     * 
+     * @return Maximum number of log messages kept per job for the error report
+     */
+    public int getJobLogSize() {
+        return getInt("performance.jobLogSize", 1000);
+    }
+
+    /**
+     * 
+     * @return Number of IDDOCs that are reserved from Solr at a time
+     */
+    public int getIddocBlockSize() {
+        return getInt("performance.iddocBlockSize", 1000);
+    }
+
+    /**
+     * 
+     * @return Maximum number of documents per Solr update request
+     */
+    public int getUpdateBatchDocs() {
+        return getInt("performance.updateBatchDocs", 500);
+    }
+
+    /**
+     * 
+     * @return Maximum estimated payload size (in bytes) per Solr update request
+     */
+    public long getUpdateBatchBytes() {
+        return getInt("performance.updateBatchBytes", 10485760);
+    }
+
+    /**
+     * 
+     * @return Number of threads that send update requests to Solr in the background
+     */
+    public int getUpdateSenderThreads() {
+        return getInt("performance.updateSenderThreads", 2);
+    }
+
+    /**
+     * 
+     * @return Number of full update batches that may wait for a sender thread
+     */
+    public int getUpdateQueueSize() {
+        return getInt("performance.updateQueueSize", 2);
+    }
+
+    /**
+     * 
+     * @return true if page content is generated and sent to Solr page by page after the structure has been indexed; false otherwise
+     */
+    public boolean isStreamPageDocuments() {
+        return getBoolean("performance.streamPageDocuments", false);
+    }
+
+    /**
+     * 
+     * @return Time in ms within which Solr should commit added or deleted documents on its own; 0 if disabled
+     */
+    public int getCommitWithin() {
+        return getInt("performance.commitWithin", 0);
+    }
+
+    /**
+     * 
+     * @return Number of indexed records after which a soft commit is performed; 0 if disabled
+     */
+    public int getSoftCommitRecords() {
+        return getInt("performance.softCommitRecords", 0);
+    }
+
+    /**
+     * 
+     * @return Maximum time in ms before indexed records are made visible with a soft commit; 0 if disabled
+     */
+    public int getSoftCommitInterval() {
+        return getInt("performance.softCommitInterval", 0);
+    }
+
+    /**
+     * 
+     * @return Time in ms between scheduled hard commits, if commits are deferred
+     */
+    public int getHardCommitInterval() {
+        return getInt("performance.hardCommitInterval", 60000);
+    }
+
+    /**
+     * 
+     * @return Number of documents fetched per request when iterating over large Solr result sets
+     */
+    public int getCursorPageSize() {
+        return getInt("performance.cursorPageSize", 1000);
+    }
+
+    /**
+     * 
+     * @return Time in ms between index maintenance runs while the indexer is running; 0 if disabled
+     */
+    public int getMaintenanceInterval() {
+        return getInt("performance.maintenanceInterval", 0);
+    }
+
+    /**
+     * 
+     * @return Maximum number of attempts per Solr request
+     */
+    public int getSolrMaxAttempts() {
+        return getInt("performance.solrMaxAttempts", ResilientSolrServer.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    /**
+     * 
+     * @return Upper bound in ms of the delay before the first retry of a failed Solr request
+     */
+    public int getSolrInitialBackoff() {
+        return getInt("performance.solrInitialBackoff", (int) ResilientSolrServer.DEFAULT_INITIAL_BACKOFF);
+    }
+
+    /**
+     * 
+     * @return Maximum delay in ms between retries of a failed Solr request
+     */
+    public int getSolrMaxBackoff() {
+        return getInt("performance.solrMaxBackoff", (int) ResilientSolrServer.DEFAULT_MAX_BACKOFF);
+    }
+
+    /**
+     * 
+     * @return Number of consecutive failed Solr requests after which indexing is paused
+     */
+    public int getSolrFailureThreshold() {
+        return getInt("performance.solrFailureThreshold", ResilientSolrServer.DEFAULT_FAILURE_THRESHOLD);
+    }
+
+    /**
+     * 
+     * @return Time in ms for which indexing is paused before Solr is checked again
+     */
+    public int getSolrBreakerOpenInterval() {
+        return getInt("performance.solrBreakerOpenInterval", (int) ResilientSolrServer.DEFAULT_OPEN_INTERVAL);
+    }
+
     /**
      * 
      * @return
@@ -0,0 +1,230 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides whether a record file and its data folders in the hotfolder have been copied completely. Instead of measuring the data folders twice
+ * with a pause in between, the state observed during one scan is remembered and compared with that of the next scan. To keep each check cheap,
+ * only the record file and the data folders themselves (modification time and number of entries) are examined, not every file inside them. A
+ * file that is still being written in place without any entry being added to its folder is therefore only noticed through the minimum stable
+ * time; exports that write large files in place should use an explicit completion marker file
+ * (<code>&lt;basename&gt;&lt;markerExtension&gt;</code>), which short-circuits the check.
+ */
+public class ExportCompletionTracker {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggerFactory.getLogger(ExportCompletionTracker.class);
+
+    /** Empty record files must remain empty for at least this long before they are considered complete. */
+    static final long EMPTY_FILE_STABLE_TIME = 5000;
+
+    private final Path hotfolderPath;
+    private final String markerExtension;
+    private final long minStableTime;
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * 
+     * @param hotfolderPath
+     * @param markerExtension Extension of the completion marker file (e.g. ".ready"); null or empty if no marker files are used
+     * @param minStableTime Time (in ms) the export must remain unchanged before it is considered complete
+     */
+    public ExportCompletionTracker(Path hotfolderPath, String markerExtension, long minStableTime) {
+        this.hotfolderPath = hotfolderPath;
+        this.markerExtension = StringUtils.isNotEmpty(markerExtension) ? markerExtension : null;
+        this.minStableTime = minStableTime;
+    }
+
+    /**
+     * Checks whether the export of the given record file is complete. Never blocks; an export is complete if its completion marker exists or if
+     * it has not changed since the previous call for at least the minimum stable time.
+     * 
+     * @param recordFile
+     * @return true if the export is complete; false otherwise
+     * @should return true if marker file exists
+     * @should return false on first check
+     * @should return true if unchanged for min stable time
+     * @should return false if data folder changed
+     * @should wait longer for empty record files
+     */
+    public boolean isExportDone(Path recordFile) {
+        String baseName = FilenameUtils.getBaseName(recordFile.getFileName().toString());
+        if (markerExtension != null && Files.exists(Paths.get(hotfolderPath.toAbsolutePath().toString(), baseName + markerExtension))) {
+            logger.trace("Completion marker found for '{}'.", baseName);
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        Snapshot current;
+        try {
+            current = takeSnapshot(recordFile, baseName);
+        } catch (IOException e) {
+            // Files may disappear or be renamed while the export is ongoing
+            logger.debug("Could not measure export of '{}': {}", baseName, e.getMessage());
+            snapshots.remove(baseName);
+            return false;
+        }
+        Snapshot previous = snapshots.get(baseName);
+        if (previous == null || !previous.equals(current)) {
+            current.firstSeen = now;
+            snapshots.put(baseName, current);
+            return false;
+        }
+
+        long requiredTime = current.recordFileSize == 0 ? Math.max(minStableTime, EMPTY_FILE_STABLE_TIME) : minStableTime;
+        return now - previous.firstSeen >= requiredTime;
+    }
+
+    /**
+     * Discards any state kept for the given record file and deletes its completion marker, if present. Must be called once the record file has
+     * been processed.
+     * 
+     * @param recordFile
+     */
+    public void forget(Path recordFile) {
+        String baseName = FilenameUtils.getBaseName(recordFile.getFileName().toString());
+        snapshots.remove(baseName);
+        if (markerExtension != null) {
+            try {
+                Files.deleteIfExists(Paths.get(hotfolderPath.toAbsolutePath().toString(), baseName + markerExtension));
+            } catch (IOException e) {
+                logger.warn("Completion marker for '{}' could not be deleted: {}", baseName, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return Number of records currently being tracked
+     */
+    public int getTrackedRecordCount() {
+        return snapshots.size();
+    }
+
+    /**
+     * Discards the state kept for records whose record file no longer exists (e.g. because it has been removed from the hotfolder without
+     * {@link #forget(Path)} being called).
+     * 
+     * @return Number of discarded records
+     * @should discard records whose file no longer exists
+     */
+    public int prune() {
+        int count = 0;
+        Iterator<Snapshot> iterator = snapshots.values().iterator();
+        while (iterator.hasNext()) {
+            if (!Files.exists(iterator.next().recordFile)) {
+                iterator.remove();
+                count++;
+            }
+        }
+        if (count > 0) {
+            logger.debug("Discarded state of {} vanished record(s).", count);
+        }
+
+        return count;
+    }
+
+    /**
+     * Measures the size and modification time of the record file and the modification time and number of entries of each of its
+     * <code>&lt;basename&gt;_*</code> data folders. The contents of the data folders are listed, but not examined individually.
+     * 
+     * @param recordFile
+     * @param baseName
+     * @return
+     * @throws IOException
+     */
+    private Snapshot takeSnapshot(Path recordFile, String baseName) throws IOException {
+        Snapshot snapshot = new Snapshot(recordFile);
+        snapshot.recordFileSize = Files.size(recordFile);
+        snapshot.lastModified = Files.getLastModifiedTime(recordFile).toMillis();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, baseName + "_*")) {
+            for (Path path : stream) {
+                snapshot.lastModified = Math.max(snapshot.lastModified, Files.getLastModifiedTime(path).toMillis());
+                snapshot.folderCount++;
+                if (Files.isDirectory(path)) {
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                        for (Iterator<Path> iterator = entries.iterator(); iterator.hasNext(); iterator.next()) {
+                            snapshot.entryCount++;
+                        }
+                    }
+                }
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Size, entry counts and modification time of a record export at the time of a scan.
+     */
+    private static class Snapshot {
+
+        private final Path recordFile;
+        private long recordFileSize;
+        private long folderCount;
+        private long entryCount;
+        private long lastModified;
+        private long firstSeen;
+
+        private Snapshot(Path recordFile) {
+            this.recordFile = recordFile;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + (int) (recordFileSize ^ (recordFileSize >>> 32));
+            result = prime * result + (int) (folderCount ^ (folderCount >>> 32));
+            result = prime * result + (int) (entryCount ^ (entryCount >>> 32));
+            result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Snapshot other = (Snapshot) obj;
+            return recordFileSize == other.recordFileSize && folderCount == other.folderCount && entryCount == other.entryCount
+                    && lastModified == other.lastModified;
+        }
+    }
+}
@@ -16,9 +16,7 @@
 package de.intranda.digiverso.presentation.solr.helper;
 
 import java.io.BufferedWriter;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
@@ -34,15 +32,22 @@ import java.nio.file.attribute.FileTime;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.MessagingException;
 
@@ -58,11 +63,7 @@ import org.jdom2.output.XMLOutputter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ch.qos.logback.classic.LoggerContext;
-import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.Appender;
-import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.classic.Level;
 import de.intranda.digiverso.presentation.solr.AbstractIndexer;
 import de.intranda.digiverso.presentation.solr.DocUpdateIndexer;
 import de.intranda.digiverso.presentation.solr.LidoIndexer;
@@ -78,13 +79,33 @@ public class Hotfolder {
     private static final Logger logger = LoggerFactory.getLogger(Hotfolder.class);
 
     private static final String SHUTDOWN_FILE = ".SHUTDOWN_INDEXER";
-    private static final int WAIT_IF_FILE_EMPTY = 5000;
-
-    private static ByteArrayOutputStream baosSecondaryLog;
+    private static final String REINDEX_QUEUE_JOURNAL = ".REINDEX_QUEUE";
+    private static final String DATA_FILE_GLOB = "*.{xml,delete,purge,docupdate,UPDATED}";
+    /** Hotfolder data folder suffixes whose size determines whether a record is large. */
+    private static final String[] TEXT_DATA_FOLDER_SUFFIXES = { "_alto", "_neralto", "_altocrowd", "_txt", "_txtcrowd", "_xml", "_wc" };
+    /** Interval (in ms) in which the wait for hotfolder changes checks whether a worker has finished a job. */
+    private static final long WORKER_WAKE_UP_INTERVAL = 200;
 
     private final SolrHelper solrHelper;
     private final List<DataRepository> dataRepositories = new ArrayList<>();
-    private final Queue<Path> reindexQueue = new LinkedList<>();
+    private final ReindexQueue reindexQueue;
+    private final RecordLockManager recordLockManager = new RecordLockManager();
+    /** Records currently being processed by a worker thread. */
+    private final Set<String> inFlightRecords = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Number of jobs currently running in the regular lane. */
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    /** Number of jobs currently running in the large record lane. */
+    private final AtomicInteger runningLargeJobs = new AtomicInteger();
+    /** Per-thread job state (selected repository, current indexer). */
+    private final ThreadLocal<JobContext> jobContext = new ThreadLocal<JobContext>() {
+        @Override
+        protected JobContext initialValue() {
+            return new JobContext();
+        }
+    };
+
+    /** Captures the log messages of each job for the error report. */
+    private final JobLogAppender jobLogAppender;
 
     private int minStorageSpace = 2048;
     public long metsFileSizeThreshold = 10485760;
@@ -100,9 +121,31 @@ public class Hotfolder {
     private Path origLido;
     private Path success;
 
-    private AbstractIndexer currentIndexer;
-    private DataRepository selectedDataRepository;
-    private DataRepository dummyRepository;
+    private int hotfolderWorkers = 1;
+    private int largeRecordWorkers = 0;
+    private ExecutorService workerPool;
+    private volatile FatalIndexerException workerFatalError;
+    private HotfolderWatcher watcher;
+    /** Claim protocol for sharing the hotfolder with other indexer nodes; null if this node owns the hotfolder exclusively. */
+    private HotfolderClaims claims;
+    private ExportCompletionTracker exportCompletionTracker;
+    private long reconcileInterval = 60000;
+    private long anchorDebounceInterval = 10000;
+    private int deleteBatchSize = 100;
+    /** Runs index maintenance periodically; null if disabled. */
+    private ScheduledExecutorService maintenanceScheduler;
+    private long lastListing = 0;
+    /** If true, the next scan must list the hotfolder. */
+    private volatile boolean changesDetected = true;
+    /**
+     * If true, more files are likely waiting and the next scan should not be delayed. With a worker pool, the next scan is started as soon as a
+     * worker has finished a job.
+     */
+    private boolean backlog = false;
+    /** Notified by workers when they have finished a job. */
+    private final Object jobFinishedMonitor = new Object();
+    /** If true, a worker has finished a job since the last scan; guarded by <code>jobFinishedMonitor</code>. */
+    private boolean jobFinished = false;
     private boolean dataRepositoriesEnabled = false;
     private boolean addVolumeCollectionsToAnchor = false;
     private boolean deleteContentFilesOnFailure = true;
@@ -124,9 +167,10 @@ public class Hotfolder {
 
     @SuppressWarnings("unchecked")
     public Hotfolder(String confFilename, SolrServer solrServer) throws FatalIndexerException {
-        this.solrHelper = new SolrHelper(solrServer);
         logger.debug("Config file: {}", confFilename);
         Configuration config = Configuration.getInstance(confFilename);
+        this.solrHelper = new SolrHelper(ResilientSolrServer.create(solrServer));
+        jobLogAppender = JobLogAppender.install(Level.toLevel(config.getJobLogLevel(), Level.INFO), config.getJobLogSize());
         try {
             minStorageSpace = Integer.valueOf(config.getConfiguration("minStorageSpace"));
         } catch (NumberFormatException e) {
@@ -143,6 +187,19 @@ public class Hotfolder {
             logger.error("<hotFolder> not defined.");
             throw new FatalIndexerException("Configuration error, see log for details.");
         }
+        if (StringUtils.isNotEmpty(config.getNodeId())) {
+            try {
+                claims = new HotfolderClaims(hotfolderPath, config.getNodeId(), config.getLeaseTimeout());
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("Could not register with the shared hotfolder: {}", e.getMessage());
+                throw new FatalIndexerException("Configuration error, see log for details.");
+            }
+        }
+        reindexQueue = new ReindexQueue(Paths.get(getWorkingDirectory().toAbsolutePath().toString(), REINDEX_QUEUE_JOURNAL));
+        if (claims != null) {
+            queueClaimedFiles();
+            claims.startHeartbeat();
+        }
 
         try {
             tempFolderPath = Paths.get(config.getConfiguration("tempFolder"));
@@ -247,9 +304,55 @@ public class Hotfolder {
             logger.error("<dataFolderSizeThreshold> not defined.");
         }
 
+        hotfolderWorkers = Math.max(1, Configuration.getInstance().getHotfolderWorkers());
+        largeRecordWorkers = Math.max(0, Configuration.getInstance().getLargeRecordWorkers());
+        if (hotfolderWorkers > 1 || largeRecordWorkers > 0) {
+            workerPool = Executors.newFixedThreadPool(hotfolderWorkers + largeRecordWorkers);
+            logger.info("Hotfolder will index up to {} records concurrently.", hotfolderWorkers);
+            if (largeRecordWorkers > 0) {
+                logger.info("{} additional worker slot(s) are reserved for large records.", largeRecordWorkers);
+            }
+        }
+
+        exportCompletionTracker = new ExportCompletionTracker(hotfolderPath, Configuration.getInstance().getExportCompletionMarker(), Configuration
+                .getInstance().getExportStableTime());
+
+        if (Configuration.getInstance().isWatchHotfolder()) {
+            try {
+                watcher = new HotfolderWatcher(hotfolderPath, DATA_FILE_GLOB);
+                reconcileInterval = Configuration.getInstance().getReconcileInterval();
+                logger.info("Hotfolder will be re-listed every {} ms if no changes are detected.", reconcileInterval);
+            } catch (IOException | UnsupportedOperationException e) {
+                logger.warn("Hotfolder cannot be watched, falling back to polling: {}", e.getMessage());
+            }
+        }
+
+        anchorDebounceInterval = Configuration.getInstance().getAnchorDebounceInterval();
+        logger.info("Anchor updates will be delayed until no volume has been indexed for {} ms.", anchorDebounceInterval);
+        deleteBatchSize = Math.max(1, Configuration.getInstance().getDeleteBatchSize());
+        logger.info("Delete batch size: {}", deleteBatchSize);
+
         SolrHelper.optimize = Boolean.valueOf(Configuration.getInstance().isAutoOptimize());
         logger.info("Auto-optimize: {}", SolrHelper.optimize);
 
+        CommitPolicy commitPolicy = CommitPolicy.create();
+        solrHelper.setCommitPolicy(commitPolicy);
+        commitPolicy.start(solrHelper);
+        if (workerPool != null || claims != null) {
+            // Rolling back a failed record would discard the uncommitted changes of all other running jobs
+            solrHelper.setConcurrent(true);
+            if (!commitPolicy.isDeferred()) {
+                logger.warn("Records are indexed concurrently with a hard commit after each record. Changes to records that are still being indexed"
+                        + " (e.g. the removal of their previous instance) become visible with the commit of any other record.");
+            }
+        }
+
+        long maintenanceInterval = Configuration.getInstance().getMaintenanceInterval();
+        if (maintenanceInterval > 0) {
+            startMaintenance(maintenanceInterval);
+            logger.info("Index maintenance will run every {} ms.", maintenanceInterval);
+        }
+
         try {
             addVolumeCollectionsToAnchor = Configuration.getInstance().isAddVolumeCollectionsToAnchor();
             if (addVolumeCollectionsToAnchor) {
@@ -281,54 +384,18 @@ public class Hotfolder {
     }
 
     /**
-     * Empties and re-inits the secondary logger.
+     * Sends the captured log of a job as an e-mail report, if the job has logged at least one ERROR level message.
+     * 
+     * @param subject
+     * @param jobLog
+     * @throws FatalIndexerException
      */
-    private static void resetSecondaryLog() {
-        if (baosSecondaryLog != null) {
-            try {
-                baosSecondaryLog.close();
-            } catch (IOException e) {
-                logger.error(e.getMessage());
-            }
-        }
-        baosSecondaryLog = new ByteArrayOutputStream();
-
-        // Kill previous version of this appender
-        ch.qos.logback.classic.Logger rootLogger = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
-                ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
-        Appender<ILoggingEvent> oldAppender = rootLogger.getAppender("record");
-        if (oldAppender != null) {
-            oldAppender.stop();
-            rootLogger.detachAppender(oldAppender);
-        }
-
-        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
-
-        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
-        encoder.setContext(context);
-        //        encoder.setPattern("%-5p %d (%F\\:%M\\:%L)%n        %m%n");
-        encoder.setPattern("%-5level %d{yyyy-MM-dd HH:mm:ss.SSS} [%thread]  %logger%ex{full}%n       %msg%n");
-        encoder.setImmediateFlush(true);
-        encoder.start();
-
-        OutputStreamAppender<ILoggingEvent> newAppender = new OutputStreamAppender<>();
-        newAppender.setName("record");
-        newAppender.setContext(context);
-        newAppender.setEncoder(encoder);
-        //        recordAppender.setThreshold(Level.INFO);
-        //        recordAppender.activateOptions();
-        newAppender.setOutputStream(baosSecondaryLog);
-
-        rootLogger.addAppender(newAppender);
-        newAppender.start();
-    }
-
-    private static void checkAndSendErrorReport(String subject, String body) throws FatalIndexerException {
-        logger.debug("body:\n" + body);
-        // Send report e-mail if the text body contains at least one ERROR level log message
-        if (!body.contains("ERROR")) {
+    private static void checkAndSendErrorReport(String subject, JobLogAppender.JobLog jobLog) throws FatalIndexerException {
+        if (jobLog == null || !jobLog.hasErrors()) {
             return;
         }
+        String body = jobLog.getText();
+        logger.debug("body:\n{}", body);
 
         String recipients = Configuration.getInstance().getString("init.email.recipients");
         if (StringUtils.isEmpty(recipients)) {
@@ -382,85 +449,695 @@ public class Hotfolder {
      * @throws FatalIndexerException
      */
     public boolean scan() throws FatalIndexerException {
-        boolean noerror = true;
-        if (Files.isDirectory(hotfolderPath)) {
-            Path fileToReindex = reindexQueue.poll();
-            if (fileToReindex != null) {
-                resetSecondaryLog();
-                logger.info("Found file '{}' (re-index queue).", fileToReindex.getFileName());
-                checkFreeSpace();
-                Map<String, Boolean> reindexSettings = new HashMap<>();
-                reindexSettings.put("reindexText", true);
-                reindexSettings.put("reindexWordCoords", true);
-                reindexSettings.put("reindexAlto", true);
-                reindexSettings.put("reindexMix", true);
-                reindexSettings.put("reindexUGC", true);
-                noerror = handleDataFile(fileToReindex, true, reindexSettings);
-                if (baosSecondaryLog != null) {
-                    checkAndSendErrorReport(fileToReindex.getFileName() + ": Indexing failed (v" + SolrIndexerDaemon.VERSION + ")", new String(
-                            baosSecondaryLog.toByteArray(), java.nio.charset.StandardCharsets.UTF_8));
+        if (workerPool != null) {
+            return scanConcurrently();
+        }
+        if (isSolrUnavailable()) {
+            return false;
+        }
+
+        if (!Files.isDirectory(hotfolderPath)) {
+            logger.error("Hotfolder not found!");
+            return false;
+        }
+        // Check for the shutdown trigger file first; pending jobs are kept in the queue journal
+        if (checkShutdownTrigger()) {
+            return true;
+        }
+        queueHotfolderFiles();
+        ReindexQueue.Entry entry = reindexQueue.take(null);
+        if (entry == null) {
+            return true;
+        }
+        backlog = true;
+        List<ReindexQueue.Entry> entries = isDeleteEntry(entry) ? takeDeleteBatch(entry, null) : Collections.singletonList(entry);
+        try {
+            return processEntries(entries);
+        } finally {
+            for (ReindexQueue.Entry e : entries) {
+                reindexQueue.complete(e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether Solr requests are currently paused by the circuit breaker after repeated failures. No new jobs are started in that case, so
+     * that a recovering Solr server is not flooded with requests. Running jobs wait for Solr on their own.
+     * 
+     * @return true if the scan should be skipped; false otherwise
+     */
+    private boolean isSolrUnavailable() {
+        if (solrHelper.isAvailable()) {
+            return false;
+        }
+        logger.warn("Solr is unavailable, hotfolder processing is paused.");
+        return true;
+    }
+
+    /**
+     * Worker pool variant of <code>scan()</code>. Hands queued jobs to the pool without waiting for them to finish, as long as free slots are
+     * available in the job's lane. If a large record lane is configured, large records only run in the <code>largeRecordWorkers</code> slots and
+     * all other jobs only in the <code>hotfolderWorkers</code> slots. Jobs whose record is currently locked by a running job or whose lane is fully
+     * occupied are left in the queue for a later scan.
+     * 
+     * @return boolean true if successful; false othewise.
+     * @throws FatalIndexerException if a worker has encountered a fatal error
+     */
+    private boolean scanConcurrently() throws FatalIndexerException {
+        if (workerFatalError != null) {
+            throw workerFatalError;
+        }
+        if (isSolrUnavailable()) {
+            return false;
+        }
+        if (!Files.isDirectory(hotfolderPath)) {
+            logger.error("Hotfolder not found!");
+            return false;
+        }
+        if (inFlightRecords.isEmpty() && checkShutdownTrigger()) {
+            return true;
+        }
+        queueHotfolderFiles();
+
+        synchronized (jobFinishedMonitor) {
+            // Slots freed until now are seen by this scan
+            jobFinished = false;
+        }
+        final ReindexQueue.EntryFilter filter = new ReindexQueue.EntryFilter() {
+
+            @Override
+            public boolean accept(ReindexQueue.Entry entry) {
+                return !inFlightRecords.contains(entry.getRecordKey()) && !recordLockManager.isRecordLocked(entry.getRecordKey());
+            }
+        };
+        while (true) {
+            final boolean regularSlotFree = runningJobs.get() < hotfolderWorkers;
+            final boolean largeSlotFree = runningLargeJobs.get() < largeRecordWorkers;
+            if (!regularSlotFree && !largeSlotFree) {
+                break;
+            }
+            ReindexQueue.Entry entry = reindexQueue.take(new ReindexQueue.EntryFilter() {
+
+                @Override
+                public boolean accept(ReindexQueue.Entry entry) {
+                    // The lane is only determined (which measures the record's files) if it matters
+                    return filter.accept(entry) && ((regularSlotFree && largeSlotFree) || (isLargeRecordEntry(entry) ? largeSlotFree
+                            : regularSlotFree));
                 }
-            } else {
-                // Check for the shutdown trigger file first
-                Path shutdownFile = Paths.get(hotfolderPath.toAbsolutePath().toString(), SHUTDOWN_FILE);
-                if (currentIndexer == null && Files.exists(shutdownFile)) {
-                    logger.info("Shutdown trigger file detected, shutting down...");
-                    try {
-                        Files.delete(shutdownFile);
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
+            });
+            if (entry == null) {
+                break;
+            }
+            submitEntries(isDeleteEntry(entry) ? takeDeleteBatch(entry, filter) : Collections.singletonList(entry), isLargeRecordEntry(entry));
+        }
+        // Jobs left in the queue wait for a free slot or for their record to be unlocked, both of which happen when a worker finishes
+        backlog = !reindexQueue.isEmpty();
+
+        return true;
+    }
+
+    /**
+     * Lists the hotfolder (if required) and adds all data files whose export has been completed to the queue. Anchor update files that are not
+     * queued are deleted.
+     */
+    private void queueHotfolderFiles() {
+        if (claims != null && claims.recoverStaleNodes(reindexQueue, REINDEX_QUEUE_JOURNAL) > 0) {
+            changesDetected = true;
+        }
+        if (!isListingRequired()) {
+            return;
+        }
+        logger.trace("Hotfolder: Listing files...");
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, DATA_FILE_GLOB)) {
+            for (Path recordFile : stream) {
+                if (reindexQueue.contains(recordFile)) {
+                    continue;
+                }
+                if (recordFile.getFileName().toString().endsWith(MetsIndexer.ANCHOR_UPDATE_EXTENSION)) {
+                    logger.info("Found file '{}' which is not in the re-index queue. This file will be deleted.", recordFile.getFileName());
+                    Files.delete(recordFile);
+                    continue;
+                }
+                // Check whether the data folders for this record have been copied completely, otherwise skip
+                if (!isDataFolderExportDone(recordFile)) {
+                    logger.trace("Export not yet finished for '{}'", recordFile.getFileName());
+                    changesDetected = true;
+                    continue;
+                }
+                if (claims != null) {
+                    if (claims.isClaimed(recordFile) || reindexQueue.contains(claims.getWorkingDirectory().resolve(recordFile.getFileName()
+                            .toString()))) {
+                        // Claiming the new delivery would replace the file of the previous one, which is still queued or being indexed (the
+                        // job may already have removed its file)
+                        logger.debug("'{}' is still being processed by this node, the new delivery will be picked up afterwards.", recordFile
+                                .getFileName());
+                        changesDetected = true;
+                        continue;
                     }
-                    SolrIndexerDaemon.getInstance().stop();
+                    // Another node may be faster
+                    Path claimedFile = claimFile(recordFile);
+                    if (claimedFile != null) {
+                        reindexQueue.addHotfolderFile(claimedFile);
+                    }
+                    continue;
+                }
+                reindexQueue.addHotfolderFile(recordFile);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        exportCompletionTracker.prune();
+    }
+
+    /**
+     * Claims the given hotfolder file for this node.
+     * 
+     * @param recordFile
+     * @return Path of the claimed file in this node's working directory; null if the file could not be claimed
+     */
+    private Path claimFile(Path recordFile) {
+        try {
+            return claims.claim(recordFile);
+        } catch (IOException e) {
+            logger.error("'{}' could not be claimed: {}", recordFile.getFileName(), e.getMessage());
+            return null;
+        } finally {
+            exportCompletionTracker.forget(recordFile);
+        }
+    }
+
+    /**
+     * Adds data files in this node's working directory that are not queued (e.g. because the indexer stopped right after claiming them) to the
+     * queue. Anchor update files that are not queued are deleted.
+     */
+    private void queueClaimedFiles() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(claims.getWorkingDirectory(), DATA_FILE_GLOB)) {
+            for (Path recordFile : stream) {
+                if (reindexQueue.contains(recordFile)) {
+                    continue;
+                }
+                if (recordFile.getFileName().toString().endsWith(MetsIndexer.ANCHOR_UPDATE_EXTENSION)) {
+                    logger.info("Found file '{}' which is not in the re-index queue. This file will be deleted.", recordFile.getFileName());
+                    Files.delete(recordFile);
+                    continue;
+                }
+                logger.info("Found claimed file '{}' which is not in the queue, adding it.", recordFile.getFileName());
+                reindexQueue.addHotfolderFile(recordFile);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the folder that contains the data folders for the given data file. This is this node's working directory for claimed files and the
+     * hotfolder otherwise.
+     * 
+     * @param dataFile
+     * @return
+     */
+    private Path getDataFolderParent(Path dataFile) {
+        if (claims != null && claims.getWorkingDirectory().equals(dataFile.toAbsolutePath().getParent())) {
+            return claims.getWorkingDirectory();
+        }
+        return hotfolderPath;
+    }
+
+    /**
+     * Collects further pending delete/purge files to be removed together with the given one, up to <code>deleteBatchSize</code> files. Only one file
+     * per record is included.
+     * 
+     * @param first Delete entry that has already been taken from the queue
+     * @param filter Additional filter for the entries to take; may be null
+     * @return List of taken entries, starting with <code>first</code>
+     */
+    private List<ReindexQueue.Entry> takeDeleteBatch(ReindexQueue.Entry first, final ReindexQueue.EntryFilter filter) {
+        List<ReindexQueue.Entry> ret = new ArrayList<>();
+        ret.add(first);
+        final Set<String> recordKeys = new HashSet<>();
+        recordKeys.add(first.getRecordKey());
+        while (ret.size() < deleteBatchSize) {
+            ReindexQueue.Entry entry = reindexQueue.take(new ReindexQueue.EntryFilter() {
+
+                @Override
+                public boolean accept(ReindexQueue.Entry entry) {
+                    return isDeleteEntry(entry) && !recordKeys.contains(entry.getRecordKey()) && (filter == null || filter.accept(entry));
+                }
+            });
+            if (entry == null) {
+                break;
+            }
+            ret.add(entry);
+            recordKeys.add(entry.getRecordKey());
+        }
+
+        return ret;
+    }
+
+    /**
+     * 
+     * @param entry
+     * @return true if the given entry represents a .delete or .purge file from the hotfolder; false otherwise
+     */
+    private static boolean isDeleteEntry(ReindexQueue.Entry entry) {
+        return entry.getPriority() == ReindexQueue.Priority.DELETE && !entry.isReindex();
+    }
+
+    /**
+     * Determines (once per queue entry) whether the given entry belongs to the large record lane. Always false if no large record lane is
+     * configured.
+     * 
+     * @param entry
+     * @return true if the entry must be scheduled in the large record lane; false otherwise
+     */
+    private boolean isLargeRecordEntry(ReindexQueue.Entry entry) {
+        if (largeRecordWorkers == 0) {
+            return false;
+        }
+        if (entry.getLargeRecord() == null) {
+            boolean large = false;
+            try {
+                large = isLargeRecord(entry.getFile(), !entry.isReindex(), metsFileSizeThreshold, dataFolderSizeThreshold);
+            } catch (IOException e) {
+                logger.warn("Could not determine the size of '{}': {}", entry.getFile().getFileName(), e.getMessage());
+            }
+            if (large) {
+                logger.info("'{}' is a large record and will be indexed in the large record lane.", entry.getFile().getFileName());
+            }
+            entry.setLargeRecord(large);
+        }
+
+        return entry.getLargeRecord();
+    }
+
+    /**
+     * Checks whether the given data file represents a large record, using the same thresholds that make <code>MetsIndexer</code> use the
+     * serializing write strategy. Only XML files can be large records.
+     * 
+     * @param dataFile
+     * @param checkDataFolders If true, the text data folders next to the data file are measured as well
+     * @param metsFileSizeThreshold
+     * @param dataFolderSizeThreshold
+     * @return true if the data file or one of its text data folders reaches the respective threshold; false otherwise
+     * @throws IOException
+     * @should return true if data file reaches threshold
+     * @should return true if text data folder reaches threshold
+     * @should ignore non text data folders
+     * @should ignore data folders if not requested
+     * @should return false for non xml files
+     */
+    static boolean isLargeRecord(Path dataFile, boolean checkDataFolders, long metsFileSizeThreshold, long dataFolderSizeThreshold)
+            throws IOException {
+        String fileName = dataFile.getFileName().toString();
+        if (!fileName.endsWith(AbstractIndexer.XML_EXTENSION) || !Files.isRegularFile(dataFile)) {
+            return false;
+        }
+        if (Files.size(dataFile) >= metsFileSizeThreshold) {
+            return true;
+        }
+        if (checkDataFolders) {
+            String baseName = FilenameUtils.getBaseName(fileName);
+            for (String suffix : TEXT_DATA_FOLDER_SUFFIXES) {
+                Path dataFolder = dataFile.resolveSibling(baseName + suffix);
+                // Files.size() does not work with directories, so use FileUtils
+                if (Files.isDirectory(dataFolder) && FileUtils.sizeOfDirectory(dataFolder.toFile()) >= dataFolderSizeThreshold) {
                     return true;
                 }
-                logger.trace("Hotfolder: Listing files...");
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, "*.{xml,delete,purge,docupdate,UPDATED}")) {
-                    for (Path path : stream) {
-                        // Only one file at a time right now
-                        if (currentIndexer != null) {
-                            break;
-                        }
-                        Path recordFile = path;
-                        if (!recordFile.getFileName().toString().endsWith(MetsIndexer.ANCHOR_UPDATE_EXTENSION)) {
-                            // Check whether the data folders for this record have been copied completely, otherwise skip
-                            if (!isDataFolderExportDone(recordFile)) {
-                                logger.trace("Export not yet finished for '{}'", recordFile.getFileName());
-                                continue;
-                            }
-                            resetSecondaryLog();
-                            logger.info("Found file '{}' (hotfolder).", recordFile.getFileName());
-                            if (MetsIndexer.noTimestampUpdate) {
-                                logger.warn("WARNING: No update mode - DATEUPDATED timestamps will not be updated.");
-                            }
-                            checkFreeSpace();
-                            Map<String, Boolean> reindexSettings = new HashMap<>();
-                            reindexSettings.put("reindexText", false);
-                            reindexSettings.put("reindexWordCoords", false);
-                            reindexSettings.put("reindexAlto", false);
-                            reindexSettings.put("reindexMix", false);
-                            reindexSettings.put("reindexUGC", false);
-                            noerror = handleDataFile(recordFile, false, reindexSettings);
-                            // logger.error("for the lulz");
-                            checkAndSendErrorReport(recordFile.getFileName() + ": Indexing failed (v" + SolrIndexerDaemon.VERSION + ")",
-                                    baosSecondaryLog.toString());
-                        } else {
-                            logger.info("Found file '{}' which is not in the re-index queue. This file will be deleted.", recordFile.getFileName());
-                            Files.delete(recordFile);
-                        }
-                        break; // always break after attempting to index a file, so that the loop restarts
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Hands the given queue entries over to the worker pool. The worker holds the record locks for the files' identifiers for the duration of the
+     * job. Locks are acquired in a fixed order so that batches cannot deadlock each other.
+     * 
+     * @param entries Either a single entry or a batch of delete entries
+     * @param large If true, the job occupies a slot in the large record lane
+     */
+    private void submitEntries(final List<ReindexQueue.Entry> entries, boolean large) {
+        final List<String> lockKeys = new ArrayList<>(entries.size());
+        for (ReindexQueue.Entry entry : entries) {
+            if (!lockKeys.contains(entry.getRecordKey())) {
+                lockKeys.add(entry.getRecordKey());
+            }
+        }
+        Collections.sort(lockKeys);
+        inFlightRecords.addAll(lockKeys);
+        final AtomicInteger laneJobs = large ? runningLargeJobs : runningJobs;
+        laneJobs.incrementAndGet();
+        workerPool.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                List<String> lockedKeys = new ArrayList<>(lockKeys.size());
+                try {
+                    for (String lockKey : lockKeys) {
+                        recordLockManager.lockRecord(lockKey);
+                        lockedKeys.add(lockKey);
                     }
-                } catch (IOException e) {
+                    processEntries(entries);
+                } catch (FatalIndexerException e) {
+                    logger.error(e.getMessage(), e);
+                    workerFatalError = e;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
                     logger.error(e.getMessage(), e);
+                } finally {
+                    for (String lockKey : lockedKeys) {
+                        recordLockManager.unlockRecord(lockKey);
+                    }
+                    jobContext.remove();
+                    for (ReindexQueue.Entry entry : entries) {
+                        reindexQueue.complete(entry);
+                    }
+                    inFlightRecords.removeAll(lockKeys);
+                    laneJobs.decrementAndGet();
+                    synchronized (jobFinishedMonitor) {
+                        jobFinished = true;
+                        jobFinishedMonitor.notifyAll();
+                    }
                 }
             }
+        });
+    }
 
-        } else {
-            noerror = false;
-            logger.error("Hotfolder not found!");
+    /**
+     * Processes the given queue entries. Delete entries are removed from the index as one batch, all other entries are processed individually.
+     * 
+     * @param entries
+     * @return boolean true if successful; false othewise.
+     * @throws FatalIndexerException
+     */
+    private boolean processEntries(List<ReindexQueue.Entry> entries) throws FatalIndexerException {
+        if (entries.size() == 1 && !isDeleteEntry(entries.get(0))) {
+            return processDataFile(entries.get(0).getFile(), entries.get(0).isReindex());
+        }
+        List<Path> deleteFiles = new ArrayList<>(entries.size());
+        for (ReindexQueue.Entry entry : entries) {
+            deleteFiles.add(entry.getFile());
         }
+        return processDeleteFiles(deleteFiles);
+    }
+
+    /**
+     * Removes the records represented by the given .delete/.purge files from the index in one batch and sends an error report, if applicable.
+     * 
+     * @param deleteFiles
+     * @return boolean true if successful; false othewise.
+     * @throws FatalIndexerException
+     */
+    private boolean processDeleteFiles(List<Path> deleteFiles) throws FatalIndexerException {
+        String subject = deleteFiles.size() == 1 ? deleteFiles.get(0).getFileName().toString() : deleteFiles.size() + " files";
+        JobLogAppender.JobLog jobLog = jobLogAppender.startJob(subject);
+        try {
+            for (Path deleteFile : deleteFiles) {
+                logger.info("Found file '{}' (hotfolder).", deleteFile.getFileName());
+            }
+            checkFreeSpace();
+            try {
+                removeFromIndex(deleteFiles);
+            } finally {
+                for (Path deleteFile : deleteFiles) {
+                    exportCompletionTracker.forget(deleteFile);
+                }
+            }
+        } finally {
+            jobLogAppender.endJob();
+        }
+        checkAndSendErrorReport(subject + ": Deletion failed (v" + SolrIndexerDaemon.VERSION + ")", jobLog);
+
+        return true;
+    }
+
+    /**
+     * Indexes, updates or deletes the record represented by the given data file and sends an error report, if applicable.
+     * 
+     * @param dataFile
+     * @param fromReindexQueue
+     * @return boolean true if successful; false othewise.
+     * @throws FatalIndexerException
+     */
+    private boolean processDataFile(Path dataFile, boolean fromReindexQueue) throws FatalIndexerException {
+        JobLogAppender.JobLog jobLog = jobLogAppender.startJob(dataFile.getFileName().toString());
+        boolean noerror;
+        try {
+            if (fromReindexQueue) {
+                logger.info("Found file '{}' (re-index queue).", dataFile.getFileName());
+            } else {
+                logger.info("Found file '{}' (hotfolder).", dataFile.getFileName());
+                if (MetsIndexer.noTimestampUpdate) {
+                    logger.warn("WARNING: No update mode - DATEUPDATED timestamps will not be updated.");
+                }
+            }
+            checkFreeSpace();
+            Map<String, Boolean> reindexSettings = new HashMap<>();
+            reindexSettings.put("reindexText", fromReindexQueue);
+            reindexSettings.put("reindexWordCoords", fromReindexQueue);
+            reindexSettings.put("reindexAlto", fromReindexQueue);
+            reindexSettings.put("reindexMix", fromReindexQueue);
+            reindexSettings.put("reindexUGC", fromReindexQueue);
+            try {
+                noerror = handleDataFile(dataFile, fromReindexQueue, reindexSettings);
+            } finally {
+                if (!fromReindexQueue) {
+                    exportCompletionTracker.forget(dataFile);
+                }
+            }
+        } finally {
+            jobLogAppender.endJob();
+        }
+        checkAndSendErrorReport(dataFile.getFileName() + ": Indexing failed (v" + SolrIndexerDaemon.VERSION + ")", jobLog);
+
         return noerror;
     }
 
+    /**
+     * Determines whether the hotfolder must be listed during this scan. Without a watcher, this is always the case. With a watcher, the hotfolder is
+     * only listed if changes have been reported, files from the previous listing are still pending, or the reconcile interval has elapsed (as a
+     * fallback for file systems that do not deliver change events reliably). Resets the change flag if a listing is required.
+     * 
+     * @return true if the hotfolder must be listed; false otherwise
+     */
+    private boolean isListingRequired() {
+        if (watcher == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (!changesDetected && now - lastListing < reconcileInterval) {
+            return false;
+        }
+        if (!changesDetected) {
+            logger.trace("Hotfolder: Reconcile scan.");
+        }
+        changesDetected = false;
+        lastListing = now;
+
+        return true;
+    }
+
+    /**
+     * Blocks until the next scan is due. With a watcher, returns as soon as a relevant file has been created or modified in the hotfolder, otherwise
+     * after the given timeout. Returns immediately if the previous scan has indicated that more files are waiting. With a worker pool, jobs left
+     * in the queue by the previous scan can only be started once a worker has finished, so the wait ends as soon as that happens.
+     * 
+     * @param timeout Maximum wait time in milliseconds
+     * @throws InterruptedException
+     */
+    public void waitForChanges(long timeout) throws InterruptedException {
+        boolean queuedJobs = backlog;
+        backlog = false;
+        if (queuedJobs && workerPool == null) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (remaining > 0) {
+            if (queuedJobs && watcher != null) {
+                // The watch service cannot be woken up by a worker, so it is polled in short intervals for as long as jobs are waiting
+                if (isJobFinished(0)) {
+                    return;
+                }
+                if (awaitWatcherChanges(Math.min(remaining, WORKER_WAKE_UP_INTERVAL))) {
+                    return;
+                }
+            } else if (queuedJobs) {
+                if (isJobFinished(remaining)) {
+                    return;
+                }
+            } else if (watcher != null) {
+                awaitWatcherChanges(remaining);
+                return;
+            } else {
+                Thread.sleep(remaining);
+                return;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Waits up to the given time for a worker to finish a job since the last scan.
+     * 
+     * @param timeout Maximum wait time in milliseconds; 0 to return immediately
+     * @return true if a worker has finished a job; false otherwise
+     * @throws InterruptedException
+     */
+    private boolean isJobFinished(long timeout) throws InterruptedException {
+        synchronized (jobFinishedMonitor) {
+            if (!jobFinished && timeout > 0) {
+                jobFinishedMonitor.wait(timeout);
+            }
+            return jobFinished;
+        }
+    }
+
+    /**
+     * Waits up to the given time for changes reported by the watcher. Falls back to polling if the watcher is no longer valid.
+     * 
+     * @param timeout Maximum wait time in milliseconds
+     * @return true if changes have been detected or the watcher has become invalid; false otherwise
+     * @throws InterruptedException
+     */
+    private boolean awaitWatcherChanges(long timeout) throws InterruptedException {
+        if (watcher.awaitChanges(timeout)) {
+            changesDetected = true;
+            return true;
+        }
+        if (!watcher.isValid()) {
+            logger.warn("Hotfolder watcher is no longer valid, falling back to polling.");
+            closeWatcher();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void closeWatcher() {
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        watcher = null;
+    }
+
+    /**
+     * Stops the indexer if the shutdown trigger file exists in the hotfolder.
+     * 
+     * @return true if the shutdown trigger file was found; false otherwise
+     */
+    private boolean checkShutdownTrigger() {
+        Path shutdownFile = Paths.get(hotfolderPath.toAbsolutePath().toString(), SHUTDOWN_FILE);
+        if (jobContext.get().currentIndexer == null && Files.exists(shutdownFile)) {
+            logger.info("Shutdown trigger file detected, shutting down...");
+            try {
+                Files.delete(shutdownFile);
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            SolrIndexerDaemon.getInstance().stop();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Schedules index maintenance with the given interval. Maintenance runs in its own thread alongside the indexing jobs and skips records that
+     * are locked by them.
+     * 
+     * @param interval Time in ms between maintenance runs
+     */
+    private void startMaintenance(long interval) {
+        maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "index-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintenanceScheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    IndexMaintenance.create(solrHelper, recordLockManager).run();
+                } catch (FatalIndexerException e) {
+                    logger.error("Index maintenance failed: {}", e.getMessage());
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for all running worker jobs to finish and releases the worker pool.
+     */
+    public void shutdown() {
+        closeWatcher();
+        if (maintenanceScheduler != null) {
+            maintenanceScheduler.shutdownNow();
+            try {
+                maintenanceScheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            try {
+                while (!workerPool.awaitTermination(10, TimeUnit.SECONDS)) {
+                    logger.info("Waiting for {} running indexing job(s) to finish...", runningJobs.get() + runningLargeJobs.get());
+                }
+            } catch (InterruptedException e) {
+                logger.error(e.getMessage(), e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (claims != null) {
+            try {
+                claims.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+        if (solrHelper.getCommitPolicy() != null) {
+            solrHelper.getCommitPolicy().close();
+            if (solrHelper.isCommitDeferred()) {
+                // Make sure all deferred changes are visible and stored before exiting
+                try {
+                    solrHelper.hardCommit(true);
+                } catch (FatalIndexerException e) {
+                    logger.error(e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the record identifier under which the given data file is locked. This is the base file name without any "#..." suffix that is
+     * appended to anchor update files.
+     * 
+     * @param dataFile
+     * @return Lock key for the given file
+     */
+    static String getRecordLockKey(Path dataFile) {
+        String key = FilenameUtils.getBaseName(dataFile.getFileName().toString());
+        if (key.contains("#")) {
+            key = key.substring(0, key.indexOf('#'));
+        }
+        return key;
+    }
+
     /**
      * Checks whether there is at least as much free storage space available as configured. If not, the program will shut down.
      * 
@@ -472,10 +1149,8 @@ public class Hotfolder {
         logger.debug("Available storage space: {}M", freeSpace);
         if (freeSpace < minStorageSpace) {
             logger.error("Insufficient free space: {} / {} MB available. Indexer will now shut down.", freeSpace, minStorageSpace);
-            if (baosSecondaryLog != null) {
-                checkAndSendErrorReport("Record indexing failed due to insufficient space (v" + SolrIndexerDaemon.VERSION + ")", new String(
-                        baosSecondaryLog.toByteArray(), java.nio.charset.StandardCharsets.UTF_8));
-            }
+            checkAndSendErrorReport("Record indexing failed due to insufficient space (v" + SolrIndexerDaemon.VERSION + ")", jobLogAppender
+                    .getCurrentJobLog());
             throw new FatalIndexerException("Insufficient free space");
         }
     }
@@ -498,65 +1173,80 @@ public class Hotfolder {
         if (StringUtils.isNotBlank(pi)) {
             String previousRepository = null;
             try {
-                // Look up previous repository in the index
-                previousRepository = solrHelper.findCurrentDataRepository(pi);
+                // Look up previous repository in the index; indexers share the lookup with their subsequent update preparation
+                AbstractIndexer indexer = jobContext.get().currentIndexer;
+                previousRepository = indexer != null ? indexer.getRecordLookup().getDataRepository(pi) : solrHelper.findCurrentDataRepository(
+                        pi);
             } catch (SolrServerException e) {
                 logger.error(e.getMessage(), e);
             }
-            if (previousRepository != null) {
-                if ("?".equals(previousRepository)) {
-                    if (dataRepositoriesEnabled) {
-                        // Record is already indexed, but not in a data repository
-                        dummyRepository = new DataRepository(Paths.get(Configuration.getInstance().getString("init.viewerHome")), "");
-                        logger.info(
-                                "This record is already indexed, but its data files are not in a repository. The data files will be moved to the selected repository.");
-                    }
-                } else {
-                    // Find previous repository
-                    for (DataRepository repository : dataRepositories) {
-                        if (previousRepository.equals(repository.getName())) {
-                            if (dataRepositoriesEnabled) {
-                                logger.info("Using previous data repository for '{}': {}", pi, previousRepository);
-                                selectedDataRepository = repository;
-                            } else {
-                                logger.info(
-                                        "'{}' is currently indexed in data repository '{}'. Since data repositories are disabled, it will be moved to out of the repository.",
-                                        pi, previousRepository);
-                                dummyRepository = repository;
-                                selectedDataRepository = new DataRepository(Paths.get(Configuration.getInstance().getString("init.viewerHome")), "");
-                            }
-                            return;
+            selectDataRepositoryForRecord(pi, previousRepository);
+        }
+    }
+
+    /**
+     * Selects available data repository for the given record, based on the repository the record is currently indexed in.
+     * 
+     * @param pi Record identifier
+     * @param previousRepository Name of the record's current data repository; "?" if the record is indexed without a repository; null if the
+     *            record is not indexed
+     * @throws FatalIndexerException
+     */
+    private void selectDataRepositoryForRecord(String pi, String previousRepository) throws FatalIndexerException {
+        JobContext job = jobContext.get();
+        if (previousRepository != null) {
+            if ("?".equals(previousRepository)) {
+                if (dataRepositoriesEnabled) {
+                    // Record is already indexed, but not in a data repository
+                    job.dummyRepository = new DataRepository(Paths.get(Configuration.getInstance().getString("init.viewerHome")), "");
+                    logger.info(
+                            "This record is already indexed, but its data files are not in a repository. The data files will be moved to the selected repository.");
+                }
+            } else {
+                // Find previous repository
+                for (DataRepository repository : dataRepositories) {
+                    if (previousRepository.equals(repository.getName())) {
+                        if (dataRepositoriesEnabled) {
+                            logger.info("Using previous data repository for '{}': {}", pi, previousRepository);
+                            job.selectedDataRepository = repository;
+                        } else {
+                            logger.info(
+                                    "'{}' is currently indexed in data repository '{}'. Since data repositories are disabled, it will be moved to out of the repository.",
+                                    pi, previousRepository);
+                            job.dummyRepository = repository;
+                            job.selectedDataRepository = new DataRepository(Paths.get(Configuration.getInstance().getString("init.viewerHome")), "");
                         }
+                        return;
                     }
-                    logger.warn("Previous data repository for '{}' does not exist: {}", pi, previousRepository);
                 }
+                logger.warn("Previous data repository for '{}' does not exist: {}", pi, previousRepository);
             }
+        }
 
-            if (!dataRepositoriesEnabled) {
-                selectedDataRepository = new DataRepository(viewerHomePath, "");
-                return;
-            }
+        if (!dataRepositoriesEnabled) {
+            job.selectedDataRepository = new DataRepository(viewerHomePath, "");
+            return;
+        }
 
-            // Find available repository
-            try {
-                for (DataRepository repository : dataRepositories) {
-                    int records = repository.getNumRecords();
-                    if (records < DataRepository.dataRepositoriesMaxRecords) {
-                        selectedDataRepository = repository;
-                        logger.info("Repository selected for '{}': {} (currently contains {} records)", pi, selectedDataRepository.getName(),
-                                records);
-                        return;
-                    } else if (records > DataRepository.dataRepositoriesMaxRecords) {
-                        logger.warn("Repository '{}' contains {} records, the limit is {}, though.", repository.getName(), records,
-                                DataRepository.dataRepositoriesMaxRecords);
-                    }
+        // Find available repository
+        try {
+            for (DataRepository repository : dataRepositories) {
+                int records = repository.getNumRecords();
+                if (records < DataRepository.dataRepositoriesMaxRecords) {
+                    job.selectedDataRepository = repository;
+                    logger.info("Repository selected for '{}': {} (currently contains {} records)", pi, job.selectedDataRepository.getName(),
+                            records);
+                    return;
+                } else if (records > DataRepository.dataRepositoriesMaxRecords) {
+                    logger.warn("Repository '{}' contains {} records, the limit is {}, though.", repository.getName(), records,
+                            DataRepository.dataRepositoriesMaxRecords);
                 }
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
             }
-            logger.error("No data repository available for indexing. Please configure additional repositories. Exiting...");
-            throw new FatalIndexerException("No data repository available for indexing. Please configure additional repositories. Exiting...");
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
         }
+        logger.error("No data repository available for indexing. Please configure additional repositories. Exiting...");
+        throw new FatalIndexerException("No data repository available for indexing. Please configure additional repositories. Exiting...");
     }
 
     /**
@@ -570,23 +1260,18 @@ public class Hotfolder {
     private boolean handleDataFile(Path dataFile, boolean fromReindexQueue, Map<String, Boolean> reindexSettings) throws FatalIndexerException {
         logger.trace("handleDataFile: {}", dataFile);
         // Always unselect repository
-        selectedDataRepository = null;
-        dummyRepository = null;
+        JobContext job = jobContext.get();
+        job.selectedDataRepository = null;
+        job.dummyRepository = null;
         String filename = dataFile.getFileName().toString();
         try {
             if (filename.endsWith(".xml")) {
                 // INPUT o. UPDATE
+                // Hotfolder files only get here once the export completion tracker has found them to be stable
                 if (Files.size(dataFile) == 0) {
-                    // Check whether the file is actually empty or just hasn't finished copying yet
-                    try {
-                        Thread.sleep(WAIT_IF_FILE_EMPTY);
-                    } catch (InterruptedException e) {
-                    }
-                    if (Files.size(dataFile) == 0) {
-                        logger.error("Empty data file '{}' found, deleting...", dataFile.toAbsolutePath());
-                        Files.delete(dataFile);
-                        return false;
-                    }
+                    logger.error("Empty data file '{}' found, deleting...", dataFile.toAbsolutePath());
+                    Files.delete(dataFile);
+                    return false;
                 }
 
                 // Check file format and start the appropriate indexing routine
@@ -604,18 +1289,13 @@ public class Hotfolder {
                         return false;
                 }
 
-            } else if (filename.endsWith(".delete")) {
-                // DELETE
-                selectDataRepository(dataFile, null);
-                removeFromIndex(dataFile, true);
-            } else if (filename.endsWith(".purge")) {
-                // PURGE (delete with no "deleted" doc)
-                selectDataRepository(dataFile, null);
-                removeFromIndex(dataFile, false);
+            } else if (filename.endsWith(".delete") || filename.endsWith(".purge")) {
+                // DELETE or PURGE (delete with no "deleted" doc)
+                removeFromIndex(Collections.singletonList(dataFile));
             } else if (filename.endsWith(MetsIndexer.ANCHOR_UPDATE_EXTENSION)) {
                 // SUPERUPDATE
                 selectDataRepository(dataFile, null);
-                MetsIndexer.superupdate(dataFile, updatedMets, selectedDataRepository);
+                MetsIndexer.superupdate(dataFile, updatedMets, job.selectedDataRepository);
             } else if (filename.endsWith(DocUpdateIndexer.FILE_EXTENSION)) {
                 // Single Solr document update
                 updateSingleDocument(dataFile);
@@ -634,103 +1314,128 @@ public class Hotfolder {
     }
 
     /**
-     * Removes the document and its data folders represented by the file name.
+     * Removes the documents and data folders of all records represented by the given delete/purge file names. All records are resolved with a
+     * single Solr query and deleted in one batch. The given files are deleted afterwards.
      * 
-     * @param deleteFile {@link Path}
-     * @param trace A Lucene document with DATEDELETED timestamp will be created if true.
-     * @throws IOException in case of errors.
+     * @param deleteFiles .delete files (a trace document with DATEDELETED timestamp will be created) and/or .purge files
      * @throws FatalIndexerException
      */
-    private void removeFromIndex(Path deleteFile, boolean trace) throws IOException, FatalIndexerException {
-        String baseFileName = FilenameUtils.getBaseName(deleteFile.getFileName().toString());
+    private void removeFromIndex(List<Path> deleteFiles) throws FatalIndexerException {
+        Map<String, PendingDeletion> deletions = new LinkedHashMap<>();
         try {
-            // Check for empty file names, otherwise the entire content folders will be deleted!
-            if (StringUtils.isBlank(baseFileName)) {
-                logger.error("File '{}' contains no identifier, aborting...", deleteFile.getFileName());
-                return;
+            for (Path deleteFile : deleteFiles) {
+                String baseFileName = FilenameUtils.getBaseName(deleteFile.getFileName().toString());
+                // Check for empty file names, otherwise the entire content folders will be deleted!
+                if (StringUtils.isBlank(baseFileName)) {
+                    logger.error("File '{}' contains no identifier, aborting...", deleteFile.getFileName());
+                    continue;
+                }
+                deletions.put(baseFileName, new PendingDeletion(deleteFile, deleteFile.getFileName().toString().endsWith(".delete")));
             }
-
-            DataRepository useRepository = selectedDataRepository;
-            if (dummyRepository != null) {
-                useRepository = dummyRepository;
+            if (deletions.isEmpty()) {
+                return;
             }
 
-            Path actualXmlFile = Paths.get(useRepository.getDir(DataRepository.PARAM_INDEXED_METS).toAbsolutePath().toString(), baseFileName
-                    + ".xml");
-            if (!Files.exists(actualXmlFile)) {
-                actualXmlFile = Paths.get(useRepository.getDir(DataRepository.PARAM_INDEXED_LIDO).toAbsolutePath().toString(), baseFileName + ".xml");
+            for (String pi : deletions.keySet()) {
+                solrHelper.ensureVisible(pi);
             }
-            FileFormat format = FileFormat.UNKNOWN;
-            if (!Files.exists(actualXmlFile)) {
-                logger.warn("XML file '{}' not found.", actualXmlFile.getFileName().toString());
+            Map<String, SolrDocumentList> recordDocs;
+            try {
+                recordDocs = AbstractIndexer.findRecordDocuments(deletions.keySet(), solrHelper);
+            } catch (SolrServerException e) {
+                logger.error("{} record(s) could not be deleted.", deletions.size());
+                logger.error(e.getMessage(), e);
+                return;
             }
-            // Determine document format
-            String[] fields = { SolrConstants.SOURCEDOCFORMAT, SolrConstants.DATEDELETED };
-            SolrDocumentList result = solrHelper.search(SolrConstants.PI + ":" + baseFileName, Arrays.asList(fields));
-            if (!result.isEmpty()) {
-                SolrDocument doc = result.get(0);
-                format = FileFormat.getByName((String) doc.getFieldValue(SolrConstants.SOURCEDOCFORMAT));
+
+            // Determine data repository and document format
+            JobContext job = jobContext.get();
+            Map<String, Boolean> traceByPi = new LinkedHashMap<>();
+            for (String pi : deletions.keySet()) {
+                PendingDeletion deletion = deletions.get(pi);
+                SolrDocumentList docs = recordDocs.get(pi);
+                if (docs == null || !pi.equals(docs.get(0).getFieldValue(SolrConstants.PI))) {
+                    logger.error("Record '{}' not found in index.", pi);
+                    continue;
+                }
+                SolrDocument doc = docs.get(0);
+                job.selectedDataRepository = null;
+                job.dummyRepository = null;
+                String previousRepository = doc.getFieldValue(SolrConstants.DATAREPOSITORY) != null ? (String) doc.getFieldValue(
+                        SolrConstants.DATAREPOSITORY) : "?";
+                selectDataRepositoryForRecord(pi, previousRepository);
+                deletion.repository = getDataRepository();
+
+                deletion.xmlFile = Paths.get(deletion.repository.getDir(DataRepository.PARAM_INDEXED_METS).toAbsolutePath().toString(), pi
+                        + ".xml");
+                if (!Files.exists(deletion.xmlFile)) {
+                    deletion.xmlFile = Paths.get(deletion.repository.getDir(DataRepository.PARAM_INDEXED_LIDO).toAbsolutePath().toString(), pi
+                            + ".xml");
+                }
+                if (!Files.exists(deletion.xmlFile)) {
+                    logger.warn("XML file '{}' not found.", deletion.xmlFile.getFileName().toString());
+                }
+                FileFormat format = FileFormat.getByName((String) doc.getFieldValue(SolrConstants.SOURCEDOCFORMAT));
                 // Attempt to determine the file format by the path if no SOURCEDOCFORMAT field exists
                 if (format.equals(FileFormat.UNKNOWN)) {
-                    logger.warn("SOURCEDOCFORMAT not found, attempting to determine the format via the file path...");
-                    if (deleteFile.getParent().equals(useRepository.getDir(DataRepository.PARAM_INDEXED_METS))) {
+                    logger.warn("SOURCEDOCFORMAT not found for '{}', attempting to determine the format via the file path...", pi);
+                    if (deletion.deleteFile.getParent().equals(deletion.repository.getDir(DataRepository.PARAM_INDEXED_METS))) {
                         format = FileFormat.METS;
-                    } else if (deleteFile.getParent().equals(useRepository.getDir(DataRepository.PARAM_INDEXED_LIDO))) {
+                    } else if (deletion.deleteFile.getParent().equals(deletion.repository.getDir(DataRepository.PARAM_INDEXED_LIDO))) {
                         format = FileFormat.LIDO;
                     } else if (doc.containsKey(SolrConstants.DATEDELETED)) {
                         format = FileFormat.METS;
-                        trace = false;
-                        logger.info("Record '{}' is already a trace document and will be removed without a trace.", baseFileName);
+                        deletion.trace = false;
+                        logger.info("Record '{}' is already a trace document and will be removed without a trace.", pi);
                     }
                 }
-            } else {
-                logger.error("Record '{}' not found in index.", baseFileName);
+                switch (format) {
+                    case METS:
+                    case LIDO:
+                        if (deletion.trace) {
+                            logger.info("Deleting {} file '{}'...", format.name(), deletion.xmlFile.getFileName());
+                        } else {
+                            logger.info("Deleting {} file '{}' (no trace document will be created)...", format.name(), deletion.xmlFile
+                                    .getFileName());
+                        }
+                        traceByPi.put(pi, deletion.trace);
+                        break;
+                    default:
+                        logger.error("Unknown format: {}", format);
+                }
+            }
+            if (traceByPi.isEmpty()) {
                 return;
             }
 
-            boolean success = false;
-            switch (format) {
-                case METS:
-                    if (trace) {
-                        logger.info("Deleting {} file '{}'...", format.name(), actualXmlFile.getFileName());
-                    } else {
-                        logger.info("Deleting {} file '{}' (no trace document will be created)...", format.name(), actualXmlFile.getFileName());
-                    }
-                    success = AbstractIndexer.delete(baseFileName, trace, solrHelper);
-                    break;
-                case LIDO:
-                    if (trace) {
-                        logger.info("Deleting {} file '{}'...", format.name(), actualXmlFile.getFileName());
+            Set<String> deleted = AbstractIndexer.delete(traceByPi, recordDocs, solrHelper);
+            for (String pi : traceByPi.keySet()) {
+                PendingDeletion deletion = deletions.get(pi);
+                try {
+                    if (deleted.contains(pi)) {
+                        deletion.repository.deleteDataFoldersForRecord(pi);
+                        if (Files.exists(deletion.xmlFile)) {
+                            Path deletedFile = Paths.get(deletedMets.toAbsolutePath().toString(), deletion.xmlFile.getFileName().toString());
+                            Files.copy(deletion.xmlFile, deletedFile, StandardCopyOption.REPLACE_EXISTING);
+                            Files.delete(deletion.xmlFile);
+                            logger.info("'{}' has been successfully deleted.", deletion.xmlFile.getFileName());
+                        }
                     } else {
-                        logger.info("Deleting {} file '{}' (no trace document will be created)...", format.name(), actualXmlFile.getFileName());
+                        Path errorFile = Paths.get(errorMets.toAbsolutePath().toString(), pi + ".delete_error");
+                        Files.createFile(errorFile);
+                        logger.error("'{}' could not be deleted.", deletion.xmlFile.getFileName());
                     }
-                    success = AbstractIndexer.delete(baseFileName, trace, solrHelper);
-                    break;
-                default:
-                    logger.error("Unknown format: {}", format);
-                    return;
-            }
-            if (success) {
-                useRepository.deleteDataFoldersForRecord(baseFileName);
-                if (actualXmlFile.toFile().exists()) {
-                    Path deleted = Paths.get(deletedMets.toAbsolutePath().toString(), actualXmlFile.getFileName().toString());
-                    Files.copy(actualXmlFile, deleted, StandardCopyOption.REPLACE_EXISTING);
-                    Files.delete(actualXmlFile);
-                    logger.info("'{}' has been successfully deleted.", actualXmlFile.getFileName());
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
                 }
-            } else {
-                Path errorFile = Paths.get(errorMets.toAbsolutePath().toString(), baseFileName + ".delete_error");
-                Files.createFile(errorFile);
-                logger.error("'{}' could not be deleted.", actualXmlFile.getFileName());
             }
-        } catch (SolrServerException e) {
-            logger.error("'{}' could not be deleted.", baseFileName);
-            logger.error(e.getMessage(), e);
         } finally {
-            try {
-                Files.delete(deleteFile);
-            } catch (IOException e) {
-                logger.warn("'{}' could not be deleted.", deleteFile.toAbsolutePath());
+            for (Path deleteFile : deleteFiles) {
+                try {
+                    Files.delete(deleteFile);
+                } catch (IOException e) {
+                    logger.warn("'{}' could not be deleted.", deleteFile.toAbsolutePath());
+                }
             }
         }
     }
@@ -752,9 +1457,10 @@ public class Hotfolder {
         Map<String, Path> dataFolders = new HashMap<>();
 
         String fileNameRoot = FilenameUtils.getBaseName(metsFile.getFileName().toString());
+        Path dataFolderParent = getDataFolderParent(metsFile);
 
         // Check data folders in the hotfolder
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new StringBuilder(fileNameRoot).append("_*").toString())) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new StringBuilder(fileNameRoot).append("_*").toString())) {
             for (Path path : stream) {
                 logger.info("Found data folder: {}", path.getFileName());
                 String fileNameSansRoot = path.getFileName().toString().substring(fileNameRoot.length());
@@ -847,12 +1553,13 @@ public class Hotfolder {
             reindexSettings.put("reindexOverview", true);
         }
 
+        JobContext job = jobContext.get();
         try {
-            currentIndexer = new MetsIndexer(this);
-            resp = ((MetsIndexer) currentIndexer).index(metsFile, fromReindexQueue, dataFolders, null, Configuration.getInstance()
+            job.currentIndexer = new MetsIndexer(this);
+            resp = ((MetsIndexer) job.currentIndexer).index(metsFile, fromReindexQueue, dataFolders, null, Configuration.getInstance()
                     .getPageCountStart());
         } finally {
-            currentIndexer = null;
+            job.currentIndexer = null;
         }
 
         if (StringUtils.isNotBlank(resp[0]) && resp[1] == null) {
@@ -860,7 +1567,7 @@ public class Hotfolder {
             String newMetsFileName = resp[0];
             String pi = FilenameUtils.getBaseName(newMetsFileName);
             // kopieren
-            Path indexed = Paths.get(selectedDataRepository.getDir(DataRepository.PARAM_INDEXED_METS).toAbsolutePath().toString(), newMetsFileName);
+            Path indexed = Paths.get(job.selectedDataRepository.getDir(DataRepository.PARAM_INDEXED_METS).toAbsolutePath().toString(), newMetsFileName);
             if (metsFile.equals(indexed)) {
                 logger.debug("'{}' is an existing indexed file - not moving it.", metsFile.getFileName());
                 return;
@@ -875,14 +1582,14 @@ public class Hotfolder {
             }
             Files.copy(metsFile, indexed, StandardCopyOption.REPLACE_EXISTING);
 
-            if (dummyRepository != null) {
+            if (job.dummyRepository != null) {
                 // Move non-repository data folders to the selected repository
-                dummyRepository.moveDataFoldersToRepository(selectedDataRepository, FilenameUtils.getBaseName(newMetsFileName));
+                job.dummyRepository.moveDataFoldersToRepository(job.selectedDataRepository, FilenameUtils.getBaseName(newMetsFileName));
             }
 
             // Copy and delete media folder
             if (reindexSettings.get("reindexMedia") == null || !reindexSettings.get("reindexMedia")) {
-                if (selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_MEDIA), DataRepository.PARAM_MEDIA, pi) > 0) {
+                if (job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_MEDIA), DataRepository.PARAM_MEDIA, pi) > 0) {
                     String msg = Utils.removeRecordImagesFromCache(FilenameUtils.getBaseName(resp[0]));
                     if (msg != null) {
                         logger.info(msg);
@@ -891,65 +1598,65 @@ public class Hotfolder {
             }
             // Copy and delete pyramid TIFF folder
             if (reindexSettings.get("reindexPyramidTiffs") == null || !reindexSettings.get("reindexPyramidTiffs")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_TILEDIMAGES), DataRepository.PARAM_TILEDIMAGES,
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_TILEDIMAGES), DataRepository.PARAM_TILEDIMAGES,
                         pi);
             }
             // Copy and delete ALTO folder
             if (reindexSettings.get("reindexAlto") == null || !reindexSettings.get("reindexAlto")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTO), DataRepository.PARAM_ALTO, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTO), DataRepository.PARAM_ALTO, pi);
             }
             // Copy and delete crowdsourcing ALTO folder
-            if ((reindexSettings.get("reindexCrowdAlto") == null || !reindexSettings.get("reindexCrowdAlto")) && selectedDataRepository.getDir(
+            if ((reindexSettings.get("reindexCrowdAlto") == null || !reindexSettings.get("reindexCrowdAlto")) && job.selectedDataRepository.getDir(
                     DataRepository.PARAM_ALTOCROWD) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTOCROWD), DataRepository.PARAM_ALTOCROWD, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTOCROWD), DataRepository.PARAM_ALTOCROWD, pi);
             }
             // Copy and delete fulltext folder
             if (reindexSettings.get("reindexText") == null || !reindexSettings.get("reindexText")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXT), DataRepository.PARAM_FULLTEXT, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXT), DataRepository.PARAM_FULLTEXT, pi);
             }
             // Copy and delete crowdsourcing fulltext folder
-            if ((reindexSettings.get("reindexCrowdText") == null || !reindexSettings.get("reindexCrowdText")) && selectedDataRepository.getDir(
+            if ((reindexSettings.get("reindexCrowdText") == null || !reindexSettings.get("reindexCrowdText")) && job.selectedDataRepository.getDir(
                     DataRepository.PARAM_FULLTEXTCROWD) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD),
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD),
                         DataRepository.PARAM_FULLTEXTCROWD, pi);
             }
             // Copy and delete TEI word coordinates folder
             if (reindexSettings.get("reindexWordCoords") == null || !reindexSettings.get("reindexWordCoords")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_TEI), DataRepository.PARAM_TEI, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_TEI), DataRepository.PARAM_TEI, pi);
             }
 
             // Copy and delete ABBYY word coordinates folder
             if (reindexSettings.get("reindexAbbyy") == null || !reindexSettings.get("reindexAbbyy")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ABBYY), DataRepository.PARAM_ABBYY, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ABBYY), DataRepository.PARAM_ABBYY, pi);
             }
 
             // Copy and delete MIX files
             if (reindexSettings.get("reindexMix") == null || !reindexSettings.get("reindexMix")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_MIX), DataRepository.PARAM_MIX, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_MIX), DataRepository.PARAM_MIX, pi);
             }
 
             // Copy and delete page PDF files
             if (dataFolders.get(DataRepository.PARAM_PAGEPDF) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_PAGEPDF), DataRepository.PARAM_PAGEPDF, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_PAGEPDF), DataRepository.PARAM_PAGEPDF, pi);
             }
 
             // Copy and delete original content files
             if (dataFolders.get(DataRepository.PARAM_SOURCE) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_SOURCE), DataRepository.PARAM_SOURCE, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_SOURCE), DataRepository.PARAM_SOURCE, pi);
             }
 
             // Copy and delete user generated content files
             if (reindexSettings.get("reindexUGC") == null || !reindexSettings.get("reindexUGC")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_UGC), DataRepository.PARAM_UGC, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_UGC), DataRepository.PARAM_UGC, pi);
             }
 
             // Copy and delete overview page text files
             if (reindexSettings.get("reindexOverview") == null || !reindexSettings.get("reindexOverview")) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_OVERVIEW), DataRepository.PARAM_OVERVIEW, pi);
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_OVERVIEW), DataRepository.PARAM_OVERVIEW, pi);
             }
 
             // Delete unsupported data folders
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new StringBuilder(fileNameRoot).append("_*").toString())) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new StringBuilder(fileNameRoot).append("_*").toString())) {
                 for (Path path : stream) {
                     if (path.getFileName().toString().startsWith(fileNameRoot) && Files.isDirectory(path)) {
                         if (Utils.deleteDirectory(path)) {
@@ -981,13 +1688,13 @@ public class Hotfolder {
         } else {
             // Error
             if (deleteContentFilesOnFailure) {
-                // Delete all data folders in hotfolder
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new DirectoryStream.Filter<Path>() {
+                // Delete the record's image data folders in hotfolder (other records may still be indexed or exported concurrently)
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new DirectoryStream.Filter<Path>() {
 
                     @Override
                     public boolean accept(Path entry) throws IOException {
-                        return Files.isDirectory(entry) && (entry.getFileName().toString().endsWith("_tif") || entry.getFileName().toString()
-                                .endsWith("_media"));
+                        String name = entry.getFileName().toString();
+                        return Files.isDirectory(entry) && (name.equals(fileNameRoot + "_tif") || name.equals(fileNameRoot + "_media"));
                     }
                 });) {
                     for (Path path : stream) {
@@ -1068,9 +1775,10 @@ public class Hotfolder {
         boolean useOldPyramidTiffs = false;
 
         String fileNameRoot = FilenameUtils.getBaseName(lidoFile.getFileName().toString());
+        Path dataFolderParent = getDataFolderParent(lidoFile);
 
         // Check data folders in the hotfolder
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new StringBuilder(fileNameRoot).append("_*").toString())) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new StringBuilder(fileNameRoot).append("_*").toString())) {
             for (Path path : stream) {
                 logger.info("Found data folder: {}", path.getFileName());
                 String fileNameSansRoot = path.getFileName().toString().substring(fileNameRoot.length());
@@ -1106,30 +1814,31 @@ public class Hotfolder {
         logger.info("File contains {} LIDO documents.", lidoDocs.size());
         XMLOutputter outputter = new XMLOutputter();
         boolean errors = false;
+        JobContext job = jobContext.get();
         try {
             for (Document doc : lidoDocs) {
-                currentIndexer = new LidoIndexer(this);
-                resp = ((LidoIndexer) currentIndexer).index(doc, dataFolders, null, Configuration.getInstance().getPageCountStart());
+                job.currentIndexer = new LidoIndexer(this);
+                resp = ((LidoIndexer) job.currentIndexer).index(doc, dataFolders, null, Configuration.getInstance().getPageCountStart());
                 if (!"ERROR".equals(resp[0])) {
                     // String newMetsFileName = URLEncoder.encode(resp[0], "utf-8");
                     String identifier = resp[0];
                     String newLidoFileName = identifier + ".xml";
 
                     // Write invidivual LIDO records as separate files
-                    Path indexed = Paths.get(selectedDataRepository.getDir(DataRepository.PARAM_INDEXED_LIDO).toAbsolutePath().toString(),
+                    Path indexed = Paths.get(job.selectedDataRepository.getDir(DataRepository.PARAM_INDEXED_LIDO).toAbsolutePath().toString(),
                             newLidoFileName);
                     try (FileOutputStream out = new FileOutputStream(indexed.toFile())) {
                         outputter.output(doc, out);
                     }
 
                     // Move non-repository data directories to the selected repository
-                    if (dummyRepository != null) {
-                        dummyRepository.moveDataFoldersToRepository(selectedDataRepository, identifier);
+                    if (job.dummyRepository != null) {
+                        job.dummyRepository.moveDataFoldersToRepository(job.selectedDataRepository, identifier);
                     }
 
                     // copy media files
                     boolean mediaFilesCopied = false;
-                    Path destMediaDir = Paths.get(selectedDataRepository.getDir(DataRepository.PARAM_MEDIA).toAbsolutePath().toString(), identifier);
+                    Path destMediaDir = Paths.get(job.selectedDataRepository.getDir(DataRepository.PARAM_MEDIA).toAbsolutePath().toString(), identifier);
                     if (!Files.exists(destMediaDir)) {
                         Files.createDirectory(destMediaDir);
                     }
@@ -1140,7 +1849,7 @@ public class Hotfolder {
                         logger.info("Copying image files...");
                         String[] imgFileNamesSplit = resp[1].split(";");
                         Set<String> imgFileNames = new HashSet<>(Arrays.asList(imgFileNamesSplit));
-                        Path destPyramidTiffDir = Paths.get(selectedDataRepository.getDir(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath()
+                        Path destPyramidTiffDir = Paths.get(job.selectedDataRepository.getDir(DataRepository.PARAM_TILEDIMAGES).toAbsolutePath()
                                 .toString(), identifier);
 
                         try (DirectoryStream<Path> mediaFileStream = Files.newDirectoryStream(dataFolders.get(DataRepository.PARAM_MEDIA))) {
@@ -1228,7 +1937,7 @@ public class Hotfolder {
 
                     // Copy and delete MIX files
                     if (!reindexSettings.get("reindexMix")) {
-                        Path destMixDir = Paths.get(selectedDataRepository.getDir(DataRepository.PARAM_MIX).toAbsolutePath().toString(), identifier);
+                        Path destMixDir = Paths.get(job.selectedDataRepository.getDir(DataRepository.PARAM_MIX).toAbsolutePath().toString(), identifier);
                         if (!Files.exists(destMixDir)) {
                             Files.createDirectory(destMixDir);
                         }
@@ -1257,7 +1966,7 @@ public class Hotfolder {
                 }
             }
         } finally {
-            currentIndexer = null;
+            job.currentIndexer = null;
         }
 
         // Copy original LIDO file into the orig folder
@@ -1314,9 +2023,10 @@ public class Hotfolder {
         Map<String, Path> dataFolders = new HashMap<>();
 
         String fileNameRoot = FilenameUtils.getBaseName(dataFile.getFileName().toString());
+        Path dataFolderParent = getDataFolderParent(dataFile);
 
         // Check data folders in the hotfolder
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new StringBuilder(fileNameRoot).append("_*").toString())) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new StringBuilder(fileNameRoot).append("_*").toString())) {
             for (Path path : stream) {
                 logger.info("Found data folder: {}", path.getFileName());
                 String fileNameSansRoot = path.getFileName().toString().substring(fileNameRoot.length());
@@ -1336,33 +2046,34 @@ public class Hotfolder {
             }
         }
 
+        JobContext job = jobContext.get();
         try {
-            currentIndexer = new DocUpdateIndexer(this);
-            resp = ((DocUpdateIndexer) currentIndexer).index(dataFile, dataFolders);
+            job.currentIndexer = new DocUpdateIndexer(this);
+            resp = ((DocUpdateIndexer) job.currentIndexer).index(dataFile, dataFolders);
         } finally {
-            currentIndexer = null;
+            job.currentIndexer = null;
         }
 
         if (StringUtils.isNotBlank(resp[0]) && resp[1] == null) {
             String pi = resp[0];
 
             // Copy and delete crowdsourcing ALTO folder
-            if (dataFolders.get(DataRepository.PARAM_ALTOCROWD) != null && selectedDataRepository.getDir(DataRepository.PARAM_ALTOCROWD) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTOCROWD), DataRepository.PARAM_ALTOCROWD, pi);
+            if (dataFolders.get(DataRepository.PARAM_ALTOCROWD) != null && job.selectedDataRepository.getDir(DataRepository.PARAM_ALTOCROWD) != null) {
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_ALTOCROWD), DataRepository.PARAM_ALTOCROWD, pi);
             }
             // Copy and delete crowdsourcing fulltext folder
-            if (dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD) != null && selectedDataRepository.getDir(
+            if (dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD) != null && job.selectedDataRepository.getDir(
                     DataRepository.PARAM_FULLTEXTCROWD) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD),
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_FULLTEXTCROWD),
                         DataRepository.PARAM_FULLTEXTCROWD, pi);
             }
             // Copy and delete user generated content files
-            if (dataFolders.get(DataRepository.PARAM_UGC) != null && selectedDataRepository.getDir(DataRepository.PARAM_UGC) != null) {
-                selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_UGC), DataRepository.PARAM_UGC, pi);
+            if (dataFolders.get(DataRepository.PARAM_UGC) != null && job.selectedDataRepository.getDir(DataRepository.PARAM_UGC) != null) {
+                job.selectedDataRepository.copyAndDeleteDataFolder(dataFolders.get(DataRepository.PARAM_UGC), DataRepository.PARAM_UGC, pi);
             }
 
             // Delete unsupported data folders
-            try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new StringBuilder(fileNameRoot).append("_*").toString())) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new StringBuilder(fileNameRoot).append("_*").toString())) {
                 for (Path path : stream) {
                     if (path.getFileName().toString().startsWith(fileNameRoot) && Files.isDirectory(path)) {
                         if (Utils.deleteDirectory(path)) {
@@ -1383,13 +2094,13 @@ public class Hotfolder {
         } else {
             // Error
             if (deleteContentFilesOnFailure) {
-                // Delete all data folders in hotfolder
-                try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolderPath, new DirectoryStream.Filter<Path>() {
+                // Delete the record's image data folders in hotfolder (other records may still be indexed or exported concurrently)
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dataFolderParent, new DirectoryStream.Filter<Path>() {
 
                     @Override
                     public boolean accept(Path entry) throws IOException {
-                        return Files.isDirectory(entry) && (entry.getFileName().toString().endsWith("_tif") || entry.getFileName().toString()
-                                .endsWith("_media"));
+                        String name = entry.getFileName().toString();
+                        return Files.isDirectory(entry) && (name.equals(fileNameRoot + "_tif") || name.equals(fileNameRoot + "_media"));
                     }
                 });) {
                     for (Path path : stream) {
@@ -1444,23 +2155,7 @@ public class Hotfolder {
      * @return
      */
     protected boolean isDataFolderExportDone(Path recordFile) {
-        //        if (logger.isDebugEnabled()) {
-        //            logger.debug("Hotfolder: Checking for ongoing export for '" + recordFile.getName() + "'...");
-        //        }
-        DataFolderSizeCounter sc = new DataFolderSizeCounter(recordFile.getFileName().toString());
-        hotfolderPath.toFile().listFiles(sc);
-        long total1 = sc.getTotal();
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            logger.error("Error checking the hotfolder size.", e);
-            return false;
-        }
-        sc = new DataFolderSizeCounter(recordFile.getFileName().toString());
-        hotfolderPath.toFile().listFiles(sc);
-        long total2 = sc.getTotal();
-
-        return total1 == total2;
+        return exportCompletionTracker.isExportDone(recordFile);
     }
 
     /**
@@ -1489,37 +2184,34 @@ public class Hotfolder {
         return count;
     }
 
-    protected class DataFolderSizeCounter implements FileFilter {
-
-        private String recordFileName;
-        private long total = 0;
+    /**
+     * State belonging to a single indexing job. Each worker thread has its own instance so that concurrently indexed records do not overwrite each
+     * other's repository selection.
+     */
+    private static class JobContext {
 
-        /** Empty constructor. */
-        public DataFolderSizeCounter(String recordFileName) {
-            this.recordFileName = recordFileName;
-        }
+        private AbstractIndexer currentIndexer;
+        private DataRepository selectedDataRepository;
+        private DataRepository dummyRepository;
+    }
 
-        @Override
-        public boolean accept(File pathname) {
-            if (pathname.getName().startsWith(FilenameUtils.getBaseName(recordFileName) + "_")) {
-                if (pathname.isFile()) {
-                    //                    total += pathname.length();
-                    total += FileUtils.sizeOf(pathname);
-                } else {
-                    pathname.listFiles(this);
-                    total += FileUtils.sizeOfDirectory(pathname);
-                }
-            }
+    /**
+     * Per-record state of a batched deletion.
+     */
+    private static class PendingDeletion {
 
-            return false;
-        }
+        private final Path deleteFile;
+        private boolean trace;
+        private DataRepository repository;
+        private Path xmlFile;
 
-        public long getTotal() {
-            return total;
+        private PendingDeletion(Path deleteFile, boolean trace) {
+            this.deleteFile = deleteFile;
+            this.trace = trace;
         }
     }
 
-    public Queue<Path> getReindexQueue() {
+    public ReindexQueue getReindexQueue() {
         return reindexQueue;
     }
 
@@ -1527,6 +2219,14 @@ public class Hotfolder {
         return hotfolderPath;
     }
 
+    /**
+     * @return Folder for files written by this node for later processing (e.g. anchor updates); the hotfolder itself unless the hotfolder is shared
+     *         with other nodes
+     */
+    public Path getWorkingDirectory() {
+        return claims != null ? claims.getWorkingDirectory() : hotfolderPath;
+    }
+
     public Path getTempFolder() {
         return tempFolderPath;
     }
@@ -1594,24 +2294,44 @@ public class Hotfolder {
     }
 
     /**
-     * Returns the currently selected data repository. If the current record is already indexed, the dummy repository (= old style fodler structure)
-     * is returned.
+     * Returns the data repository selected for the record that is being indexed by the current thread.
      * 
      * @return
      */
     public DataRepository getSelectedRepository() {
-        return selectedDataRepository;
+        return jobContext.get().selectedDataRepository;
     }
 
+    /**
+     * Returns the data repository in which the current thread's record is presently stored. If the current record is already indexed, the dummy
+     * repository (= old style fodler structure) is returned.
+     * 
+     * @return
+     */
     public DataRepository getDataRepository() {
-        if (dummyRepository != null) {
-            return dummyRepository;
+        JobContext job = jobContext.get();
+        if (job.dummyRepository != null) {
+            return job.dummyRepository;
         }
-        return selectedDataRepository;
+        return job.selectedDataRepository;
     }
 
     public void setDummyRepository(DataRepository dummyRepository) {
-        this.dummyRepository = dummyRepository;
+        jobContext.get().dummyRepository = dummyRepository;
+    }
+
+    /**
+     * @return the anchorDebounceInterval
+     */
+    public long getAnchorDebounceInterval() {
+        return anchorDebounceInterval;
+    }
+
+    /**
+     * @return the recordLockManager
+     */
+    public RecordLockManager getRecordLockManager() {
+        return recordLockManager;
     }
 
     /**
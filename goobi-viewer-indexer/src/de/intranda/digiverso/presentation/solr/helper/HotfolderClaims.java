@@ -0,0 +1,460 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.MetsIndexer;
+
+/**
+ * Claim protocol that allows several indexer nodes to drain the same hotfolder. A node claims a data file by atomically renaming it into its own
+ * working directory below <code>.nodes/</code>, which only one node can succeed at; the record's data folders follow. Each node renews a lease
+ * file at regular intervals. If another node's lease has not been renewed for longer than the lease timeout (as observed by the local clock, so
+ * that clock skew between hosts does not matter) or the lease has been removed, the node is considered gone and the contents of its working
+ * directory are recovered: claimed files are released back into the hotfolder and pending re-index jobs are adopted.
+ */
+public class HotfolderClaims implements Closeable {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggerFactory.getLogger(HotfolderClaims.class);
+
+    static final String NODES_FOLDER = ".nodes";
+    static final String LEASE_EXTENSION = ".lease";
+    static final String RECOVERY_INFIX = ".recovering.";
+    /** Node ID value that makes each JVM use a unique node ID. */
+    public static final String AUTO_NODE_ID = "auto";
+
+    private final Path hotfolderPath;
+    private final Path nodesPath;
+    private final String nodeId;
+    private final Path workingDirectory;
+    private final Path leaseFile;
+    private final long leaseTimeout;
+    /** Last observed lease modification time and the local time of that observation, per foreign node. */
+    private final Map<String, long[]> observedLeases = new HashMap<>();
+    private long lastRecoveryCheck = 0;
+    private ScheduledExecutorService heartbeatExecutor;
+
+    /**
+     * Registers this node with the given hotfolder by creating its lease file and working directory.
+     * 
+     * @param hotfolderPath Shared hotfolder
+     * @param nodeId Unique identifier of this node (letters, digits, '-' and '_'); <code>auto</code> to derive one from host name and process ID
+     * @param leaseTimeout Time (in ms) after which a node whose lease has not been renewed is considered gone
+     * @throws IOException
+     * @should create lease file and working directory
+     * @should reject invalid node ids
+     */
+    public HotfolderClaims(Path hotfolderPath, String nodeId, long leaseTimeout) throws IOException {
+        if (AUTO_NODE_ID.equals(nodeId)) {
+            nodeId = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9_-]", "_");
+        }
+        if (nodeId == null || !nodeId.matches("[A-Za-z0-9_-]+")) {
+            throw new IllegalArgumentException("Invalid node ID: " + nodeId);
+        }
+        this.hotfolderPath = hotfolderPath.toAbsolutePath();
+        this.nodesPath = this.hotfolderPath.resolve(NODES_FOLDER);
+        this.nodeId = nodeId;
+        this.workingDirectory = nodesPath.resolve(nodeId);
+        this.leaseFile = nodesPath.resolve(nodeId + LEASE_EXTENSION);
+        this.leaseTimeout = leaseTimeout;
+        // The lease must exist before the working directory, otherwise other nodes might consider the directory abandoned
+        Files.createDirectories(nodesPath);
+        writeLease();
+        Files.createDirectories(workingDirectory);
+        logger.info("Hotfolder node '{}' registered, working directory: {}", nodeId, workingDirectory);
+    }
+
+    /**
+     * Starts a daemon thread that renews the lease file several times per lease timeout.
+     */
+    public synchronized void startHeartbeat() {
+        if (heartbeatExecutor != null) {
+            return;
+        }
+        heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hotfolder-lease-" + nodeId);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1, leaseTimeout / 4);
+        heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    renewLease();
+                } catch (IOException e) {
+                    logger.error("Lease for node '{}' could not be renewed: {}", nodeId, e.getMessage());
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renews this node's lease. Re-creates the working directory if another node has recovered it in the meantime (e.g. after a long pause of
+     * this JVM).
+     * 
+     * @throws IOException
+     */
+    public void renewLease() throws IOException {
+        writeLease();
+        if (!Files.isDirectory(workingDirectory)) {
+            logger.warn("Working directory of node '{}' has been recovered by another node, files claimed earlier are no longer available.",
+                    nodeId);
+            Files.createDirectories(workingDirectory);
+        }
+    }
+
+    private void writeLease() throws IOException {
+        Files.write(leaseFile, String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Checks whether this node still holds a file with the same name as the given hotfolder file, or data folders for the same record, e.g.
+     * because an earlier delivery of the record is queued or being indexed.
+     * 
+     * @param file Data file in the hotfolder
+     * @return true if the working directory contains the file or data folders of the same record; false otherwise
+     * @throws IOException
+     */
+    public boolean isClaimed(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        return Files.exists(workingDirectory.resolve(fileName)) || !listDataFolders(workingDirectory, FilenameUtils.getBaseName(fileName))
+                .isEmpty();
+    }
+
+    /**
+     * Claims the given hotfolder file for this node by moving it into the working directory, followed by its data folders. Since renaming would
+     * replace an existing file, a file whose name is still claimed by this node is not claimed again. If a data folder cannot be moved, the file and
+     * the data folders moved so far are released back into the hotfolder.
+     * 
+     * @param file Data file in the hotfolder
+     * @return Path of the claimed file in the working directory; null if another node has claimed the file first
+     * @throws FileAlreadyExistsException if a file or data folders of the same name are still claimed by this node
+     * @throws IOException
+     * @should move file and data folders into working directory
+     * @should return null if file already claimed
+     * @should not move data folders of other records
+     * @should grant each file to exactly one node across jvms
+     * @should not replace file that is still claimed
+     */
+    public synchronized Path claim(Path file) throws IOException {
+        Path target = workingDirectory.resolve(file.getFileName().toString());
+        // Only this node writes into its working directory, so nothing can be claimed under the same name between this check and the move
+        if (isClaimed(file)) {
+            throw new FileAlreadyExistsException(target.toString(), null, "still claimed by node '" + nodeId + "'");
+        }
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            logger.debug("'{}' has already been claimed by another node.", file.getFileName());
+            return null;
+        }
+        logger.debug("'{}' claimed by node '{}'.", file.getFileName(), nodeId);
+        String baseName = FilenameUtils.getBaseName(file.getFileName().toString());
+        List<Path> claimedDataFolders = new ArrayList<>();
+        for (Path dataFolder : listDataFolders(file.toAbsolutePath().getParent(), baseName)) {
+            Path dataFolderTarget = workingDirectory.resolve(dataFolder.getFileName().toString());
+            try {
+                Files.move(dataFolder, dataFolderTarget, StandardCopyOption.ATOMIC_MOVE);
+                claimedDataFolders.add(dataFolderTarget);
+            } catch (NoSuchFileException e) {
+                logger.warn("Data folder '{}' disappeared while claiming '{}'.", dataFolder.getFileName(), file.getFileName());
+            } catch (IOException e) {
+                logger.error("Data folder '{}' could not be claimed: {}", dataFolder.getFileName(), e.getMessage());
+                if (release(target, file, claimedDataFolders)) {
+                    throw e;
+                }
+                // The file cannot be given back, so it must be indexed from the working directory with the data folders claimed so far
+                logger.warn("'{}' could not be released and will be indexed without the remaining data folders.", file.getFileName());
+                break;
+            }
+        }
+
+        return target;
+    }
+
+    /**
+     * Moves a partially claimed file back into the hotfolder. The data folders are moved first, so that no other node can claim the file without
+     * them.
+     * 
+     * @param claimedFile Claimed file in the working directory
+     * @param originalFile Original location of the file in the hotfolder
+     * @param claimedDataFolders Data folders in the working directory that have been claimed with the file
+     * @return true if the file and all given data folders are back in the hotfolder; false otherwise
+     */
+    private boolean release(Path claimedFile, Path originalFile, List<Path> claimedDataFolders) {
+        Path folder = originalFile.toAbsolutePath().getParent();
+        try {
+            for (Path dataFolder : claimedDataFolders) {
+                Path originalDataFolder = folder.resolve(dataFolder.getFileName().toString());
+                if (Files.exists(originalDataFolder)) {
+                    throw new FileAlreadyExistsException(originalDataFolder.toString());
+                }
+                Files.move(dataFolder, originalDataFolder, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (Files.exists(originalFile)) {
+                throw new FileAlreadyExistsException(originalFile.toString());
+            }
+            Files.move(claimedFile, originalFile, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("'{}' has been released back into the hotfolder.", originalFile.getFileName());
+            return true;
+        } catch (IOException e) {
+            logger.error("'{}' could not be released: {}", claimedFile.getFileName(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Recovers the working directories of all nodes whose lease has expired or has been removed. Files claimed by these nodes are moved back into
+     * the hotfolder; re-index jobs from their queues are added to the given queue. Anchor update files are taken over into this node's working
+     * directory, since they are only valid together with their queue entries. Only one node can recover a given working directory. Checks are
+     * performed at most a few times per lease timeout.
+     * 
+     * @param queue Re-index queue of this node
+     * @param journalFileName File name of the re-index queue journal in a working directory
+     * @return Number of files released back into the hotfolder
+     * @should recover nodes without lease
+     * @should recover nodes whose lease has not been renewed
+     * @should not recover nodes with renewed lease
+     * @should adopt reindex jobs and anchor update files
+     */
+    public synchronized int recoverStaleNodes(ReindexQueue queue, String journalFileName) {
+        long now = System.currentTimeMillis();
+        if (now - lastRecoveryCheck < leaseTimeout / 4) {
+            return 0;
+        }
+        lastRecoveryCheck = now;
+        int ret = 0;
+        List<Path> candidates = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(nodesPath)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path) && !path.equals(workingDirectory)) {
+                    candidates.add(path);
+                }
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return 0;
+        }
+        for (Path nodeDirectory : candidates) {
+            String name = nodeDirectory.getFileName().toString();
+            String owner = name.contains(RECOVERY_INFIX) ? name.substring(name.lastIndexOf(RECOVERY_INFIX) + RECOVERY_INFIX.length()) : name;
+            if (!owner.equals(nodeId) && !isLeaseExpired(owner, now)) {
+                continue;
+            }
+            String originalName = name.contains(RECOVERY_INFIX) ? name.substring(0, name.indexOf(RECOVERY_INFIX)) : name;
+            Path recoveryDirectory = nodeDirectory;
+            if (!owner.equals(nodeId)) {
+                // Atomic rename, so that only one node recovers this directory
+                recoveryDirectory = nodesPath.resolve(originalName + RECOVERY_INFIX + nodeId);
+                try {
+                    Files.move(nodeDirectory, recoveryDirectory, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    logger.debug("'{}' is being recovered by another node.", name);
+                    continue;
+                }
+                observedLeases.remove(owner);
+                try {
+                    Files.deleteIfExists(nodesPath.resolve(owner + LEASE_EXTENSION));
+                } catch (IOException e) {
+                    logger.warn("Lease of node '{}' could not be deleted: {}", owner, e.getMessage());
+                }
+            }
+            logger.info("Node '{}' is gone, recovering its working directory...", owner);
+            try {
+                ret += recover(recoveryDirectory, nodesPath.resolve(originalName), queue, journalFileName);
+                Utils.deleteDirectory(recoveryDirectory);
+            } catch (IOException e) {
+                logger.error("Working directory '{}' could not be recovered: {}", recoveryDirectory, e.getMessage());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Checks whether the lease of the given foreign node has expired. A lease expires if its file is missing or if its modification time has not
+     * changed for at least the lease timeout.
+     * 
+     * @param owner
+     * @param now
+     * @return
+     */
+    private boolean isLeaseExpired(String owner, long now) {
+        Path lease = nodesPath.resolve(owner + LEASE_EXTENSION);
+        long modified;
+        try {
+            modified = Files.getLastModifiedTime(lease).toMillis();
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            logger.warn("Lease of node '{}' could not be read: {}", owner, e.getMessage());
+            return false;
+        }
+        long[] observed = observedLeases.get(owner);
+        if (observed == null || observed[0] != modified) {
+            observedLeases.put(owner, new long[] { modified, now });
+            return false;
+        }
+
+        return now - observed[1] >= leaseTimeout;
+    }
+
+    /**
+     * Moves the contents of the given working directory out of the way.
+     * 
+     * @param recoveryDirectory Working directory being recovered
+     * @param originalDirectory Original location of the working directory (as referenced in its journal)
+     * @param queue Re-index queue of this node
+     * @param journalFileName
+     * @return Number of files released back into the hotfolder
+     * @throws IOException
+     */
+    private int recover(Path recoveryDirectory, Path originalDirectory, ReindexQueue queue, String journalFileName) throws IOException {
+        int ret = 0;
+        Set<String> adopted = new HashSet<>();
+        Path journal = recoveryDirectory.resolve(journalFileName);
+        if (Files.isRegularFile(journal)) {
+            ReindexQueue oldQueue = new ReindexQueue(journal);
+            for (ReindexQueue.Entry entry : oldQueue.getEntries()) {
+                if (!entry.isReindex()) {
+                    // Hotfolder files are released below
+                    continue;
+                }
+                Path file = entry.getFile().toAbsolutePath();
+                if (originalDirectory.equals(file.getParent())) {
+                    // Anchor update files written by the other node
+                    Path source = recoveryDirectory.resolve(file.getFileName().toString());
+                    if (!Files.isRegularFile(source)) {
+                        continue;
+                    }
+                    file = workingDirectory.resolve(file.getFileName().toString());
+                    Files.move(source, file, StandardCopyOption.REPLACE_EXISTING);
+                    adopted.add(file.getFileName().toString());
+                }
+                queue.add(file, entry.getPriority());
+                logger.info("Adopted re-index job for '{}'.", file.getFileName());
+            }
+            Files.delete(journal);
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(recoveryDirectory)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                if (adopted.contains(fileName)) {
+                    continue;
+                }
+                if (fileName.endsWith(MetsIndexer.ANCHOR_UPDATE_EXTENSION)) {
+                    logger.info("Found file '{}' which is not in the re-index queue. This file will be deleted.", fileName);
+                    Files.delete(path);
+                    continue;
+                }
+                try {
+                    Files.move(path, hotfolderPath.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+                    logger.info("Released '{}' back into the hotfolder.", fileName);
+                    ret++;
+                } catch (FileAlreadyExistsException e) {
+                    // A newer delivery of the same record has arrived in the meantime
+                    logger.warn("'{}' already exists in the hotfolder, discarding the recovered copy.", fileName);
+                    if (Files.isDirectory(path)) {
+                        Utils.deleteDirectory(path);
+                    } else {
+                        Files.delete(path);
+                    }
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Lists the data folders of the given record, i.e. <code>&lt;baseName&gt;_&lt;type&gt;</code> directories (but not the data folders of
+     * other records whose identifier starts with <code>&lt;baseName&gt;_</code>).
+     * 
+     * @param folder
+     * @param baseName
+     * @return
+     * @throws IOException
+     */
+    private static List<Path> listDataFolders(Path folder, String baseName) throws IOException {
+        List<Path> ret = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, baseName + "_*")) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path) && !path.getFileName().toString().substring(baseName.length() + 1).contains("_")) {
+                    ret.add(path);
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Stops renewing the lease and removes it, so that other nodes can take over this node's remaining work right away.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (heartbeatExecutor != null) {
+            heartbeatExecutor.shutdownNow();
+            heartbeatExecutor = null;
+        }
+        Files.deleteIfExists(leaseFile);
+        logger.info("Hotfolder node '{}' unregistered.", nodeId);
+    }
+
+    /**
+     * @return the nodeId
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the workingDirectory
+     */
+    public Path getWorkingDirectory() {
+        return workingDirectory;
+    }
+}
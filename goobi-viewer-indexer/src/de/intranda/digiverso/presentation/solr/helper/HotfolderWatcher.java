@@ -0,0 +1,111 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Change feed for the hotfolder based on the NIO <code>WatchService</code>. Only reports whether relevant files have been created or modified
+ * since the last call; the hotfolder itself decides what to do about it.
+ */
+public class HotfolderWatcher implements Closeable {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggerFactory.getLogger(HotfolderWatcher.class);
+
+    private final Path folder;
+    private final PathMatcher matcher;
+    private final WatchService watchService;
+    private volatile boolean valid = true;
+
+    /**
+     * 
+     * @param folder Folder to watch
+     * @param glob File name pattern of relevant files
+     * @throws IOException if the folder cannot be registered with the watch service
+     */
+    public HotfolderWatcher(Path folder, String glob) throws IOException {
+        this.folder = folder;
+        this.matcher = folder.getFileSystem().getPathMatcher("glob:" + glob);
+        this.watchService = folder.getFileSystem().newWatchService();
+        folder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        logger.info("Watching hotfolder '{}' for changes.", folder.toAbsolutePath());
+    }
+
+    /**
+     * Waits up to the given time for changes to relevant files in the watched folder. Returns as soon as the first change has been detected.
+     * 
+     * @param timeout Maximum wait time in milliseconds
+     * @return true if relevant files have been created or modified (or if events have been lost); false otherwise
+     * @throws InterruptedException
+     * @should detect new files
+     * @should ignore files not matching pattern
+     */
+    public boolean awaitChanges(long timeout) throws InterruptedException {
+        if (!valid) {
+            return false;
+        }
+        boolean ret = false;
+        WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    logger.debug("Hotfolder change events have been lost.");
+                    ret = true;
+                } else if (event.context() instanceof Path && matcher.matches((Path) event.context())) {
+                    logger.trace("Hotfolder change: {} {}", event.kind().name(), event.context());
+                    ret = true;
+                }
+            }
+            if (!key.reset()) {
+                logger.warn("Hotfolder '{}' can no longer be watched.", folder.toAbsolutePath());
+                valid = false;
+                break;
+            }
+            key = watchService.poll();
+        }
+
+        return ret;
+    }
+
+    /**
+     * 
+     * @return true if the watched folder is still registered; false otherwise
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        valid = false;
+        watchService.close();
+    }
+}
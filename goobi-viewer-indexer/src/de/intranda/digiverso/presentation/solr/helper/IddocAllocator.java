@@ -0,0 +1,219 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+
+/**
+ * Hands out unique IDDOC values. IDDOCs are reserved from Solr in blocks with a single range query and then handed out from an atomic counter, so
+ * that generating thousands of documents does not require one Solr query per document. Blocks start at the current time in milliseconds or
+ * above the last reserved block, whichever is higher.
+ * <p>
+ * Documents that have not been committed yet are not found by the range query. The end of the last reserved block is therefore also kept in a
+ * reservation file (in the hotfolder), which is read and updated under a file lock with each reservation. This way, neither other indexer nodes
+ * sharing the hotfolder nor a restarted indexer can reserve a block that overlaps with one that is still being filled.
+ */
+public class IddocAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(IddocAllocator.class);
+
+    /** Name of the reservation file. */
+    public static final String RESERVATION_FILE = ".IDDOC_RESERVATION";
+
+    private final int blockSize;
+    /** File that contains the lowest IDDOC the next block of any allocator may start with; null if reservations are only kept in memory. */
+    private final Path reservationFile;
+    /** Currently used block; null if a new block must be reserved. */
+    private volatile Block block;
+    /** Lowest IDDOC the next block may start with. */
+    private long highWaterMark = -1;
+
+    /**
+     * Creates an allocator that only keeps its reservations in memory. Only safe if no other allocator writes to the same index.
+     * 
+     * @param blockSize Number of IDDOCs to reserve at a time
+     */
+    public IddocAllocator(int blockSize) {
+        this(blockSize, null);
+    }
+
+    /**
+     * 
+     * @param blockSize Number of IDDOCs to reserve at a time
+     * @param reservationFile File shared by all allocators that write to the same index; null to only keep reservations in memory
+     */
+    public IddocAllocator(int blockSize, Path reservationFile) {
+        this.blockSize = Math.max(1, blockSize);
+        this.reservationFile = reservationFile;
+    }
+
+    /**
+     * Returns the next available IDDOC. Thread-safe.
+     * 
+     * @param solrHelper
+     * @return Unique IDDOC
+     * @throws FatalIndexerException
+     * @should return unique values across threads
+     * @should reserve new block when current block is exhausted
+     * @should skip ranges that are already in use
+     * @should not hand out overlapping blocks to allocators sharing reservation file
+     * @should continue above blocks reserved before restart
+     */
+    public long next(SolrHelper solrHelper) throws FatalIndexerException {
+        while (true) {
+            Block current = block;
+            if (current != null) {
+                long iddoc = current.next.getAndIncrement();
+                if (iddoc <= current.last) {
+                    return iddoc;
+                }
+            }
+            reserveBlock(solrHelper, current);
+        }
+    }
+
+    /**
+     * Makes sure that IDDOC values up to and including the given value are not handed out.
+     * 
+     * @param lastIddoc Highest IDDOC that is already in use
+     * @should not hand out reserved values
+     */
+    public synchronized void reserveUpTo(long lastIddoc) {
+        if (highWaterMark <= lastIddoc) {
+            highWaterMark = lastIddoc + 1;
+        }
+        Block current = block;
+        if (current != null && current.next.get() <= lastIddoc) {
+            // Reserve a new block above the given value with the next call
+            block = null;
+        }
+    }
+
+    /**
+     * Reserves a new block, unless another thread already replaced the exhausted block.
+     * 
+     * @param solrHelper
+     * @param exhausted The block that was found to be exhausted
+     * @throws FatalIndexerException
+     */
+    private synchronized void reserveBlock(SolrHelper solrHelper, Block exhausted) throws FatalIndexerException {
+        if (block != exhausted) {
+            return;
+        }
+        if (reservationFile == null) {
+            reserveBlock(solrHelper, highWaterMark);
+            return;
+        }
+        // File locks are held by the JVM, so allocators within the same JVM must not request the lock concurrently
+        synchronized (IddocAllocator.class) {
+            try {
+                Files.createDirectories(reservationFile.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+            }
+            try (FileChannel channel = FileChannel.open(reservationFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    long first = reserveBlock(solrHelper, Math.max(highWaterMark, readReservation(channel)));
+                    byte[] bytes = String.valueOf(first + blockSize).getBytes(StandardCharsets.UTF_8);
+                    channel.truncate(0);
+                    channel.write(ByteBuffer.wrap(bytes), 0);
+                    channel.force(false);
+                } finally {
+                    lock.release();
+                }
+            } catch (IOException | NumberFormatException e) {
+                block = null;
+                logger.error("Could not reserve IDDOCs in '{}': {}", reservationFile.toAbsolutePath(), e.getMessage());
+                throw new FatalIndexerException("IDDOC reservation error");
+            }
+        }
+    }
+
+    /**
+     * Reserves the first free block that starts at the current time or the given lower bound, whichever is higher.
+     * 
+     * @param solrHelper
+     * @param lowerBound Lowest IDDOC the block may start with
+     * @return First IDDOC of the new block
+     * @throws FatalIndexerException
+     */
+    private long reserveBlock(SolrHelper solrHelper, long lowerBound) throws FatalIndexerException {
+        long first = Math.max(System.currentTimeMillis(), lowerBound);
+        while (!isRangeAvailable(solrHelper, first, first + blockSize - 1)) {
+            logger.debug("IDDOC range {}-{} is already in use.", first, first + blockSize - 1);
+            first = Math.max(first + blockSize, System.currentTimeMillis());
+        }
+        highWaterMark = first + blockSize;
+        block = new Block(first, first + blockSize - 1);
+        logger.debug("Reserved IDDOC range {}-{}.", first, first + blockSize - 1);
+
+        return first;
+    }
+
+    /**
+     * 
+     * @param channel Channel of the reservation file
+     * @return Lowest IDDOC the next block may start with; -1 if the file is empty
+     * @throws IOException
+     */
+    private static long readReservation(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 64));
+        int read = 0;
+        while (buffer.hasRemaining() && read >= 0) {
+            read = channel.read(buffer, buffer.position());
+        }
+        String value = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? -1 : Long.parseLong(value);
+    }
+
+    /**
+     * 
+     * @param solrHelper
+     * @param first
+     * @param last
+     * @return true if no document in the index uses an IDDOC in the given range; false otherwise
+     * @throws FatalIndexerException
+     */
+    protected boolean isRangeAvailable(SolrHelper solrHelper, long first, long last) throws FatalIndexerException {
+        return solrHelper.isIddocRangeAvailable(first, last);
+    }
+
+    private static class Block {
+
+        private final AtomicLong next;
+        private final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
+
+/**
+ * Finds and removes inconsistencies in the index: anchors without any volumes, pages whose top-level document no longer exists and older
+ * instances of records that have been indexed more than once. Candidates are determined with set-based queries (facets on
+ * <code>PI_PARENT</code>/<code>PI_TOPSTRUCT</code>/<code>PI</code> and cursor streaming over batches of identifiers) instead of one query per
+ * record, and are removed in batched deletes or with delete-by-query requests.
+ * 
+ * Maintenance can run while the indexer is active. Records that are currently locked by an indexing job are skipped; every other candidate is
+ * locked, made visible and checked again before anything is deleted.
+ */
+public class IndexMaintenance {
+
+    private static final Logger logger = LoggerFactory.getLogger(IndexMaintenance.class);
+
+    private static final String TOP_LEVEL_QUERY = "(" + SolrConstants.ISWORK + ":true OR " + SolrConstants.ISANCHOR + ":true)";
+
+    private final SolrHelper solrHelper;
+    /** Lock manager of the running indexer; null if maintenance runs on its own. */
+    private final RecordLockManager recordLockManager;
+    private final int pageSize;
+
+    /**
+     * 
+     * @param solrHelper
+     * @param recordLockManager Lock manager of the running indexer; may be null
+     * @param pageSize Number of identifiers checked or documents deleted per request
+     */
+    public IndexMaintenance(SolrHelper solrHelper, RecordLockManager recordLockManager, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        }
+        this.solrHelper = solrHelper;
+        this.recordLockManager = recordLockManager;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Creates an instance with the configured cursor page size.
+     * 
+     * @param solrHelper
+     * @param recordLockManager Lock manager of the running indexer; may be null
+     * @return New instance
+     * @throws FatalIndexerException
+     */
+    public static IndexMaintenance create(SolrHelper solrHelper, RecordLockManager recordLockManager) throws FatalIndexerException {
+        return new IndexMaintenance(solrHelper, recordLockManager, Configuration.getInstance().getCursorPageSize());
+    }
+
+    /**
+     * Runs all maintenance tasks and commits the changes.
+     * 
+     * @return Total number of deleted documents
+     * @throws FatalIndexerException
+     */
+    public int run() throws FatalIndexerException {
+        long start = System.currentTimeMillis();
+        int deleted = removeDuplicateInstances();
+        deleted += removeAnchorsWithoutVolumes();
+        deleted += removeOrphanPages();
+        if (deleted > 0) {
+            solrHelper.commitRecord(false);
+        }
+        logger.info("Index maintenance finished in {} ms, {} documents deleted.", System.currentTimeMillis() - start, deleted);
+
+        return deleted;
+    }
+
+    /**
+     * Removes anchor documents that have no volumes. Anchors are streamed in pages; the volume counts for each page of anchors are determined
+     * with a single facet query on <code>PI_PARENT</code>.
+     * 
+     * @return Number of deleted anchor documents
+     * @throws FatalIndexerException
+     */
+    public int removeAnchorsWithoutVolumes() throws FatalIndexerException {
+        int deleted = 0;
+        try {
+            SolrDocumentCursor anchors = solrHelper.iterate(SolrConstants.ISANCHOR + ":true", Arrays.asList(SolrConstants.IDDOC,
+                    SolrConstants.PI), pageSize);
+            Map<String, String> batch = new LinkedHashMap<>();
+            while (anchors.hasNext()) {
+                SolrDocument anchor = anchors.next();
+                String iddoc = (String) anchor.getFirstValue(SolrConstants.IDDOC);
+                String pi = (String) anchor.getFirstValue(SolrConstants.PI);
+                if (iddoc != null && pi != null) {
+                    batch.put(pi, iddoc);
+                }
+                if (batch.size() >= pageSize) {
+                    deleted += removeAnchorsWithoutVolumes(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                deleted += removeAnchorsWithoutVolumes(batch);
+            }
+        } catch (SolrServerException e) {
+            logger.error(e.getMessage(), e);
+        }
+        logger.info("Removed {} anchor documents with no volumes.", deleted);
+
+        return deleted;
+    }
+
+    /**
+     * 
+     * @param anchors Map of anchor PI to IDDOC
+     * @return Number of deleted anchor documents
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     */
+    private int removeAnchorsWithoutVolumes(Map<String, String> anchors) throws SolrServerException, FatalIndexerException {
+        Map<String, Long> volumeCounts = solrHelper.getFacetCounts(SolrConstants.ISWORK + ":true AND " + SolrHelper.buildOrQuery(SolrConstants.PI_PARENT,
+                anchors.keySet()), SolrConstants.PI_PARENT, 1, 0, -1);
+        BatchDeleter deleter = new BatchDeleter();
+        for (String pi : anchors.keySet()) {
+            if (volumeCounts.containsKey(pi) || !lock(pi)) {
+                continue;
+            }
+            try {
+                solrHelper.ensureVisible(pi);
+                if (solrHelper.getNumHits(SolrConstants.ISWORK + ":true AND " + SolrHelper.buildOrQuery(SolrConstants.PI_PARENT, Collections.singleton(
+                        pi))) == 0) {
+                    logger.info("{} has no volumes and will be deleted.", pi);
+                    solrHelper.registerChange(pi);
+                    deleter.add(anchors.get(pi));
+                }
+            } finally {
+                unlock(pi);
+            }
+        }
+
+        return deleter.finish();
+    }
+
+    /**
+     * Removes page documents whose top-level document does not exist (any more), as well as page documents without a <code>PI_TOPSTRUCT</code>
+     * value. The <code>PI_TOPSTRUCT</code> values of all pages are retrieved page by page from a facet and checked against the existing records in
+     * batches.
+     * 
+     * @return Number of deleted page documents
+     * @throws FatalIndexerException
+     */
+    public int removeOrphanPages() throws FatalIndexerException {
+        String pageQuery = SolrConstants.DOCTYPE + ":" + DocType.PAGE.name();
+        int deleted = 0;
+        try {
+            // Collect first, so that deletions do not shift the facet offsets
+            Set<String> orphanPis = new LinkedHashSet<>();
+            for (int offset = 0;; offset += pageSize) {
+                Map<String, Long> pageCounts = solrHelper.getFacetCounts(pageQuery, SolrConstants.PI_TOPSTRUCT, 1, offset, pageSize);
+                if (pageCounts.isEmpty()) {
+                    break;
+                }
+                Set<String> existing = solrHelper.getFacetCounts(SolrConstants.ISWORK + ":true AND " + SolrHelper.buildOrQuery(SolrConstants.PI, pageCounts
+                        .keySet()), SolrConstants.PI, 1, 0, -1).keySet();
+                for (String pi : pageCounts.keySet()) {
+                    if (!existing.contains(pi)) {
+                        orphanPis.add(pi);
+                    }
+                }
+                if (pageCounts.size() < pageSize) {
+                    break;
+                }
+            }
+            logger.debug("Found pages of {} missing records.", orphanPis.size());
+
+            for (String pi : orphanPis) {
+                if (!lock(pi)) {
+                    continue;
+                }
+                try {
+                    solrHelper.ensureVisible(pi);
+                    if (solrHelper.getNumHits(SolrConstants.ISWORK + ":true AND " + SolrHelper.buildOrQuery(SolrConstants.PI, Collections.singleton(
+                            pi))) > 0) {
+                        continue;
+                    }
+                    int count = deleteAll(pageQuery + " AND " + SolrHelper.buildOrQuery(SolrConstants.PI_TOPSTRUCT, Collections.singleton(pi)));
+                    logger.info("Removed {} pages of missing record '{}'.", count, pi);
+                    solrHelper.registerChange(pi);
+                    deleted += count;
+                } finally {
+                    unlock(pi);
+                }
+            }
+
+            int count = deleteAll("+" + pageQuery + " -" + SolrConstants.PI_TOPSTRUCT + ":[* TO *]");
+            if (count > 0) {
+                logger.info("Removed {} pages without a record identifier.", count);
+                deleted += count;
+            }
+        } catch (SolrServerException e) {
+            logger.error(e.getMessage(), e);
+        }
+        logger.info("Removed {} orphaned page documents.", deleted);
+
+        return deleted;
+    }
+
+    /**
+     * Finds identifiers that belong to more than one top-level document via a facet on <code>PI</code> and removes all but the most recently
+     * indexed instance (the one with the highest IDDOC), including their structure elements, pages and other owned documents.
+     * 
+     * @return Number of deleted documents
+     * @throws FatalIndexerException
+     */
+    public int removeDuplicateInstances() throws FatalIndexerException {
+        int deleted = 0;
+        try {
+            Map<String, Long> duplicates = solrHelper.getFacetCounts(TOP_LEVEL_QUERY, SolrConstants.PI, 2, 0, -1);
+            for (String pi : duplicates.keySet()) {
+                if (!lock(pi)) {
+                    continue;
+                }
+                try {
+                    solrHelper.ensureVisible(pi);
+                    deleted += removeOlderInstances(pi);
+                } finally {
+                    unlock(pi);
+                }
+            }
+        } catch (SolrServerException e) {
+            logger.error(e.getMessage(), e);
+        }
+        logger.info("Removed {} documents of duplicate record instances.", deleted);
+
+        return deleted;
+    }
+
+    /**
+     * 
+     * @param pi
+     * @return Number of deleted documents
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     */
+    private int removeOlderInstances(String pi) throws SolrServerException, FatalIndexerException {
+        List<String> instances = new ArrayList<>();
+        SolrDocumentCursor cursor = solrHelper.iterate(TOP_LEVEL_QUERY + " AND " + SolrHelper.buildOrQuery(SolrConstants.PI, Collections.singleton(pi)),
+                Collections.singletonList(SolrConstants.IDDOC), pageSize);
+        while (cursor.hasNext()) {
+            instances.add((String) cursor.next().getFirstValue(SolrConstants.IDDOC));
+        }
+        List<String> olderInstances = selectOlderInstances(instances);
+        if (olderInstances == null) {
+            logger.warn("Record '{}' has instances with non-numerical IDDOCs, please re-index it.", pi);
+            return 0;
+        }
+        if (olderInstances.isEmpty()) {
+            return 0;
+        }
+
+        BatchDeleter deleter = new BatchDeleter();
+        for (String iddoc : olderInstances) {
+            // Structure elements of this instance
+            List<String> structIddocs = new ArrayList<>();
+            structIddocs.add(iddoc);
+            cursor = solrHelper.iterate(SolrHelper.buildOrQuery(SolrConstants.IDDOC_TOPSTRUCT, Collections.singleton(iddoc)), Collections.singletonList(
+                    SolrConstants.IDDOC), pageSize);
+            while (cursor.hasNext()) {
+                String structIddoc = (String) cursor.next().getFirstValue(SolrConstants.IDDOC);
+                if (!iddoc.equals(structIddoc)) {
+                    structIddocs.add(structIddoc);
+                }
+            }
+            // Pages, events and other documents owned by these structure elements
+            for (int i = 0; i < structIddocs.size(); i += pageSize) {
+                List<String> owners = structIddocs.subList(i, Math.min(i + pageSize, structIddocs.size()));
+                cursor = solrHelper.iterate(SolrHelper.buildOrQuery(SolrConstants.IDDOC_OWNER, owners), Collections.singletonList(SolrConstants.IDDOC),
+                        pageSize);
+                while (cursor.hasNext()) {
+                    deleter.add((String) cursor.next().getFirstValue(SolrConstants.IDDOC));
+                }
+            }
+            for (String structIddoc : structIddocs) {
+                deleter.add(structIddoc);
+            }
+        }
+        int count = deleter.finish();
+        solrHelper.registerChange(pi);
+        logger.info("Removed {} older instance(s) of '{}' ({} documents).", olderInstances.size(), pi, count);
+
+        return count;
+    }
+
+    /**
+     * Deletes all documents matching the given query with a single delete-by-query request.
+     * 
+     * @param query
+     * @return Number of deleted documents
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     */
+    private int deleteAll(String query) throws SolrServerException, FatalIndexerException {
+        long count = solrHelper.getNumHits(query);
+        if (count > 0) {
+            solrHelper.deleteByQuery(query);
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Locks the given record unless it is currently locked by an indexing job.
+     * 
+     * @param pi
+     * @return true if the record has been locked (or no lock manager is used); false if it should be skipped
+     */
+    private boolean lock(String pi) {
+        if (recordLockManager == null) {
+            return true;
+        }
+        if (recordLockManager.isRecordLocked(pi)) {
+            logger.debug("'{}' is currently being indexed, skipping.", pi);
+            return false;
+        }
+        try {
+            recordLockManager.lockRecord(pi);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void unlock(String pi) {
+        if (recordLockManager != null) {
+            recordLockManager.unlockRecord(pi);
+        }
+    }
+
+    /**
+     * Returns all but the most recently indexed (highest) IDDOC.
+     * 
+     * @param iddocs IDDOCs of all instances of a record
+     * @return IDDOCs of the older instances; null if any IDDOC is not numerical
+     * @should return all but highest iddoc
+     * @should return empty list for single instance
+     * @should return null if iddoc not numerical
+     */
+    static List<String> selectOlderInstances(List<String> iddocs) {
+        String newest = null;
+        long newestValue = Long.MIN_VALUE;
+        for (String iddoc : iddocs) {
+            long value;
+            try {
+                value = Long.parseLong(iddoc);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (newest == null || value > newestValue) {
+                newest = iddoc;
+                newestValue = value;
+            }
+        }
+        List<String> ret = new ArrayList<>(iddocs);
+        ret.remove(newest);
+
+        return ret;
+    }
+
+    /**
+     * Collects IDDOCs and deletes them once a page is full.
+     */
+    private class BatchDeleter {
+
+        private final List<String> iddocs = new ArrayList<>(pageSize);
+        private int deleted = 0;
+
+        void add(String iddoc) throws FatalIndexerException {
+            if (iddoc == null) {
+                return;
+            }
+            iddocs.add(iddoc);
+            if (iddocs.size() >= pageSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 
+         * @return Total number of deleted documents
+         * @throws FatalIndexerException
+         */
+        int finish() throws FatalIndexerException {
+            flush();
+            return deleted;
+        }
+
+        private void flush() throws FatalIndexerException {
+            if (iddocs.isEmpty()) {
+                return;
+            }
+            if (solrHelper.deleteDocuments(iddocs)) {
+                deleted += iddocs.size();
+            } else {
+                logger.error("Could not delete {} documents.", iddocs.size());
+            }
+            iddocs.clear();
+        }
+    }
+}
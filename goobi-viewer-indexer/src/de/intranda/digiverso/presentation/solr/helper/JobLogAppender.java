@@ -0,0 +1,233 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * Log appender that captures the log messages of each indexing job separately, for the error report e-mail. Jobs are identified via an MDC
+ * property, so concurrent jobs do not see each other's messages. Only messages at or above the configured level are kept, and only the most
+ * recent ones up to the configured capacity, so the memory used per job does not depend on the size of the record.
+ */
+public class JobLogAppender extends AppenderBase<ILoggingEvent> {
+
+    /** MDC property that holds the ID of the job the current thread is working on. */
+    public static final String MDC_KEY = "indexerJob";
+    /** Name under which the appender is attached to the root logger. */
+    public static final String APPENDER_NAME = "record";
+    /** Maximum number of characters kept per log message (including stack trace). */
+    static final int MAX_EVENT_LENGTH = 8192;
+
+    private static final String PATTERN = "%-5level %d{yyyy-MM-dd HH:mm:ss.SSS} [%thread]  %logger%ex{full}%n       %msg%n";
+
+    private final Map<String, JobLog> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong jobCounter = new AtomicLong();
+    private final Level threshold;
+    private final int capacity;
+    private PatternLayout layout;
+
+    /**
+     * 
+     * @param threshold Minimum level of captured messages
+     * @param capacity Maximum number of messages kept per job
+     */
+    public JobLogAppender(Level threshold, int capacity) {
+        this.threshold = threshold;
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Creates a new appender and attaches it to the root logger, replacing any previously installed instance.
+     * 
+     * @param threshold Minimum level of captured messages
+     * @param capacity Maximum number of messages kept per job
+     * @return The installed appender
+     */
+    public static synchronized JobLogAppender install(Level threshold, int capacity) {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        ch.qos.logback.classic.Logger rootLogger = context.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
+        Appender<ILoggingEvent> oldAppender = rootLogger.getAppender(APPENDER_NAME);
+        if (oldAppender != null) {
+            oldAppender.stop();
+            rootLogger.detachAppender(oldAppender);
+        }
+
+        JobLogAppender appender = new JobLogAppender(threshold, capacity);
+        appender.setName(APPENDER_NAME);
+        appender.setContext(context);
+        appender.start();
+        rootLogger.addAppender(appender);
+
+        return appender;
+    }
+
+    /* (non-Javadoc)
+     * @see ch.qos.logback.core.AppenderBase#start()
+     */
+    @Override
+    public void start() {
+        layout = new PatternLayout();
+        layout.setContext(getContext());
+        layout.setPattern(PATTERN);
+        layout.start();
+        super.start();
+    }
+
+    /**
+     * Starts capturing the log messages of the current thread into a new job log.
+     * 
+     * @param name Job name (e.g. the data file name)
+     * @return The new job log
+     * @should capture messages of the current thread only
+     */
+    public JobLog startJob(String name) {
+        String jobId = name + "#" + jobCounter.incrementAndGet();
+        JobLog jobLog = new JobLog(capacity);
+        jobs.put(jobId, jobLog);
+        MDC.put(MDC_KEY, jobId);
+        return jobLog;
+    }
+
+    /**
+     * Stops capturing the log messages of the current thread.
+     * 
+     * @return The job log of the finished job; null if no job was started on this thread
+     */
+    public JobLog endJob() {
+        String jobId = MDC.get(MDC_KEY);
+        MDC.remove(MDC_KEY);
+        if (jobId == null) {
+            return null;
+        }
+        return jobs.remove(jobId);
+    }
+
+    /**
+     * 
+     * @return The job log of the job running on the current thread; null if there is none
+     */
+    public JobLog getCurrentJobLog() {
+        String jobId = MDC.get(MDC_KEY);
+        if (jobId == null) {
+            return null;
+        }
+        return jobs.get(jobId);
+    }
+
+    /**
+     * @should ignore messages below threshold
+     * @should ignore messages without job
+     * @see ch.qos.logback.core.AppenderBase#append(java.lang.Object)
+     */
+    @Override
+    protected void append(ILoggingEvent event) {
+        if (!event.getLevel().isGreaterOrEqual(threshold)) {
+            return;
+        }
+        String jobId = event.getMDCPropertyMap().get(MDC_KEY);
+        if (jobId == null) {
+            return;
+        }
+        JobLog jobLog = jobs.get(jobId);
+        if (jobLog != null) {
+            jobLog.add(event.getLevel(), layout.doLayout(event));
+        }
+    }
+
+    /**
+     * Bounded log of a single job. Keeps the most recent messages and counts the ERROR messages, including those that have been discarded.
+     */
+    public static class JobLog {
+
+        private final ArrayDeque<String> messages;
+        private final int capacity;
+        private int droppedCount = 0;
+        private int errorCount = 0;
+
+        JobLog(int capacity) {
+            this.capacity = capacity;
+            this.messages = new ArrayDeque<>(Math.min(capacity, 64));
+        }
+
+        synchronized void add(Level level, String message) {
+            if (Level.ERROR.equals(level)) {
+                errorCount++;
+            }
+            if (messages.size() >= capacity) {
+                messages.removeFirst();
+                droppedCount++;
+            }
+            if (message.length() > MAX_EVENT_LENGTH) {
+                message = new StringBuilder(message.substring(0, MAX_EVENT_LENGTH)).append("...\n").toString();
+            }
+            messages.addLast(message);
+        }
+
+        /**
+         * 
+         * @return true if at least one ERROR message has been logged by this job; false otherwise
+         */
+        public synchronized boolean hasErrors() {
+            return errorCount > 0;
+        }
+
+        /**
+         * 
+         * @return Number of ERROR messages logged by this job
+         */
+        public synchronized int getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * 
+         * @return Number of messages that have been discarded to stay within the capacity
+         */
+        public synchronized int getDroppedCount() {
+            return droppedCount;
+        }
+
+        /**
+         * 
+         * @return The kept messages, preceded by a note on the number of discarded messages, if any
+         * @should keep only the most recent messages
+         * @should truncate long messages
+         */
+        public synchronized String getText() {
+            StringBuilder sb = new StringBuilder();
+            if (droppedCount > 0) {
+                sb.append("[").append(droppedCount).append(" earlier messages omitted]\n");
+            }
+            for (String message : messages) {
+                sb.append(message);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-record locks for concurrent indexing. A lock is held by exactly one thread at a time and is reentrant for that thread, so that an indexer
+ * may lock its own identifier and the identifier of its anchor record without deadlocking itself.
+ */
+public class RecordLockManager {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggerFactory.getLogger(RecordLockManager.class);
+
+    private final Map<String, Thread> owners = new HashMap<>();
+    private final Map<String, Integer> holdCounts = new HashMap<>();
+
+    /**
+     * Acquires the lock for the given record identifier, waiting until it is released by any other thread.
+     * 
+     * @param pi Record identifier
+     * @throws InterruptedException
+     * @should lock record
+     * @should be reentrant for the owning thread
+     */
+    public synchronized void lockRecord(String pi) throws InterruptedException {
+        if (pi == null) {
+            throw new IllegalArgumentException("pi may not be null");
+        }
+        Thread current = Thread.currentThread();
+        while (owners.containsKey(pi) && owners.get(pi) != current) {
+            logger.debug("Waiting for lock on '{}'...", pi);
+            wait();
+        }
+        owners.put(pi, current);
+        Integer count = holdCounts.get(pi);
+        holdCounts.put(pi, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Releases one hold of the given record identifier. The lock becomes available to other threads once every hold has been released.
+     * 
+     * @param pi Record identifier
+     * @should release lock after last hold
+     * @should throw IllegalMonitorStateException if lock not owned by current thread
+     */
+    public synchronized void unlockRecord(String pi) {
+        if (pi == null) {
+            throw new IllegalArgumentException("pi may not be null");
+        }
+        if (owners.get(pi) != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("Lock on '" + pi + "' is not held by the current thread.");
+        }
+        int count = holdCounts.get(pi) - 1;
+        if (count > 0) {
+            holdCounts.put(pi, count);
+            return;
+        }
+        holdCounts.remove(pi);
+        owners.remove(pi);
+        notifyAll();
+    }
+
+    /**
+     * 
+     * @param pi Record identifier
+     * @return true if any thread currently holds the lock for the given identifier; false otherwise
+     */
+    public synchronized boolean isRecordLocked(String pi) {
+        return owners.containsKey(pi);
+    }
+
+    /**
+     * 
+     * @return Number of currently locked records
+     */
+    public synchronized int getLockedRecordCount() {
+        return owners.size();
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+/**
+ * Snapshot of the already indexed top-level documents an indexing job needs to look at (the record itself, its anchor, its group documents).
+ * Each document is fetched at most once per job and only with the fields listed in {@link #FIELDS}, so that repository selection, update
+ * preparation, anchor and group lookups share a single round trip per identifier instead of querying the index separately.
+ */
+public class RecordLookupContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordLookupContext.class);
+
+    /** Fields fetched for every looked up document. Large fields such as FULLTEXT are deliberately left out. */
+    static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList(SolrConstants.IDDOC, SolrConstants.PI, SolrConstants.DOCSTRCT,
+            SolrConstants.DATECREATED, SolrConstants.DATEUPDATED, SolrConstants.DATAREPOSITORY, SolrConstants.THUMBNAILREPRESENT,
+            SolrConstants.ACCESSCONDITION));
+
+    private final SolrHelper solrHelper;
+    /** Looked up documents by PI; a null value means that no document exists for that PI. */
+    private final Map<String, SolrDocument> documents = new HashMap<>();
+
+    /**
+     * 
+     * @param solrHelper
+     */
+    public RecordLookupContext(SolrHelper solrHelper) {
+        this.solrHelper = solrHelper;
+    }
+
+    /**
+     * Returns the indexed top-level document with the given PI, fetching it from the index on first access.
+     * 
+     * @param pi Record identifier
+     * @return {@link SolrDocument} containing {@link #FIELDS}; null if no document exists for the given PI
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     * @should fetch document only once
+     * @should return null if document not found
+     */
+    public SolrDocument getDocument(String pi) throws SolrServerException, FatalIndexerException {
+        prefetch(Collections.singletonList(pi));
+        return documents.get(pi);
+    }
+
+    /**
+     * Fetches the top-level documents for all given identifiers that have not been looked up yet in a single request.
+     * 
+     * @param pis Record identifiers
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     * @should fetch all missing documents with one request
+     * @should not query already fetched identifiers
+     */
+    public void prefetch(Collection<String> pis) throws SolrServerException, FatalIndexerException {
+        List<String> missing = new ArrayList<>(pis.size());
+        for (String pi : pis) {
+            if (pi != null && !documents.containsKey(pi) && !missing.contains(pi)) {
+                missing.add(pi);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        for (String pi : missing) {
+            // Uncommitted changes made by other jobs must be visible to the lookup
+            solrHelper.ensureVisible(pi);
+            documents.put(pi, null);
+        }
+        SolrDocumentList hits = solrHelper.search(SolrHelper.buildOrQuery(SolrConstants.PI, missing), FIELDS);
+        if (hits != null) {
+            for (SolrDocument doc : hits) {
+                String pi = (String) doc.getFieldValue(SolrConstants.PI);
+                // Keep the first hit if there are several instances of the same record
+                if (pi != null && documents.get(pi) == null && documents.containsKey(pi)) {
+                    documents.put(pi, doc);
+                }
+            }
+        }
+        logger.debug("Looked up {} document(s) for {} identifier(s).", hits != null ? hits.size() : 0, missing.size());
+    }
+
+    /**
+     * Returns the name of the data repository in which the record with the given PI is currently indexed.
+     * 
+     * @param pi Record identifier
+     * @return Repository name; "?" if the record is indexed without a repository; null if the record is not indexed
+     * @throws SolrServerException
+     * @throws FatalIndexerException
+     * @should return repository name
+     * @should return question mark if record has no repository
+     * @should return null if record not indexed
+     */
+    public String getDataRepository(String pi) throws SolrServerException, FatalIndexerException {
+        SolrDocument doc = getDocument(pi);
+        if (doc == null) {
+            return null;
+        }
+        Object repository = doc.getFieldValue(SolrConstants.DATAREPOSITORY);
+        return repository != null ? (String) repository : "?";
+    }
+
+    /**
+     * Discards the snapshot of the given record, e.g. after it has been deleted, so that the next access reads it from the index again.
+     * 
+     * @param pi Record identifier
+     * @should fetch document again after invalidation
+     */
+    public void invalidate(String pi) {
+        documents.remove(pi);
+    }
+}
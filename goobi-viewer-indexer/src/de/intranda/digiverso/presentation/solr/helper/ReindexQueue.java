@@ -0,0 +1,483 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FilenameUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable queue of pending hotfolder jobs. Jobs are taken in order of their priority class and, within a class, in order of arrival. Every change
+ * is appended to a journal file so that pending and interrupted jobs survive a restart. Pending refresh jobs for the same record are collapsed
+ * into one, and are dropped altogether if the record has a pending ingest or delete job. Refresh jobs can be debounced, i.e. held back until no
+ * further job for the same record has been added for a given time.
+ */
+public class ReindexQueue {
+
+    /** Logger for this class. */
+    private static final Logger logger = LoggerFactory.getLogger(ReindexQueue.class);
+
+    /** Priority classes, highest priority first. */
+    public enum Priority {
+        /** New or updated records from the hotfolder, including anchor merge results. */
+        INGEST,
+        /** Delete and purge requests. */
+        DELETE,
+        /** Re-indexing of already indexed anchors and volumes. */
+        REFRESH;
+    }
+
+    /** Interface for selecting entries that may currently be processed. */
+    public interface EntryFilter {
+
+        public boolean accept(Entry entry);
+    }
+
+    private static final String OP_ADD = "ADD";
+    private static final String OP_DONE = "DONE";
+    private static final int MAX_JOURNAL_LINES = 10000;
+
+    private final Path journalFile;
+    private final Map<Priority, LinkedHashMap<String, Entry>> pending = new EnumMap<>(Priority.class);
+    private final Map<String, Entry> inProgress = new HashMap<>();
+    /** Sequence number for the next journaled entry. */
+    private long nextId = 1;
+    private int journalLines = 0;
+
+    /**
+     * Creates a queue backed by the given journal file. Jobs recorded in an existing journal, including those that were being processed when the
+     * indexer stopped, are restored.
+     * 
+     * @param journalFile Journal file; null for a queue that only lives in memory
+     * @should restore pending and interrupted entries from journal
+     * @should restore debounce window from journal
+     */
+    public ReindexQueue(Path journalFile) {
+        this.journalFile = journalFile;
+        for (Priority priority : Priority.values()) {
+            pending.put(priority, new LinkedHashMap<String, Entry>());
+        }
+        if (journalFile != null && Files.isRegularFile(journalFile)) {
+            replayJournal();
+        }
+    }
+
+    /**
+     * Adds a re-index job created by an indexer.
+     * 
+     * @param file File to re-index
+     * @param priority Priority class
+     * @return true if the job has been added; false if an equivalent job is already pending
+     * @should add entry
+     * @should collapse refresh entries for the same record
+     * @should drop refresh entry if ingest is pending for the same record
+     * @should remove pending refresh entries when ingest is added
+     */
+    public synchronized boolean add(Path file, Priority priority) {
+        return add(new Entry(file, priority, true), true);
+    }
+
+    /**
+     * Adds a re-index job that only becomes eligible once the given delay has passed. If a job for the same record is already pending, its delay
+     * is restarted instead, so that a burst of requests for the same record results in a single job after the burst has settled.
+     * 
+     * @param file File to re-index
+     * @param priority Priority class
+     * @param delay Debounce window in milliseconds
+     * @return true if the job has been added; false if an equivalent job is already pending
+     * @should hold back entry until delay has passed
+     * @should restart delay of pending entry for the same record
+     */
+    public synchronized boolean add(Path file, Priority priority, long delay) {
+        Entry entry = new Entry(file, priority, true);
+        entry.notBefore = System.currentTimeMillis() + delay;
+        return add(entry, true);
+    }
+
+    /**
+     * Adds a data file found in the hotfolder. The priority class is determined by the file extension.
+     * 
+     * @param file Data file in the hotfolder
+     * @return true if the job has been added; false if the file is already queued or being processed
+     */
+    public synchronized boolean addHotfolderFile(Path file) {
+        String extension = FilenameUtils.getExtension(file.getFileName().toString());
+        Priority priority = "delete".equals(extension) || "purge".equals(extension) ? Priority.DELETE : Priority.INGEST;
+        return add(new Entry(file, priority, false), true);
+    }
+
+    /**
+     * Retrieves and removes the next entry without keeping track of its processing.
+     * 
+     * @return File of the next entry; null if the queue is empty
+     */
+    public synchronized Path poll() {
+        Entry entry = take(null);
+        if (entry == null) {
+            return null;
+        }
+        complete(entry);
+        return entry.getFile();
+    }
+
+    /**
+     * Retrieves the highest-priority pending entry accepted by the given filter and marks it as being processed. The entry remains in the journal
+     * until <code>complete()</code> is called. If the file of the entry that would be returned no longer exists, the entry is discarded and the
+     * search continues; the files of all other entries are not checked.
+     * 
+     * @param filter Optional filter
+     * @return Next entry; null if there is no eligible entry
+     * @should take entries in priority order
+     * @should skip entries rejected by filter
+     * @should discard entries for missing files
+     * @should not check files of entries rejected by filter
+     */
+    public synchronized Entry take(EntryFilter filter) {
+        long now = System.currentTimeMillis();
+        for (Priority priority : Priority.values()) {
+            Iterator<Entry> iterator = pending.get(priority).values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.notBefore > now || (filter != null && !filter.accept(entry))) {
+                    continue;
+                }
+                if (!Files.exists(entry.getFile())) {
+                    logger.warn("'{}' no longer exists, removing it from the queue.", entry.getFile().toAbsolutePath());
+                    iterator.remove();
+                    writeJournal(OP_DONE, entry);
+                    continue;
+                }
+                iterator.remove();
+                inProgress.put(entry.getPathKey(), entry);
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Marks the given entry as finished and removes it from the journal.
+     * 
+     * @param entry
+     * @should remove entry from journal
+     * @should keep entry queued again while in progress
+     */
+    public synchronized void complete(Entry entry) {
+        inProgress.remove(entry.getPathKey(), entry);
+        writeJournal(OP_DONE, entry);
+        if (journalLines > MAX_JOURNAL_LINES || (journalLines > 0 && isEmpty() && inProgress.isEmpty())) {
+            compactJournal();
+        }
+    }
+
+    /**
+     * 
+     * @param file
+     * @return true if the given file is pending or being processed; false otherwise
+     */
+    public synchronized boolean contains(Path file) {
+        String pathKey = file.toAbsolutePath().toString();
+        if (inProgress.containsKey(pathKey)) {
+            return true;
+        }
+        for (LinkedHashMap<String, Entry> entries : pending.values()) {
+            if (entries.containsKey(pathKey)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 
+     * @return All pending entries in the order in which they would be taken, followed by all entries currently being processed
+     * @should return pending and in progress entries
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> ret = new ArrayList<>(size() + inProgress.size());
+        for (Priority priority : Priority.values()) {
+            ret.addAll(pending.get(priority).values());
+        }
+        ret.addAll(inProgress.values());
+
+        return ret;
+    }
+
+    /**
+     * 
+     * @return true if no entries are pending; false otherwise
+     */
+    public synchronized boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 
+     * @return Number of pending entries
+     */
+    public synchronized int size() {
+        int ret = 0;
+        for (LinkedHashMap<String, Entry> entries : pending.values()) {
+            ret += entries.size();
+        }
+        return ret;
+    }
+
+    /**
+     * 
+     * @param priority
+     * @return Number of pending entries of the given priority class
+     */
+    public synchronized int size(Priority priority) {
+        return pending.get(priority).size();
+    }
+
+    /**
+     * 
+     * @param entry
+     * @param journal If true, the addition is written to the journal
+     * @return
+     */
+    private boolean add(Entry entry, boolean journal) {
+        if (entry.getPriority() == Priority.REFRESH) {
+            // Collapse with any pending job for the same record
+            for (LinkedHashMap<String, Entry> entries : pending.values()) {
+                for (Entry e : entries.values()) {
+                    if (e.getRecordKey().equals(entry.getRecordKey())) {
+                        if (entry.notBefore > e.notBefore) {
+                            // Restart the debounce window
+                            e.notBefore = entry.notBefore;
+                            if (journal) {
+                                writeJournal(OP_ADD, e);
+                            }
+                        }
+                        logger.debug("'{}' is already queued, not adding another refresh job.", entry.getRecordKey());
+                        return false;
+                    }
+                }
+            }
+        }
+        // A hotfolder file that is being processed must not be queued again; a re-index job may, since the record has changed in the meantime
+        if (contains(entry.getFile()) && (!entry.isReindex() || !inProgress.containsKey(entry.getPathKey()))) {
+            return false;
+        }
+        if (entry.getPriority() != Priority.REFRESH) {
+            // Pending refresh jobs for this record are superseded
+            Iterator<Entry> iterator = pending.get(Priority.REFRESH).values().iterator();
+            while (iterator.hasNext()) {
+                Entry e = iterator.next();
+                if (e.getRecordKey().equals(entry.getRecordKey())) {
+                    logger.debug("Refresh job '{}' superseded by '{}'.", e.getFile().getFileName(), entry.getFile().getFileName());
+                    iterator.remove();
+                    if (journal) {
+                        writeJournal(OP_DONE, e);
+                    }
+                }
+            }
+        }
+        pending.get(entry.getPriority()).put(entry.getPathKey(), entry);
+        if (entry.id == 0) {
+            entry.id = nextId++;
+        }
+        if (journal) {
+            writeJournal(OP_ADD, entry);
+        }
+        logger.debug("Queued '{}' ({}).", entry.getFile().getFileName(), entry.getPriority());
+        return true;
+    }
+
+    /**
+     * Restores the queue state from the journal and rewrites the journal in compact form. Each ADD line carries the sequence number of its entry,
+     * which is also used by the DONE line that removes it, so that completing a job does not remove a newer job for the same file. A repeated ADD
+     * line for the same sequence number updates the entry (e.g. a restarted debounce window).
+     */
+    private void replayJournal() {
+        Map<Long, Entry> entries = new LinkedHashMap<>();
+        try {
+            for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t");
+                try {
+                    if (parts.length == 6 && OP_ADD.equals(parts[0])) {
+                        Entry entry = new Entry(Paths.get(parts[5]), Priority.valueOf(parts[2]), Boolean.valueOf(parts[3]));
+                        entry.id = Long.parseLong(parts[1]);
+                        entry.notBefore = Long.parseLong(parts[4]);
+                        entries.put(entry.id, entry);
+                        nextId = Math.max(nextId, entry.id + 1);
+                    } else if (parts.length == 2 && OP_DONE.equals(parts[0])) {
+                        entries.remove(Long.parseLong(parts[1]));
+                    } else if (!line.isEmpty()) {
+                        logger.warn("Skipping invalid journal line: {}", line);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skipping invalid journal line: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not read re-index queue journal '{}': {}", journalFile.toAbsolutePath(), e.getMessage());
+            return;
+        }
+        for (Entry entry : entries.values()) {
+            add(entry, false);
+        }
+        if (!entries.isEmpty()) {
+            logger.info("Restored {} queued job(s) from '{}'.", size(), journalFile.getFileName());
+        }
+        compactJournal();
+    }
+
+    /**
+     * Appends one operation to the journal.
+     * 
+     * @param op
+     * @param entry
+     */
+    private void writeJournal(String op, Entry entry) {
+        if (journalFile == null) {
+            return;
+        }
+        String line;
+        if (OP_ADD.equals(op)) {
+            line = getJournalLine(entry);
+        } else {
+            line = new StringBuilder(OP_DONE).append('\t').append(entry.id).append('\n').toString();
+        }
+        try {
+            Files.write(journalFile, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            journalLines++;
+        } catch (IOException e) {
+            logger.error("Could not write to re-index queue journal '{}': {}", journalFile.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the journal with one that only contains the current entries.
+     */
+    private void compactJournal() {
+        if (journalFile == null) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(inProgress.values());
+        for (LinkedHashMap<String, Entry> e : pending.values()) {
+            entries.addAll(e.values());
+        }
+        Path tempFile = Paths.get(journalFile.toAbsolutePath().toString() + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Entry entry : entries) {
+                    writer.write(getJournalLine(entry));
+                }
+            }
+            Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalLines = entries.size();
+        } catch (IOException e) {
+            logger.error("Could not compact re-index queue journal '{}': {}", journalFile.toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /**
+     * 
+     * @param entry
+     * @return ADD line for the given entry
+     */
+    private static String getJournalLine(Entry entry) {
+        return new StringBuilder(OP_ADD).append('\t').append(entry.id).append('\t').append(entry.getPriority().name()).append('\t').append(entry
+                .isReindex()).append('\t').append(entry.notBefore).append('\t').append(entry.getPathKey()).append('\n').toString();
+    }
+
+    /**
+     * A queued job.
+     */
+    public static class Entry {
+
+        private final Path file;
+        private final Priority priority;
+        private final boolean reindex;
+        private final String pathKey;
+        private final String recordKey;
+        /** Sequence number that identifies this entry in the journal; 0 if not yet queued. */
+        private long id = 0;
+        /** Time (in ms) before which this entry must not be taken. */
+        private long notBefore = 0;
+        /** True if this job is scheduled in the large record lane; null if not yet determined. */
+        private volatile Boolean largeRecord;
+
+        private Entry(Path file, Priority priority, boolean reindex) {
+            this.file = file;
+            this.priority = priority;
+            this.reindex = reindex;
+            this.pathKey = file.toAbsolutePath().toString();
+            this.recordKey = Hotfolder.getRecordLockKey(file);
+        }
+
+        /**
+         * @return the file
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the priority
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return true if this job re-indexes an existing file (as opposed to a new file from the hotfolder)
+         */
+        public boolean isReindex() {
+            return reindex;
+        }
+
+        String getPathKey() {
+            return pathKey;
+        }
+
+        Boolean getLargeRecord() {
+            return largeRecord;
+        }
+
+        void setLargeRecord(Boolean largeRecord) {
+            this.largeRecord = largeRecord;
+        }
+
+        /**
+         * @return the record identifier derived from the file name
+         */
+        public String getRecordKey() {
+            return recordKey;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+
+/**
+ * Wraps another Solr server so that all requests are retried with exponential backoff and jitter if Solr cannot be reached, answers with a server
+ * error or reports a non-zero status. After a number of consecutive failures, a circuit breaker opens and no more requests are sent to Solr for a
+ * while; requests issued in the meantime wait until a single trial request has shown that Solr is available again. Client errors (e.g. invalid
+ * queries) are passed on right away.
+ */
+public class ResilientSolrServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(ResilientSolrServer.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+    public static final long DEFAULT_INITIAL_BACKOFF = 500;
+    public static final long DEFAULT_MAX_BACKOFF = 30000;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_INTERVAL = 30000;
+
+    /** Maximum time in ms a request waits before checking the circuit breaker again while a trial request is in progress. */
+    private static final long TRIAL_POLL_INTERVAL = 1000;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    private final SolrServer delegate;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int failureThreshold;
+    private final long openInterval;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong failedAttemptCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong breakerOpenCount = new AtomicLong();
+
+    /**
+     * Creates an instance with default settings.
+     * 
+     * @param delegate Solr server to which requests are passed
+     */
+    public ResilientSolrServer(SolrServer delegate) {
+        this(delegate, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_BACKOFF, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_INTERVAL);
+    }
+
+    /**
+     * 
+     * @param delegate Solr server to which requests are passed
+     * @param maxAttempts Maximum number of attempts per request
+     * @param initialBackoff Upper bound in ms of the delay before the first retry; doubled for every further retry
+     * @param maxBackoff Maximum upper bound in ms of the delay between retries
+     * @param failureThreshold Number of consecutive failed attempts after which the circuit breaker opens
+     * @param openInterval Time in ms for which the circuit breaker stays open before a trial request is sent
+     */
+    public ResilientSolrServer(SolrServer delegate, int maxAttempts, long initialBackoff, long maxBackoff, int failureThreshold, long openInterval) {
+        this.delegate = delegate;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openInterval = Math.max(0, openInterval);
+    }
+
+    /**
+     * Wraps the given Solr server with the settings from the configuration.
+     * 
+     * @param delegate
+     * @return New instance; the given server if it already is a {@link ResilientSolrServer}
+     * @throws FatalIndexerException
+     */
+    public static SolrServer create(SolrServer delegate) throws FatalIndexerException {
+        if (delegate instanceof ResilientSolrServer) {
+            return delegate;
+        }
+        Configuration config = Configuration.getInstance();
+        return new ResilientSolrServer(delegate, config.getSolrMaxAttempts(), config.getSolrInitialBackoff(), config.getSolrMaxBackoff(), config
+                .getSolrFailureThreshold(), config.getSolrBreakerOpenInterval());
+    }
+
+    /**
+     * @see org.apache.solr.client.solrj.SolrServer#request(org.apache.solr.client.solrj.SolrRequest)
+     * @should retry failed requests
+     * @should fail after max attempts
+     * @should not retry client errors
+     * @should treat non-zero status as failure
+     * @should open circuit breaker after consecutive failures
+     * @should close circuit breaker after successful trial request
+     */
+    @Override
+    public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request) throws SolrServerException, IOException {
+        int attempt = 0;
+        while (true) {
+            long wait = acquirePermit();
+            if (wait > 0) {
+                sleep(wait);
+                continue;
+            }
+            attempt++;
+            requestCount.incrementAndGet();
+            try {
+                NamedList<Object> ret = delegate.request(request);
+                checkStatus(ret);
+                recordSuccess();
+                return ret;
+            } catch (SolrServerException | IOException | SolrException e) {
+                if (!isRetryable(e)) {
+                    // Solr is available, the request itself is invalid
+                    recordSuccess();
+                    throw e;
+                }
+                failedAttemptCount.incrementAndGet();
+                recordFailure();
+                if (attempt >= maxAttempts) {
+                    failureCount.incrementAndGet();
+                    logger.error("Solr request failed after {} attempts: {}", attempt, e.getMessage());
+                    throw e;
+                }
+                long backoff = getBackoff(attempt);
+                logger.warn("Solr request failed (attempt {}/{}), retrying in {} ms: {}", attempt, maxAttempts, backoff, e.getMessage());
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.solr.client.solrj.SolrServer#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    /**
+     * 
+     * @return true if requests are currently sent to Solr (i.e. the circuit breaker is closed or a trial request may be sent); false otherwise
+     */
+    public synchronized boolean isAvailable() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= openInterval;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether a request may be sent now. If the circuit breaker has been open for long enough, the calling thread may send a trial request.
+     * 
+     * @return 0 if the request may be sent; otherwise the time in ms to wait before checking again
+     */
+    synchronized long acquirePermit() {
+        switch (state) {
+            case CLOSED:
+                return 0;
+            case OPEN:
+                long remaining = openedAt + openInterval - System.currentTimeMillis();
+                if (remaining > 0) {
+                    return remaining;
+                }
+                logger.info("Checking whether Solr is available again...");
+                state = State.HALF_OPEN;
+                return 0;
+            default:
+                // Another thread is sending a trial request
+                return Math.max(1, Math.min(openInterval, TRIAL_POLL_INTERVAL));
+        }
+    }
+
+    private synchronized void recordSuccess() {
+        successCount.incrementAndGet();
+        if (state != State.CLOSED) {
+            logger.info("Solr is available again, resuming.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                logger.error("Solr is unavailable after {} consecutive failed requests, pausing for {} ms.", consecutiveFailures, openInterval);
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            breakerOpenCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns a random delay between 0 and the exponentially growing upper bound for the given attempt ("full jitter"), so that concurrent
+     * clients do not retry in lockstep.
+     * 
+     * @param attempt Number of the failed attempt (starting at 1)
+     * @return Delay in ms
+     * @should stay within exponentially growing bounds
+     */
+    long getBackoff(int attempt) {
+        long bound = initialBackoff;
+        for (int i = 1; i < attempt && bound < maxBackoff; ++i) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, maxBackoff);
+        if (bound <= 0) {
+            return 0;
+        }
+
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * 
+     * @param response
+     * @throws SolrServerException if the response header contains a non-zero status
+     */
+    private static void checkStatus(NamedList<Object> response) throws SolrServerException {
+        if (response == null) {
+            return;
+        }
+        Object header = response.get("responseHeader");
+        if (header instanceof NamedList) {
+            Object status = ((NamedList<?>) header).get("status");
+            if (status instanceof Number && ((Number) status).intValue() != 0) {
+                throw new SolrServerException("Solr returned status " + status);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param e
+     * @return true if the request may succeed if sent again; false for client errors
+     */
+    static boolean isRetryable(Exception e) {
+        if (e instanceof SolrException) {
+            int code = ((SolrException) e).code();
+            return code <= 0 || code >= 500;
+        }
+
+        return true;
+    }
+
+    private static void sleep(long millis) throws SolrServerException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SolrServerException("Interrupted while waiting for Solr", e);
+        }
+    }
+
+    /**
+     * @return the delegate
+     */
+    public SolrServer getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return Current state of the circuit breaker
+     */
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Number of attempts sent to Solr
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return Number of attempts that reached Solr successfully (including client errors)
+     */
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * @return Number of failed attempts (including those that were retried)
+     */
+    public long getFailedAttemptCount() {
+        return failedAttemptCount.get();
+    }
+
+    /**
+     * @return Number of requests that failed after all attempts
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return Number of times the circuit breaker has opened
+     */
+    public long getBreakerOpenCount() {
+        return breakerOpenCount.get();
+    }
+}
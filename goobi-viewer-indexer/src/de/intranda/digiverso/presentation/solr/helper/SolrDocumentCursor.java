@@ -0,0 +1,136 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrQuery.ORDER;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+/**
+ * Iterates over all hits of a Solr query using cursorMark deep paging. Only one page of documents is held in memory at a time, so that even
+ * records or periodicals with a very large number of documents can be processed with a flat heap footprint.
+ */
+public class SolrDocumentCursor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SolrDocumentCursor.class);
+
+    private final SolrServer server;
+    private final SolrQuery solrQuery;
+
+    private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    private Iterator<SolrDocument> page;
+    private long numFound = -1;
+    private boolean finished = false;
+
+    /**
+     * 
+     * @param server Solr server to query
+     * @param query Solr query
+     * @param fields Fields to return; may not be empty
+     * @param pageSize Number of documents to fetch per request
+     * @should throw IllegalArgumentException if fields empty
+     * @should throw IllegalArgumentException if page size not positive
+     */
+    public SolrDocumentCursor(SolrServer server, String query, List<String> fields, int pageSize) {
+        if (fields == null || fields.isEmpty()) {
+            throw new IllegalArgumentException("fields may not be empty");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        }
+        this.server = server;
+        solrQuery = new SolrQuery(query);
+        solrQuery.setFields(fields.toArray(new String[fields.size()]));
+        solrQuery.setRows(pageSize);
+        // Cursors require a sort on the unique key
+        solrQuery.setSort(SolrConstants.IDDOC, ORDER.asc);
+    }
+
+    /**
+     * 
+     * @return true if there are more documents; false otherwise
+     * @throws SolrServerException
+     * @should iterate over all pages
+     * @should return false for empty result
+     */
+    public boolean hasNext() throws SolrServerException {
+        while ((page == null || !page.hasNext()) && !finished) {
+            fetchNextPage();
+        }
+
+        return page != null && page.hasNext();
+    }
+
+    /**
+     * 
+     * @return Next document
+     * @throws SolrServerException
+     * @throws IllegalStateException if there are no more documents
+     */
+    public SolrDocument next() throws SolrServerException {
+        if (!hasNext()) {
+            throw new IllegalStateException("No more documents");
+        }
+
+        return page.next();
+    }
+
+    /**
+     * 
+     * @return Total number of hits; triggers the first request if necessary
+     * @throws SolrServerException
+     */
+    public long getNumFound() throws SolrServerException {
+        if (numFound < 0) {
+            hasNext();
+        }
+
+        return numFound;
+    }
+
+    /**
+     * Fetches the next page of documents. The cursor is finished once Solr returns the same cursor mark that was sent.
+     * 
+     * @throws SolrServerException
+     */
+    private void fetchNextPage() throws SolrServerException {
+        solrQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        QueryResponse resp = server.query(solrQuery);
+        SolrDocumentList docs = resp.getResults();
+        if (numFound < 0) {
+            numFound = docs != null ? docs.getNumFound() : 0;
+            logger.trace("{} hits for '{}'", numFound, solrQuery.getQuery());
+        }
+        String nextCursorMark = resp.getNextCursorMark();
+        if (docs == null || docs.isEmpty() || nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+            finished = true;
+        }
+        cursorMark = nextCursorMark;
+        page = docs != null ? docs.iterator() : null;
+    }
+}
@@ -17,15 +17,19 @@ package de.intranda.digiverso.presentation.solr.helper;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.ResponseHandler;
@@ -35,12 +39,22 @@ import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.impl.HttpSolrServer.RemoteSolrException;
+import org.apache.solr.client.solrj.impl.NoOpResponseParser;
+import org.apache.solr.client.solrj.request.AbstractUpdateRequest;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.FacetField.Count;
 import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.jdom2.Document;
 import org.jdom2.JDOMException;
 import org.jdom2.input.SAXBuilder;
@@ -62,12 +76,81 @@ public final class SolrHelper {
     private static final int MAX_HITS = Integer.MAX_VALUE;
     private static final int TIMEOUT_SO = 300000;
     private static final int TIMEOUT_CONNECTION = 300000;
-    private static final int RETRY_ATTEMPTS = 20;
+    private static final int TIMEOUT_ZK = 30000;
 
     public static boolean optimize = false;
-    private static Map<Long, Boolean> usedIddocs = new ConcurrentHashMap<>();
+
+    /** Fields that contain the identifiers of the records a document belongs to. */
+    private static final String[] RECORD_IDENTIFIER_FIELDS = { SolrConstants.PI, SolrConstants.PI_PARENT, SolrConstants.PI_TOPSTRUCT };
 
     private SolrServer server;
+    /** Commit policy; null if each record is followed by a hard commit. */
+    private CommitPolicy commitPolicy;
+    /** True if other jobs (worker threads or indexer nodes) may have uncommitted changes at any time. */
+    private volatile boolean concurrent = false;
+
+    /**
+     * Creates the Solr client configured in the given config file: a {@link CloudSolrServer} if a SolrCloud ZooKeeper ensemble is configured, an
+     * {@link HttpSolrServer} for the configured solrUrl otherwise.
+     * 
+     * @param confFilename
+     * @return
+     * @throws FatalIndexerException
+     */
+    public static SolrServer getNewSolrServer(String confFilename) throws FatalIndexerException {
+        Configuration config = Configuration.getInstance(confFilename);
+        if (StringUtils.isNotBlank(config.getSolrCloudZkHost())) {
+            return getNewCloudSolrServer(config.getSolrCloudZkHost(), config.getSolrCloudCollection());
+        }
+
+        return getNewHttpSolrServer(confFilename);
+    }
+
+    /**
+     * Creates a SolrCloud client that sends each update straight to the leader of the shard its documents are routed to. Documents are routed by
+     * IDDOC, so the documents of large records are spread across all shards; the per-shard parts of an update are sent in parallel.
+     * 
+     * @param zkHost ZooKeeper ensemble
+     * @param collection Collection name
+     * @return
+     * @throws FatalIndexerException
+     * @should route updates by IDDOC to shard leaders
+     * @should throw FatalIndexerException if collection not configured
+     */
+    public static CloudSolrServer getNewCloudSolrServer(String zkHost, String collection) throws FatalIndexerException {
+        if (StringUtils.isBlank(collection)) {
+            throw new FatalIndexerException("No collection configured for SolrCloud '" + zkHost + "', exiting...");
+        }
+        CloudSolrServer server;
+        try {
+            server = new CloudSolrServer(zkHost, true);
+        } catch (MalformedURLException e) {
+            throw new FatalIndexerException("Could not create SolrCloud client: " + e.getMessage());
+        }
+        configureCloudSolrServer(server, collection);
+        logger.info("Using SolrCloud collection '{}' via ZooKeeper '{}'.", collection, zkHost);
+
+        return server;
+    }
+
+    /**
+     * Applies the routing, timeout and serialization settings of the indexer to the given SolrCloud client.
+     * 
+     * @param server
+     * @param collection Collection name
+     * @should make SolrHelper send updates deletes and queries through the cloud client
+     */
+    static void configureCloudSolrServer(CloudSolrServer server, String collection) {
+        server.setDefaultCollection(collection);
+        // CloudSolrServer routes by the "id" field unless told otherwise
+        server.setIdField(SolrConstants.IDDOC);
+        server.setParallelUpdates(true);
+        server.setZkConnectTimeout(TIMEOUT_ZK);
+        server.setZkClientTimeout(TIMEOUT_ZK);
+        server.setRequestWriter(new BinaryRequestWriter());
+        server.getLbServer().setSoTimeout(TIMEOUT_SO);
+        server.getLbServer().setConnectionTimeout(TIMEOUT_CONNECTION);
+    }
 
     public static HttpSolrServer getNewHttpSolrServer(String confFilename) throws FatalIndexerException {
         HttpSolrServer server = new HttpSolrServer(Configuration.getInstance(confFilename).getConfiguration("solrUrl"));
@@ -84,45 +167,121 @@ public final class SolrHelper {
         return server;
     }
 
+    /**
+     * All requests to the given server are retried and guarded by a circuit breaker. If the server is not a {@link ResilientSolrServer} yet, it is
+     * wrapped in one with default settings.
+     * 
+     * @param server
+     */
     public SolrHelper(SolrServer server) {
-        this.server = server;
+        this.server = server instanceof ResilientSolrServer ? server : new ResilientSolrServer(server);
     }
 
-    public synchronized boolean checkIddocAvailability(long iddoc) throws FatalIndexerException {
-        if (usedIddocs.get(iddoc) != null) {
-            return false;
+    /**
+     * 
+     * @return true if Solr requests are currently sent; false if they are paused because Solr has been unavailable
+     */
+    public boolean isAvailable() {
+        return !(server instanceof ResilientSolrServer) || ((ResilientSolrServer) server).isAvailable();
+    }
+
+    /**
+     * @return the commitPolicy
+     */
+    public CommitPolicy getCommitPolicy() {
+        return commitPolicy;
+    }
+
+    /**
+     * @param commitPolicy the commitPolicy to set
+     */
+    public void setCommitPolicy(CommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    /**
+     * @return true if records are indexed concurrently by several workers or indexer nodes; false otherwise
+     */
+    public boolean isConcurrent() {
+        return concurrent;
+    }
+
+    /**
+     * @param concurrent true if records are indexed concurrently by several workers or indexer nodes
+     */
+    public void setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * 
+     * @return true if commits are deferred according to the commit policy; false otherwise
+     */
+    public boolean isCommitDeferred() {
+        return commitPolicy != null && commitPolicy.isDeferred();
+    }
+
+    /**
+     * 
+     * @return commitWithin value for update requests; -1 if none
+     */
+    private int getCommitWithin() {
+        return commitPolicy != null ? commitPolicy.getCommitWithin() : -1;
+    }
+
+    /**
+     * Registers the records to which the given document belongs as changed.
+     * 
+     * @param doc
+     */
+    private void registerChange(SolrInputDocument doc) {
+        if (commitPolicy == null) {
+            return;
         }
-        SolrQuery query = new SolrQuery();
-        StringBuilder sbQuery = new StringBuilder();
-        sbQuery.append(SolrConstants.IDDOC).append(':').append(iddoc);
-        query.setQuery(sbQuery.toString());
-        query.setRows(1);
-
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                QueryResponse resp = server.query(query);
-                if (resp.getResults().size() > 0) {
-                    usedIddocs.put(iddoc, true);
-                    return false;
-                }
-                usedIddocs.put(iddoc, true);
-                success = true;
-            } catch (SolrServerException e) {
-                logger.error(e.getMessage(), e);
-            } catch (NumberFormatException e) {
-                logger.error(e.getMessage(), e);
+        commitPolicy.changed(null);
+        for (String field : RECORD_IDENTIFIER_FIELDS) {
+            Object value = doc.getFieldValue(field);
+            if (value instanceof String) {
+                commitPolicy.changed((String) value);
             }
         }
-        if (!success) {
-            logger.error("Could not veryify the next available IDDOC after {} attempts. Check the Solr server connection. Exiting...",
-                    RETRY_ATTEMPTS);
-            throw new FatalIndexerException("Solr connection error");
+    }
+
+    /**
+     * Registers the record with the given identifier as changed, e.g. after its documents have been deleted.
+     * 
+     * @param pi
+     */
+    public void registerChange(String pi) {
+        if (commitPolicy != null) {
+            commitPolicy.changed(pi);
         }
+    }
+
+    /**
+     * Checks whether no document with an IDDOC in the given range exists. Since IDDOC is a string field, the range is matched lexicographically,
+     * which may report IDDOCs with a different number of digits as taken, but never misses a taken IDDOC with the same number of digits as the
+     * range bounds.
+     * 
+     * @param first First IDDOC of the range
+     * @param last Last IDDOC of the range (must have the same number of digits as <code>first</code>)
+     * @return true if the range is unused; false otherwise
+     * @throws FatalIndexerException if Solr cannot be reached
+     */
+    public boolean isIddocRangeAvailable(long first, long last) throws FatalIndexerException {
+        SolrQuery query = new SolrQuery();
+        query.setQuery(new StringBuilder().append(SolrConstants.IDDOC).append(":[").append(first).append(" TO ").append(last).append(']')
+                .toString());
+        query.setRows(0);
 
-        return true;
+        try {
+            QueryResponse resp = server.query(query);
+            return resp.getResults().getNumFound() == 0;
+        } catch (SolrServerException e) {
+            logger.error(e.getMessage(), e);
+        }
+        logger.error("Could not veryify the next available IDDOC. Check the Solr server connection. Exiting...");
+        throw new FatalIndexerException("Solr connection error");
     }
 
     public long getNumHits(String query) throws SolrServerException {
@@ -143,7 +302,7 @@ public final class SolrHelper {
      */
     public SolrDocumentList search(String query, List<String> fields, int rows) throws SolrServerException {
         SolrQuery solrQuery = new SolrQuery(query);
-        solrQuery.setRows(MAX_HITS);
+        solrQuery.setRows(rows);
         if (fields != null) {
             for (String field : fields) {
                 solrQuery.addField(field);
@@ -154,6 +313,95 @@ public final class SolrHelper {
         return resp.getResults();
     }
 
+    /**
+     * Returns the facet counts for the given field among the hits of the given query, sorted by value.
+     * 
+     * @param query
+     * @param field Facet field
+     * @param minCount Minimum count for a value to be returned
+     * @param offset Number of values to skip
+     * @param limit Maximum number of values; -1 for all values
+     * @return Map of facet values to counts
+     * @throws SolrServerException
+     */
+    public Map<String, Long> getFacetCounts(String query, String field, int minCount, int offset, int limit) throws SolrServerException {
+        SolrQuery solrQuery = new SolrQuery(query);
+        solrQuery.setRows(0);
+        solrQuery.setFacet(true);
+        solrQuery.addFacetField(field);
+        solrQuery.setFacetMinCount(minCount);
+        solrQuery.setFacetLimit(limit);
+        solrQuery.setFacetSort(FacetParams.FACET_SORT_INDEX);
+        solrQuery.set(FacetParams.FACET_OFFSET, offset);
+        QueryResponse resp = server.query(solrQuery);
+
+        Map<String, Long> ret = new LinkedHashMap<>();
+        FacetField facetField = resp.getFacetField(field);
+        if (facetField != null && facetField.getValues() != null) {
+            for (Count count : facetField.getValues()) {
+                ret.put(count.getName(), count.getCount());
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Returns a cursor over all hits for the given query that fetches documents page by page, using the configured page size. Use this instead of
+     * <code>search()</code> for queries that may return a large number of documents.
+     * 
+     * @param query
+     * @param fields Fields to return; may not be empty
+     * @return {@link SolrDocumentCursor}
+     * @throws FatalIndexerException
+     */
+    public SolrDocumentCursor iterate(String query, List<String> fields) throws FatalIndexerException {
+        return iterate(query, fields, Configuration.getInstance().getCursorPageSize());
+    }
+
+    /**
+     * 
+     * @param query
+     * @param fields Fields to return; may not be empty
+     * @param pageSize Number of documents to fetch per request
+     * @return {@link SolrDocumentCursor}
+     */
+    public SolrDocumentCursor iterate(String query, List<String> fields, int pageSize) {
+        return new SolrDocumentCursor(server, query, fields, pageSize);
+    }
+
+    /**
+     * Returns the document with the given IDDOC. If commits are deferred, the document is retrieved via real-time get, so that changes that are
+     * not visible to searches yet are included.
+     * 
+     * @param iddoc
+     * @param fields Fields to return; all fields if null
+     * @return Document; null if not found
+     * @throws SolrServerException
+     */
+    public SolrDocument getDocumentByIddoc(String iddoc, List<String> fields) throws SolrServerException {
+        if (isCommitDeferred()) {
+            SolrQuery query = new SolrQuery();
+            query.setRequestHandler("/get");
+            query.set("id", iddoc);
+            if (fields != null) {
+                query.setFields(fields.toArray(new String[fields.size()]));
+            }
+            try {
+                QueryResponse resp = server.query(query);
+                return (SolrDocument) resp.getResponse().get("doc");
+            } catch (SolrServerException | RemoteSolrException e) {
+                logger.warn("Real-time get failed, using regular search instead: {}", e.getMessage());
+            }
+        }
+        SolrDocumentList hits = search(SolrConstants.IDDOC + ":" + iddoc, fields, 1);
+        if (hits == null || hits.isEmpty()) {
+            return null;
+        }
+
+        return hits.get(0);
+    }
+
     /**
      * Creates a Solr input document from the given list of name:value pairs.
      * 
@@ -225,7 +473,11 @@ public final class SolrHelper {
             newDoc.addField(field, partialUpdates.get(field));
         }
         if (writeToIndex(newDoc)) {
-            commit(false);
+            Object pi = doc.getFieldValue(SolrConstants.PI_TOPSTRUCT);
+            if (pi instanceof String) {
+                registerChange((String) pi);
+            }
+            commitRecord(false);
             return true;
         }
 
@@ -239,33 +491,17 @@ public final class SolrHelper {
      * @should write doc correctly
      */
     public boolean writeToIndex(SolrInputDocument doc) throws FatalIndexerException {
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
-
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                UpdateResponse ur = server.add(doc);
-                switch (ur.getStatus()) {
-                    case 0:
-                        success = true;
-                        break;
-                    default:
-                        logger.error("Update status: {}", ur.getStatus());
-                }
-                return true;
-            } catch (SolrServerException | IOException e) {
-                logger.error(e.getMessage(), e);
-            }
-        }
-
-        if (!success) {
-            logger.error("Could not write document after {} attempts. Check the Solr server connection. Exiting...", RETRY_ATTEMPTS);
-            rollback();
-            throw new FatalIndexerException("Solr connection error");
+        try {
+            server.add(doc, getCommitWithin());
+            registerChange(doc);
+            return true;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
         }
 
-        return false;
+        logger.error("Could not write document. Check the Solr server connection. Exiting...");
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
     }
 
     /**
@@ -275,33 +511,19 @@ public final class SolrHelper {
      * @should write all docs correctly
      */
     public boolean writeToIndex(List<SolrInputDocument> docs) throws FatalIndexerException {
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
-
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                UpdateResponse ur = server.add(docs);
-                switch (ur.getStatus()) {
-                    case 0:
-                        success = true;
-                        break;
-                    default:
-                        logger.error("Update status: {}", ur.getStatus());
-                }
-                return true;
-            } catch (SolrServerException | IOException e) {
-                logger.error(e.getMessage(), e);
+        try {
+            server.add(docs, getCommitWithin());
+            for (SolrInputDocument doc : docs) {
+                registerChange(doc);
             }
+            return true;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
         }
 
-        if (!success) {
-            logger.error("Could not write {} documents after {} attempts. Check the Solr server connection. Exiting...", docs.size(), RETRY_ATTEMPTS);
-            rollback();
-            throw new FatalIndexerException("Solr connection error");
-        }
-
-        return false;
+        logger.error("Could not write {} documents. Check the Solr server connection. Exiting...", docs.size());
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
     }
 
     /**
@@ -309,31 +531,17 @@ public final class SolrHelper {
      * @throws FatalIndexerException
      */
     public void deleteDocument(String id) throws FatalIndexerException {
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
-
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                UpdateResponse ur = server.deleteById(id);
-                switch (ur.getStatus()) {
-                    case 0:
-                        success = true;
-                        break;
-                    default:
-                        logger.error("Update status: {}", ur.getStatus());
-                }
-            } catch (SolrServerException e) {
-                logger.error(e.getMessage());
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-            }
-        }
-        if (!success) {
-            logger.error("Could not delete '{}' after {} attempts. Check the Solr server connection. Exiting...", id, RETRY_ATTEMPTS);
-            rollback();
-            throw new FatalIndexerException("Solr connection error");
+        try {
+            server.deleteById(id, getCommitWithin());
+            registerChange((String) null);
+            return;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
         }
+
+        logger.error("Could not delete '{}'. Check the Solr server connection. Exiting...", id);
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
     }
 
     /**
@@ -347,87 +555,246 @@ public final class SolrHelper {
             logger.error("Nothing to delete.");
             return false;
         }
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
+        try {
+            server.deleteById(ids, getCommitWithin());
+            registerChange((String) null);
+            return true;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
+        }
 
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                UpdateResponse ur = server.deleteById(ids);
-                switch (ur.getStatus()) {
-                    case 0:
-                        success = true;
-                        break;
-                    default:
-                        logger.error("Update status: {}", ur.getStatus());
-                }
-            } catch (SolrServerException e) {
-                logger.error(e.getMessage());
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-            }
+        logger.error("Could not delete {} docs. Check the Solr server connection. Exiting...", ids.size());
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
+    }
+
+    /**
+     * Deletes all documents that match the given query with a single request.
+     * 
+     * @param query
+     * @return true if successful
+     * @throws FatalIndexerException
+     */
+    public boolean deleteByQuery(String query) throws FatalIndexerException {
+        if (StringUtils.isBlank(query)) {
+            throw new IllegalArgumentException("query may not be empty");
         }
-        if (!success) {
-            logger.error("Could not delete {} docs after {} attempts. Check the Solr server connection. Exiting...", ids.size(), RETRY_ATTEMPTS);
-            rollback();
-            throw new FatalIndexerException("Solr connection error");
+        try {
+            server.deleteByQuery(query, getCommitWithin());
+            registerChange((String) null);
+            return true;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+
+        logger.error("Could not delete '{}'. Check the Solr server connection. Exiting...", query);
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
+    }
+
+    /**
+     * Deletes the given records and all their child documents (structure elements, pages, events, etc.) with a single delete-by-query request.
+     * 
+     * @param pis Record identifiers
+     * @return true if successful
+     * @throws FatalIndexerException
+     * @should delete records with all child documents
+     */
+    public boolean deleteRecords(Collection<String> pis) throws FatalIndexerException {
+        if (pis == null || pis.isEmpty()) {
+            throw new IllegalArgumentException("pis may not be empty");
+        }
+        boolean success = deleteByQuery(getRecordQuery(pis));
+        for (String pi : pis) {
+            registerChange(pi);
         }
 
         return success;
     }
 
     /**
+     * Checks whether all documents of the given record belong to the block of the given top-level document. Writing a new block with the same
+     * IDDOC then replaces the entire record. This is not the case if the record has been indexed without block join or if single documents have
+     * since been replaced (e.g. by partial updates), so that they are no longer part of the block.
+     * 
+     * @param pi Record identifier
+     * @param rootIddoc IDDOC of the top-level document
+     * @return true if the record consists of a single intact block; false otherwise
+     * @throws SolrServerException
+     * @should return true for intact block
+     * @should return false for flat record
+     * @should return false if record has docs outside block
+     */
+    public boolean isIntactBlock(String pi, String rootIddoc) throws SolrServerException {
+        String query = new StringBuilder("(").append(getRecordQuery(Collections.singleton(pi))).append(") -").append(SolrConstants.ROOT).append(':')
+                .append(rootIddoc).toString();
+        return getNumHits(query) == 0;
+    }
+
+    /**
+     * 
+     * @param pis Record identifiers
+     * @return Query that matches all documents of the given records
+     * @should match top-level and child documents
+     */
+    public static String getRecordQuery(Collection<String> pis) {
+        return new StringBuilder(buildOrQuery(SolrConstants.PI, pis)).append(" OR ").append(buildOrQuery(SolrConstants.PI_TOPSTRUCT, pis))
+                .toString();
+    }
+
+    /**
+     * Builds a query that matches any of the given values in the given field.
+     * 
+     * @param field
+     * @param values
+     * @return Query string
+     * @should build query for single value
+     * @should combine multiple values with OR
+     * @should escape special characters
+     */
+    public static String buildOrQuery(String field, Collection<String> values) {
+        StringBuilder sb = new StringBuilder(field).append(":(");
+        Iterator<String> iterator = values.iterator();
+        while (iterator.hasNext()) {
+            sb.append(ClientUtils.escapeQueryChars(iterator.next()));
+            if (iterator.hasNext()) {
+                sb.append(" OR ");
+            }
+        }
+
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Performs a hard commit that opens a new searcher, regardless of the commit policy.
      * 
      * @param optimize
      * @throws FatalIndexerException
-     * @throws IOException
-     * @throws SolrServerException
      */
     public void commit(boolean optimize) throws FatalIndexerException {
-        boolean success = false;
-        int tries = RETRY_ATTEMPTS;
+        hardCommit(true);
 
-        while (!success && tries > 0) {
-            tries--;
-            try {
-                //                server.commit();
-                //                success = true;
-                UpdateResponse ur = server.commit();
-                switch (ur.getStatus()) {
-                    case 0:
-                        success = true;
-                        break;
-                    default:
-                        logger.error("Update status: {}", ur.getStatus());
-                }
-            } catch (SolrServerException e) {
-                logger.error(e.getMessage());
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
+        if (optimize) {
+            optimize();
+        }
+    }
+
+    /**
+     * Makes the changes of a finished record visible according to the commit policy. Without a deferring commit policy, a hard commit is performed
+     * right away.
+     * 
+     * @param optimize Optimize the index after a hard commit
+     * @throws FatalIndexerException
+     */
+    public void commitRecord(boolean optimize) throws FatalIndexerException {
+        if (!isCommitDeferred()) {
+            commit(optimize);
+            return;
+        }
+        if (commitPolicy.recordFinished()) {
+            softCommit();
+        }
+    }
+
+    /**
+     * Makes all changes visible to searches without flushing them to stable storage.
+     * 
+     * @throws FatalIndexerException
+     */
+    public void softCommit() throws FatalIndexerException {
+        if (commitPolicy != null) {
+            commitPolicy.softCommitStarted();
+        }
+        logger.debug("Soft commit...");
+        sendCommit(true, true);
+    }
+
+    /**
+     * Flushes all changes to stable storage.
+     * 
+     * @param openSearcher If true, the changes are also made visible to searches
+     * @throws FatalIndexerException
+     */
+    public void hardCommit(boolean openSearcher) throws FatalIndexerException {
+        if (commitPolicy != null) {
+            commitPolicy.hardCommitStarted();
+            if (openSearcher) {
+                commitPolicy.softCommitStarted();
             }
         }
-        if (!success) {
-            logger.error("Could not commit after {} attempts. Check the Solr server connection. Exiting...", RETRY_ATTEMPTS);
-            rollback();
-            throw new FatalIndexerException("Solr connection error");
+        sendCommit(false, openSearcher);
+        if (!openSearcher && optimize && isCommitDeferred()) {
+            // With deferred commits, optimizing after each record would defeat the purpose, so the index is optimized with the scheduled commits
+            optimize();
         }
+    }
 
-        if (optimize) {
-            logger.debug("Optimizing index...");
-            try {
-                server.optimize();
-                logger.debug("...done.");
-            } catch (SolrServerException e) {
-                // Optimize is an expensive operation and may cause a socket timeout, which shouldn't cause the entire indexing operation to fail,
-                // though.
-                logger.warn("Index optimization failed: {}", e.getMessage());
-            } catch (IOException e) {
-                logger.error("Index optimization failed.", e);
+    /**
+     * Makes sure that all changes to the record with the given identifier are visible to searches. A soft commit is only performed if the record
+     * has been changed since the last commit.
+     * 
+     * @param pi Record identifier
+     * @throws FatalIndexerException
+     */
+    public void ensureVisible(String pi) throws FatalIndexerException {
+        if (commitPolicy != null && commitPolicy.isPending(pi)) {
+            logger.debug("Record '{}' has uncommitted changes, committing before lookup...", pi);
+            softCommit();
+        }
+    }
+
+    /**
+     * 
+     * @param softCommit
+     * @param openSearcher
+     * @throws FatalIndexerException
+     */
+    private void sendCommit(boolean softCommit, boolean openSearcher) throws FatalIndexerException {
+        try {
+            if (!softCommit && openSearcher) {
+                server.commit();
+            } else {
+                UpdateRequest req = new UpdateRequest();
+                req.setAction(AbstractUpdateRequest.ACTION.COMMIT, true, true, softCommit);
+                if (!openSearcher) {
+                    req.setParam("openSearcher", "false");
+                }
+                req.process(server);
             }
+            return;
+        } catch (SolrServerException | IOException e) {
+            logger.error(e.getMessage(), e);
         }
+
+        logger.error("Could not commit. Check the Solr server connection. Exiting...");
+        rollback();
+        throw new FatalIndexerException("Solr connection error");
     }
 
+    private void optimize() {
+        logger.debug("Optimizing index...");
+        try {
+            server.optimize();
+            logger.debug("...done.");
+        } catch (SolrServerException e) {
+            // Optimize is an expensive operation and may cause a socket timeout, which shouldn't cause the entire indexing operation to fail,
+            // though.
+            logger.warn("Index optimization failed: {}", e.getMessage());
+        } catch (IOException e) {
+            logger.error("Index optimization failed.", e);
+        }
+    }
+
+    /**
+     * Discards all uncommitted changes. Does nothing if other records may have uncommitted changes, i.e. if commits are deferred or records are
+     * indexed concurrently, since their changes would be discarded as well.
+     */
     public void rollback() {
+        if (isCommitDeferred() || concurrent) {
+            // A rollback would also discard the uncommitted changes of all other records since the last hard commit
+            logger.warn("Commits are deferred or records are indexed concurrently, changes are not rolled back.");
+            return;
+        }
         logger.info("Rolling back...");
         try {
             server.rollback();
@@ -438,7 +805,31 @@ public final class SolrHelper {
         }
     }
 
+    /**
+     * Discards the changes to the record with the given identifier after it could not be indexed completely. If no other record can have
+     * uncommitted changes, the index is rolled back, which also restores the previous instance of the record. Otherwise, all documents of the record
+     * are deleted instead, so that no incomplete record remains in the index. The previous instance cannot be restored in this case.
+     * 
+     * @param pi Record identifier; must only be given once the record's previous documents have been deleted or new documents have been sent. If
+     *            null, only a rollback is attempted
+     * @should delete record without discarding changes of other records if concurrent
+     */
+    public void rollback(String pi) {
+        if (pi == null || !(isCommitDeferred() || concurrent)) {
+            rollback();
+            return;
+        }
+        logger.warn("Removing incomplete record '{}' from the index...", pi);
+        try {
+            deleteRecords(Collections.singletonList(pi));
+            commitRecord(false);
+        } catch (FatalIndexerException e) {
+            logger.error("Could not remove incomplete record '{}': {}", pi, e.getMessage());
+        }
+    }
+
     public Document getSolrSchemaDocument() throws FatalIndexerException {
+        SolrServer server = this.server instanceof ResilientSolrServer ? ((ResilientSolrServer) this.server).getDelegate() : this.server;
         if (server instanceof HttpSolrServer) {
             HttpSolrServer httpServer = (HttpSolrServer) server;
             try {
@@ -462,34 +853,20 @@ public final class SolrHelper {
                 // Do not shut down the client here, otherwise queries will no longer work
                 httpServer.setConnectionTimeout(TIMEOUT_CONNECTION);
             }
-        }
-
-        return null;
-    }
-
-    public int removeGrievingAnchors() throws FatalIndexerException {
-        String[] fields = { SolrConstants.IDDOC, SolrConstants.PI };
-        try {
-            List<String> toDelete = new ArrayList<>();
-            SolrDocumentList anchors = search(SolrConstants.ISANCHOR + ":true", Arrays.asList(fields));
-            for (SolrDocument anchor : anchors) {
-                String iddoc = (String) anchor.getFirstValue(SolrConstants.IDDOC);
-                String pi = (String) anchor.getFirstValue(SolrConstants.PI);
-                if (search(SolrConstants.PI_PARENT + ":" + pi, Collections.singletonList(SolrConstants.IDDOC)).getNumFound() == 0) {
-                    toDelete.add(iddoc);
-                    logger.info("{} has no volumes and will be deleted.", pi);
-                }
-            }
-            if (!toDelete.isEmpty()) {
-                deleteDocuments(toDelete);
-                commit(false);
-                return toDelete.size();
+        } else if (server instanceof CloudSolrServer) {
+            // There is no single base URL in a cluster, so the file handler of one of the collection's nodes is used
+            QueryRequest request = new QueryRequest(new ModifiableSolrParams().set("file", "schema.xml").set("contentType",
+                    "text/xml;charset=utf-8"));
+            request.setPath("/admin/file");
+            request.setResponseParser(new NoOpResponseParser("xml"));
+            try (StringReader sr = new StringReader((String) server.request(request).get("response"))) {
+                return new SAXBuilder().build(sr);
+            } catch (SolrServerException | IOException | JDOMException e) {
+                logger.error(e.getMessage(), e);
             }
-        } catch (SolrServerException e) {
-            logger.error(e.getMessage(), e);
         }
 
-        return 0;
+        return null;
     }
 
     /**
@@ -504,40 +881,55 @@ public final class SolrHelper {
      */
     public SolrInputDocument checkAndCreateGroupDoc(String groupIdField, String groupId, Map<String, String> metadata, long iddoc) {
         try {
-            SolrDocumentList docs = search(SolrConstants.PI + ":" + groupId, null);
-            SolrInputDocument doc = new SolrInputDocument();
-            Date now = new Date();
-            if (docs.isEmpty()) {
-                // Document does not exist yet
-                doc.setField(SolrConstants.IDDOC, String.valueOf(iddoc));
-                doc.setField(SolrConstants.GROUPFIELD, String.valueOf(iddoc));
-                doc.setField(SolrConstants.DOCTYPE, DocType.GROUP.name());
-                doc.setField(SolrConstants.DATECREATED, now.getTime());
-            } else {
-                // A document already exists for this groupId
-                SolrDocument oldDoc = docs.get(0);
-                doc.setField(SolrConstants.IDDOC, oldDoc.getFieldValue(SolrConstants.IDDOC));
-                if (doc.getField(SolrConstants.GROUPFIELD) == null) {
-                    doc.setField(SolrConstants.GROUPFIELD, oldDoc.getFieldValue(SolrConstants.IDDOC));
-                }
-                doc.setField(SolrConstants.DOCTYPE, DocType.GROUP.name());
-                doc.setField(SolrConstants.DATECREATED, oldDoc.getFieldValue(SolrConstants.DATECREATED));
-            }
-            doc.setField(SolrConstants.DATEUPDATED, now.getTime());
-            doc.setField(SolrConstants.PI, groupId);
-            doc.setField(SolrConstants.PI_TOPSTRUCT, groupId);
-            doc.setField(SolrConstants.GROUPTYPE, groupIdField);
-            if (metadata != null) {
-                for (String fieldName : metadata.keySet()) {
-                    String fieldValue = metadata.get(fieldName);
-                    doc.setField(fieldName, fieldValue);
-                }
-            }
-            return doc;
+            SolrDocumentList docs = search(SolrConstants.PI + ":" + groupId, Arrays.asList(SolrConstants.IDDOC, SolrConstants.DATECREATED));
+            return createGroupDoc(groupIdField, groupId, metadata, iddoc, docs.isEmpty() ? null : docs.get(0));
         } catch (SolrServerException e) {
             logger.error(e.getMessage(), e);
         }
 
         return null;
     }
+
+    /**
+     * Creates a group document, re-using IDDOC and DATECREATED from the given existing document, if available.
+     * 
+     * @param groupIdField Field name of the group identifier.
+     * @param groupId Field value of the group identifier.
+     * @param metadata Map with additional metadat fields to add to the group document.
+     * @param iddoc IDDOC for the new document.
+     * @param oldDoc Currently indexed group document (must contain IDDOC and DATECREATED); null if none exists
+     * @return Group SolrInputDocument
+     * @should create new document if no old document given
+     * @should keep IDDOC and creation timestamp of old document
+     */
+    public static SolrInputDocument createGroupDoc(String groupIdField, String groupId, Map<String, String> metadata, long iddoc,
+            SolrDocument oldDoc) {
+        SolrInputDocument doc = new SolrInputDocument();
+        Date now = new Date();
+        if (oldDoc == null) {
+            // Document does not exist yet
+            doc.setField(SolrConstants.IDDOC, String.valueOf(iddoc));
+            doc.setField(SolrConstants.GROUPFIELD, String.valueOf(iddoc));
+            doc.setField(SolrConstants.DOCTYPE, DocType.GROUP.name());
+            doc.setField(SolrConstants.DATECREATED, now.getTime());
+        } else {
+            // A document already exists for this groupId
+            doc.setField(SolrConstants.IDDOC, oldDoc.getFieldValue(SolrConstants.IDDOC));
+            doc.setField(SolrConstants.GROUPFIELD, oldDoc.getFieldValue(SolrConstants.IDDOC));
+            doc.setField(SolrConstants.DOCTYPE, DocType.GROUP.name());
+            doc.setField(SolrConstants.DATECREATED, oldDoc.getFieldValue(SolrConstants.DATECREATED));
+        }
+        doc.setField(SolrConstants.DATEUPDATED, now.getTime());
+        doc.setField(SolrConstants.PI, groupId);
+        doc.setField(SolrConstants.PI_TOPSTRUCT, groupId);
+        doc.setField(SolrConstants.GROUPTYPE, groupIdField);
+        if (metadata != null) {
+            for (String fieldName : metadata.keySet()) {
+                String fieldValue = metadata.get(fieldName);
+                doc.setField(fieldName, fieldValue);
+            }
+        }
+
+        return doc;
+    }
 }
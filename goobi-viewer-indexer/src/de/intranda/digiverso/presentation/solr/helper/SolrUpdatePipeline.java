@@ -0,0 +1,298 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.IndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+/**
+ * Sends documents to Solr in batches that are limited by document count and estimated payload size. Full batches are handed over to background
+ * sender threads, so that documents can be prepared while previous batches are transferred and analyzed by Solr. The number of batches that are
+ * waiting or being sent is bounded; {@link #add(SolrInputDocument)} blocks while that limit is reached.
+ * <p>
+ * Batches handed over to several sender threads may reach Solr in any order. An ordered pipeline therefore chains its batches: they are sent one
+ * after another by a single sender thread, in the order in which they have been filled.
+ */
+public class SolrUpdatePipeline implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SolrUpdatePipeline.class);
+
+    /** Estimated overhead per field in bytes. */
+    private static final int FIELD_OVERHEAD = 16;
+
+    private final SolrHelper solrHelper;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final ExecutorService senders;
+    /** Permits for batches that may be queued or in transfer at the same time. */
+    private final Semaphore slots;
+    private final int slotCount;
+    private final Map<String, String> mdc;
+
+    private List<SolrInputDocument> batch = new ArrayList<>();
+    private long batchBytes = 0;
+    private final AtomicInteger docsSent = new AtomicInteger();
+    private volatile Exception failure;
+
+    /**
+     * 
+     * @param solrHelper
+     * @param maxDocs Maximum number of documents per batch
+     * @param maxBytes Maximum estimated payload size per batch (a single larger document is sent on its own)
+     * @param senderThreads Number of background sender threads
+     * @param queueSize Number of full batches that may wait for a sender thread
+     */
+    public SolrUpdatePipeline(SolrHelper solrHelper, int maxDocs, long maxBytes, int senderThreads, int queueSize) {
+        this(solrHelper, maxDocs, maxBytes, senderThreads, queueSize, false);
+    }
+
+    /**
+     * 
+     * @param solrHelper
+     * @param maxDocs Maximum number of documents per batch
+     * @param maxBytes Maximum estimated payload size per batch (a single larger document is sent on its own)
+     * @param senderThreads Number of background sender threads; ignored if ordered
+     * @param queueSize Number of full batches that may wait for a sender thread
+     * @param ordered If true, the batches are sent in the order in which they have been filled
+     * @should send batches in order if ordered
+     */
+    public SolrUpdatePipeline(SolrHelper solrHelper, int maxDocs, long maxBytes, int senderThreads, int queueSize, boolean ordered) {
+        this.solrHelper = solrHelper;
+        this.maxDocs = Math.max(1, maxDocs);
+        this.maxBytes = Math.max(1, maxBytes);
+        // A single sender thread takes the batches from the executor's queue in submission order
+        int threads = ordered ? 1 : Math.max(1, senderThreads);
+        this.slotCount = threads + Math.max(0, queueSize);
+        this.slots = new Semaphore(slotCount);
+        this.senders = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "solr-update-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Log messages of the sender threads belong to the job that created this pipeline
+        this.mdc = MDC.getCopyOfContextMap();
+    }
+
+    /**
+     * Creates a pipeline with the batch limits and thread counts from the configuration.
+     * 
+     * @param solrHelper
+     * @param ordered If true, the documents reach Solr in the order in which they have been added
+     * @return New pipeline
+     * @throws FatalIndexerException
+     */
+    public static SolrUpdatePipeline create(SolrHelper solrHelper, boolean ordered) throws FatalIndexerException {
+        Configuration config = Configuration.getInstance();
+        return new SolrUpdatePipeline(solrHelper, config.getUpdateBatchDocs(), config.getUpdateBatchBytes(), config.getUpdateSenderThreads(), config
+                .getUpdateQueueSize(), ordered);
+    }
+
+    /**
+     * Adds the given document to the current batch. Hands the batch over to a sender thread once it is full. Thread-safe.
+     * 
+     * @param doc
+     * @throws IndexerException if a previous batch could not be written
+     * @throws FatalIndexerException if Solr could not be reached
+     * @should send batches limited by document count
+     * @should send batches limited by payload size
+     * @should rethrow sender errors
+     */
+    public void add(SolrInputDocument doc) throws IndexerException, FatalIndexerException {
+        checkFailure();
+        List<SolrInputDocument> fullBatch = null;
+        synchronized (this) {
+            long docBytes = estimateSize(doc);
+            if (!batch.isEmpty() && batchBytes + docBytes > maxBytes) {
+                fullBatch = batch;
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(doc);
+            batchBytes += docBytes;
+            if (fullBatch == null && (batch.size() >= maxDocs || batchBytes >= maxBytes)) {
+                fullBatch = batch;
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (fullBatch != null) {
+            submit(fullBatch);
+        }
+    }
+
+    /**
+     * Adds all given documents.
+     * 
+     * @param docs
+     * @throws IndexerException
+     * @throws FatalIndexerException
+     */
+    public void addAll(List<SolrInputDocument> docs) throws IndexerException, FatalIndexerException {
+        for (SolrInputDocument doc : docs) {
+            add(doc);
+        }
+    }
+
+    /**
+     * Sends the current partial batch and waits until all batches have been written.
+     * 
+     * @return Number of documents written so far
+     * @throws IndexerException if a batch could not be written
+     * @throws FatalIndexerException if Solr could not be reached
+     * @should write all added documents
+     */
+    public int flush() throws IndexerException, FatalIndexerException {
+        List<SolrInputDocument> lastBatch = null;
+        synchronized (this) {
+            if (!batch.isEmpty()) {
+                lastBatch = batch;
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+        }
+        if (lastBatch != null) {
+            submit(lastBatch);
+        }
+        try {
+            slots.acquire(slotCount);
+            slots.release(slotCount);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException("Interrupted while waiting for Solr updates");
+        }
+        checkFailure();
+
+        return docsSent.get();
+    }
+
+    /**
+     * Stops the sender threads. Batches that have not been flushed are discarded.
+     */
+    @Override
+    public void close() {
+        senders.shutdownNow();
+        try {
+            senders.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Hands the given batch over to a sender thread. Blocks while the maximum number of pending batches is reached.
+     * 
+     * @param docs
+     * @throws IndexerException
+     */
+    private void submit(final List<SolrInputDocument> docs) throws IndexerException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexerException("Interrupted while waiting for Solr updates");
+        }
+        senders.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (mdc != null) {
+                    MDC.setContextMap(mdc);
+                }
+                try {
+                    if (failure == null) {
+                        send(docs);
+                        docsSent.addAndGet(docs.size());
+                        logger.debug("{} documents written to the index.", docs.size());
+                    }
+                } catch (FatalIndexerException | RuntimeException e) {
+                    logger.error("Could not write batch of {} documents (first IDDOC: {}): {}", docs.size(), docs.get(0).getFieldValue(
+                            SolrConstants.IDDOC), e.getMessage());
+                    if (failure == null) {
+                        failure = e;
+                    }
+                } finally {
+                    slots.release();
+                    MDC.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the given batch to the index. Called from the sender threads.
+     * 
+     * @param docs
+     * @throws FatalIndexerException
+     */
+    protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+        solrHelper.writeToIndex(docs);
+    }
+
+    private void checkFailure() throws IndexerException, FatalIndexerException {
+        Exception e = failure;
+        if (e == null) {
+            return;
+        }
+        if (e instanceof FatalIndexerException) {
+            throw (FatalIndexerException) e;
+        }
+        throw new IndexerException(e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+    }
+
+    /**
+     * Estimates the size of the given document in an update request.
+     * 
+     * @param doc
+     * @return Estimated size in bytes
+     * @should sum up field names and values
+     */
+    static long estimateSize(SolrInputDocument doc) {
+        long ret = 0;
+        for (SolrInputField field : doc) {
+            ret += field.getName().length() + FIELD_OVERHEAD;
+            if (field.getValues() != null) {
+                for (Object value : field.getValues()) {
+                    ret += value != null ? String.valueOf(value).length() + FIELD_OVERHEAD : 0;
+                }
+            }
+        }
+        return ret;
+    }
+}
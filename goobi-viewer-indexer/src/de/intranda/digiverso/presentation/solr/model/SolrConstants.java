@@ -108,6 +108,8 @@ public final class SolrConstants {
     public static final String YEARMONTH = "YEARMONTH";
     public static final String YEARMONTHDAY = "YEARMONTHDAY";
     public static final String WIDTH = "WIDTH";
+    /** Solr's block join field, which contains the uniqueKey of the parent document of a block. */
+    public static final String ROOT = "_root_";
 
     public static final String LABEL = "LABEL";
     public static final String TYPO3_TYPE = "TYPE";
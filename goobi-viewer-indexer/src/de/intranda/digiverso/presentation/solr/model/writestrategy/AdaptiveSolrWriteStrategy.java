@@ -0,0 +1,275 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.helper.Configuration;
+import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.IndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+/**
+ * Write strategy that keeps all documents in memory like {@link LazySolrWriteStrategy} until the heap usage reaches the given watermark. From then
+ * on, the ALTO and full-text payloads of all held and all further page documents are moved into a {@link DocumentSpillStore}; the remaining
+ * page fields stay in memory, so that structure elements can still be mapped to their pages. The payloads are read back page by page while the
+ * record is written, so that only the documents of the current update batches are complete in memory.
+ */
+public class AdaptiveSolrWriteStrategy extends LazySolrWriteStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveSolrWriteStrategy.class);
+
+    /** Page document fields that are moved to disk once the watermark has been reached. */
+    static final String[] SPILL_FIELDS = { SolrConstants.ALTO, SolrConstants.FULLTEXT, "MD_FULLTEXT" };
+
+    private final DocumentSpillStore store;
+    private final double watermark;
+    private volatile boolean spilling = false;
+
+    /**
+     * Constructor.
+     * 
+     * @param solrHelper
+     * @param tempFolder Folder for the spill file
+     * @param watermarkPercent Heap usage (in percent of the maximum heap size) above which page payloads are spilled to disk
+     */
+    public AdaptiveSolrWriteStrategy(SolrHelper solrHelper, Path tempFolder, int watermarkPercent) {
+        super(solrHelper);
+        this.store = new DocumentSpillStore(tempFolder.resolve("adaptive_" + UUID.randomUUID() + ".spill"), isSpillCompression());
+        this.watermark = watermarkPercent / 100.0;
+    }
+
+    /**
+     * Adds the given page document. Spills its payload fields (and those of all page documents added before) to disk if the heap usage has
+     * reached the watermark. Synchronized, so that no page document is added unspilled while the held documents are being spilled.
+     * 
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#addPageDoc(org.apache.solr.common.SolrInputDocument)
+     * @should keep payload in memory below watermark
+     * @should spill payloads of held and new page docs above watermark
+     */
+    @Override
+    public synchronized void addPageDoc(SolrInputDocument doc) {
+        if (!spilling && getHeapUsage() >= watermark) {
+            startSpilling();
+        }
+        if (spilling) {
+            spill(doc);
+        }
+        super.addPageDoc(doc);
+    }
+
+    /**
+     * Switches to spilling mode and spills the payloads of all page documents that are already held. Spilling mode is kept until
+     * {@link #cleanup()}, so that the heap usage is only measured until the watermark has been reached once.
+     */
+    private void startSpilling() {
+        logger.info("Heap usage has reached {}%, spilling page contents to '{}'.", Math.round(watermark * 100), store.getFile().toAbsolutePath());
+        spilling = true;
+        for (SolrInputDocument pageDoc : pageOrderMap.values()) {
+            spill(pageDoc);
+        }
+    }
+
+    /**
+     * Moves the payload fields of the given page document into the spill store.
+     * 
+     * @param doc
+     */
+    private void spill(SolrInputDocument doc) {
+        Object iddoc = doc.getFieldValue(SolrConstants.IDDOC);
+        if (iddoc == null) {
+            return;
+        }
+        for (String field : SPILL_FIELDS) {
+            SolrInputField inputField = doc.getField(field);
+            if (inputField == null || inputField.getValue() == null) {
+                continue;
+            }
+            try {
+                store.put(iddoc + "_" + field, inputField.getValue());
+                doc.removeField(field);
+            } catch (IOException e) {
+                // Keep the field in memory
+                logger.error("Could not spill {} of page {}: {}", field, iddoc, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param doc Page document
+     * @return Copy of the given document with its spilled payload fields; the document itself if nothing has been spilled
+     * @throws IndexerException if a payload could not be read
+     */
+    private SolrInputDocument restore(SolrInputDocument doc) throws IndexerException {
+        if (!spilling) {
+            return doc;
+        }
+        Object iddoc = doc.getFieldValue(SolrConstants.IDDOC);
+        SolrInputDocument ret = null;
+        for (String field : SPILL_FIELDS) {
+            try {
+                Object value = store.get(iddoc + "_" + field);
+                if (value == null) {
+                    continue;
+                }
+                if (ret == null) {
+                    // Restore into a copy so that the held document stays small after it has been sent
+                    ret = new SolrInputDocument();
+                    for (Map.Entry<String, SolrInputField> entry : doc.entrySet()) {
+                        ret.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                ret.setField(field, value);
+            } catch (IOException e) {
+                throw new IndexerException("Could not read " + field + " of page " + iddoc + ": " + e.getMessage());
+            }
+        }
+
+        return ret != null ? ret : doc;
+    }
+
+    /**
+     * Writes the structure documents and then the page documents in the order of their ORDER values, restoring the spilled payloads of each page
+     * right before it is sent. The root document is written last, after the page values have been aggregated into it. The spilled full-texts
+     * are only read back into the root document once all page documents have been sent, so that they are not held twice. Note that with
+     * record aggregation enabled, the root document still contains the full-text of the whole record when it is sent.
+     * 
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#writeDocs(boolean)
+     * @should write all docs with restored payloads
+     * @should aggregate spilled page values into root doc
+     * @should aggregate spilled full-text only after all page docs have been sent
+     */
+    @Override
+    public void writeDocs(boolean aggregateRecords) throws IndexerException, FatalIndexerException {
+        if (rootDoc == null) {
+            throw new IndexerException("topDoc may not be null");
+        }
+        int count = 0;
+        try (SolrUpdatePipeline pipeline = createPipeline(true)) {
+            for (SolrInputDocument doc : docsToAdd.getValues()) {
+                aggregate(doc, aggregateRecords);
+                pipeline.add(doc);
+                count++;
+            }
+            List<SolrInputDocument> pageDocs = getSortedPageDocs();
+            for (SolrInputDocument heldDoc : pageDocs) {
+                // Aggregate before restoring, so that only values that have not been spilled are added here
+                aggregate(heldDoc, aggregateRecords);
+                SolrInputDocument pageDoc = restore(heldDoc);
+                checkAndAddAccessCondition(pageDoc);
+                pipeline.add(pageDoc);
+                count++;
+            }
+            if (aggregateRecords && spilling) {
+                pipeline.flush();
+                aggregateSpilledFulltexts(pageDocs);
+            }
+            aggregate(rootDoc, aggregateRecords);
+            pipeline.add(rootDoc);
+            count++;
+            pipeline.flush();
+        }
+        solrHelper.commitRecord(SolrHelper.optimize);
+        logger.debug("{} new doc(s) added.", count);
+    }
+
+    /**
+     * Adds the spilled FULLTEXT values of the given page documents to the root document, reading them from the spill store one at a time.
+     * 
+     * @param pageDocs
+     * @throws IndexerException if a full-text could not be read
+     */
+    private void aggregateSpilledFulltexts(List<SolrInputDocument> pageDocs) throws IndexerException {
+        for (SolrInputDocument pageDoc : pageDocs) {
+            Object iddoc = pageDoc.getFieldValue(SolrConstants.IDDOC);
+            try {
+                Object value = store.get(iddoc + "_" + SolrConstants.FULLTEXT);
+                if (value != null) {
+                    rootDoc.addField(SolrConstants.SUPERFULLTEXT, value);
+                }
+            } catch (IOException e) {
+                throw new IndexerException("Could not read " + SolrConstants.FULLTEXT + " of page " + iddoc + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return Used heap memory as a fraction of the maximum heap size
+     */
+    protected double getHeapUsage() {
+        MemoryUsage usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        // The maximum is undefined if no -Xmx has been set and the platform has no default
+        long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+        return max > 0 ? (double) usage.getUsed() / max : 0;
+    }
+
+    /**
+     * 
+     * @return true if page payloads are being spilled to disk; false otherwise
+     */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /**
+     * 
+     * @return the store
+     */
+    DocumentSpillStore getStore() {
+        return store;
+    }
+
+    /**
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#cleanup()
+     * @should delete spill file
+     */
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        pageOrderMap.clear();
+        physIdPageMap.clear();
+        spilling = false;
+        try {
+            store.delete();
+        } catch (IOException e) {
+            logger.error("Could not delete '{}': {}", store.getFile().toAbsolutePath(), e.getMessage());
+        }
+    }
+
+    private static boolean isSpillCompression() {
+        try {
+            return Configuration.getInstance().isSpillCompression();
+        } catch (FatalIndexerException e) {
+            logger.error(e.getMessage());
+            return false;
+        }
+    }
+}
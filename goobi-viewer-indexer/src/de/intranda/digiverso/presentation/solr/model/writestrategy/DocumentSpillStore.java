@@ -0,0 +1,318 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.solr.common.util.JavaBinCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only store for documents and texts that are kept out of the heap while a record is being indexed. All entries are appended to a single
+ * segment file in SolrJ's javabin format, optionally deflate-compressed; an in-memory index maps each key to the position of its latest entry.
+ * Writing an entry for an existing key supersedes the previous entry. Reads use positional I/O and may run concurrently with each other and with
+ * writes.
+ * <p>
+ * Each entry is stored as <code>[int length][int CRC32][short key length][key][byte flags][payload]</code>, where length and checksum cover
+ * everything after the checksum. This allows the index to be rebuilt from the file alone, e.g. when resuming an interrupted indexing run; an
+ * incomplete entry at the end of the file is discarded.
+ */
+public class DocumentSpillStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentSpillStore.class);
+
+    private static final int HEADER_LENGTH = 8;
+    private static final byte FLAG_COMPRESSED = 1;
+
+    private final Path file;
+    private final boolean compress;
+    /** Position and length (without the header) of the latest entry for each key. */
+    private final Map<String, long[]> index = new ConcurrentHashMap<>();
+    private volatile FileChannel channel;
+    private long length = 0;
+
+    /**
+     * 
+     * @param file Segment file; an existing file is opened and its entries are indexed on first access
+     * @param compress If true, new entries are deflate-compressed
+     */
+    public DocumentSpillStore(Path file, boolean compress) {
+        this.file = file;
+        this.compress = compress;
+    }
+
+    /**
+     * Appends the given value under the given key.
+     * 
+     * @param key
+     * @param value A value that can be written by {@link JavaBinCodec}, e.g. a SolrInputDocument or a String
+     * @throws IOException
+     * @should return latest value for key
+     * @should read compressed and uncompressed entries
+     */
+    public void put(String key, Object value) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        // Placeholders for length and checksum
+        baos.write(new byte[HEADER_LENGTH]);
+        baos.write(keyBytes.length >>> 8);
+        baos.write(keyBytes.length);
+        baos.write(keyBytes);
+        baos.write(compress ? FLAG_COMPRESSED : 0);
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (OutputStream os = new DeflaterOutputStream(baos, deflater)) {
+                new JavaBinCodec().marshal(value, os);
+            } finally {
+                deflater.end();
+            }
+        } else {
+            new JavaBinCodec().marshal(value, baos);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(baos.toByteArray());
+        int entryLength = buffer.capacity() - HEADER_LENGTH;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_LENGTH, entryLength);
+        buffer.putInt(0, entryLength);
+        buffer.putInt(4, (int) crc.getValue());
+
+        synchronized (this) {
+            FileChannel ch = getChannel();
+            long position = length;
+            while (buffer.hasRemaining()) {
+                ch.write(buffer, position + buffer.position());
+            }
+            length += buffer.capacity();
+            index.put(key, new long[] { position + HEADER_LENGTH, entryLength });
+        }
+    }
+
+    /**
+     * 
+     * @param key
+     * @return Latest value stored under the given key; null if there is none
+     * @throws IOException
+     * @should return null for unknown key
+     */
+    public Object get(String key) throws IOException {
+        FileChannel ch = getChannel();
+        long[] entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry[1]);
+        readFully(ch, buffer, entry[0]);
+        byte[] bytes = buffer.array();
+        int payloadOffset = 2 + (((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF)) + 1;
+        InputStream is = new ByteArrayInputStream(bytes, payloadOffset, bytes.length - payloadOffset);
+        if ((bytes[payloadOffset - 1] & FLAG_COMPRESSED) != 0) {
+            is = new InflaterInputStream(is);
+        }
+        try (InputStream in = is) {
+            return new JavaBinCodec().unmarshal(in);
+        }
+    }
+
+    /**
+     * 
+     * @param key
+     * @return true if a value is stored under the given key; false otherwise
+     * @throws IOException
+     * @should index entries of existing file
+     * @should discard incomplete entry at end of file
+     */
+    public boolean contains(String key) throws IOException {
+        getChannel();
+        return index.containsKey(key);
+    }
+
+    /**
+     * Removes the given key from the index. The entry itself remains in the segment file until the store is deleted.
+     * 
+     * @param key
+     */
+    public void remove(String key) {
+        index.remove(key);
+    }
+
+    /**
+     * 
+     * @return All keys that currently have a value
+     * @throws IOException
+     */
+    public List<String> getKeys() throws IOException {
+        getChannel();
+        return new ArrayList<>(index.keySet());
+    }
+
+    /**
+     * 
+     * @return Current length of the segment file in bytes
+     * @throws IOException
+     */
+    public synchronized long getLength() throws IOException {
+        getChannel();
+        return length;
+    }
+
+    /**
+     * Forces all appended entries to the storage device.
+     * 
+     * @throws IOException
+     */
+    public synchronized void sync() throws IOException {
+        getChannel().force(false);
+    }
+
+    /**
+     * Cuts the segment file back to the given length, discarding all entries appended after that point, and rebuilds the index.
+     * 
+     * @param newLength Length of the segment file at an earlier point (e.g. a checkpoint)
+     * @throws IOException
+     * @should discard entries appended after given length
+     * @should throw IOException if file shorter than given length
+     */
+    public synchronized void truncate(long newLength) throws IOException {
+        FileChannel ch = getChannel();
+        if (newLength > length) {
+            throw new IOException("Spill file '" + file.getFileName() + "' is shorter (" + length + " bytes) than expected (" + newLength
+                    + " bytes).");
+        }
+        ch.truncate(newLength);
+        rebuildIndex(ch);
+    }
+
+    /**
+     * Closes the segment file and deletes it. This replaces the deletion of one temp file per document.
+     * 
+     * @throws IOException
+     * @should delete segment file
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        index.clear();
+        length = 0;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * 
+     * @return the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Opens the segment file on first access. An existing file is scanned to rebuild the index.
+     * 
+     * @return
+     * @throws IOException
+     */
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch != null) {
+            return ch;
+        }
+        synchronized (this) {
+            if (channel == null) {
+                ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                if (ch.size() > 0) {
+                    rebuildIndex(ch);
+                }
+                channel = ch;
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Re-reads all entry headers and keys of the segment file. An incomplete or corrupt entry and everything after it is cut off.
+     * 
+     * @param ch
+     * @throws IOException
+     */
+    private void rebuildIndex(FileChannel ch) throws IOException {
+        index.clear();
+        long size = ch.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (position + HEADER_LENGTH <= size) {
+            header.clear();
+            readFully(ch, header, position);
+            int entryLength = header.getInt(0);
+            if (entryLength < 3 || position + HEADER_LENGTH + entryLength > size) {
+                break;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(entryLength);
+            readFully(ch, entry, position + HEADER_LENGTH);
+            CRC32 crc = new CRC32();
+            crc.update(entry.array());
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            int keyLength = ((entry.get(0) & 0xFF) << 8) | (entry.get(1) & 0xFF);
+            String key = new String(entry.array(), 2, keyLength, StandardCharsets.UTF_8);
+            index.put(key, new long[] { position + HEADER_LENGTH, entryLength });
+            position += HEADER_LENGTH + entryLength;
+        }
+        if (position < size) {
+            logger.warn("Discarding {} bytes of incomplete entries at the end of '{}'.", size - position, file.getFileName());
+            ch.truncate(position);
+        }
+        length = position;
+    }
+
+    private void readFully(FileChannel ch, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (ch.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spill file '" + file.getFileName() + "'");
+            }
+        }
+    }
+}
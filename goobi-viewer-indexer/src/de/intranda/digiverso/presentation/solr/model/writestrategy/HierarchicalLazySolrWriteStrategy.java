@@ -15,6 +15,8 @@
  */
 package de.intranda.digiverso.presentation.solr.model.writestrategy;
 
+import java.util.List;
+
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,8 +24,12 @@ import org.slf4j.LoggerFactory;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
 import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.IndexerException;
-import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 
+/**
+ * Write strategy that writes each record as a single block, with all structure and page documents nested below the root document. Solr replaces
+ * all documents of a block when a block with the same root IDDOC is written, so an updated record that keeps its root IDDOC replaces the previous
+ * instance in one step. The documents themselves are identical to those written by {@link LazySolrWriteStrategy}.
+ */
 public class HierarchicalLazySolrWriteStrategy extends LazySolrWriteStrategy {
 
     private static final Logger logger = LoggerFactory.getLogger(HierarchicalLazySolrWriteStrategy.class);
@@ -45,6 +51,7 @@ public class HierarchicalLazySolrWriteStrategy extends LazySolrWriteStrategy {
      * @see de.intranda.digiverso.presentation.solr.model.ISolrWriteStrategy#writeDocs()
      * @should write all structure docs correctly
      * @should write all page docs correctly
+     * @should write all docs as one block
      */
     @Override
     public void writeDocs(boolean aggregateRecords) throws IndexerException, FatalIndexerException {
@@ -52,42 +59,21 @@ public class HierarchicalLazySolrWriteStrategy extends LazySolrWriteStrategy {
             throw new IndexerException("rootDoc may not be null");
         }
 
-        for (int order : pageOrderMap.keySet()) {
-            SolrInputDocument pageDoc = pageOrderMap.get(order);
+        List<SolrInputDocument> docs = docsToAdd.getValues();
+        for (SolrInputDocument pageDoc : getSortedPageDocs()) {
             checkAndAddAccessCondition(pageDoc);
-            docsToAdd.add(pageDoc);
+            docs.add(pageDoc);
         }
 
-        //        StringBuilder sbSuperDefault = new StringBuilder();
-        //        StringBuilder sbSuperFulltext = new StringBuilder();
-
-        for (SolrInputDocument doc : docsToAdd) {
-            if (doc.getFieldValue("GROUPFIELD") == null) {
-                logger.error("Field has no GROUPFIELD: {}", doc.toString());
-            }
-            rootDoc.addChildDocument(doc);
-            if (aggregateRecords) {
-                if (doc.containsKey(SolrConstants.DEFAULT)) {
-                    // sbSuperDefault.append(' ').append(doc.getFieldValue(SolrConstants.DEFAULT));
-                    rootDoc.addField(SolrConstants.SUPERDEFAULT, (doc.getFieldValue(SolrConstants.DEFAULT)));
-                }
-                if (doc.containsKey(SolrConstants.FULLTEXT)) {
-                    // sbSuperFulltext.append('\n').append(doc.getFieldValue(SolrConstants.FULLTEXT));
-                    rootDoc.addField(SolrConstants.SUPERFULLTEXT, (doc.getFieldValue(SolrConstants.FULLTEXT)));
-                }
-            }
+        // Aggregate in the same order as LazySolrWriteStrategy, i.e. including the root doc's own values
+        aggregate(rootDoc, aggregateRecords);
+        for (SolrInputDocument doc : docs) {
+            aggregate(doc, aggregateRecords);
         }
 
-        // Add SUPERDEFAULT and SUPERFULLTEXT fields to the root doc
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERDEFAULT, AbstractIndexer.cleanUpDefaultField(sbSuperDefault.toString()));
-        //        }
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERFULLTEXT, sbSuperFulltext.toString());
-        //        }
-
+        rootDoc.addChildDocuments(docs);
         solrHelper.writeToIndex(rootDoc);
-        solrHelper.commit(SolrHelper.optimize);
-        logger.debug("{} new doc(s) added.", docsToAdd.size());
+        solrHelper.commitRecord(SolrHelper.optimize);
+        logger.debug("{} new doc(s) added.", docs.size() + 1);
     }
 }
@@ -20,13 +20,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
 import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.IndexerException;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
@@ -37,10 +37,10 @@ public class LazySolrWriteStrategy extends AbstractWriteStrategy {
 
     SolrHelper solrHelper;
     SolrInputDocument rootDoc;
-    List<SolrInputDocument> docsToAdd = new CopyOnWriteArrayList<>();
+    OrderedCollector<SolrInputDocument> docsToAdd = new OrderedCollector<>();
     Map<Integer, SolrInputDocument> pageOrderMap = new ConcurrentHashMap<>();
     /** Map for fast doc retrieval via its PHYSID. */
-    private Map<String, SolrInputDocument> physIdPageMap = new ConcurrentHashMap<>();
+    Map<String, SolrInputDocument> physIdPageMap = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -161,6 +161,25 @@ public class LazySolrWriteStrategy extends AbstractWriteStrategy {
         return ret;
     }
 
+    /**
+     * 
+     * @return All page documents, sorted by their ORDER values
+     * @should return page docs sorted by order
+     */
+    List<SolrInputDocument> getSortedPageDocs() {
+        List<Integer> orders = new ArrayList<>(pageOrderMap.keySet());
+        Collections.sort(orders);
+        List<SolrInputDocument> ret = new ArrayList<>(orders.size());
+        for (int order : orders) {
+            SolrInputDocument pageDoc = pageOrderMap.get(order);
+            if (pageDoc != null) {
+                ret.add(pageDoc);
+            }
+        }
+
+        return ret;
+    }
+
     /**
      * @param aggregateHits
      * @throws IndexerException
@@ -168,52 +187,66 @@ public class LazySolrWriteStrategy extends AbstractWriteStrategy {
      * @see de.intranda.digiverso.presentation.solr.model.ISolrWriteStrategy#writeDocs()
      * @should write all structure docs correctly
      * @should write all page docs correctly
+     * @should send docs in collected order
      */
     @Override
     public void writeDocs(boolean aggregateRecords) throws IndexerException, FatalIndexerException {
         if (rootDoc == null) {
             throw new IndexerException("topDoc may not be null");
         }
-        docsToAdd.add(rootDoc);
-        for (int order : pageOrderMap.keySet()) {
-            SolrInputDocument pageDoc = pageOrderMap.get(order);
+        List<SolrInputDocument> docs = new ArrayList<>(docsToAdd.size() + pageOrderMap.size() + 1);
+        docs.add(rootDoc);
+        docs.addAll(docsToAdd.getValues());
+        for (SolrInputDocument pageDoc : getSortedPageDocs()) {
             checkAndAddAccessCondition(pageDoc);
-            docsToAdd.add(pageDoc);
+            docs.add(pageDoc);
         }
 
-        //        StringBuilder sbSuperDefault = new StringBuilder();
-        //        StringBuilder sbSuperFulltext = new StringBuilder();
+        for (SolrInputDocument doc : docs) {
+            aggregate(doc, aggregateRecords);
+        }
 
-        for (SolrInputDocument doc : docsToAdd) {
-            if (doc.getFieldValue("GROUPFIELD") == null) {
-                logger.error("Field has no GROUPFIELD: {}", doc.toString());
-            }
-            if (aggregateRecords) {
-                if (doc.containsKey(SolrConstants.DEFAULT)) {
-                    // sbSuperDefault.append(' ').append(doc.getFieldValue(SolrConstants.DEFAULT));
-                    rootDoc.addField(SolrConstants.SUPERDEFAULT, (doc.getFieldValue(SolrConstants.DEFAULT)));
-                }
-                if (doc.containsKey(SolrConstants.FULLTEXT)) {
-                    // sbSuperFulltext.append('\n').append(doc.getFieldValue(SolrConstants.FULLTEXT));
-                    rootDoc.addField(SolrConstants.SUPERFULLTEXT, (doc.getFieldValue(SolrConstants.FULLTEXT)));
-                }
+        if (!docs.isEmpty()) {
+            try (SolrUpdatePipeline pipeline = createPipeline(true)) {
+                pipeline.addAll(docs);
+                pipeline.flush();
             }
+            solrHelper.commitRecord(SolrHelper.optimize);
+            logger.debug("{} new doc(s) added.", docs.size());
+        } else {
+            throw new IndexerException("No docs to write");
         }
+    }
 
-        // Add SUPERDEFAULT and SUPERFULLTEXT fields to the root doc
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERDEFAULT, AbstractIndexer.cleanUpDefaultField(sbSuperDefault.toString()));
-        //        }
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERFULLTEXT, sbSuperFulltext.toString());
-        //        }
+    /**
+     * 
+     * @param ordered If true, the documents reach Solr in the order in which they have been added
+     * @return New update pipeline for the record's documents
+     * @throws FatalIndexerException
+     */
+    protected SolrUpdatePipeline createPipeline(boolean ordered) throws FatalIndexerException {
+        return SolrUpdatePipeline.create(solrHelper, ordered);
+    }
 
-        if (!docsToAdd.isEmpty()) {
-            solrHelper.writeToIndex(docsToAdd);
-            solrHelper.commit(SolrHelper.optimize);
-            logger.debug("{} new doc(s) added.", docsToAdd.size());
-        } else {
-            throw new IndexerException("No docs to write");
+    /**
+     * Checks the given document for a GROUPFIELD value and adds its DEFAULT and FULLTEXT values to the root document.
+     * 
+     * @param doc
+     * @param aggregateRecords If false, no values are added to the root document
+     * @should add default and fulltext values to root doc
+     * @should not add values if aggregateRecords false
+     */
+    protected void aggregate(SolrInputDocument doc, boolean aggregateRecords) {
+        if (doc.getFieldValue("GROUPFIELD") == null) {
+            logger.error("Field has no GROUPFIELD: {}", doc.toString());
+        }
+        if (aggregateRecords) {
+            if (doc.containsKey(SolrConstants.DEFAULT)) {
+                rootDoc.addField(SolrConstants.SUPERDEFAULT, doc.getFieldValue(SolrConstants.DEFAULT));
+            }
+            if (doc.containsKey(SolrConstants.FULLTEXT)) {
+                rootDoc.addField(SolrConstants.SUPERFULLTEXT, doc.getFieldValue(SolrConstants.FULLTEXT));
+            }
         }
     }
 
@@ -0,0 +1,155 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects values (usually documents) from any number of threads without locking or copying. Each thread appends to its own buffer; the buffers
+ * are only merged when the values are retrieved, sorted by their keys. Values added without an explicit key are keyed by the order in which they
+ * were added, values added with a key (e.g. the ORDER of a page) are sorted by that key, so that the result does not depend on thread scheduling.
+ * <p>
+ * Adding is thread-safe. {@link #getValues()} and {@link #clear()} must only be called once all threads that add values have finished, e.g. after
+ * their executor has terminated.
+ * 
+ * @param <T>
+ */
+public class OrderedCollector<T> {
+
+    private static class Entry<T> {
+
+        private final long key;
+        private final T value;
+
+        private Entry(long key, T value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final Comparator<Entry<?>> KEY_COMPARATOR = new Comparator<Entry<?>>() {
+
+        @Override
+        public int compare(Entry<?> o1, Entry<?> o2) {
+            return Long.compare(o1.key, o2.key);
+        }
+    };
+
+    /** Buffers of all threads that have added values. */
+    private final Queue<List<Entry<T>>> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<List<Entry<T>>> buffer = new ThreadLocal<List<Entry<T>>>() {
+
+        @Override
+        protected List<Entry<T>> initialValue() {
+            List<Entry<T>> ret = new ArrayList<>();
+            buffers.add(ret);
+            return ret;
+        }
+    };
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Adds the given value after all values added so far.
+     * 
+     * @param value
+     */
+    public void add(T value) {
+        add(sequence.getAndIncrement(), value);
+    }
+
+    /**
+     * Adds all given values after all values added so far.
+     * 
+     * @param values
+     */
+    public void addAll(Collection<? extends T> values) {
+        List<Entry<T>> list = buffer.get();
+        for (T value : values) {
+            list.add(new Entry<>(sequence.getAndIncrement(), value));
+        }
+    }
+
+    /**
+     * Adds the given value with the given sort key. Values with the same key are returned in no particular order.
+     * 
+     * @param key
+     * @param value
+     */
+    public void add(long key, T value) {
+        buffer.get().add(new Entry<>(key, value));
+    }
+
+    /**
+     * 
+     * @return All values, sorted by their keys
+     * @should return values in insertion order
+     * @should return values sorted by key
+     * @should merge values of all threads
+     */
+    public List<T> getValues() {
+        List<Entry<T>> entries = new ArrayList<>(size());
+        for (List<Entry<T>> list : buffers) {
+            entries.addAll(list);
+        }
+        Collections.sort(entries, KEY_COMPARATOR);
+        List<T> ret = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            ret.add(entry.value);
+        }
+
+        return ret;
+    }
+
+    /**
+     * 
+     * @return Number of collected values
+     */
+    public int size() {
+        int ret = 0;
+        for (List<Entry<T>> list : buffers) {
+            ret += list.size();
+        }
+        return ret;
+    }
+
+    /**
+     * 
+     * @return true if no values have been collected; false otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all values.
+     * 
+     * @should remove all values
+     */
+    public void clear() {
+        // The buffers stay registered, since their threads may still hold them
+        for (List<Entry<T>> list : buffers) {
+            list.clear();
+        }
+        sequence.set(0);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Bounded write-back cache for the page documents of a {@link SerializingSolrWriteStrategy}. Page documents are typically loaded and updated once
+ * for every structure element they belong to; while a document is cached, these updates are only applied to the cached instance. An updated
+ * document is written to the spill store when it is evicted as the least recently used entry or when the cache is flushed.
+ */
+class PageDocumentCache {
+
+    private final DocumentSpillStore store;
+    private final String updatedSuffix;
+    private final int maxSize;
+    /** Cached documents in access order. */
+    private final LinkedHashMap<String, SolrInputDocument> docs = new LinkedHashMap<>(16, 0.75f, true);
+    /** IDDOCs of cached documents that have been updated since they were last written. */
+    private final Set<String> dirty = new HashSet<>();
+
+    /**
+     * 
+     * @param store Spill store to which updated documents are written
+     * @param updatedSuffix Suffix appended to the IDDOC for the key of an updated document
+     * @param maxSize Maximum number of cached documents; if 0, updates are written immediately
+     */
+    PageDocumentCache(DocumentSpillStore store, String updatedSuffix, int maxSize) {
+        this.store = store;
+        this.updatedSuffix = updatedSuffix;
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+    /**
+     * 
+     * @param iddoc
+     * @return Cached document for the given IDDOC; null if not cached
+     */
+    synchronized SolrInputDocument get(String iddoc) {
+        return docs.get(iddoc);
+    }
+
+    /**
+     * Adds the given document to the cache, evicting the least recently used documents if the cache is full.
+     * 
+     * @param iddoc
+     * @param doc
+     * @param updated If true, the document is written to the spill store on eviction
+     * @throws IOException if an updated document could not be written
+     * @should not write updated doc while cached
+     * @should write updated doc on eviction
+     * @should not write unchanged doc on eviction
+     * @should write updated doc immediately if cache size is zero
+     */
+    synchronized void put(String iddoc, SolrInputDocument doc, boolean updated) throws IOException {
+        if (maxSize == 0) {
+            if (updated) {
+                store.put(iddoc + updatedSuffix, doc);
+            }
+            return;
+        }
+        docs.put(iddoc, doc);
+        if (updated) {
+            dirty.add(iddoc);
+        }
+        Iterator<Map.Entry<String, SolrInputDocument>> iterator = docs.entrySet().iterator();
+        while (docs.size() > maxSize && iterator.hasNext()) {
+            Map.Entry<String, SolrInputDocument> eldest = iterator.next();
+            if (dirty.contains(eldest.getKey())) {
+                store.put(eldest.getKey() + updatedSuffix, eldest.getValue());
+                dirty.remove(eldest.getKey());
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes the given document from the cache without writing it, e.g. because it is about to be sent to the index.
+     * 
+     * @param iddoc
+     * @return Removed document; null if not cached
+     */
+    synchronized SolrInputDocument remove(String iddoc) {
+        dirty.remove(iddoc);
+        return docs.remove(iddoc);
+    }
+
+    /**
+     * Writes all updated documents to the spill store. The documents remain cached.
+     * 
+     * @throws IOException
+     * @should write all updated docs
+     */
+    synchronized void flush() throws IOException {
+        Iterator<String> iterator = dirty.iterator();
+        while (iterator.hasNext()) {
+            String iddoc = iterator.next();
+            store.put(iddoc + updatedSuffix, docs.get(iddoc));
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all documents from the cache without writing them.
+     */
+    synchronized void clear() {
+        docs.clear();
+        dirty.clear();
+    }
+
+    /**
+     * 
+     * @return Number of cached documents
+     */
+    synchronized int size() {
+        return docs.size();
+    }
+}
@@ -15,22 +15,22 @@
  */
 package de.intranda.digiverso.presentation.solr.model.writestrategy;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
@@ -38,13 +38,14 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.solr.client.solrj.impl.HttpSolrServer.RemoteSolrException;
 import org.apache.solr.common.SolrInputDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import de.intranda.digiverso.presentation.solr.helper.Configuration;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
 import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.IndexerException;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
@@ -53,10 +54,35 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
 
     private static final Logger logger = LoggerFactory.getLogger(SerializingSolrWriteStrategy.class);
 
-    private static final String ENCODING_UTF8 = "UTF8";
+    /** Name of the checkpoint manifest file in the record temp folder. */
+    public static final String CHECKPOINT_MANIFEST = "checkpoint.manifest";
+    private static final String CHECKPOINT_PAGES = "checkpoint.pages";
+    private static final String CHECKPOINT_DOCS = "checkpoint.docs";
+    /** Manifest property containing the name of the completed {@link Phase}. */
+    public static final String CHECKPOINT_PHASE = "checkpoint.phase";
+    private static final String MANIFEST_SOURCE = "checkpoint.source";
+    private static final String MANIFEST_ROOTDOC = "checkpoint.rootDocIddoc";
+    private static final String MANIFEST_SPILL_LENGTH = "checkpoint.spillLength";
+    /** Suffix for page documents that were modified after page generation. */
+    private static final String UPDATED_SUFFIX = "_UPDATED";
+    /** Name of the spill file in a record temp folder. */
+    private static final String SPILL_FILE = "docs.spill";
+
+    /**
+     * Indexing phases after which a checkpoint can be written, in the order in which they are completed.
+     */
+    public enum Phase {
+        /** All page documents have been generated. */
+        PAGES,
+        /** All structure documents have been generated and the root document has been set. */
+        STRUCTURE;
+    }
 
     private SolrHelper solrHelper;
     private Path tempFolder;
+    private final DocumentSpillStore store;
+    private final PageDocumentCache pageDocCache;
+    private boolean checkpoints = false;
     private String rootDocIddoc;
     private List<String> docIddocs = new CopyOnWriteArrayList<>();
     private Map<Integer, String> pageDocOrderIddocMap = new ConcurrentHashMap<>();
@@ -64,11 +90,37 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
     private Map<String, String> pageDocPhysIdIddocMap = new ConcurrentHashMap<>();
     private AtomicInteger docsCounter = new AtomicInteger();
     private AtomicInteger pageDocsCounter = new AtomicInteger();
-    private AtomicInteger tempFileCounter = new AtomicInteger();
 
+    /**
+     * Creates a strategy that spills all documents into a uniquely named file in <code>tempFolder</code>.
+     * 
+     * @param solrHelper
+     * @param tempFolder
+     */
     public SerializingSolrWriteStrategy(SolrHelper solrHelper, Path tempFolder) {
+        this(solrHelper, tempFolder, Paths.get(tempFolder.toAbsolutePath().toString(), "docs_" + UUID.randomUUID() + ".spill"));
+    }
+
+    private SerializingSolrWriteStrategy(SolrHelper solrHelper, Path tempFolder, Path spillFile) {
         this.solrHelper = solrHelper;
         this.tempFolder = tempFolder;
+        this.store = new DocumentSpillStore(spillFile, isSpillCompression());
+        this.pageDocCache = new PageDocumentCache(store, UPDATED_SUFFIX, getPageDocCacheSize());
+    }
+
+    /**
+     * Creates a strategy that serializes all documents into a subfolder of <code>tempFolder</code> named after the given record identifier. The
+     * folder survives an interrupted indexing run, so checkpoints can be written and resumed for that record.
+     * 
+     * @param solrHelper
+     * @param tempFolder
+     * @param pi Record identifier
+     * @throws IOException
+     */
+    public SerializingSolrWriteStrategy(SolrHelper solrHelper, Path tempFolder, String pi) throws IOException {
+        this(solrHelper, Paths.get(tempFolder.toAbsolutePath().toString(), pi), Paths.get(tempFolder.toAbsolutePath().toString(), pi, SPILL_FILE));
+        Files.createDirectories(this.tempFolder);
+        this.checkpoints = true;
     }
 
     /* (non-Javadoc)
@@ -113,22 +165,13 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
     @Override
     public void addPageDoc(SolrInputDocument doc) {
         String iddoc = String.valueOf(doc.getFieldValue(SolrConstants.IDDOC));
+        // Large text fields are spilled separately, so that they are only read when the page is written to the index
         if (doc.getField(SolrConstants.ALTO) != null) {
-            String xml = (String) doc.getFieldValue(SolrConstants.ALTO);
-            try {
-                FileUtils.writeStringToFile(new File(tempFolder.toFile(), iddoc + "_" + SolrConstants.ALTO), xml, ENCODING_UTF8);
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-            }
+            save(doc.getFieldValue(SolrConstants.ALTO), iddoc + "_" + SolrConstants.ALTO);
             doc.removeField(SolrConstants.ALTO);
         }
         if (doc.getField(SolrConstants.FULLTEXT) != null) {
-            String text = (String) doc.getFieldValue(SolrConstants.FULLTEXT);
-            try {
-                FileUtils.writeStringToFile(new File(tempFolder.toFile(), iddoc + "_" + SolrConstants.FULLTEXT), text, ENCODING_UTF8);
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-            }
+            save(doc.getFieldValue(SolrConstants.FULLTEXT), iddoc + "_" + SolrConstants.FULLTEXT);
             doc.removeField(SolrConstants.FULLTEXT);
         }
         if (save(doc, iddoc)) {
@@ -142,18 +185,24 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
             }
             pageDocFileNameIddocMap.put((String) doc.getFieldValue(SolrConstants.FILENAME), iddoc);
             pageDocPhysIdIddocMap.put((String) doc.getFieldValue(SolrConstants.PHYSID), iddoc);
+            cachePageDoc(iddoc, doc, false);
             pageDocsCounter.incrementAndGet();
             logger.debug("Page docs added: {}", pageDocsCounter);
         }
     }
 
-    /* (non-Javadoc)
+    /**
+     * Updates the given page document in the page document cache. The updated document is only written to the spill file when it is evicted from
+     * the cache or a checkpoint is written.
+     * 
      * @see de.intranda.digiverso.presentation.solr.model.writestrategy.ISolrWriteStrategy#updateDoc(org.apache.solr.common.SolrInputDocument)
+     * @should not write cached page doc until checkpoint
      */
     @Override
     public void updateDoc(SolrInputDocument doc) {
         String iddoc = String.valueOf(doc.getFieldValue(SolrConstants.IDDOC));
-        if (save(doc, iddoc)) {
+        // Keep the original entry, so that the document can be restored in the state of the PAGES checkpoint
+        if (cachePageDoc(iddoc, doc, true)) {
             logger.debug("Page docs updated: {}", pageDocsCounter);
         }
     }
@@ -194,7 +243,7 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
         if (order > 0) {
             String iddoc = pageDocOrderIddocMap.get(order);
             if (iddoc != null) {
-                SolrInputDocument doc = load(iddoc);
+                SolrInputDocument doc = loadPageDoc(iddoc);
                 return doc;
             }
         }
@@ -216,7 +265,7 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
 
         for (String physId : physIdList) {
             if (pageDocPhysIdIddocMap.get(physId) != null) {
-                SolrInputDocument doc = load(pageDocPhysIdIddocMap.get(physId));
+                SolrInputDocument doc = loadPageDoc(pageDocPhysIdIddocMap.get(physId));
                 if (doc != null) {
                     ret.add(doc);
                 }
@@ -245,79 +294,76 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
         //        StringBuilder sbSuperDefault = new StringBuilder();
         //        StringBuilder sbSuperFulltext = new StringBuilder();
 
-        logger.info("Writing {} structure/content documents to the index...", docIddocs.size());
-        for (String iddoc : docIddocs) {
-            SolrInputDocument doc = load(iddoc);
-            if (doc != null) {
-                // Add the child doc's DEFAULT values to the SUPERDEFAULT value of the root doc
-                if (aggregateRecords && doc.containsKey(SolrConstants.DEFAULT)) {
-                    // sbSuperDefault.append(' ').append(doc.getFieldValue(SolrConstants.DEFAULT));
-                    rootDoc.addField(SolrConstants.SUPERDEFAULT, (doc.getFieldValue(SolrConstants.DEFAULT)));
-                }
-                try {
-                    solrHelper.writeToIndex(doc);
-                } catch (RemoteSolrException e) {
-                    copyFailedFile(Paths.get(tempFolder.toAbsolutePath().toString(), iddoc));
-                    logger.error(e.getMessage(), e);
-                    throw new IndexerException(e.getMessage());
+        // Pages written by several threads are added in no particular order, so only a single-threaded run needs an ordered pipeline
+        try (final SolrUpdatePipeline pipeline = SolrUpdatePipeline.create(solrHelper, Configuration.getInstance().getThreads() <= 1)) {
+            logger.info("Writing {} structure/content documents to the index...", docIddocs.size());
+            for (String iddoc : docIddocs) {
+                SolrInputDocument doc = load(iddoc);
+                if (doc != null) {
+                    // Add the child doc's DEFAULT values to the SUPERDEFAULT value of the root doc
+                    if (aggregateRecords && doc.containsKey(SolrConstants.DEFAULT)) {
+                        // sbSuperDefault.append(' ').append(doc.getFieldValue(SolrConstants.DEFAULT));
+                        rootDoc.addField(SolrConstants.SUPERDEFAULT, (doc.getFieldValue(SolrConstants.DEFAULT)));
+                    }
+                    pipeline.add(doc);
+                } else {
+                    logger.error("Could not find serialized document for IDDOC: {}", iddoc);
                 }
-            } else {
-                logger.error("Could not find serialized document for IDDOC: {}", iddoc);
             }
-        }
-
-        logger.info("Writing {} page documents to the index...", pageDocOrderIddocMap.size());
-        List<Integer> orderList = new ArrayList<>(pageDocOrderIddocMap.keySet());
-        Collections.sort(orderList);
 
-        if (Configuration.getInstance().getThreads() > 1) {
-            ExecutorService executor = Executors.newFixedThreadPool(Configuration.getInstance().getThreads());
-            for (final int order : orderList) {
-
-                // Generate write page document in its own thread
-                Runnable r = new Runnable() {
-
-                    @Override
-                    public void run() {
-                        try {
-                            writePageDoc(order, rootDoc, aggregateRecords);
-                        } catch (FatalIndexerException e) {
-                            logger.error(e.getMessage());
-                        } finally {
+            logger.info("Writing {} page documents to the index...", pageDocOrderIddocMap.size());
+            List<Integer> orderList = new ArrayList<>(pageDocOrderIddocMap.keySet());
+            Collections.sort(orderList);
+
+            if (Configuration.getInstance().getThreads() > 1) {
+                ExecutorService executor = Executors.newFixedThreadPool(Configuration.getInstance().getThreads());
+                // Pass the job's MDC on to the threads, so that their log messages are included in the job log
+                final Map<String, String> mdc = MDC.getCopyOfContextMap();
+                for (final int order : orderList) {
+
+                    // Generate write page document in its own thread
+                    Runnable r = new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (mdc != null) {
+                                MDC.setContextMap(mdc);
+                            }
+                            try {
+                                writePageDoc(order, rootDoc, aggregateRecords, pipeline);
+                            } catch (IndexerException | FatalIndexerException e) {
+                                logger.error(e.getMessage());
+                            } finally {
+                                MDC.clear();
+                            }
                         }
-                    }
-                };
-                executor.execute(r);
-            }
-            executor.shutdown();
-            while (!executor.isTerminated()) {
-            }
-        } else {
-            int newOrder = 1;
-            for (final int order : orderList) {
-                writePageDoc(order, rootDoc, aggregateRecords);
+                    };
+                    executor.execute(r);
+                }
+                executor.shutdown();
+                while (!executor.isTerminated()) {
+                }
+            } else {
+                for (final int order : orderList) {
+                    writePageDoc(order, rootDoc, aggregateRecords, pipeline);
+                }
             }
-        }
-
-        // Add SUPERDEFAULT and SUPERFULLTEXT fields to the root doc
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERDEFAULT, AbstractIndexer.cleanUpDefaultField(sbSuperDefault.toString()));
-        //        }
-        //        if (sbSuperFulltext.length() > 0) {
-        //            rootDoc.addField(SolrConstants.SUPERFULLTEXT, sbSuperFulltext.toString());
-        //        }
 
-        // Write the root doc
-        logger.info("Writing root document to the index...");
-        try {
-            solrHelper.writeToIndex(rootDoc);
-        } catch (RemoteSolrException e) {
-            copyFailedFile(Paths.get(tempFolder.toAbsolutePath().toString(), rootDocIddoc));
-            logger.error(e.getMessage(), e);
-            throw new IndexerException(e.getMessage());
+            // Add SUPERDEFAULT and SUPERFULLTEXT fields to the root doc
+            //        if (sbSuperFulltext.length() > 0) {
+            //            rootDoc.addField(SolrConstants.SUPERDEFAULT, AbstractIndexer.cleanUpDefaultField(sbSuperDefault.toString()));
+            //        }
+            //        if (sbSuperFulltext.length() > 0) {
+            //            rootDoc.addField(SolrConstants.SUPERFULLTEXT, sbSuperFulltext.toString());
+            //        }
+
+            // Write the root doc
+            logger.info("Writing root document to the index...");
+            pipeline.add(rootDoc);
+            pipeline.flush();
         }
 
-        solrHelper.commit(SolrHelper.optimize);
+        solrHelper.commitRecord(SolrHelper.optimize);
     }
 
     /**
@@ -325,49 +371,42 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
      * @param order
      * @param rootDoc
      * @param aggregateRecords
+     * @param pipeline
+     * @throws IndexerException
      * @throws FatalIndexerException
      */
-    private void writePageDoc(int order, SolrInputDocument rootDoc, boolean aggregateRecords) throws FatalIndexerException {
+    private void writePageDoc(int order, SolrInputDocument rootDoc, boolean aggregateRecords, SolrUpdatePipeline pipeline) throws IndexerException,
+            FatalIndexerException {
         String iddoc = pageDocOrderIddocMap.get(order);
-        SolrInputDocument doc = load(iddoc);
+        // The document is sent right away, so it is neither kept in the cache nor written back
+        SolrInputDocument doc = pageDocCache.remove(iddoc);
+        if (doc == null) {
+            doc = load(iddoc);
+        }
         if (doc != null) {
             // doc.setField(SolrConstants.ORDER, newOrder); // make sure order starts at 1 in the end
             {
-                Path xmlFile = Paths.get(tempFolder.toAbsolutePath().toString(), new StringBuilder().append(iddoc).append("_").append(
-                        SolrConstants.ALTO).toString());
-                if (Files.isRegularFile(xmlFile)) {
-                    try {
-                        String xml = FileUtils.readFileToString(xmlFile.toFile(), "UTF8");
-                        doc.addField(SolrConstants.ALTO, xml);
-                        logger.debug("Found ALTO for: {}", iddoc);
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
-                    }
+                Object xml = loadValue(iddoc + "_" + SolrConstants.ALTO);
+                if (xml != null) {
+                    doc.addField(SolrConstants.ALTO, xml);
+                    logger.debug("Found ALTO for: {}", iddoc);
                 }
             }
             {
-                Path xmlFile = Paths.get(tempFolder.toAbsolutePath().toString(), new StringBuilder().append(iddoc).append("_").append(
-                        SolrConstants.FULLTEXT).toString());
-                if (Files.isRegularFile(xmlFile)) {
-                    try {
-                        String xml = FileUtils.readFileToString(xmlFile.toFile(), "UTF8");
-                        doc.addField(SolrConstants.FULLTEXT, xml);
-
-                        // Add the child doc's FULLTEXT values to the SUPERFULLTEXT value of the root doc
-                        if (aggregateRecords) {
-                            // sbSuperDefault.append('\n').append(doc.getFieldValue(SolrConstants.FULLTEXT));
-                            rootDoc.addField(SolrConstants.SUPERFULLTEXT, (doc.getFieldValue(SolrConstants.FULLTEXT)));
-                        }
-                        logger.debug("Found FULLTEXT for: {}", iddoc);
-                    } catch (IOException e) {
-                        logger.error(e.getMessage(), e);
+                Object text = loadValue(iddoc + "_" + SolrConstants.FULLTEXT);
+                if (text != null) {
+                    doc.addField(SolrConstants.FULLTEXT, text);
+
+                    // Add the child doc's FULLTEXT values to the SUPERFULLTEXT value of the root doc
+                    if (aggregateRecords) {
+                        // sbSuperDefault.append('\n').append(doc.getFieldValue(SolrConstants.FULLTEXT));
+                        rootDoc.addField(SolrConstants.SUPERFULLTEXT, (doc.getFieldValue(SolrConstants.FULLTEXT)));
                     }
+                    logger.debug("Found FULLTEXT for: {}", iddoc);
                 }
             }
             checkAndAddAccessCondition(doc);
-            if (!solrHelper.writeToIndex(doc)) {
-                logger.error(doc.toString());
-            }
+            pipeline.add(doc);
             // newOrder++;
         } else {
             logger.error("Could not find serialized document for IDDOC: {}", iddoc);
@@ -379,110 +418,326 @@ public class SerializingSolrWriteStrategy extends AbstractWriteStrategy {
      */
     @Override
     public void cleanup() {
-        List<String> allIddocs = new ArrayList<>(docIddocs.size() + pageDocPhysIdIddocMap.size());
-        allIddocs.addAll(docIddocs);
-        for (int order : pageDocOrderIddocMap.keySet()) {
-            allIddocs.add(pageDocOrderIddocMap.get(order));
+        if (checkpoints) {
+            logger.info("Removing temp folder '{}'...", tempFolder.getFileName());
+            closeStore();
+            FileUtils.deleteQuietly(tempFolder.toFile());
+            resetState();
+            return;
         }
 
-        logger.info("Removing temp files...");
-        //        allIddocs.parallelStream().forEach(iddoc -> removeTempFilesForIddoc(iddoc));
-        for (String iddoc : allIddocs) {
-            removeTempFilesForIddoc(iddoc);
+        logger.info("Removing spill file '{}'...", store.getFile().getFileName());
+        try {
+            store.delete();
+        } catch (IOException e) {
+            logger.warn("Could not remove spill file: {}", store.getFile().toAbsolutePath());
         }
-        logger.info("{} temp files removed.", tempFileCounter.intValue());
 
+        resetState();
+    }
+
+    private void resetState() {
         rootDocIddoc = null;
+        pageDocCache.clear();
         docIddocs.clear();
         pageDocOrderIddocMap.clear();
+        pageDocFileNameIddocMap.clear();
+        pageDocPhysIdIddocMap.clear();
         docsCounter.set(0);
         pageDocsCounter.set(0);
     }
 
     /**
-     * Removes all temp files for the given IDDOC. Can be executed in parallel.
+     * Writes a checkpoint for the given completed phase into the record temp folder. The document indexes are written first and the manifest last,
+     * so that an interruption while writing leaves the previous checkpoint intact.
      * 
-     * @param iddoc
+     * @param phase The completed phase
+     * @param source Fingerprint of the source file and parameters from which the documents were generated
+     * @param properties Additional indexer state to restore when resuming
+     * @throws IOException
+     * @should write manifest and document indexes
+     * @should throw IllegalStateException if checkpoints are not enabled
      */
-    private void removeTempFilesForIddoc(String iddoc) {
-        Path tempFile = Paths.get(tempFolder.toAbsolutePath().toString(), iddoc);
-        if (Files.isRegularFile(tempFile)) {
-            deleteTempFile(tempFile);
-            {
-                Path tempXmlFile = Paths.get(tempFolder.toAbsolutePath().toString(), new StringBuilder().append(iddoc).append("_").append(
-                        SolrConstants.ALTO).toString());
-                if (Files.isRegularFile(tempXmlFile)) {
-                    deleteTempFile(tempXmlFile);
+    public void writeCheckpoint(Phase phase, String source, Properties properties) throws IOException {
+        if (!checkpoints) {
+            throw new IllegalStateException("Checkpoints are only available with a record temp folder.");
+        }
+
+        switch (phase) {
+            case PAGES: {
+                Map<String, String> physIds = invert(pageDocPhysIdIddocMap);
+                Map<String, String> fileNames = invert(pageDocFileNameIddocMap);
+                List<Integer> orderList = new ArrayList<>(pageDocOrderIddocMap.keySet());
+                Collections.sort(orderList);
+                StringBuilder sb = new StringBuilder();
+                for (int order : orderList) {
+                    String iddoc = pageDocOrderIddocMap.get(order);
+                    sb.append(order).append('\t').append(iddoc).append('\t').append(physIds.get(iddoc)).append('\t').append(fileNames.get(iddoc))
+                            .append('\n');
                 }
+                writeAtomically(CHECKPOINT_PAGES, sb.toString().getBytes(StandardCharsets.UTF_8));
             }
-            {
-                Path tempXmlFile = Paths.get(tempFolder.toAbsolutePath().toString(), new StringBuilder().append(iddoc).append("_").append(
-                        SolrConstants.FULLTEXT).toString());
-                if (Files.isRegularFile(tempXmlFile)) {
-                    deleteTempFile(tempXmlFile);
+                break;
+            case STRUCTURE: {
+                if (rootDocIddoc == null) {
+                    throw new IllegalStateException("The root document must be set before the STRUCTURE checkpoint.");
+                }
+                StringBuilder sb = new StringBuilder();
+                for (String iddoc : docIddocs) {
+                    if (!iddoc.equals(rootDocIddoc)) {
+                        sb.append(iddoc).append('\n');
+                    }
+                }
+                writeAtomically(CHECKPOINT_DOCS, sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+                break;
+            default:
+                // nothing
+        }
+
+        // All documents of the completed phase must be on disk before the manifest refers to them
+        pageDocCache.flush();
+        store.sync();
+        Properties manifest = new Properties();
+        if (properties != null) {
+            manifest.putAll(properties);
+        }
+        manifest.setProperty(CHECKPOINT_PHASE, phase.name());
+        manifest.setProperty(MANIFEST_SPILL_LENGTH, String.valueOf(store.getLength()));
+        manifest.setProperty(MANIFEST_SOURCE, source);
+        if (phase == Phase.STRUCTURE) {
+            manifest.setProperty(MANIFEST_ROOTDOC, rootDocIddoc);
+        }
+        Path tempFile = Paths.get(tempFolder.toAbsolutePath().toString(), CHECKPOINT_MANIFEST + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tempFile)) {
+            manifest.store(os, null);
+        }
+        Files.move(tempFile, Paths.get(tempFolder.toAbsolutePath().toString(), CHECKPOINT_MANIFEST), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Checkpoint written: {}", phase);
+    }
+
+    /**
+     * Restores the state of the last checkpoint in the record temp folder, if it was written for the given source. Documents that were generated
+     * after that checkpoint are discarded. If there is no usable checkpoint, the temp folder is emptied.
+     * 
+     * @param source Fingerprint of the source file and parameters from which the documents are to be generated
+     * @return Manifest properties of the restored checkpoint (including the additional indexer state); null if there is nothing to resume
+     * @should restore page documents after PAGES checkpoint
+     * @should discard page document updates after PAGES checkpoint
+     * @should restore structure documents after STRUCTURE checkpoint
+     * @should return null and empty temp folder if source differs
+     * @should return null if no checkpoint exists
+     */
+    public Properties resumeCheckpoint(String source) {
+        if (!checkpoints) {
+            return null;
+        }
+
+        Path manifestFile = Paths.get(tempFolder.toAbsolutePath().toString(), CHECKPOINT_MANIFEST);
+        try {
+            if (Files.isRegularFile(manifestFile)) {
+                Properties manifest = new Properties();
+                try (Reader reader = Files.newBufferedReader(manifestFile, StandardCharsets.ISO_8859_1)) {
+                    manifest.load(reader);
+                }
+                if (source != null && source.equals(manifest.getProperty(MANIFEST_SOURCE))) {
+                    Phase phase = Phase.valueOf(manifest.getProperty(CHECKPOINT_PHASE));
+                    // Drop everything spilled after the checkpoint
+                    store.truncate(Long.parseLong(manifest.getProperty(MANIFEST_SPILL_LENGTH)));
+                    restorePages();
+                    if (phase == Phase.STRUCTURE) {
+                        restoreDocs(manifest.getProperty(MANIFEST_ROOTDOC));
+                    } else {
+                        discardUpdates();
+                    }
+                    logger.info("Resuming from checkpoint {} with {} page documents and {} structure documents.", phase, pageDocsCounter.get(),
+                            docsCounter.get());
+                    return manifest;
+                }
+                logger.info("Checkpoint in '{}' was written for a different source file, discarding.", tempFolder.getFileName());
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Checkpoint in '{}' could not be restored, discarding: {}", tempFolder.getFileName(), e.getMessage());
+        }
+
+        resetState();
+        closeStore();
+        try {
+            FileUtils.cleanDirectory(tempFolder.toFile());
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Restores the page document maps from the page index.
+     * 
+     * @throws IOException
+     */
+    private void restorePages() throws IOException {
+        resetState();
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(tempFolder.toAbsolutePath().toString(), CHECKPOINT_PAGES),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split("\t", 4);
+                if (parts.length < 4) {
+                    throw new IOException("Malformed page index line: " + line);
+                }
+                if (!store.contains(parts[1])) {
+                    throw new IOException("Serialized page document not found: " + parts[1]);
                 }
+                pageDocOrderIddocMap.put(Integer.valueOf(parts[0]), parts[1]);
+                pageDocPhysIdIddocMap.put(parts[2], parts[1]);
+                pageDocFileNameIddocMap.put(parts[3], parts[1]);
+                pageDocsCounter.incrementAndGet();
             }
-            //            {
-            //                Path tempXmlFile = Paths.get(tempFolder.toAbsolutePath().toString(), new StringBuilder().append(iddoc).append("_").append(
-            //                        SolrConstants.PAGEURNS).toString());
-            //                if (Files.isRegularFile(tempXmlFile)) {
-            //                    deleteTempFile(tempXmlFile);
-            //                }
-            //            }
         }
     }
 
     /**
-     * Deletes the file represented by the given Path and increments <code>tempFileCounter</code>.
+     * Restores the list of structure documents from the document index.
      * 
-     * @param file
+     * @param rootIddoc
+     * @throws IOException
      */
-    private void deleteTempFile(Path file) {
+    private void restoreDocs(String rootIddoc) throws IOException {
+        if (rootIddoc == null || !store.contains(rootIddoc)) {
+            throw new IOException("Serialized root document not found: " + rootIddoc);
+        }
+        rootDocIddoc = rootIddoc;
+        docIddocs.add(rootIddoc);
+        docsCounter.incrementAndGet();
+        for (String iddoc : Files.readAllLines(Paths.get(tempFolder.toAbsolutePath().toString(), CHECKPOINT_DOCS), StandardCharsets.UTF_8)) {
+            if (!iddoc.isEmpty()) {
+                docIddocs.add(iddoc);
+                docsCounter.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Discards all page document updates, so that the page documents are restored in the state of the PAGES checkpoint.
+     * 
+     * @throws IOException
+     */
+    private void discardUpdates() throws IOException {
+        for (String key : store.getKeys()) {
+            if (key.endsWith(UPDATED_SUFFIX)) {
+                store.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Writes the given content into a file in the temp folder, replacing the previous file only once the content is complete.
+     * 
+     * @param fileName
+     * @param content
+     * @throws IOException
+     */
+    private void writeAtomically(String fileName, byte[] content) throws IOException {
+        Path tempFile = Paths.get(tempFolder.toAbsolutePath().toString(), fileName + ".tmp");
+        Files.write(tempFile, content);
+        Files.move(tempFile, Paths.get(tempFolder.toAbsolutePath().toString(), fileName), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Map<String, String> invert(Map<String, String> map) {
+        Map<String, String> ret = new HashMap<>(map.size());
+        for (String key : map.keySet()) {
+            ret.put(map.get(key), key);
+        }
+        return ret;
+    }
+
+    private void closeStore() {
         try {
-            Files.delete(file);
-            tempFileCounter.incrementAndGet();
+            store.close();
         } catch (IOException e) {
-            logger.warn("Could not remove temp file: {}", file.toAbsolutePath());
+            logger.error(e.getMessage(), e);
         }
     }
 
-    private SolrInputDocument load(String fileName) throws FatalIndexerException {
-        logger.debug("Loading '{}'...", fileName);
-        Path file = Paths.get(tempFolder.toAbsolutePath().toString(), fileName);
-        try (FileInputStream fis = new FileInputStream(file.toFile()); ObjectInputStream ois = new ObjectInputStream(fis)) {
-            SolrInputDocument doc = (SolrInputDocument) ois.readObject();
-            return doc;
-        } catch (UnsupportedEncodingException e) {
+    private SolrInputDocument load(String iddoc) {
+        Object doc = loadValue(iddoc + UPDATED_SUFFIX);
+        if (doc == null) {
+            doc = loadValue(iddoc);
+        }
+        return (SolrInputDocument) doc;
+    }
+
+    /**
+     * 
+     * @param iddoc
+     * @return Page document from the cache; the serialized page document (which is then cached) if not cached
+     */
+    private SolrInputDocument loadPageDoc(String iddoc) {
+        SolrInputDocument doc = pageDocCache.get(iddoc);
+        if (doc == null) {
+            doc = load(iddoc);
+            if (doc != null) {
+                cachePageDoc(iddoc, doc, false);
+            }
+        }
+        return doc;
+    }
+
+    private boolean cachePageDoc(String iddoc, SolrInputDocument doc, boolean updated) {
+        try {
+            pageDocCache.put(iddoc, doc, updated);
+            return true;
+        } catch (IOException e) {
+            logger.error("Could not write '{}' to spill file: {}", iddoc + UPDATED_SUFFIX, store.getFile().toAbsolutePath());
             logger.error(e.getMessage(), e);
-        } catch (FileNotFoundException e) {
-            logger.error(e.getMessage());
-        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private Object loadValue(String key) {
+        logger.debug("Loading '{}'...", key);
+        try {
+            return store.get(key);
+        } catch (IOException e) {
+            logger.error("Could not read '{}' from spill file: {}", key, store.getFile().toAbsolutePath());
             logger.error(e.getMessage(), e);
-            copyFailedFile(file);
         }
 
         return null;
     }
 
-    private boolean save(SolrInputDocument doc, String fileName) {
-        logger.debug("Writing '{}'...", fileName);
-        File file = new File(tempFolder.toFile(), fileName);
-        try (FileOutputStream fos = new FileOutputStream(file); ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(doc);
+    private boolean save(Object value, String key) {
+        logger.debug("Writing '{}'...", key);
+        try {
+            store.put(key, value);
             return true;
         } catch (IOException e) {
-            logger.error("Could not save file: {}", file.getAbsolutePath());
+            logger.error("Could not write '{}' to spill file: {}", key, store.getFile().toAbsolutePath());
             logger.error(e.getMessage(), e);
             return false;
         }
     }
 
-    private static void copyFailedFile(Path file) throws FatalIndexerException {
+    private static int getPageDocCacheSize() {
         try {
-            Files.copy(file, Paths.get(Configuration.getInstance().getConfiguration("viewerHome"), file.getFileName().toString()),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
+            return Configuration.getInstance().getPageDocCacheSize();
+        } catch (FatalIndexerException e) {
+            logger.error(e.getMessage());
+            return 0;
+        }
+    }
+
+    private static boolean isSpillCompression() {
+        try {
+            return Configuration.getInstance().isSpillCompression();
+        } catch (FatalIndexerException e) {
+            logger.error(e.getMessage());
+            return false;
         }
     }
 }
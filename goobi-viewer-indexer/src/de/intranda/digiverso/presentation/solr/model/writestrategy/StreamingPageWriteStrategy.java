@@ -0,0 +1,207 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.IndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+/**
+ * Write strategy that only keeps lightweight page documents (without full-text, ALTO, etc.) in memory. Once the structure elements have been mapped
+ * to the pages, {@link #writePageDocs(PageContentGenerator, int, boolean)} completes each page with its content and sends it to Solr right away, so that
+ * the content of only a few pages is held in memory at any time. Structure documents and the root document are written by
+ * {@link #writeDocs(boolean)} as usual; the root document must be set after the pages have been written.
+ */
+public class StreamingPageWriteStrategy extends LazySolrWriteStrategy {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingPageWriteStrategy.class);
+
+    /**
+     * Adds the content (full-text, ALTO, image data, etc.) to a page document right before it is sent to Solr.
+     */
+    public interface PageContentGenerator {
+
+        public void addContent(SolrInputDocument pageDoc) throws FatalIndexerException;
+    }
+
+    /** DEFAULT and FULLTEXT values of already written pages, for the aggregated root doc fields. */
+    private final OrderedCollector<Object> superDefaultValues = new OrderedCollector<>();
+    private final OrderedCollector<Object> superFulltextValues = new OrderedCollector<>();
+    private boolean collectSuperValues = false;
+    private int pagesWritten = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param solrHelper
+     */
+    public StreamingPageWriteStrategy(SolrHelper solrHelper) {
+        super(solrHelper);
+    }
+
+    /**
+     * Completes all page documents with their content and writes them to Solr in the order of their ORDER values. The page documents are removed
+     * from this strategy once they are handed over to Solr.
+     * 
+     * @param generator Generator for the page content
+     * @param threads Number of threads that generate page content
+     * @param aggregateRecords If true, the DEFAULT and FULLTEXT values of the pages are kept for the root doc
+     * @return Number of written page documents
+     * @throws IndexerException
+     * @throws FatalIndexerException
+     * @should write all page docs with content
+     * @should remove written page docs
+     * @should send page docs in order if single threaded
+     */
+    public int writePageDocs(final PageContentGenerator generator, int threads, final boolean aggregateRecords) throws IndexerException,
+            FatalIndexerException {
+        collectSuperValues = aggregateRecords;
+        List<Integer> orderList = new ArrayList<>(pageOrderMap.keySet());
+        Collections.sort(orderList);
+        logger.info("Writing {} page documents to the index...", orderList.size());
+
+        final AtomicInteger count = new AtomicInteger();
+        // Pages written by several threads are added in no particular order, so only a single-threaded run needs an ordered pipeline
+        try (final SolrUpdatePipeline pipeline = createPipeline(threads <= 1)) {
+            if (threads > 1) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                // Pass the job's MDC on to the threads, so that their log messages are included in the job log
+                final Map<String, String> mdc = MDC.getCopyOfContextMap();
+                for (final int order : orderList) {
+                    executor.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            if (mdc != null) {
+                                MDC.setContextMap(mdc);
+                            }
+                            try {
+                                writePageDoc(order, generator, pipeline);
+                                count.incrementAndGet();
+                            } catch (IndexerException | FatalIndexerException e) {
+                                logger.error(e.getMessage());
+                            } finally {
+                                MDC.clear();
+                            }
+                        }
+                    });
+                }
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    executor.shutdownNow();
+                    throw new IndexerException("Interrupted while writing page documents");
+                }
+            } else {
+                for (int order : orderList) {
+                    writePageDoc(order, generator, pipeline);
+                    count.incrementAndGet();
+                }
+            }
+            pipeline.flush();
+        }
+        pagesWritten += count.get();
+        logger.info("{} page documents written.", count.get());
+
+        return count.get();
+    }
+
+    /**
+     * 
+     * @param order
+     * @param generator
+     * @param pipeline
+     * @throws IndexerException
+     * @throws FatalIndexerException
+     */
+    private void writePageDoc(int order, PageContentGenerator generator, SolrUpdatePipeline pipeline) throws IndexerException,
+            FatalIndexerException {
+        SolrInputDocument doc = pageOrderMap.remove(order);
+        if (doc == null) {
+            return;
+        }
+        String physId = (String) doc.getFieldValue(SolrConstants.PHYSID);
+        physIdPageMap.remove(physId != null ? physId : "LIDO");
+        generator.addContent(doc);
+        checkAndAddAccessCondition(doc);
+        if (collectSuperValues) {
+            if (doc.containsKey(SolrConstants.DEFAULT)) {
+                superDefaultValues.add(order, doc.getFieldValue(SolrConstants.DEFAULT));
+            }
+            if (doc.containsKey(SolrConstants.FULLTEXT)) {
+                superFulltextValues.add(order, doc.getFieldValue(SolrConstants.FULLTEXT));
+            }
+        }
+        pipeline.add(doc);
+    }
+
+    /**
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#getPageDocsSize()
+     */
+    @Override
+    public int getPageDocsSize() {
+        return pagesWritten + super.getPageDocsSize();
+    }
+
+    /**
+     * Sets the root document and adds the aggregated DEFAULT and FULLTEXT values of the already written pages to it.
+     * 
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#setRootDoc(org.apache.solr.common.SolrInputDocument)
+     * @should add aggregated page values
+     */
+    @Override
+    public void setRootDoc(SolrInputDocument doc) {
+        super.setRootDoc(doc);
+        if (doc != null) {
+            for (Object value : superDefaultValues.getValues()) {
+                doc.addField(SolrConstants.SUPERDEFAULT, value);
+            }
+            for (Object value : superFulltextValues.getValues()) {
+                doc.addField(SolrConstants.SUPERFULLTEXT, value);
+            }
+        }
+    }
+
+    /**
+     * @see de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy#cleanup()
+     */
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        pageOrderMap.clear();
+        physIdPageMap.clear();
+        superDefaultValues.clear();
+        superFulltextValues.clear();
+    }
+}
@@ -18,9 +18,12 @@ package de.intranda.digiverso.presentation.solr;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
@@ -31,6 +34,7 @@ import org.junit.Test;
 
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
 import de.intranda.digiverso.presentation.solr.helper.JDomXP;
+import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
 import de.intranda.digiverso.presentation.solr.model.DataRepository;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 
@@ -171,6 +175,139 @@ public class AbstractIndexerTest extends AbstractSolrEnabledTest {
         }
     }
 
+    /**
+     * @see AbstractIndexer#findRecordDocuments(Collection,SolrHelper)
+     * @verifies return documents for all given records
+     */
+    @Test
+    public void findRecordDocuments_shouldReturnDocumentsForAllGivenRecords() throws Exception {
+        indexMetsAndLidoRecords();
+        Map<String, SolrDocumentList> recordDocs = AbstractIndexer.findRecordDocuments(Arrays.asList(new String[] { "PPN517154005", "V0011127",
+                "NOTFOUND" }), hotfolder.getSolrHelper());
+        Assert.assertEquals(2, recordDocs.size());
+        // Top-level document and 16 pages with URNs
+        Assert.assertEquals(17, recordDocs.get("PPN517154005").size());
+        Assert.assertNotNull(recordDocs.get("V0011127"));
+        Assert.assertNull(recordDocs.get("NOTFOUND"));
+    }
+
+    /**
+     * @see AbstractIndexer#findRecordDocuments(Collection,SolrHelper)
+     * @verifies list top-level documents first
+     */
+    @Test
+    public void findRecordDocuments_shouldListTopLevelDocumentsFirst() throws Exception {
+        indexMetsAndLidoRecords();
+        Map<String, SolrDocumentList> recordDocs = AbstractIndexer.findRecordDocuments(Arrays.asList(new String[] { "PPN517154005", "V0011127" }),
+                hotfolder.getSolrHelper());
+        Assert.assertEquals("PPN517154005", recordDocs.get("PPN517154005").get(0).getFieldValue(SolrConstants.PI));
+        Assert.assertEquals("V0011127", recordDocs.get("V0011127").get(0).getFieldValue(SolrConstants.PI));
+    }
+
+    /**
+     * @see AbstractIndexer#delete(Map,Map,SolrHelper)
+     * @verifies delete all records in batch
+     */
+    @Test
+    public void delete_shouldDeleteAllRecordsInBatch() throws Exception {
+        indexMetsAndLidoRecords();
+        Map<String, Boolean> traceByPi = new HashMap<>();
+        traceByPi.put("PPN517154005", false);
+        traceByPi.put("V0011127", false);
+        Map<String, SolrDocumentList> recordDocs = AbstractIndexer.findRecordDocuments(traceByPi.keySet(), hotfolder.getSolrHelper());
+        Set<String> deleted = AbstractIndexer.delete(traceByPi, recordDocs, hotfolder.getSolrHelper());
+        Assert.assertEquals(2, deleted.size());
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI_TOPSTRUCT + ":(PPN517154005 OR V0011127) OR "
+                + SolrConstants.PI + ":(PPN517154005 OR V0011127)", null);
+        Assert.assertTrue(docList.isEmpty());
+    }
+
+    /**
+     * @see AbstractIndexer#delete(Map,Map,SolrHelper)
+     * @verifies leave trace documents if requested
+     */
+    @Test
+    public void delete_shouldLeaveTraceDocumentsIfRequested() throws Exception {
+        indexMetsAndLidoRecords();
+        Map<String, Boolean> traceByPi = new HashMap<>();
+        traceByPi.put("PPN517154005", true);
+        traceByPi.put("V0011127", false);
+        Map<String, SolrDocumentList> recordDocs = AbstractIndexer.findRecordDocuments(traceByPi.keySet(), hotfolder.getSolrHelper());
+        Assert.assertEquals(2, AbstractIndexer.delete(traceByPi, recordDocs, hotfolder.getSolrHelper()).size());
+        {
+            SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI + ":PPN517154005", null);
+            Assert.assertEquals(1, docList.size());
+            SolrDocument doc = docList.get(0);
+            Assert.assertNotNull(doc.getFieldValue(SolrConstants.DATEDELETED));
+            Assert.assertNotNull(doc.getFieldValue(SolrConstants.GROUPFIELD));
+            Assert.assertEquals(16, doc.getFieldValues(SolrConstants.IMAGEURN_OAI).size());
+        }
+        Assert.assertTrue(hotfolder.getSolrHelper().search(SolrConstants.PI + ":V0011127", null).isEmpty());
+    }
+
+    /**
+     * @see AbstractIndexer#delete(Map,Map,SolrHelper)
+     * @verifies skip anchors with indexed volumes
+     */
+    @Test
+    public void delete_shouldSkipAnchorsWithIndexedVolumes() throws Exception {
+        String piVol = "PPN612054551";
+        String piAnchor = "PPN559838239";
+        Map<String, Path> dataFolders = new HashMap<>();
+        Assert.assertNull(new MetsIndexer(hotfolder).index(Paths.get("resources/test/METS/baltst_559838239/baltst_559838239_NF_75.xml"), false,
+                dataFolders, null, 1)[1]);
+        Assert.assertNull(new MetsIndexer(hotfolder).index(Paths.get("resources/test/METS/baltst_559838239/baltst_559838239_NF_75_anchor.xml"),
+                false, dataFolders, null, 1)[1]);
+
+        // Anchor alone may not be deleted
+        Map<String, Boolean> traceByPi = new HashMap<>();
+        traceByPi.put(piAnchor, false);
+        Map<String, SolrDocumentList> recordDocs = AbstractIndexer.findRecordDocuments(traceByPi.keySet(), hotfolder.getSolrHelper());
+        Assert.assertTrue(AbstractIndexer.delete(traceByPi, recordDocs, hotfolder.getSolrHelper()).isEmpty());
+        Assert.assertEquals(1, hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + piAnchor, null).size());
+
+        // Anchor together with its only volume may be deleted
+        traceByPi.put(piVol, false);
+        recordDocs = AbstractIndexer.findRecordDocuments(traceByPi.keySet(), hotfolder.getSolrHelper());
+        Assert.assertEquals(2, AbstractIndexer.delete(traceByPi, recordDocs, hotfolder.getSolrHelper()).size());
+        Assert.assertTrue(hotfolder.getSolrHelper().search(SolrConstants.PI + ":(" + piAnchor + " OR " + piVol + ")", null).isEmpty());
+    }
+
+    /**
+     * @see AbstractIndexer#delete(Map,Map,SolrHelper)
+     * @verifies escape special characters in anchor identifiers
+     */
+    @Test
+    public void delete_shouldEscapeSpecialCharactersInAnchorIdentifiers() throws Exception {
+        String piAnchor = "urn:nbn:de:1234(5)";
+        SolrDocument anchorDoc = new SolrDocument();
+        anchorDoc.setField(SolrConstants.IDDOC, "1");
+        anchorDoc.setField(SolrConstants.PI, piAnchor);
+        anchorDoc.setField(SolrConstants.ISANCHOR, true);
+        SolrDocumentList docs = new SolrDocumentList();
+        docs.add(anchorDoc);
+        Map<String, SolrDocumentList> recordDocs = new HashMap<>();
+        recordDocs.put(piAnchor, docs);
+        Map<String, Boolean> traceByPi = new HashMap<>();
+        traceByPi.put(piAnchor, false);
+        // An unescaped identifier would break the anchor check query and abort the whole batch
+        Set<String> deleted = AbstractIndexer.delete(traceByPi, recordDocs, hotfolder.getSolrHelper());
+        Assert.assertEquals(1, deleted.size());
+        Assert.assertTrue(deleted.contains(piAnchor));
+    }
+
+    private void indexMetsAndLidoRecords() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        dataFolders.put(DataRepository.PARAM_MEDIA, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_tif"));
+        dataFolders.put(DataRepository.PARAM_FULLTEXT, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_txt"));
+        dataFolders.put(DataRepository.PARAM_TEI, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_wc"));
+        String[] ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, null, 1);
+        Assert.assertNull(ret[1]);
+        List<Document> lidoDocs = JDomXP.splitLidoFile(lidoFile.toFile());
+        ret = new LidoIndexer(hotfolder).index(lidoDocs.get(0), new HashMap<String, Path>(), null, 1);
+        Assert.assertEquals("ERROR: " + ret[1], "V0011127", ret[0]);
+    }
+
     /**
      * @see AbstractIndexer#cleanUpDefaultField(String)
      * @verifies replace irrelevant chars with spaces correctly
@@ -20,11 +20,16 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -44,10 +49,13 @@ import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
 import de.intranda.digiverso.presentation.solr.helper.JDomXP;
 import de.intranda.digiverso.presentation.solr.helper.MetadataHelper;
 import de.intranda.digiverso.presentation.solr.model.DataRepository;
+import de.intranda.digiverso.presentation.solr.model.IndexerException;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.HierarchicalLazySolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.ISolrWriteStrategy;
 import de.intranda.digiverso.presentation.solr.model.writestrategy.LazySolrWriteStrategy;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.StreamingPageWriteStrategy;
 
 public class MetsIndexerTest extends AbstractSolrEnabledTest {
 
@@ -571,6 +579,119 @@ public class MetsIndexerTest extends AbstractSolrEnabledTest {
         }
     }
 
+    /**
+     * @see MetsIndexer#index(File,ISolrWriteStrategy,boolean,Map)
+     * @verifies write same documents in block mode
+     */
+    @Test
+    public void index_shouldWriteSameDocumentsInBlockMode() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        dataFolders.put(DataRepository.PARAM_FULLTEXT, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_txt"));
+        dataFolders.put(DataRepository.PARAM_TEI, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_wc"));
+        String[] ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, null, 1);
+        Assert.assertEquals(PI + ".xml", ret[0]);
+        List<String> flatDocs = getNormalizedRecordDocs(PI);
+        Assert.assertFalse(flatDocs.isEmpty());
+
+        server.deleteByQuery("*:*");
+        server.commit();
+
+        ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper()), 1);
+        Assert.assertEquals(PI + ".xml", ret[0]);
+        Assert.assertEquals(flatDocs, getNormalizedRecordDocs(PI));
+    }
+
+    /**
+     * @see MetsIndexer#index(File,ISolrWriteStrategy,boolean,Map)
+     * @verifies replace previous block on update
+     */
+    @Test
+    public void index_shouldReplacePreviousBlockOnUpdate() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        String[] ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, new HierarchicalLazySolrWriteStrategy(hotfolder
+                .getSolrHelper()), 1);
+        Assert.assertEquals(PI + ".xml", ret[0]);
+        String recordQuery = SolrConstants.PI + ":" + PI + " OR " + SolrConstants.PI_TOPSTRUCT + ":" + PI;
+        long numDocs = hotfolder.getSolrHelper().getNumHits(recordQuery);
+        SolrDocument doc = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + PI, null).get(0);
+        String iddoc = (String) doc.getFieldValue(SolrConstants.IDDOC);
+        Long dateCreated = (Long) doc.getFieldValue(SolrConstants.DATECREATED);
+        Assert.assertTrue(hotfolder.getSolrHelper().isIntactBlock(PI, iddoc));
+
+        ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper()), 1);
+        Assert.assertEquals(PI + ".xml", ret[0]);
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + PI, null);
+        Assert.assertEquals(1, docList.size());
+        Assert.assertEquals(iddoc, docList.get(0).getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals(dateCreated, docList.get(0).getFieldValue(SolrConstants.DATECREATED));
+        Assert.assertEquals(numDocs, hotfolder.getSolrHelper().getNumHits(recordQuery));
+        Assert.assertEquals(16, hotfolder.getSolrHelper().getNumHits(SolrConstants.PI_TOPSTRUCT + ":" + PI + " AND " + SolrConstants.DOCTYPE + ":"
+                + DocType.PAGE));
+        Assert.assertTrue(hotfolder.getSolrHelper().isIntactBlock(PI, iddoc));
+    }
+
+    /**
+     * @see MetsIndexer#index(Path,boolean,Map,ISolrWriteStrategy,int)
+     * @verifies keep previous block if writing fails in concurrent mode
+     */
+    @Test
+    public void index_shouldKeepPreviousBlockIfWritingFailsInConcurrentMode() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        String[] ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, new HierarchicalLazySolrWriteStrategy(hotfolder
+                .getSolrHelper()), 1);
+        Assert.assertEquals(PI + ".xml", ret[0]);
+        String recordQuery = SolrConstants.PI + ":" + PI + " OR " + SolrConstants.PI_TOPSTRUCT + ":" + PI;
+        long numDocs = hotfolder.getSolrHelper().getNumHits(recordQuery);
+
+        hotfolder.getSolrHelper().setConcurrent(true);
+        try {
+            ret = new MetsIndexer(hotfolder).index(metsFile, false, dataFolders, new HierarchicalLazySolrWriteStrategy(hotfolder.getSolrHelper()) {
+
+                @Override
+                public void writeDocs(boolean aggregateRecords) throws IndexerException {
+                    throw new IndexerException("write failed");
+                }
+            }, 1);
+        } finally {
+            hotfolder.getSolrHelper().setConcurrent(false);
+        }
+        Assert.assertEquals("write failed", ret[1]);
+        Assert.assertEquals(numDocs, hotfolder.getSolrHelper().getNumHits(recordQuery));
+    }
+
+    /**
+     * Returns all documents of the given record as sorted field/value strings, leaving out fields that differ between indexing runs.
+     * 
+     * @param pi
+     * @return
+     * @throws Exception
+     */
+    private static List<String> getNormalizedRecordDocs(String pi) throws Exception {
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI + ":" + pi + " OR " + SolrConstants.PI_TOPSTRUCT + ":" + pi,
+                null);
+        List<String> ret = new ArrayList<>(docList.size());
+        for (SolrDocument doc : docList) {
+            Map<String, List<String>> fields = new TreeMap<>();
+            for (String field : doc.getFieldNames()) {
+                if (field.startsWith(SolrConstants.IDDOC) || field.startsWith("DATE") || field.equals(SolrConstants.GROUPFIELD) || field.equals(
+                        SolrConstants.ROOT) || field.equals("_version_")) {
+                    continue;
+                }
+                List<String> values = new ArrayList<>();
+                for (Object value : doc.getFieldValues(field)) {
+                    // ALTO documents generated from full-text files contain the time of the indexing run
+                    values.add(String.valueOf(value).replaceAll("<processingDateTime>[^<]*</processingDateTime>", ""));
+                }
+                Collections.sort(values);
+                fields.put(field, values);
+            }
+            ret.add(fields.toString());
+        }
+        Collections.sort(ret);
+
+        return ret;
+    }
+
     /**
      * @see MetsIndexer#index(Path,boolean,Map,ISolrWriteStrategy,int)
      * @verifies set access conditions correctly
@@ -934,6 +1055,34 @@ public class MetsIndexerTest extends AbstractSolrEnabledTest {
         Assert.assertEquals(true, doc.getFieldValue(SolrConstants.FULLTEXTAVAILABLE));
     }
 
+    /**
+     * @see MetsIndexer#generatePageDocument(Element,String,Integer,ISolrWriteStrategy,Map)
+     * @verifies defer page content for streaming write strategy
+     */
+    @Test
+    public void generatePageDocument_shouldDeferPageContentForStreamingWriteStrategy() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        dataFolders.put(DataRepository.PARAM_FULLTEXT, Paths.get("resources/test/METS/kleiuniv_PPN517154005/kleiuniv_PPN517154005_txt"));
+
+        MetsIndexer indexer = new MetsIndexer(hotfolder);
+        indexer.initJDomXP(metsFile);
+        String xpath = "/mets:mets/mets:structMap[@TYPE=\"PHYSICAL\"]/mets:div/mets:div";
+        List<Element> eleStructMapPhysicalList = indexer.xp.evaluateToElements(xpath, null);
+        ISolrWriteStrategy writeStrategy = new StreamingPageWriteStrategy(solrHelper);
+
+        int page = 1;
+        Assert.assertTrue(indexer.generatePageDocument(eleStructMapPhysicalList.get(page - 1), String.valueOf(MetsIndexer.getNextIddoc(hotfolder
+                .getSolrHelper())), page, writeStrategy, dataFolders));
+        SolrInputDocument doc = writeStrategy.getPageDocForOrder(page);
+        Assert.assertNotNull(doc);
+        Assert.assertNotNull(doc.getFieldValue(SolrConstants.FILENAME));
+        Assert.assertFalse(doc.containsKey(SolrConstants.FULLTEXT));
+
+        indexer.addPageContent(doc, dataFolders, null);
+        Assert.assertTrue(doc.containsKey(SolrConstants.FULLTEXT));
+        Assert.assertEquals(true, doc.getFieldValue(SolrConstants.FULLTEXTAVAILABLE));
+    }
+
     /**
      * @see MetsIndexer#generatePageDocument(Element,String,Integer,ISolrWriteStrategy,Map)
      * @verifies add all basic fields
@@ -1016,4 +1165,24 @@ public class MetsIndexerTest extends AbstractSolrEnabledTest {
         Assert.assertTrue(files[0].startsWith("PPN123"));
         Assert.assertTrue(files[0].endsWith(".xml"));
     }
+
+    /**
+     * @see MetsIndexer#getCheckpointSource(Path,Map,int)
+     * @verifies change if METS file is modified
+     */
+    @Test
+    public void getCheckpointSource_shouldChangeIfMETSFileIsModified() throws Exception {
+        Path metsCopy = Paths.get("build/checkpointSource.xml");
+        Files.copy(metsFile, metsCopy, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Map<String, Path> dataFolders = new HashMap<>();
+            String source = MetsIndexer.getCheckpointSource(metsCopy, dataFolders, 1);
+            Assert.assertEquals(source, MetsIndexer.getCheckpointSource(metsCopy, dataFolders, 1));
+            Assert.assertNotEquals(source, MetsIndexer.getCheckpointSource(metsCopy, dataFolders, 2));
+            Files.setLastModifiedTime(metsCopy, FileTime.fromMillis(Files.getLastModifiedTime(metsCopy).toMillis() - 60000));
+            Assert.assertNotEquals(source, MetsIndexer.getCheckpointSource(metsCopy, dataFolders, 1));
+        } finally {
+            Files.delete(metsCopy);
+        }
+    }
 }
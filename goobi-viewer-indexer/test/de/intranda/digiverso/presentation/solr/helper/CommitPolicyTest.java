@@ -0,0 +1,95 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommitPolicyTest {
+
+    /**
+     * @see CommitPolicy#recordFinished()
+     * @verifies request soft commit after configured number of records
+     */
+    @Test
+    public void recordFinished_shouldRequestSoftCommitAfterConfiguredNumberOfRecords() throws Exception {
+        CommitPolicy policy = new CommitPolicy(0, 3, 0, 0);
+        Assert.assertTrue(policy.isDeferred());
+        Assert.assertFalse(policy.recordFinished());
+        Assert.assertFalse(policy.recordFinished());
+        Assert.assertTrue(policy.recordFinished());
+        policy.softCommitStarted();
+        Assert.assertFalse(policy.recordFinished());
+    }
+
+    /**
+     * @see CommitPolicy#recordFinished()
+     * @verifies request soft commit after configured interval
+     */
+    @Test
+    public void recordFinished_shouldRequestSoftCommitAfterConfiguredInterval() throws Exception {
+        CommitPolicy policy = new CommitPolicy(0, 0, 50, 0);
+        Assert.assertFalse(policy.recordFinished());
+        Thread.sleep(60);
+        Assert.assertTrue(policy.recordFinished());
+        Assert.assertTrue(policy.isSoftCommitDue());
+        policy.softCommitStarted();
+        Assert.assertFalse(policy.recordFinished());
+    }
+
+    /**
+     * @see CommitPolicy#recordFinished()
+     * @verifies never request soft commit if not deferred
+     */
+    @Test
+    public void recordFinished_shouldNeverRequestSoftCommitIfNotDeferred() throws Exception {
+        CommitPolicy policy = new CommitPolicy(0, 0, 0, 60000);
+        Assert.assertFalse(policy.isDeferred());
+        Assert.assertEquals(-1, policy.getCommitWithin());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertFalse(policy.recordFinished());
+        }
+    }
+
+    /**
+     * @see CommitPolicy#isPending(String)
+     * @verifies return true for changed records until soft commit
+     */
+    @Test
+    public void isPending_shouldReturnTrueForChangedRecordsUntilSoftCommit() throws Exception {
+        CommitPolicy policy = new CommitPolicy(0, 10, 0, 0);
+        Assert.assertFalse(policy.isPending("PPN123"));
+        policy.changed("PPN123");
+        Assert.assertTrue(policy.isPending("PPN123"));
+        Assert.assertFalse(policy.isPending("PPN456"));
+        policy.softCommitStarted();
+        Assert.assertFalse(policy.isPending("PPN123"));
+    }
+
+    /**
+     * @see CommitPolicy#isPending(String)
+     * @verifies return false for records changed before commitWithin expired
+     */
+    @Test
+    public void isPending_shouldReturnFalseForRecordsChangedBeforeCommitWithinExpired() throws Exception {
+        CommitPolicy policy = new CommitPolicy(10, 0, 0, 0);
+        Assert.assertEquals(10, policy.getCommitWithin());
+        policy.changed("PPN123");
+        Assert.assertTrue(policy.isPending("PPN123"));
+        Thread.sleep(50);
+        Assert.assertFalse(policy.isPending("PPN123"));
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportCompletionTrackerTest {
+
+    private Path hotfolder = Paths.get("build/exportCompletionTrackerTest");
+    private Path recordFile;
+    private Path dataFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+        Files.createDirectories(hotfolder);
+        recordFile = Files.write(Paths.get(hotfolder.toString(), "PPN123.xml"), "<mets/>".getBytes(StandardCharsets.UTF_8));
+        dataFolder = Files.createDirectory(Paths.get(hotfolder.toString(), "PPN123_media"));
+        Files.write(Paths.get(dataFolder.toString(), "00000001.tif"), new byte[100]);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+    }
+
+    /**
+     * @see ExportCompletionTracker#isExportDone(Path)
+     * @verifies return true if marker file exists
+     */
+    @Test
+    public void isExportDone_shouldReturnTrueIfMarkerFileExists() throws Exception {
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, ".ready", 60000);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Path marker = Files.createFile(Paths.get(hotfolder.toString(), "PPN123.ready"));
+        Assert.assertTrue(tracker.isExportDone(recordFile));
+        tracker.forget(recordFile);
+        Assert.assertFalse(Files.exists(marker));
+        Assert.assertEquals(0, tracker.getTrackedRecordCount());
+    }
+
+    /**
+     * @see ExportCompletionTracker#isExportDone(Path)
+     * @verifies return false on first check
+     */
+    @Test
+    public void isExportDone_shouldReturnFalseOnFirstCheck() throws Exception {
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, null, 0);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Assert.assertEquals(1, tracker.getTrackedRecordCount());
+    }
+
+    /**
+     * @see ExportCompletionTracker#isExportDone(Path)
+     * @verifies return true if unchanged for min stable time
+     */
+    @Test
+    public void isExportDone_shouldReturnTrueIfUnchangedForMinStableTime() throws Exception {
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, null, 0);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Assert.assertTrue(tracker.isExportDone(recordFile));
+
+        tracker = new ExportCompletionTracker(hotfolder, null, 60000);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+    }
+
+    /**
+     * @see ExportCompletionTracker#isExportDone(Path)
+     * @verifies return false if data folder changed
+     */
+    @Test
+    public void isExportDone_shouldReturnFalseIfDataFolderChanged() throws Exception {
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, null, 0);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Files.write(Paths.get(dataFolder.toString(), "00000002.tif"), new byte[100]);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Assert.assertTrue(tracker.isExportDone(recordFile));
+    }
+
+    /**
+     * @see ExportCompletionTracker#isExportDone(Path)
+     * @verifies wait longer for empty record files
+     */
+    @Test
+    public void isExportDone_shouldWaitLongerForEmptyRecordFiles() throws Exception {
+        Path emptyFile = Files.createFile(Paths.get(hotfolder.toString(), "PPN456.xml"));
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, null, 0);
+        Assert.assertFalse(tracker.isExportDone(emptyFile));
+        Assert.assertFalse(tracker.isExportDone(emptyFile));
+    }
+
+    /**
+     * @see ExportCompletionTracker#prune()
+     * @verifies discard records whose file no longer exists
+     */
+    @Test
+    public void prune_shouldDiscardRecordsWhoseFileNoLongerExists() throws Exception {
+        Path otherFile = Files.write(Paths.get(hotfolder.toString(), "PPN456.xml"), "<mets/>".getBytes(StandardCharsets.UTF_8));
+        ExportCompletionTracker tracker = new ExportCompletionTracker(hotfolder, null, 60000);
+        Assert.assertFalse(tracker.isExportDone(recordFile));
+        Assert.assertFalse(tracker.isExportDone(otherFile));
+        Assert.assertEquals(2, tracker.getTrackedRecordCount());
+        Files.delete(otherFile);
+        Assert.assertEquals(1, tracker.prune());
+        Assert.assertEquals(1, tracker.getTrackedRecordCount());
+    }
+}
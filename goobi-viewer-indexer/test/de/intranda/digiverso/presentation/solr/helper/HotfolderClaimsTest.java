@@ -0,0 +1,326 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FilenameUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import de.intranda.digiverso.presentation.solr.helper.ReindexQueue.Priority;
+
+public class HotfolderClaimsTest {
+
+    private static final String JOURNAL = ".REINDEX_QUEUE";
+
+    private Path hotfolder = Paths.get("build/hotfolderClaimsTest");
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+        Files.createDirectories(hotfolder);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+    }
+
+    private Path createFile(Path folder, String name) throws Exception {
+        return Files.write(Paths.get(folder.toString(), name), "<mets/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path createDataFolder(String name) throws Exception {
+        Path ret = Files.createDirectory(Paths.get(hotfolder.toString(), name));
+        createFile(ret, "00000001.xml");
+        return ret;
+    }
+
+    /**
+     * @see HotfolderClaims#HotfolderClaims(Path,String,long)
+     * @verifies create lease file and working directory
+     */
+    @Test
+    public void HotfolderClaims_shouldCreateLeaseFileAndWorkingDirectory() throws Exception {
+        HotfolderClaims claims = new HotfolderClaims(hotfolder, "node1", 60000);
+        Assert.assertTrue(Files.isDirectory(claims.getWorkingDirectory()));
+        Assert.assertTrue(Files.isRegularFile(Paths.get(hotfolder.toString(), HotfolderClaims.NODES_FOLDER, "node1"
+                + HotfolderClaims.LEASE_EXTENSION)));
+        claims.close();
+        Assert.assertFalse(Files.exists(Paths.get(hotfolder.toString(), HotfolderClaims.NODES_FOLDER, "node1" + HotfolderClaims.LEASE_EXTENSION)));
+    }
+
+    /**
+     * @see HotfolderClaims#HotfolderClaims(Path,String,long)
+     * @verifies reject invalid node ids
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void HotfolderClaims_shouldRejectInvalidNodeIds() throws Exception {
+        new HotfolderClaims(hotfolder, "../node1", 60000);
+    }
+
+    /**
+     * @see HotfolderClaims#claim(Path)
+     * @verifies move file and data folders into working directory
+     */
+    @Test
+    public void claim_shouldMoveFileAndDataFoldersIntoWorkingDirectory() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        createDataFolder("PPN123_tif");
+        createDataFolder("PPN123_alto");
+        HotfolderClaims claims = new HotfolderClaims(hotfolder, "node1", 60000);
+        Path claimed = claims.claim(recordFile);
+        Assert.assertEquals(Paths.get(claims.getWorkingDirectory().toString(), "PPN123.xml"), claimed);
+        Assert.assertTrue(Files.isRegularFile(claimed));
+        Assert.assertFalse(Files.exists(recordFile));
+        Assert.assertTrue(Files.isDirectory(Paths.get(claims.getWorkingDirectory().toString(), "PPN123_tif")));
+        Assert.assertTrue(Files.isDirectory(Paths.get(claims.getWorkingDirectory().toString(), "PPN123_alto")));
+        Assert.assertFalse(Files.exists(Paths.get(hotfolder.toString(), "PPN123_tif")));
+    }
+
+    /**
+     * @see HotfolderClaims#claim(Path)
+     * @verifies return null if file already claimed
+     */
+    @Test
+    public void claim_shouldReturnNullIfFileAlreadyClaimed() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        HotfolderClaims claims1 = new HotfolderClaims(hotfolder, "node1", 60000);
+        HotfolderClaims claims2 = new HotfolderClaims(hotfolder, "node2", 60000);
+        Assert.assertNotNull(claims1.claim(recordFile));
+        Assert.assertNull(claims2.claim(recordFile));
+        Assert.assertTrue(Files.isRegularFile(Paths.get(claims1.getWorkingDirectory().toString(), "PPN123.xml")));
+        Assert.assertFalse(Files.exists(Paths.get(claims2.getWorkingDirectory().toString(), "PPN123.xml")));
+    }
+
+    /**
+     * @see HotfolderClaims#claim(Path)
+     * @verifies not replace file that is still claimed
+     */
+    @Test
+    public void claim_shouldNotReplaceFileThatIsStillClaimed() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        createDataFolder("PPN123_tif");
+        HotfolderClaims claims = new HotfolderClaims(hotfolder, "node1", 60000);
+        Path claimed = claims.claim(recordFile);
+        Assert.assertNotNull(claimed);
+
+        // Re-delivery while the first one is still being processed
+        Files.write(recordFile, "<mets>new</mets>".getBytes(StandardCharsets.UTF_8));
+        createDataFolder("PPN123_tif");
+        Assert.assertTrue(claims.isClaimed(recordFile));
+        try {
+            claims.claim(recordFile);
+            Assert.fail();
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        Assert.assertEquals("<mets/>", new String(Files.readAllBytes(claimed), StandardCharsets.UTF_8));
+        Assert.assertTrue(Files.isRegularFile(recordFile));
+        Assert.assertTrue(Files.isDirectory(Paths.get(hotfolder.toString(), "PPN123_tif")));
+
+        // Once the first delivery is done, the new one can be claimed
+        Utils.deleteDirectory(Paths.get(claims.getWorkingDirectory().toString(), "PPN123_tif"));
+        Files.delete(claimed);
+        Assert.assertFalse(claims.isClaimed(recordFile));
+        Assert.assertEquals(claimed, claims.claim(recordFile));
+        Assert.assertEquals("<mets>new</mets>", new String(Files.readAllBytes(claimed), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @see HotfolderClaims#claim(Path)
+     * @verifies not move data folders of other records
+     */
+    @Test
+    public void claim_shouldNotMoveDataFoldersOfOtherRecords() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        createFile(hotfolder, "PPN123_2.xml");
+        createDataFolder("PPN123_2_tif");
+        HotfolderClaims claims = new HotfolderClaims(hotfolder, "node1", 60000);
+        Assert.assertNotNull(claims.claim(recordFile));
+        Assert.assertTrue(Files.isDirectory(Paths.get(hotfolder.toString(), "PPN123_2_tif")));
+        Assert.assertTrue(Files.isRegularFile(Paths.get(hotfolder.toString(), "PPN123_2.xml")));
+    }
+
+    /**
+     * @see HotfolderClaims#recoverStaleNodes(ReindexQueue,String)
+     * @verifies recover nodes without lease
+     */
+    @Test
+    public void recoverStaleNodes_shouldRecoverNodesWithoutLease() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        createDataFolder("PPN123_tif");
+        HotfolderClaims claims1 = new HotfolderClaims(hotfolder, "node1", 60000);
+        HotfolderClaims claims2 = new HotfolderClaims(hotfolder, "node2", 60000);
+        Assert.assertNotNull(claims2.claim(recordFile));
+        claims2.close();
+
+        Assert.assertEquals(2, claims1.recoverStaleNodes(new ReindexQueue(null), JOURNAL));
+        Assert.assertTrue(Files.isRegularFile(recordFile));
+        Assert.assertTrue(Files.isDirectory(Paths.get(hotfolder.toString(), "PPN123_tif")));
+        Assert.assertFalse(Files.exists(claims2.getWorkingDirectory()));
+    }
+
+    /**
+     * @see HotfolderClaims#recoverStaleNodes(ReindexQueue,String)
+     * @verifies recover nodes whose lease has not been renewed
+     */
+    @Test
+    public void recoverStaleNodes_shouldRecoverNodesWhoseLeaseHasNotBeenRenewed() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        HotfolderClaims claims1 = new HotfolderClaims(hotfolder, "node1", 200);
+        HotfolderClaims claims2 = new HotfolderClaims(hotfolder, "node2", 200);
+        Assert.assertNotNull(claims2.claim(recordFile));
+
+        // First check only observes the lease
+        Assert.assertEquals(0, claims1.recoverStaleNodes(new ReindexQueue(null), JOURNAL));
+        Thread.sleep(300);
+        Assert.assertEquals(1, claims1.recoverStaleNodes(new ReindexQueue(null), JOURNAL));
+        Assert.assertTrue(Files.isRegularFile(recordFile));
+    }
+
+    /**
+     * @see HotfolderClaims#recoverStaleNodes(ReindexQueue,String)
+     * @verifies not recover nodes with renewed lease
+     */
+    @Test
+    public void recoverStaleNodes_shouldNotRecoverNodesWithRenewedLease() throws Exception {
+        Path recordFile = createFile(hotfolder, "PPN123.xml");
+        HotfolderClaims claims1 = new HotfolderClaims(hotfolder, "node1", 1000);
+        HotfolderClaims claims2 = new HotfolderClaims(hotfolder, "node2", 1000);
+        Assert.assertNotNull(claims2.claim(recordFile));
+        claims2.startHeartbeat();
+        try {
+            long end = System.currentTimeMillis() + 2500;
+            while (System.currentTimeMillis() < end) {
+                Assert.assertEquals(0, claims1.recoverStaleNodes(new ReindexQueue(null), JOURNAL));
+                Thread.sleep(300);
+            }
+            Assert.assertTrue(Files.isRegularFile(Paths.get(claims2.getWorkingDirectory().toString(), "PPN123.xml")));
+        } finally {
+            claims2.close();
+        }
+    }
+
+    /**
+     * @see HotfolderClaims#recoverStaleNodes(ReindexQueue,String)
+     * @verifies adopt reindex jobs and anchor update files
+     */
+    @Test
+    public void recoverStaleNodes_shouldAdoptReindexJobsAndAnchorUpdateFiles() throws Exception {
+        Path indexedFolder = Files.createDirectory(Paths.get(hotfolder.toString(), "indexed_mets"));
+        Path indexedAnchor = createFile(indexedFolder, "PPN100.xml");
+        HotfolderClaims claims1 = new HotfolderClaims(hotfolder, "node1", 60000);
+        HotfolderClaims claims2 = new HotfolderClaims(hotfolder, "node2", 60000);
+        ReindexQueue queue2 = new ReindexQueue(Paths.get(claims2.getWorkingDirectory().toString(), JOURNAL));
+        Path anchorUpdate = createFile(claims2.getWorkingDirectory(), "PPN200#1.UPDATED");
+        Assert.assertTrue(queue2.add(anchorUpdate, Priority.INGEST));
+        Assert.assertTrue(queue2.add(indexedAnchor, Priority.REFRESH));
+        createFile(claims2.getWorkingDirectory(), "PPN300#1.UPDATED");
+        claims2.close();
+
+        ReindexQueue queue1 = new ReindexQueue(null);
+        Assert.assertEquals(0, claims1.recoverStaleNodes(queue1, JOURNAL));
+        Assert.assertEquals(2, queue1.size());
+        Path adoptedAnchorUpdate = Paths.get(claims1.getWorkingDirectory().toString(), "PPN200#1.UPDATED");
+        Assert.assertTrue(Files.isRegularFile(adoptedAnchorUpdate));
+        Assert.assertTrue(queue1.contains(adoptedAnchorUpdate));
+        Assert.assertTrue(queue1.contains(indexedAnchor));
+        // Anchor update files without queue entry are discarded
+        Assert.assertFalse(Files.exists(Paths.get(hotfolder.toString(), "PPN300#1.UPDATED")));
+    }
+
+    /**
+     * @see HotfolderClaims#claim(Path)
+     * @verifies grant each file to exactly one node across jvms
+     */
+    @Test
+    public void claim_shouldGrantEachFileToExactlyOneNodeAcrossJvms() throws Exception {
+        int numFiles = 200;
+        for (int i = 0; i < numFiles; ++i) {
+            createFile(hotfolder, "PPN" + i + ".xml");
+        }
+        StringBuilder sbClasspath = new StringBuilder();
+        for (Class<?> clazz : new Class<?>[] { HotfolderClaimsTest.class, HotfolderClaims.class, LoggerFactory.class, FilenameUtils.class }) {
+            sbClasspath.append(Paths.get(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).toString()).append(
+                    File.pathSeparator);
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            processes.add(new ProcessBuilder(java, "-cp", sbClasspath.toString(), HotfolderClaimsTest.class.getName(), hotfolder.toAbsolutePath()
+                    .toString(), "node" + i).redirectErrorStream(true).start());
+        }
+
+        Set<String> claimed = new HashSet<>();
+        for (Process process : processes) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("CLAIMED ")) {
+                        Assert.assertTrue("Claimed twice: " + line, claimed.add(line.substring(8)));
+                    }
+                }
+            }
+            Assert.assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            Assert.assertEquals(0, process.exitValue());
+        }
+        Assert.assertEquals(numFiles, claimed.size());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(hotfolder, "*.xml")) {
+            Assert.assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+    /**
+     * Claims every file in the given hotfolder as the given node and prints the names of the claimed files. Used by
+     * <code>claim_shouldGrantEachFileToExactlyOneNodeAcrossJvms()</code>.
+     * 
+     * @param args Hotfolder path, node ID
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        HotfolderClaims claims = new HotfolderClaims(Paths.get(args[0]), args[1], 60000);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(args[0]), "*.xml")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        for (Path file : files) {
+            if (claims.claim(file) != null) {
+                System.out.println("CLAIMED " + file.getFileName());
+            }
+        }
+        System.out.flush();
+    }
+}
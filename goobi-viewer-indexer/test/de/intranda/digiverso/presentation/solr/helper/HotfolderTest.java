@@ -0,0 +1,98 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotfolderTest {
+
+    private Path hotfolder = Paths.get("build/hotfolderTest");
+    private Path recordFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+        Files.createDirectories(hotfolder);
+        recordFile = Files.write(Paths.get(hotfolder.toString(), "PPN123.xml"), "<mets/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(hotfolder);
+    }
+
+    /**
+     * @see Hotfolder#isLargeRecord(Path,boolean,long,long)
+     * @verifies return true if data file reaches threshold
+     */
+    @Test
+    public void isLargeRecord_shouldReturnTrueIfDataFileReachesThreshold() throws Exception {
+        Assert.assertTrue(Hotfolder.isLargeRecord(recordFile, true, 7, 1000));
+        Assert.assertFalse(Hotfolder.isLargeRecord(recordFile, true, 8, 1000));
+    }
+
+    /**
+     * @see Hotfolder#isLargeRecord(Path,boolean,long,long)
+     * @verifies return true if text data folder reaches threshold
+     */
+    @Test
+    public void isLargeRecord_shouldReturnTrueIfTextDataFolderReachesThreshold() throws Exception {
+        Path dataFolder = Files.createDirectory(Paths.get(hotfolder.toString(), "PPN123_alto"));
+        Files.write(Paths.get(dataFolder.toString(), "00000001.xml"), new byte[1000]);
+        Assert.assertTrue(Hotfolder.isLargeRecord(recordFile, true, 1000, 1000));
+        Assert.assertFalse(Hotfolder.isLargeRecord(recordFile, true, 1000, 1001));
+    }
+
+    /**
+     * @see Hotfolder#isLargeRecord(Path,boolean,long,long)
+     * @verifies ignore non text data folders
+     */
+    @Test
+    public void isLargeRecord_shouldIgnoreNonTextDataFolders() throws Exception {
+        Path dataFolder = Files.createDirectory(Paths.get(hotfolder.toString(), "PPN123_tif"));
+        Files.write(Paths.get(dataFolder.toString(), "00000001.tif"), new byte[1000]);
+        Assert.assertFalse(Hotfolder.isLargeRecord(recordFile, true, 1000, 1000));
+    }
+
+    /**
+     * @see Hotfolder#isLargeRecord(Path,boolean,long,long)
+     * @verifies ignore data folders if not requested
+     */
+    @Test
+    public void isLargeRecord_shouldIgnoreDataFoldersIfNotRequested() throws Exception {
+        Path dataFolder = Files.createDirectory(Paths.get(hotfolder.toString(), "PPN123_txt"));
+        Files.write(Paths.get(dataFolder.toString(), "00000001.txt"), new byte[1000]);
+        Assert.assertFalse(Hotfolder.isLargeRecord(recordFile, false, 1000, 1000));
+    }
+
+    /**
+     * @see Hotfolder#isLargeRecord(Path,boolean,long,long)
+     * @verifies return false for non xml files
+     */
+    @Test
+    public void isLargeRecord_shouldReturnFalseForNonXmlFiles() throws Exception {
+        Path deleteFile = Files.write(Paths.get(hotfolder.toString(), "PPN123.delete"), new byte[1000]);
+        Assert.assertFalse(Hotfolder.isLargeRecord(deleteFile, true, 1, 1));
+    }
+}
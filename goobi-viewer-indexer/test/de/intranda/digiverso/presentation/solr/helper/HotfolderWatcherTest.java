@@ -0,0 +1,67 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotfolderWatcherTest {
+
+    private Path folder = Paths.get("build/hotfolderWatcherTest");
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(folder);
+        Files.createDirectories(folder);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(folder);
+    }
+
+    /**
+     * @see HotfolderWatcher#awaitChanges(long)
+     * @verifies detect new files
+     */
+    @Test
+    public void awaitChanges_shouldDetectNewFiles() throws Exception {
+        try (HotfolderWatcher watcher = new HotfolderWatcher(folder, "*.{xml,delete}")) {
+            Assert.assertFalse(watcher.awaitChanges(10));
+            Files.createFile(Paths.get(folder.toString(), "PPN123.delete"));
+            Assert.assertTrue(watcher.awaitChanges(10000));
+            Assert.assertTrue(watcher.isValid());
+        }
+    }
+
+    /**
+     * @see HotfolderWatcher#awaitChanges(long)
+     * @verifies ignore files not matching pattern
+     */
+    @Test
+    public void awaitChanges_shouldIgnoreFilesNotMatchingPattern() throws Exception {
+        try (HotfolderWatcher watcher = new HotfolderWatcher(folder, "*.{xml,delete}")) {
+            Files.createFile(Paths.get(folder.toString(), "PPN123.txt"));
+            Assert.assertFalse(watcher.awaitChanges(1000));
+        }
+    }
+}
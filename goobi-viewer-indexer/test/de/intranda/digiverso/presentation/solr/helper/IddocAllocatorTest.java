@@ -0,0 +1,194 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+
+public class IddocAllocatorTest {
+
+    private Path reservationFile = Paths.get("build/iddocAllocatorTest", IddocAllocator.RESERVATION_FILE);
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(reservationFile.getParent());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(reservationFile.getParent());
+    }
+
+    /**
+     * Allocator that checks ranges against a local set of used IDDOCs instead of Solr.
+     */
+    private static class TestAllocator extends IddocAllocator {
+
+        private final Set<Long> used = Collections.synchronizedSet(new HashSet<Long>());
+        private final AtomicInteger queries = new AtomicInteger();
+
+        TestAllocator(int blockSize) {
+            super(blockSize);
+        }
+
+        TestAllocator(int blockSize, Path reservationFile) {
+            super(blockSize, reservationFile);
+        }
+
+        @Override
+        protected boolean isRangeAvailable(SolrHelper solrHelper, long first, long last) throws FatalIndexerException {
+            queries.incrementAndGet();
+            for (long iddoc : used) {
+                if (iddoc >= first && iddoc <= last) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @see IddocAllocator#next(SolrHelper)
+     * @verifies return unique values across threads
+     */
+    @Test
+    public void next_shouldReturnUniqueValuesAcrossThreads() throws Exception {
+        final TestAllocator allocator = new TestAllocator(50);
+        final Set<Long> iddocs = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger duplicates = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; ++j) {
+                            if (!iddocs.add(allocator.next(null))) {
+                                duplicates.incrementAndGet();
+                            }
+                        }
+                    } catch (FatalIndexerException e) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(0, duplicates.get());
+        Assert.assertEquals(8000, iddocs.size());
+        Assert.assertEquals(8000 / 50, allocator.queries.get());
+    }
+
+    /**
+     * @see IddocAllocator#next(SolrHelper)
+     * @verifies reserve new block when current block is exhausted
+     */
+    @Test
+    public void next_shouldReserveNewBlockWhenCurrentBlockIsExhausted() throws Exception {
+        TestAllocator allocator = new TestAllocator(10);
+        long first = allocator.next(null);
+        for (int i = 1; i < 10; ++i) {
+            Assert.assertEquals(first + i, allocator.next(null));
+        }
+        Assert.assertEquals(1, allocator.queries.get());
+        Assert.assertTrue(allocator.next(null) >= first + 10);
+        Assert.assertEquals(2, allocator.queries.get());
+    }
+
+    /**
+     * @see IddocAllocator#next(SolrHelper)
+     * @verifies skip ranges that are already in use
+     */
+    @Test
+    public void next_shouldSkipRangesThatAreAlreadyInUse() throws Exception {
+        TestAllocator allocator = new TestAllocator(1000);
+        long now = System.currentTimeMillis();
+        allocator.used.add(now + 500);
+        allocator.used.add(now + 1500);
+        long iddoc = allocator.next(null);
+        Assert.assertTrue(iddoc > now + 1500);
+        Assert.assertTrue(allocator.queries.get() >= 2);
+    }
+
+    /**
+     * @see IddocAllocator#next(SolrHelper)
+     * @verifies not hand out overlapping blocks to allocators sharing reservation file
+     */
+    @Test
+    public void next_shouldNotHandOutOverlappingBlocksToAllocatorsSharingReservationFile() throws Exception {
+        // Documents with IDDOCs from the first block are not committed yet, so the range check does not find them
+        TestAllocator allocator1 = new TestAllocator(1000, reservationFile);
+        TestAllocator allocator2 = new TestAllocator(1000, reservationFile);
+        long first1 = allocator1.next(null);
+        long first2 = allocator2.next(null);
+        Assert.assertTrue(first2 >= first1 + 1000);
+        long next1 = allocator1.next(null);
+        Assert.assertEquals(first1 + 1, next1);
+        // Exhaust the first block, the next one must be above the block of the other allocator
+        for (int i = 2; i < 1000; ++i) {
+            allocator1.next(null);
+        }
+        Assert.assertTrue(allocator1.next(null) >= first2 + 1000);
+        Assert.assertTrue(Files.isRegularFile(reservationFile));
+    }
+
+    /**
+     * @see IddocAllocator#next(SolrHelper)
+     * @verifies continue above blocks reserved before restart
+     */
+    @Test
+    public void next_shouldContinueAboveBlocksReservedBeforeRestart() throws Exception {
+        TestAllocator allocator = new TestAllocator(1000000, reservationFile);
+        long first = allocator.next(null);
+        // The block of the previous run still lies in the future
+        TestAllocator restarted = new TestAllocator(1000000, reservationFile);
+        Assert.assertTrue(restarted.next(null) >= first + 1000000);
+    }
+
+    /**
+     * @see IddocAllocator#reserveUpTo(long)
+     * @verifies not hand out reserved values
+     */
+    @Test
+    public void reserveUpTo_shouldNotHandOutReservedValues() throws Exception {
+        TestAllocator allocator = new TestAllocator(1000);
+        long first = allocator.next(null);
+        allocator.reserveUpTo(first + 5000);
+        Assert.assertEquals(first + 5001, allocator.next(null));
+        // Values below the current position do not change anything
+        allocator.reserveUpTo(first);
+        Assert.assertEquals(first + 5002, allocator.next(null));
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IndexMaintenanceTest {
+
+    /**
+     * @see IndexMaintenance#selectOlderInstances(List)
+     * @verifies return all but highest iddoc
+     */
+    @Test
+    public void selectOlderInstances_shouldReturnAllButHighestIddoc() throws Exception {
+        List<String> result = IndexMaintenance.selectOlderInstances(Arrays.asList("900", "1200", "95"));
+        Assert.assertEquals(Arrays.asList("900", "95"), result);
+    }
+
+    /**
+     * @see IndexMaintenance#selectOlderInstances(List)
+     * @verifies return empty list for single instance
+     */
+    @Test
+    public void selectOlderInstances_shouldReturnEmptyListForSingleInstance() throws Exception {
+        Assert.assertTrue(IndexMaintenance.selectOlderInstances(Collections.singletonList("1")).isEmpty());
+    }
+
+    /**
+     * @see IndexMaintenance#selectOlderInstances(List)
+     * @verifies return null if iddoc not numerical
+     */
+    @Test
+    public void selectOlderInstances_shouldReturnNullIfIddocNotNumerical() throws Exception {
+        Assert.assertNull(IndexMaintenance.selectOlderInstances(Arrays.asList("1", "abc")));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+
+public class JobLogAppenderTest {
+
+    private Logger testLogger = (Logger) LoggerFactory.getLogger("JobLogAppenderTest");
+    private JobLogAppender appender;
+
+    @Before
+    public void setUp() throws Exception {
+        testLogger.setLevel(Level.DEBUG);
+        appender = JobLogAppender.install(Level.INFO, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        appender.endJob();
+    }
+
+    /**
+     * @see JobLogAppender#startJob(String)
+     * @verifies capture messages of the current thread only
+     */
+    @Test
+    public void startJob_shouldCaptureMessagesOfTheCurrentThreadOnly() throws Exception {
+        JobLogAppender.JobLog jobLog = appender.startJob("PPN123.xml");
+        Assert.assertSame(jobLog, appender.getCurrentJobLog());
+        testLogger.error("own message");
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                JobLogAppender.JobLog otherJobLog = appender.startJob("PPN456.xml");
+                testLogger.error("other message");
+                Assert.assertSame(otherJobLog, appender.endJob());
+            }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertSame(jobLog, appender.endJob());
+        Assert.assertNull(appender.getCurrentJobLog());
+
+        Assert.assertTrue(jobLog.hasErrors());
+        Assert.assertTrue(jobLog.getText().contains("own message"));
+        Assert.assertFalse(jobLog.getText().contains("other message"));
+    }
+
+    /**
+     * @see JobLogAppender#append(ILoggingEvent)
+     * @verifies ignore messages below threshold
+     */
+    @Test
+    public void append_shouldIgnoreMessagesBelowThreshold() throws Exception {
+        JobLogAppender.JobLog jobLog = appender.startJob("PPN123.xml");
+        testLogger.debug("debug message");
+        testLogger.info("info message");
+        appender.endJob();
+        Assert.assertFalse(jobLog.getText().contains("debug message"));
+        Assert.assertTrue(jobLog.getText().contains("info message"));
+        Assert.assertFalse(jobLog.hasErrors());
+    }
+
+    /**
+     * @see JobLogAppender#append(ILoggingEvent)
+     * @verifies ignore messages without job
+     */
+    @Test
+    public void append_shouldIgnoreMessagesWithoutJob() throws Exception {
+        testLogger.error("no job");
+        JobLogAppender.JobLog jobLog = appender.startJob("PPN123.xml");
+        appender.endJob();
+        testLogger.error("after job");
+        Assert.assertEquals("", jobLog.getText());
+        Assert.assertFalse(jobLog.hasErrors());
+    }
+
+    /**
+     * @see JobLogAppender.JobLog#getText()
+     * @verifies keep only the most recent messages
+     */
+    @Test
+    public void getText_shouldKeepOnlyTheMostRecentMessages() throws Exception {
+        JobLogAppender.JobLog jobLog = appender.startJob("PPN123.xml");
+        testLogger.error("message 1");
+        for (int i = 2; i <= 5; ++i) {
+            testLogger.info("message " + i);
+        }
+        appender.endJob();
+        String text = jobLog.getText();
+        Assert.assertFalse(text.contains("message 1"));
+        Assert.assertFalse(text.contains("message 2"));
+        Assert.assertTrue(text.contains("message 5"));
+        Assert.assertTrue(text.startsWith("[2 earlier messages omitted]"));
+        Assert.assertEquals(2, jobLog.getDroppedCount());
+        // The discarded error is still counted
+        Assert.assertTrue(jobLog.hasErrors());
+    }
+
+    /**
+     * @see JobLogAppender.JobLog#getText()
+     * @verifies truncate long messages
+     */
+    @Test
+    public void getText_shouldTruncateLongMessages() throws Exception {
+        JobLogAppender.JobLog jobLog = appender.startJob("PPN123.xml");
+        testLogger.info(StringUtils.repeat("x", JobLogAppender.MAX_EVENT_LENGTH * 2));
+        appender.endJob();
+        Assert.assertTrue(jobLog.getText().length() < JobLogAppender.MAX_EVENT_LENGTH + 10);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RecordLockManagerTest {
+
+    /**
+     * @see RecordLockManager#lockRecord(String)
+     * @verifies lock record
+     */
+    @Test
+    public void lockRecord_shouldLockRecord() throws Exception {
+        final RecordLockManager lockManager = new RecordLockManager();
+        lockManager.lockRecord("PPN123");
+        Assert.assertTrue(lockManager.isRecordLocked("PPN123"));
+        Assert.assertFalse(lockManager.isRecordLocked("PPN456"));
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean(false);
+        Thread other = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    lockManager.lockRecord("PPN123");
+                    acquired.set(true);
+                    lockManager.unlockRecord("PPN123");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        other.start();
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        other.join(200);
+        Assert.assertFalse(acquired.get());
+
+        lockManager.unlockRecord("PPN123");
+        other.join(5000);
+        Assert.assertTrue(acquired.get());
+        Assert.assertFalse(lockManager.isRecordLocked("PPN123"));
+    }
+
+    /**
+     * @see RecordLockManager#lockRecord(String)
+     * @verifies be reentrant for the owning thread
+     */
+    @Test
+    public void lockRecord_shouldBeReentrantForTheOwningThread() throws Exception {
+        RecordLockManager lockManager = new RecordLockManager();
+        lockManager.lockRecord("PPN123");
+        lockManager.lockRecord("PPN123");
+        Assert.assertEquals(1, lockManager.getLockedRecordCount());
+    }
+
+    /**
+     * @see RecordLockManager#unlockRecord(String)
+     * @verifies release lock after last hold
+     */
+    @Test
+    public void unlockRecord_shouldReleaseLockAfterLastHold() throws Exception {
+        RecordLockManager lockManager = new RecordLockManager();
+        lockManager.lockRecord("PPN123");
+        lockManager.lockRecord("PPN123");
+        lockManager.unlockRecord("PPN123");
+        Assert.assertTrue(lockManager.isRecordLocked("PPN123"));
+        lockManager.unlockRecord("PPN123");
+        Assert.assertFalse(lockManager.isRecordLocked("PPN123"));
+        Assert.assertEquals(0, lockManager.getLockedRecordCount());
+    }
+
+    /**
+     * @see RecordLockManager#unlockRecord(String)
+     * @verifies throw IllegalMonitorStateException if lock not owned by current thread
+     */
+    @Test(expected = IllegalMonitorStateException.class)
+    public void unlockRecord_shouldThrowIllegalMonitorStateExceptionIfLockNotOwnedByCurrentThread() throws Exception {
+        RecordLockManager lockManager = new RecordLockManager();
+        lockManager.unlockRecord("PPN123");
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class RecordLookupContextTest {
+
+    /**
+     * Answers <code>PI:(a OR b)</code> queries from a fixed set of top-level documents and records all received queries.
+     */
+    private static class RecordSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, SolrDocument> docs = new HashMap<>();
+        private final List<SolrParams> requests = new ArrayList<>();
+
+        private void addRecord(String pi, String iddoc, String dataRepository) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField(SolrConstants.PI, pi);
+            doc.setField(SolrConstants.IDDOC, iddoc);
+            if (dataRepository != null) {
+                doc.setField(SolrConstants.DATAREPOSITORY, dataRepository);
+            }
+            docs.put(pi, doc);
+        }
+
+        @Override
+        public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request) throws SolrServerException, IOException {
+            SolrParams params = request.getParams();
+            requests.add(params);
+            String query = params.get("q");
+            SolrDocumentList result = new SolrDocumentList();
+            for (String pi : query.substring(query.indexOf('(') + 1, query.lastIndexOf(')')).split(" OR ")) {
+                if (docs.containsKey(pi)) {
+                    result.add(docs.get(pi));
+                }
+            }
+            result.setNumFound(result.size());
+            NamedList<Object> ret = new NamedList<>();
+            ret.add("response", result);
+            return ret;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private RecordSolrServer server;
+    private RecordLookupContext lookup;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new RecordSolrServer();
+        server.addRecord("PPN123", "1", "1");
+        server.addRecord("PPN456", "2", null);
+        server.addRecord("PPN789", "3", null);
+        lookup = new RecordLookupContext(new SolrHelper(server));
+    }
+
+    /**
+     * @see RecordLookupContext#getDocument(String)
+     * @verifies fetch document only once
+     */
+    @Test
+    public void getDocument_shouldFetchDocumentOnlyOnce() throws Exception {
+        Assert.assertEquals("1", lookup.getDocument("PPN123").getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals("1", lookup.getDocument("PPN123").getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals("1", lookup.getDataRepository("PPN123"));
+        Assert.assertEquals(1, server.requests.size());
+        Assert.assertEquals(String.join(",", RecordLookupContext.FIELDS), server.requests.get(0).get("fl"));
+    }
+
+    /**
+     * @see RecordLookupContext#getDocument(String)
+     * @verifies return null if document not found
+     */
+    @Test
+    public void getDocument_shouldReturnNullIfDocumentNotFound() throws Exception {
+        Assert.assertNull(lookup.getDocument("notfound"));
+        Assert.assertNull(lookup.getDocument("notfound"));
+        Assert.assertEquals(1, server.requests.size());
+    }
+
+    /**
+     * @see RecordLookupContext#prefetch(Collection)
+     * @verifies fetch all missing documents with one request
+     */
+    @Test
+    public void prefetch_shouldFetchAllMissingDocumentsWithOneRequest() throws Exception {
+        lookup.prefetch(Arrays.asList("PPN123", "PPN456", "notfound"));
+        Assert.assertEquals(1, server.requests.size());
+        Assert.assertEquals("1", lookup.getDocument("PPN123").getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals("2", lookup.getDocument("PPN456").getFieldValue(SolrConstants.IDDOC));
+        Assert.assertNull(lookup.getDocument("notfound"));
+        Assert.assertEquals(1, server.requests.size());
+    }
+
+    /**
+     * @see RecordLookupContext#prefetch(Collection)
+     * @verifies not query already fetched identifiers
+     */
+    @Test
+    public void prefetch_shouldNotQueryAlreadyFetchedIdentifiers() throws Exception {
+        lookup.getDocument("PPN123");
+        lookup.prefetch(Arrays.asList("PPN123", "PPN456", "PPN789"));
+        Assert.assertEquals(2, server.requests.size());
+        Assert.assertEquals(SolrConstants.PI + ":(PPN456 OR PPN789)", server.requests.get(1).get("q"));
+        lookup.prefetch(Arrays.asList("PPN123", "PPN789"));
+        Assert.assertEquals(2, server.requests.size());
+    }
+
+    /**
+     * @see RecordLookupContext#getDataRepository(String)
+     * @verifies return repository name
+     */
+    @Test
+    public void getDataRepository_shouldReturnRepositoryName() throws Exception {
+        Assert.assertEquals("1", lookup.getDataRepository("PPN123"));
+    }
+
+    /**
+     * @see RecordLookupContext#getDataRepository(String)
+     * @verifies return question mark if record has no repository
+     */
+    @Test
+    public void getDataRepository_shouldReturnQuestionMarkIfRecordHasNoRepository() throws Exception {
+        Assert.assertEquals("?", lookup.getDataRepository("PPN456"));
+    }
+
+    /**
+     * @see RecordLookupContext#getDataRepository(String)
+     * @verifies return null if record not indexed
+     */
+    @Test
+    public void getDataRepository_shouldReturnNullIfRecordNotIndexed() throws Exception {
+        Assert.assertNull(lookup.getDataRepository("notfound"));
+    }
+
+    /**
+     * @see RecordLookupContext#invalidate(String)
+     * @verifies fetch document again after invalidation
+     */
+    @Test
+    public void invalidate_shouldFetchDocumentAgainAfterInvalidation() throws Exception {
+        lookup.getDocument("PPN123");
+        lookup.invalidate("PPN123");
+        lookup.getDocument("PPN123");
+        Assert.assertEquals(2, server.requests.size());
+    }
+}
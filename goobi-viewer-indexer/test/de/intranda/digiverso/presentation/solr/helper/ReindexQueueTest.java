@@ -0,0 +1,308 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.helper.ReindexQueue.Priority;
+
+public class ReindexQueueTest {
+
+    private Path folder = Paths.get("build/reindexQueueTest");
+    private Path journal;
+
+    @Before
+    public void setUp() throws Exception {
+        Utils.deleteDirectory(folder);
+        Files.createDirectories(Paths.get(folder.toString(), "indexed_mets"));
+        journal = Paths.get(folder.toString(), ".REINDEX_QUEUE");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(folder);
+    }
+
+    private Path createFile(String name) throws Exception {
+        return Files.write(Paths.get(folder.toString(), name), "<mets/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority)
+     * @verifies add entry
+     */
+    @Test
+    public void add_shouldAddEntry() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("indexed_mets/PPN123.xml");
+        Assert.assertTrue(queue.add(file, Priority.REFRESH));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertTrue(queue.contains(file));
+        Assert.assertTrue(Files.isRegularFile(journal));
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority)
+     * @verifies collapse refresh entries for the same record
+     */
+    @Test
+    public void add_shouldCollapseRefreshEntriesForTheSameRecord() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("indexed_mets/PPN123.xml");
+        Assert.assertTrue(queue.add(file, Priority.REFRESH));
+        Assert.assertFalse(queue.add(file, Priority.REFRESH));
+        Assert.assertEquals(1, queue.size());
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority)
+     * @verifies drop refresh entry if ingest is pending for the same record
+     */
+    @Test
+    public void add_shouldDropRefreshEntryIfIngestIsPendingForTheSameRecord() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Assert.assertTrue(queue.addHotfolderFile(createFile("PPN123.xml")));
+        Assert.assertFalse(queue.add(createFile("indexed_mets/PPN123.xml"), Priority.REFRESH));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(1, queue.size(Priority.INGEST));
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority)
+     * @verifies remove pending refresh entries when ingest is added
+     */
+    @Test
+    public void add_shouldRemovePendingRefreshEntriesWhenIngestIsAdded() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Assert.assertTrue(queue.add(createFile("indexed_mets/PPN123.xml"), Priority.REFRESH));
+        Assert.assertTrue(queue.addHotfolderFile(createFile("PPN123.delete")));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(0, queue.size(Priority.REFRESH));
+        Assert.assertEquals(1, queue.size(Priority.DELETE));
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority,long)
+     * @verifies hold back entry until delay has passed
+     */
+    @Test
+    public void add_shouldHoldBackEntryUntilDelayHasPassed() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("indexed_mets/PPN123.xml");
+        Assert.assertTrue(queue.add(file, Priority.REFRESH, 200));
+        Assert.assertNull(queue.take(null));
+        Thread.sleep(250);
+        Assert.assertEquals(file, queue.take(null).getFile());
+    }
+
+    /**
+     * @see ReindexQueue#add(Path,Priority,long)
+     * @verifies restart delay of pending entry for the same record
+     */
+    @Test
+    public void add_shouldRestartDelayOfPendingEntryForTheSameRecord() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("indexed_mets/PPN123.xml");
+        Assert.assertTrue(queue.add(file, Priority.REFRESH, 0));
+        Assert.assertFalse(queue.add(file, Priority.REFRESH, 60000));
+        Assert.assertEquals(1, queue.size());
+        Assert.assertNull(queue.take(null));
+    }
+
+    /**
+     * @see ReindexQueue#take(ReindexQueue.EntryFilter)
+     * @verifies take entries in priority order
+     */
+    @Test
+    public void take_shouldTakeEntriesInPriorityOrder() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path refresh = createFile("indexed_mets/PPN1.xml");
+        Path delete = createFile("PPN2.delete");
+        Path ingest = createFile("PPN3.xml");
+        queue.add(refresh, Priority.REFRESH);
+        queue.addHotfolderFile(delete);
+        queue.addHotfolderFile(ingest);
+
+        ReindexQueue.Entry entry = queue.take(null);
+        Assert.assertEquals(ingest, entry.getFile());
+        Assert.assertFalse(entry.isReindex());
+        queue.complete(entry);
+        Assert.assertEquals(delete, queue.take(null).getFile());
+        entry = queue.take(null);
+        Assert.assertEquals(refresh, entry.getFile());
+        Assert.assertTrue(entry.isReindex());
+        Assert.assertNull(queue.take(null));
+    }
+
+    /**
+     * @see ReindexQueue#take(ReindexQueue.EntryFilter)
+     * @verifies skip entries rejected by filter
+     */
+    @Test
+    public void take_shouldSkipEntriesRejectedByFilter() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        queue.addHotfolderFile(createFile("PPN1.xml"));
+        queue.addHotfolderFile(createFile("PPN2.xml"));
+        ReindexQueue.Entry entry = queue.take(new ReindexQueue.EntryFilter() {
+
+            @Override
+            public boolean accept(ReindexQueue.Entry entry) {
+                return !"PPN1".equals(entry.getRecordKey());
+            }
+        });
+        Assert.assertEquals("PPN2", entry.getRecordKey());
+        Assert.assertEquals(1, queue.size());
+    }
+
+    /**
+     * @see ReindexQueue#take(ReindexQueue.EntryFilter)
+     * @verifies discard entries for missing files
+     */
+    @Test
+    public void take_shouldDiscardEntriesForMissingFiles() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("PPN1.xml");
+        queue.addHotfolderFile(file);
+        Files.delete(file);
+        Assert.assertNull(queue.take(null));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * @see ReindexQueue#take(ReindexQueue.EntryFilter)
+     * @verifies not check files of entries rejected by filter
+     */
+    @Test
+    public void take_shouldNotCheckFilesOfEntriesRejectedByFilter() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file1 = createFile("PPN1.xml");
+        Path file2 = createFile("PPN2.xml");
+        queue.addHotfolderFile(file1);
+        queue.addHotfolderFile(file2);
+        Files.delete(file1);
+        Files.delete(file2);
+        Assert.assertNull(queue.take(new ReindexQueue.EntryFilter() {
+
+            @Override
+            public boolean accept(ReindexQueue.Entry entry) {
+                return !entry.getFile().getFileName().toString().equals("PPN1.xml");
+            }
+        }));
+        // Only the missing file of the accepted entry has been noticed
+        Assert.assertEquals(1, queue.size());
+        Assert.assertEquals(file1.toAbsolutePath(), queue.getEntries().get(0).getFile().toAbsolutePath());
+    }
+
+    /**
+     * @see ReindexQueue#complete(ReindexQueue.Entry)
+     * @verifies remove entry from journal
+     */
+    @Test
+    public void complete_shouldRemoveEntryFromJournal() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        queue.addHotfolderFile(createFile("PPN1.xml"));
+        queue.complete(queue.take(null));
+        Assert.assertTrue(new ReindexQueue(journal).isEmpty());
+    }
+
+    /**
+     * @see ReindexQueue#complete(ReindexQueue.Entry)
+     * @verifies keep entry queued again while in progress
+     */
+    @Test
+    public void complete_shouldKeepEntryQueuedAgainWhileInProgress() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path file = createFile("indexed_mets/PPN1.xml");
+        Assert.assertTrue(queue.add(file, Priority.REFRESH));
+        ReindexQueue.Entry entry = queue.take(null);
+        Assert.assertTrue(queue.add(file, Priority.REFRESH));
+        queue.complete(entry);
+        Assert.assertTrue(queue.contains(file));
+
+        ReindexQueue restored = new ReindexQueue(journal);
+        Assert.assertEquals(1, restored.size());
+        Assert.assertEquals(file.toAbsolutePath(), restored.take(null).getFile());
+    }
+
+    /**
+     * @see ReindexQueue#ReindexQueue(Path)
+     * @verifies restore debounce window from journal
+     */
+    @Test
+    public void ReindexQueue_shouldRestoreDebounceWindowFromJournal() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Assert.assertTrue(queue.add(createFile("indexed_mets/PPN1.xml"), Priority.REFRESH, 60000));
+        Assert.assertTrue(queue.add(createFile("indexed_mets/PPN2.xml"), Priority.REFRESH, 0));
+        // Restarting the window of PPN2 must be journaled as well
+        Assert.assertFalse(queue.add(createFile("indexed_mets/PPN2.xml"), Priority.REFRESH, 60000));
+
+        ReindexQueue restored = new ReindexQueue(journal);
+        Assert.assertEquals(2, restored.size());
+        Assert.assertNull(restored.take(null));
+    }
+
+    /**
+     * @see ReindexQueue#ReindexQueue(Path)
+     * @verifies restore pending and interrupted entries from journal
+     */
+    @Test
+    public void ReindexQueue_shouldRestorePendingAndInterruptedEntriesFromJournal() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        queue.add(createFile("indexed_mets/PPN1.xml"), Priority.REFRESH);
+        queue.add(createFile("indexed_mets/PPN2.xml"), Priority.REFRESH);
+        queue.add(createFile("indexed_mets/PPN3.xml"), Priority.REFRESH);
+        queue.complete(queue.take(null));
+        // Interrupted while processing
+        Assert.assertEquals("PPN2", queue.take(null).getRecordKey());
+
+        ReindexQueue restored = new ReindexQueue(journal);
+        Assert.assertEquals(2, restored.size(Priority.REFRESH));
+        Assert.assertEquals("PPN2", restored.take(null).getRecordKey());
+        Assert.assertEquals("PPN3", restored.take(null).getRecordKey());
+    }
+
+    /**
+     * @see ReindexQueue#getEntries()
+     * @verifies return pending and in progress entries
+     */
+    @Test
+    public void getEntries_shouldReturnPendingAndInProgressEntries() throws Exception {
+        ReindexQueue queue = new ReindexQueue(journal);
+        Path refresh = createFile("indexed_mets/PPN1.xml");
+        Path ingest = createFile("PPN2.xml");
+        Path delete = createFile("PPN3.delete");
+        Assert.assertTrue(queue.add(refresh, Priority.REFRESH));
+        Assert.assertTrue(queue.addHotfolderFile(delete));
+        Assert.assertTrue(queue.addHotfolderFile(ingest));
+        ReindexQueue.Entry taken = queue.take(null);
+        Assert.assertEquals(ingest, taken.getFile());
+
+        List<ReindexQueue.Entry> entries = queue.getEntries();
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals(delete, entries.get(0).getFile());
+        Assert.assertEquals(refresh, entries.get(1).getFile());
+        Assert.assertEquals(ingest, entries.get(2).getFile());
+    }
+}
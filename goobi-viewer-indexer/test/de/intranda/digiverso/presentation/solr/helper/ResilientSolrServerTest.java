@@ -0,0 +1,222 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.AbstractSolrEnabledTest;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class ResilientSolrServerTest extends AbstractSolrEnabledTest {
+
+    /**
+     * Passes requests to the embedded Solr server unless a failure has been injected for the next request.
+     */
+    private static class FaultInjectingSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SolrServer delegate;
+        /** Exceptions to throw, or null to return a response with a non-zero status. */
+        private final Queue<Exception> faults = new LinkedList<>();
+        private int requestCount = 0;
+
+        public FaultInjectingSolrServer(SolrServer delegate) {
+            this.delegate = delegate;
+        }
+
+        public void inject(Exception e, int times) {
+            for (int i = 0; i < times; ++i) {
+                faults.add(e);
+            }
+        }
+
+        @Override
+        public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request) throws SolrServerException, IOException {
+            requestCount++;
+            if (!faults.isEmpty()) {
+                Exception e = faults.poll();
+                if (e instanceof SolrServerException) {
+                    throw (SolrServerException) e;
+                }
+                if (e instanceof SolrException) {
+                    throw (SolrException) e;
+                }
+                NamedList<Object> header = new NamedList<>();
+                header.add("status", 500);
+                NamedList<Object> ret = new NamedList<>();
+                ret.add("responseHeader", header);
+                return ret;
+            }
+            return delegate.request(request);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    private static SolrInputDocument createDoc(String iddoc) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, iddoc);
+        doc.addField(SolrConstants.PI, "PPN" + iddoc);
+        return doc;
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies retry failed requests
+     */
+    @Test
+    public void request_shouldRetryFailedRequests() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 5, 1, 5, 10, 100);
+        SolrHelper sh = new SolrHelper(resilient);
+        faulty.inject(new SolrServerException("connection refused"), 2);
+        Assert.assertTrue(sh.writeToIndex(createDoc("1")));
+        sh.commit(false);
+        Assert.assertEquals(1, sh.getNumHits(SolrConstants.IDDOC + ":1"));
+        Assert.assertEquals(2, resilient.getFailedAttemptCount());
+        Assert.assertEquals(0, resilient.getFailureCount());
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies fail after max attempts
+     */
+    @Test
+    public void request_shouldFailAfterMaxAttempts() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 3, 1, 5, 10, 100);
+        SolrHelper sh = new SolrHelper(resilient);
+        faulty.inject(new SolrServerException("connection refused"), 3);
+        try {
+            sh.writeToIndex(createDoc("1"));
+            Assert.fail();
+        } catch (FatalIndexerException e) {
+            // expected
+        }
+        // Three attempts plus the rollback
+        Assert.assertEquals(4, faulty.requestCount);
+        Assert.assertEquals(3, resilient.getFailedAttemptCount());
+        Assert.assertEquals(1, resilient.getFailureCount());
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies not retry client errors
+     */
+    @Test
+    public void request_shouldNotRetryClientErrors() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 5, 1, 5, 10, 100);
+        faulty.inject(new SolrException(ErrorCode.BAD_REQUEST, "undefined field"), 1);
+        try {
+            resilient.query(new SolrQuery("FOO:bar"));
+            Assert.fail();
+        } catch (SolrException e) {
+            Assert.assertEquals(ErrorCode.BAD_REQUEST.code, e.code());
+        }
+        Assert.assertEquals(1, faulty.requestCount);
+        Assert.assertEquals(0, resilient.getFailedAttemptCount());
+        Assert.assertEquals(ResilientSolrServer.State.CLOSED, resilient.getState());
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies treat non-zero status as failure
+     */
+    @Test
+    public void request_shouldTreatNonzeroStatusAsFailure() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 5, 1, 5, 10, 100);
+        SolrHelper sh = new SolrHelper(resilient);
+        faulty.inject(null, 1);
+        Assert.assertTrue(sh.writeToIndex(createDoc("1")));
+        Assert.assertEquals(2, faulty.requestCount);
+        Assert.assertEquals(1, resilient.getFailedAttemptCount());
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies open circuit breaker after consecutive failures
+     */
+    @Test
+    public void request_shouldOpenCircuitBreakerAfterConsecutiveFailures() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 2, 1, 5, 2, 60000);
+        SolrHelper sh = new SolrHelper(resilient);
+        faulty.inject(new SolrServerException("connection refused"), 2);
+        try {
+            resilient.query(new SolrQuery("*:*"));
+            Assert.fail();
+        } catch (SolrServerException e) {
+            // expected
+        }
+        Assert.assertEquals(ResilientSolrServer.State.OPEN, resilient.getState());
+        Assert.assertFalse(resilient.isAvailable());
+        Assert.assertFalse(sh.isAvailable());
+        Assert.assertEquals(1, resilient.getBreakerOpenCount());
+    }
+
+    /**
+     * @see ResilientSolrServer#request(SolrRequest)
+     * @verifies close circuit breaker after successful trial request
+     */
+    @Test
+    public void request_shouldCloseCircuitBreakerAfterSuccessfulTrialRequest() throws Exception {
+        FaultInjectingSolrServer faulty = new FaultInjectingSolrServer(server);
+        ResilientSolrServer resilient = new ResilientSolrServer(faulty, 3, 1, 5, 1, 50);
+        faulty.inject(new SolrServerException("connection refused"), 1);
+        long start = System.currentTimeMillis();
+        Assert.assertNotNull(resilient.query(new SolrQuery("*:*")));
+        // The trial request is only sent after the breaker has been open for the configured time
+        Assert.assertTrue(System.currentTimeMillis() - start >= 50);
+        Assert.assertEquals(ResilientSolrServer.State.CLOSED, resilient.getState());
+        Assert.assertTrue(resilient.isAvailable());
+        Assert.assertEquals(1, resilient.getBreakerOpenCount());
+        Assert.assertEquals(2, faulty.requestCount);
+    }
+
+    /**
+     * @see ResilientSolrServer#getBackoff(int)
+     * @verifies stay within exponentially growing bounds
+     */
+    @Test
+    public void getBackoff_shouldStayWithinExponentiallyGrowingBounds() throws Exception {
+        ResilientSolrServer resilient = new ResilientSolrServer(server, 10, 100, 1000, 5, 100);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(resilient.getBackoff(1) <= 100);
+            Assert.assertTrue(resilient.getBackoff(3) <= 400);
+            Assert.assertTrue(resilient.getBackoff(10) <= 1000);
+            Assert.assertTrue(resilient.getBackoff(10) >= 0);
+        }
+    }
+}
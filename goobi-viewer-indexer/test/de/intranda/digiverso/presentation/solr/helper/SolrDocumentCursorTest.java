@@ -0,0 +1,131 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class SolrDocumentCursorTest {
+
+    /**
+     * Returns the given number of documents in pages, using the index of the next document as the cursor mark.
+     */
+    private static class PagingSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int numDocs;
+        private final List<SolrParams> requests = new ArrayList<>();
+
+        public PagingSolrServer(int numDocs) {
+            this.numDocs = numDocs;
+        }
+
+        @Override
+        public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request) throws SolrServerException, IOException {
+            SolrParams params = request.getParams();
+            requests.add(params);
+            String cursorMark = params.get(CursorMarkParams.CURSOR_MARK_PARAM);
+            int start = CursorMarkParams.CURSOR_MARK_START.equals(cursorMark) ? 0 : Integer.valueOf(cursorMark);
+            int rows = params.getInt("rows");
+            SolrDocumentList docs = new SolrDocumentList();
+            docs.setNumFound(numDocs);
+            int end = Math.min(start + rows, numDocs);
+            for (int i = start; i < end; ++i) {
+                SolrDocument doc = new SolrDocument();
+                doc.setField(SolrConstants.IDDOC, String.valueOf(i));
+                docs.add(doc);
+            }
+            NamedList<Object> ret = new NamedList<>();
+            ret.add("response", docs);
+            ret.add(CursorMarkParams.CURSOR_MARK_NEXT, end > start ? String.valueOf(end) : cursorMark);
+            return ret;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * @see SolrDocumentCursor#SolrDocumentCursor(SolrServer,String,List,int)
+     * @verifies throw IllegalArgumentException if fields empty
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void SolrDocumentCursor_shouldThrowIllegalArgumentExceptionIfFieldsEmpty() throws Exception {
+        new SolrDocumentCursor(new PagingSolrServer(0), "*:*", Collections.<String> emptyList(), 10);
+    }
+
+    /**
+     * @see SolrDocumentCursor#SolrDocumentCursor(SolrServer,String,List,int)
+     * @verifies throw IllegalArgumentException if page size not positive
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void SolrDocumentCursor_shouldThrowIllegalArgumentExceptionIfPageSizeNotPositive() throws Exception {
+        new SolrDocumentCursor(new PagingSolrServer(0), "*:*", Collections.singletonList(SolrConstants.IDDOC), 0);
+    }
+
+    /**
+     * @see SolrDocumentCursor#hasNext()
+     * @verifies iterate over all pages
+     */
+    @Test
+    public void hasNext_shouldIterateOverAllPages() throws Exception {
+        PagingSolrServer server = new PagingSolrServer(25);
+        SolrDocumentCursor cursor = new SolrDocumentCursor(server, "*:*", Collections.singletonList(SolrConstants.IDDOC), 10);
+        int count = 0;
+        while (cursor.hasNext()) {
+            Assert.assertEquals(String.valueOf(count), cursor.next().getFieldValue(SolrConstants.IDDOC));
+            count++;
+        }
+        Assert.assertEquals(25, count);
+        Assert.assertEquals(25, cursor.getNumFound());
+        // Three full or partial pages plus the request that returns the same cursor mark
+        Assert.assertEquals(4, server.requests.size());
+        for (SolrParams params : server.requests) {
+            Assert.assertEquals(SolrConstants.IDDOC, params.get("fl"));
+            Assert.assertEquals(SolrConstants.IDDOC + " asc", params.get("sort"));
+        }
+    }
+
+    /**
+     * @see SolrDocumentCursor#hasNext()
+     * @verifies return false for empty result
+     */
+    @Test
+    public void hasNext_shouldReturnFalseForEmptyResult() throws Exception {
+        PagingSolrServer server = new PagingSolrServer(0);
+        SolrDocumentCursor cursor = new SolrDocumentCursor(server, "*:*", Collections.singletonList(SolrConstants.IDDOC), 10);
+        Assert.assertFalse(cursor.hasNext());
+        Assert.assertEquals(0, cursor.getNumFound());
+        Assert.assertEquals(1, server.requests.size());
+    }
+}
@@ -16,19 +16,28 @@
 package de.intranda.digiverso.presentation.solr.helper;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.impl.BinaryRequestWriter;
+import org.apache.solr.client.solrj.impl.CloudSolrServer;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.client.solrj.request.UpdateRequest;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
 import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.intranda.digiverso.presentation.solr.AbstractSolrEnabledTest;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
 
@@ -98,6 +107,113 @@ public class SolrHelperTest extends AbstractSolrEnabledTest {
         Assert.assertEquals("new_title", doc2.getFieldValue("MD_TITLE"));
     }
 
+    /**
+     * @see SolrHelper#getNewCloudSolrServer(String,String)
+     * @verifies route updates by IDDOC to shard leaders
+     */
+    @Test
+    public void getNewCloudSolrServer_shouldRouteUpdatesByIDDOCToShardLeaders() throws Exception {
+        CloudSolrServer cloudServer = SolrHelper.getNewCloudSolrServer("localhost:2181", "collection1");
+        try {
+            Assert.assertEquals("collection1", cloudServer.getDefaultCollection());
+            Assert.assertEquals(SolrConstants.IDDOC, cloudServer.getIdField());
+            Assert.assertTrue(cloudServer.isUpdatesToLeaders());
+            Assert.assertTrue(cloudServer.getRequestWriter() instanceof BinaryRequestWriter);
+        } finally {
+            cloudServer.shutdown();
+        }
+    }
+
+    /**
+     * @see SolrHelper#configureCloudSolrServer(CloudSolrServer,String)
+     * @verifies make SolrHelper send updates deletes and queries through the cloud client
+     */
+    @Test
+    public void configureCloudSolrServer_shouldMakeSolrHelperSendUpdatesDeletesAndQueriesThroughTheCloudClient() throws Exception {
+        final List<SolrRequest> requests = new ArrayList<>();
+        // Records the requests instead of looking up the shard leaders in ZooKeeper
+        CloudSolrServer cloudServer = new CloudSolrServer("localhost:2181", true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public NamedList<Object> request(SolrRequest request) {
+                requests.add(request);
+                NamedList<Object> ret = new NamedList<>();
+                if (request instanceof QueryRequest) {
+                    ret.add("response", new SolrDocumentList());
+                }
+                return ret;
+            }
+        };
+        try {
+            SolrHelper.configureCloudSolrServer(cloudServer, "collection1");
+            Assert.assertEquals("collection1", cloudServer.getDefaultCollection());
+            Assert.assertEquals(SolrConstants.IDDOC, cloudServer.getIdField());
+
+            SolrHelper sh = new SolrHelper(cloudServer);
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SolrConstants.IDDOC, "1");
+            doc.addField(SolrConstants.PI, "PPN1");
+            Assert.assertTrue(sh.writeToIndex(Collections.singletonList(doc)));
+            Assert.assertTrue(sh.deleteRecords(Collections.singletonList("PPN2")));
+            Assert.assertTrue(sh.search(SolrConstants.PI + ":PPN1", null).isEmpty());
+
+            Assert.assertEquals(3, requests.size());
+            Assert.assertTrue(requests.get(0) instanceof UpdateRequest);
+            List<SolrInputDocument> sentDocs = ((UpdateRequest) requests.get(0)).getDocuments();
+            Assert.assertEquals(1, sentDocs.size());
+            Assert.assertEquals("1", sentDocs.get(0).getFieldValue(SolrConstants.IDDOC));
+            Assert.assertTrue(requests.get(1) instanceof UpdateRequest);
+            Assert.assertEquals(Collections.singletonList(SolrHelper.getRecordQuery(Collections.singletonList("PPN2"))),
+                    ((UpdateRequest) requests.get(1)).getDeleteQuery());
+            Assert.assertTrue(requests.get(2) instanceof QueryRequest);
+        } finally {
+            cloudServer.shutdown();
+        }
+    }
+
+    /**
+     * @see SolrHelper#getNewCloudSolrServer(String,String)
+     * @verifies throw FatalIndexerException if collection not configured
+     */
+    @Test(expected = FatalIndexerException.class)
+    public void getNewCloudSolrServer_shouldThrowFatalIndexerExceptionIfCollectionNotConfigured() throws Exception {
+        SolrHelper.getNewCloudSolrServer("localhost:2181", null);
+    }
+
+    /**
+     * @see SolrHelper#createGroupDoc(String,String,Map,long,SolrDocument)
+     * @verifies create new document if no old document given
+     */
+    @Test
+    public void createGroupDoc_shouldCreateNewDocumentIfNoOldDocumentGiven() throws Exception {
+        SolrInputDocument doc = SolrHelper.createGroupDoc(SolrConstants.GROUPID_ + "TEST", "id10T", Collections.singletonMap("MD_TITLE", "title"),
+                123456L, null);
+        Assert.assertEquals("123456", doc.getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals("123456", doc.getFieldValue(SolrConstants.GROUPFIELD));
+        Assert.assertNotNull(doc.getFieldValue(SolrConstants.DATECREATED));
+        Assert.assertEquals(DocType.GROUP.name(), doc.getFieldValue(SolrConstants.DOCTYPE));
+        Assert.assertEquals("id10T", doc.getFieldValue(SolrConstants.PI_TOPSTRUCT));
+        Assert.assertEquals("title", doc.getFieldValue("MD_TITLE"));
+    }
+
+    /**
+     * @see SolrHelper#createGroupDoc(String,String,Map,long,SolrDocument)
+     * @verifies keep IDDOC and creation timestamp of old document
+     */
+    @Test
+    public void createGroupDoc_shouldKeepIDDOCAndCreationTimestampOfOldDocument() throws Exception {
+        SolrDocument oldDoc = new SolrDocument();
+        oldDoc.setField(SolrConstants.IDDOC, "42");
+        oldDoc.setField(SolrConstants.DATECREATED, 1000L);
+        SolrInputDocument doc = SolrHelper.createGroupDoc(SolrConstants.GROUPID_ + "TEST", "id10T", null, 123456L, oldDoc);
+        Assert.assertEquals("42", doc.getFieldValue(SolrConstants.IDDOC));
+        Assert.assertEquals("42", doc.getFieldValue(SolrConstants.GROUPFIELD));
+        Assert.assertEquals(1000L, doc.getFieldValue(SolrConstants.DATECREATED));
+        Assert.assertNotEquals(1000L, doc.getFieldValue(SolrConstants.DATEUPDATED));
+    }
+
     /**
      * @see SolrHelper#updateDoc(SolrDocument,Map)
      * @verifies update doc correctly
@@ -160,4 +276,143 @@ public class SolrHelperTest extends AbstractSolrEnabledTest {
             Assert.assertEquals(2, doc.getFieldValues(SolrConstants.DATEUPDATED).size());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * @see SolrHelper#deleteRecords(Collection)
+     * @verifies delete records with all child documents
+     */
+    @Test
+    public void deleteRecords_shouldDeleteRecordsWithAllChildDocuments() throws Exception {
+        List<SolrInputDocument> docs = new ArrayList<>();
+        String[][] values = { { "1", SolrConstants.PI, "PPN1" }, { "2", SolrConstants.PI_TOPSTRUCT, "PPN1" }, { "3", SolrConstants.PI, "PPN2" }, {
+                "4", SolrConstants.PI_TOPSTRUCT, "PPN2" }, { "5", SolrConstants.PI, "PPN3" } };
+        for (String[] value : values) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SolrConstants.IDDOC, value[0]);
+            doc.addField(value[1], value[2]);
+            docs.add(doc);
+        }
+        Assert.assertTrue(solrHelper.writeToIndex(docs));
+        solrHelper.commit(false);
+
+        Assert.assertTrue(solrHelper.deleteRecords(Arrays.asList("PPN1", "PPN2")));
+        solrHelper.commit(false);
+        SolrDocumentList hits = solrHelper.search(SolrConstants.IDDOC + ":*", Collections.singletonList(SolrConstants.IDDOC));
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("5", hits.get(0).getFieldValue(SolrConstants.IDDOC));
+    }
+
+    /**
+     * @see SolrHelper#rollback(String)
+     * @verifies delete record without discarding changes of other records if concurrent
+     */
+    @Test
+    public void rollback_shouldDeleteRecordWithoutDiscardingChangesOfOtherRecordsIfConcurrent() throws Exception {
+        String[][] values = { { "1", SolrConstants.PI, "PPN1" }, { "2", SolrConstants.PI_TOPSTRUCT, "PPN1" }, { "3", SolrConstants.PI, "PPN2" } };
+        for (String[] value : values) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SolrConstants.IDDOC, value[0]);
+            doc.addField(value[1], value[2]);
+            Assert.assertTrue(solrHelper.writeToIndex(doc));
+        }
+        // Nothing has been committed yet, so a rollback would also discard PPN2
+        solrHelper.setConcurrent(true);
+        solrHelper.rollback("PPN1");
+        solrHelper.commit(false);
+        SolrDocumentList hits = solrHelper.search(SolrConstants.IDDOC + ":*", Collections.singletonList(SolrConstants.IDDOC));
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("3", hits.get(0).getFieldValue(SolrConstants.IDDOC));
+    }
+
+    /**
+     * @see SolrHelper#getRecordQuery(Collection)
+     * @verifies match top-level and child documents
+     */
+    @Test
+    public void getRecordQuery_shouldMatchTopLevelAndChildDocuments() throws Exception {
+        Assert.assertEquals("PI:(PPN1 OR PPN2) OR PI_TOPSTRUCT:(PPN1 OR PPN2)", SolrHelper.getRecordQuery(Arrays.asList("PPN1", "PPN2")));
+    }
+
+    private static SolrInputDocument createRecordDoc(String iddoc, String pi) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, iddoc);
+        doc.addField(SolrConstants.GROUPFIELD, iddoc);
+        doc.addField(SolrConstants.PI_TOPSTRUCT, pi);
+        return doc;
+    }
+
+    private static SolrInputDocument createBlock(String pi) {
+        SolrInputDocument rootDoc = createRecordDoc("100", pi);
+        rootDoc.addField(SolrConstants.PI, pi);
+        rootDoc.addChildDocument(createRecordDoc("101", pi));
+        rootDoc.addChildDocument(createRecordDoc("102", pi));
+        return rootDoc;
+    }
+
+    /**
+     * @see SolrHelper#isIntactBlock(String,String)
+     * @verifies return true for intact block
+     */
+    @Test
+    public void isIntactBlock_shouldReturnTrueForIntactBlock() throws Exception {
+        Assert.assertTrue(solrHelper.writeToIndex(createBlock("PPN123")));
+        solrHelper.commit(false);
+        Assert.assertEquals(3, solrHelper.getNumHits(SolrConstants.ROOT + ":100"));
+        Assert.assertTrue(solrHelper.isIntactBlock("PPN123", "100"));
+    }
+
+    /**
+     * @see SolrHelper#isIntactBlock(String,String)
+     * @verifies return false for flat record
+     */
+    @Test
+    public void isIntactBlock_shouldReturnFalseForFlatRecord() throws Exception {
+        SolrInputDocument rootDoc = createBlock("PPN123");
+        List<SolrInputDocument> docs = new ArrayList<>(rootDoc.getChildDocuments());
+        rootDoc.getChildDocuments().clear();
+        docs.add(rootDoc);
+        Assert.assertTrue(solrHelper.writeToIndex(docs));
+        solrHelper.commit(false);
+        Assert.assertFalse(solrHelper.isIntactBlock("PPN123", "100"));
+    }
+
+    /**
+     * @see SolrHelper#isIntactBlock(String,String)
+     * @verifies return false if record has docs outside block
+     */
+    @Test
+    public void isIntactBlock_shouldReturnFalseIfRecordHasDocsOutsideBlock() throws Exception {
+        Assert.assertTrue(solrHelper.writeToIndex(createBlock("PPN123")));
+        Assert.assertTrue(solrHelper.writeToIndex(createRecordDoc("103", "PPN123")));
+        solrHelper.commit(false);
+        Assert.assertFalse(solrHelper.isIntactBlock("PPN123", "100"));
+    }
+
+    /**
+     * @see SolrHelper#buildOrQuery(String,Collection)
+     * @verifies build query for single value
+     */
+    @Test
+    public void buildOrQuery_shouldBuildQueryForSingleValue() throws Exception {
+        Assert.assertEquals("PI:(PPN123)", SolrHelper.buildOrQuery(SolrConstants.PI, Collections.singleton("PPN123")));
+    }
+
+    /**
+     * @see SolrHelper#buildOrQuery(String,Collection)
+     * @verifies combine multiple values with OR
+     */
+    @Test
+    public void buildOrQuery_shouldCombineMultipleValuesWithOR() throws Exception {
+        Assert.assertEquals("PI_PARENT:(PPN1 OR PPN2 OR PPN3)", SolrHelper.buildOrQuery(SolrConstants.PI_PARENT, Arrays.asList("PPN1", "PPN2",
+                "PPN3")));
+    }
+
+    /**
+     * @see SolrHelper#buildOrQuery(String,Collection)
+     * @verifies escape special characters
+     */
+    @Test
+    public void buildOrQuery_shouldEscapeSpecialCharacters() throws Exception {
+        Assert.assertEquals("PI:(urn\\:nbn\\:de\\ 1)", SolrHelper.buildOrQuery(SolrConstants.PI, Collections.singleton("urn:nbn:de 1")));
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.helper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class SolrUpdatePipelineTest {
+
+    /**
+     * Pipeline that records the batch sizes instead of sending them to Solr.
+     */
+    private static class TestPipeline extends SolrUpdatePipeline {
+
+        private final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        private final boolean fail;
+
+        TestPipeline(int maxDocs, long maxBytes, boolean fail) {
+            super(null, maxDocs, maxBytes, 2, 1);
+            this.fail = fail;
+        }
+
+        @Override
+        protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+            if (fail) {
+                throw new FatalIndexerException("Solr connection error");
+            }
+            batchSizes.add(docs.size());
+        }
+    }
+
+    private static SolrInputDocument createDoc(int iddoc, String text) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, String.valueOf(iddoc));
+        if (text != null) {
+            doc.addField(SolrConstants.FULLTEXT, text);
+        }
+        return doc;
+    }
+
+    /**
+     * @see SolrUpdatePipeline#SolrUpdatePipeline(SolrHelper,int,long,int,int,boolean)
+     * @verifies send batches in order if ordered
+     */
+    @Test
+    public void SolrUpdatePipeline_shouldSendBatchesInOrderIfOrdered() throws Exception {
+        final List<Object> arrivedIddocs = Collections.synchronizedList(new ArrayList<>());
+        try (SolrUpdatePipeline pipeline = new SolrUpdatePipeline(null, 1, Long.MAX_VALUE, 4, 4, true) {
+
+            @Override
+            protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+                int iddoc = Integer.valueOf((String) docs.get(0).getFieldValue(SolrConstants.IDDOC));
+                try {
+                    // Earlier batches take longer, so that they would be overtaken by parallel senders
+                    Thread.sleep(Math.max(0, 20 - iddoc * 2));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                arrivedIddocs.add(iddoc);
+            }
+        }) {
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                pipeline.add(createDoc(i, null));
+                expected.add(i);
+            }
+            Assert.assertEquals(10, pipeline.flush());
+            Assert.assertEquals(expected, arrivedIddocs);
+        }
+    }
+
+    /**
+     * @see SolrUpdatePipeline#add(SolrInputDocument)
+     * @verifies send batches limited by document count
+     */
+    @Test
+    public void add_shouldSendBatchesLimitedByDocumentCount() throws Exception {
+        try (TestPipeline pipeline = new TestPipeline(10, Long.MAX_VALUE, false)) {
+            for (int i = 0; i < 25; ++i) {
+                pipeline.add(createDoc(i, null));
+            }
+            Assert.assertEquals(25, pipeline.flush());
+            List<Integer> sizes = new ArrayList<>(pipeline.batchSizes);
+            Collections.sort(sizes);
+            Assert.assertEquals(3, sizes.size());
+            Assert.assertEquals(Integer.valueOf(5), sizes.get(0));
+            Assert.assertEquals(Integer.valueOf(10), sizes.get(1));
+            Assert.assertEquals(Integer.valueOf(10), sizes.get(2));
+        }
+    }
+
+    /**
+     * @see SolrUpdatePipeline#add(SolrInputDocument)
+     * @verifies send batches limited by payload size
+     */
+    @Test
+    public void add_shouldSendBatchesLimitedByPayloadSize() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append('x');
+        }
+        String text = sb.toString();
+        // Two documents fit into one batch, the third one does not
+        long maxBytes = SolrUpdatePipeline.estimateSize(createDoc(0, text)) * 2 + 1;
+        try (TestPipeline pipeline = new TestPipeline(100, maxBytes, false)) {
+            for (int i = 0; i < 6; ++i) {
+                pipeline.add(createDoc(i, text));
+            }
+            Assert.assertEquals(6, pipeline.flush());
+            Assert.assertEquals(3, pipeline.batchSizes.size());
+            for (int size : pipeline.batchSizes) {
+                Assert.assertEquals(2, size);
+            }
+        }
+    }
+
+    /**
+     * @see SolrUpdatePipeline#add(SolrInputDocument)
+     * @verifies rethrow sender errors
+     */
+    @Test
+    public void add_shouldRethrowSenderErrors() throws Exception {
+        try (TestPipeline pipeline = new TestPipeline(1, Long.MAX_VALUE, true)) {
+            pipeline.add(createDoc(1, null));
+            try {
+                pipeline.flush();
+                Assert.fail("FatalIndexerException expected");
+            } catch (FatalIndexerException e) {
+                Assert.assertEquals("Solr connection error", e.getMessage());
+            }
+            try {
+                pipeline.add(createDoc(2, null));
+                Assert.fail("FatalIndexerException expected");
+            } catch (FatalIndexerException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * @see SolrUpdatePipeline#flush()
+     * @verifies write all added documents
+     */
+    @Test
+    public void flush_shouldWriteAllAddedDocuments() throws Exception {
+        try (TestPipeline pipeline = new TestPipeline(7, Long.MAX_VALUE, false)) {
+            List<SolrInputDocument> docs = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                docs.add(createDoc(i, "text " + i));
+            }
+            pipeline.addAll(docs);
+            Assert.assertEquals(100, pipeline.flush());
+            int total = 0;
+            for (int size : pipeline.batchSizes) {
+                total += size;
+            }
+            Assert.assertEquals(100, total);
+            // Nothing left to send
+            Assert.assertEquals(100, pipeline.flush());
+        }
+    }
+
+    /**
+     * @see SolrUpdatePipeline#estimateSize(SolrInputDocument)
+     * @verifies sum up field names and values
+     */
+    @Test
+    public void estimateSize_shouldSumUpFieldNamesAndValues() throws Exception {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("FIELD", "abc");
+        doc.addField("FIELD", "defg");
+        // name + overhead, two values + overhead each
+        Assert.assertEquals(5 + 16 + 3 + 16 + 4 + 16, SolrUpdatePipeline.estimateSize(doc));
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
+import de.intranda.digiverso.presentation.solr.helper.Utils;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class AdaptiveSolrWriteStrategyTest {
+
+    private static Path tempFolder = Paths.get("build/temp_adaptive");
+
+    /**
+     * Server that accepts all requests without doing anything.
+     */
+    private static class NoOpSolrServer extends SolrServer {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public NamedList<Object> request(@SuppressWarnings("rawtypes") SolrRequest request) throws SolrServerException, IOException {
+            return new NamedList<>();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+
+    /**
+     * Strategy with a settable heap usage that collects the written documents instead of sending them to Solr.
+     */
+    private static class TestStrategy extends AdaptiveSolrWriteStrategy {
+
+        private final List<SolrInputDocument> writtenDocs = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+        private double heapUsage = 0;
+        private volatile boolean pageSentAfterFulltextAggregation = false;
+
+        TestStrategy() {
+            super(new SolrHelper(new NoOpSolrServer()), tempFolder, 80);
+        }
+
+        @Override
+        protected double getHeapUsage() {
+            return heapUsage;
+        }
+
+        @Override
+        protected SolrUpdatePipeline createPipeline(boolean ordered) throws FatalIndexerException {
+            return new SolrUpdatePipeline(null, 2, Long.MAX_VALUE, 1, 1, ordered) {
+
+                @Override
+                protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+                    for (SolrInputDocument doc : docs) {
+                        if (doc.containsKey(SolrConstants.ORDER) && rootDoc.containsKey(SolrConstants.SUPERFULLTEXT)) {
+                            pageSentAfterFulltextAggregation = true;
+                        }
+                    }
+                    writtenDocs.addAll(docs);
+                }
+            };
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Files.createDirectories(tempFolder);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(tempFolder);
+    }
+
+    private static SolrInputDocument createPageDoc(int order) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, String.valueOf(100 + order));
+        doc.addField(SolrConstants.ORDER, order);
+        doc.addField(SolrConstants.PHYSID, "PHYS_" + order);
+        doc.addField("GROUPFIELD", "1");
+        doc.addField(SolrConstants.FULLTEXT, "text " + order);
+        doc.addField(SolrConstants.ALTO, "<alto>" + order + "</alto>");
+        return doc;
+    }
+
+    private static SolrInputDocument createRootDoc() {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, "1");
+        doc.addField(SolrConstants.DEFAULT, "root");
+        doc.addField("GROUPFIELD", "1");
+        return doc;
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#addPageDoc(SolrInputDocument)
+     * @verifies keep payload in memory below watermark
+     */
+    @Test
+    public void addPageDoc_shouldKeepPayloadInMemoryBelowWatermark() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        try {
+            strategy.heapUsage = 0.5;
+            strategy.addPageDoc(createPageDoc(1));
+            Assert.assertFalse(strategy.isSpilling());
+            Assert.assertEquals("text 1", strategy.getPageDocForOrder(1).getFieldValue(SolrConstants.FULLTEXT));
+            Assert.assertFalse(Files.exists(strategy.getStore().getFile()));
+        } finally {
+            strategy.cleanup();
+        }
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#addPageDoc(SolrInputDocument)
+     * @verifies spill payloads of held and new page docs above watermark
+     */
+    @Test
+    public void addPageDoc_shouldSpillPayloadsOfHeldAndNewPageDocsAboveWatermark() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        try {
+            strategy.addPageDoc(createPageDoc(1));
+            strategy.heapUsage = 0.8;
+            strategy.addPageDoc(createPageDoc(2));
+            Assert.assertTrue(strategy.isSpilling());
+            // Spilling is kept even if the heap usage drops again
+            strategy.heapUsage = 0.1;
+            strategy.addPageDoc(createPageDoc(3));
+            for (int i = 1; i <= 3; ++i) {
+                SolrInputDocument doc = strategy.getPageDocForOrder(i);
+                Assert.assertNull(doc.getFieldValue(SolrConstants.FULLTEXT));
+                Assert.assertNull(doc.getFieldValue(SolrConstants.ALTO));
+                Assert.assertEquals("PHYS_" + i, doc.getFieldValue(SolrConstants.PHYSID));
+                Assert.assertEquals("text " + i, strategy.getStore().get((100 + i) + "_" + SolrConstants.FULLTEXT));
+            }
+        } finally {
+            strategy.cleanup();
+        }
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#writeDocs(boolean)
+     * @verifies write all docs with restored payloads
+     */
+    @Test
+    public void writeDocs_shouldWriteAllDocsWithRestoredPayloads() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        try {
+            strategy.addPageDoc(createPageDoc(2));
+            strategy.heapUsage = 0.9;
+            strategy.addPageDoc(createPageDoc(1));
+            strategy.setRootDoc(createRootDoc());
+            strategy.writeDocs(false);
+            Assert.assertEquals(3, strategy.writtenDocs.size());
+            for (int i = 1; i <= 2; ++i) {
+                SolrInputDocument doc = strategy.writtenDocs.get(i - 1);
+                Assert.assertEquals(i, doc.getFieldValue(SolrConstants.ORDER));
+                Assert.assertEquals("text " + i, doc.getFieldValue(SolrConstants.FULLTEXT));
+                Assert.assertEquals("<alto>" + i + "</alto>", doc.getFieldValue(SolrConstants.ALTO));
+                Assert.assertEquals(SolrConstants.OPEN_ACCESS_VALUE, doc.getFieldValue(SolrConstants.ACCESSCONDITION));
+                // The held document is not enlarged again
+                Assert.assertNull(strategy.getPageDocForOrder(i).getFieldValue(SolrConstants.FULLTEXT));
+            }
+            Assert.assertEquals("1", strategy.writtenDocs.get(2).getFieldValue(SolrConstants.IDDOC));
+        } finally {
+            strategy.cleanup();
+        }
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#writeDocs(boolean)
+     * @verifies aggregate spilled page values into root doc
+     */
+    @Test
+    public void writeDocs_shouldAggregateSpilledPageValuesIntoRootDoc() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        try {
+            strategy.heapUsage = 1;
+            strategy.addPageDoc(createPageDoc(1));
+            strategy.addPageDoc(createPageDoc(2));
+            SolrInputDocument rootDoc = createRootDoc();
+            strategy.setRootDoc(rootDoc);
+            strategy.writeDocs(true);
+            Assert.assertEquals(2, rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT).size());
+            Assert.assertTrue(rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT).contains("text 2"));
+            Assert.assertEquals("root", rootDoc.getFieldValue(SolrConstants.SUPERDEFAULT));
+        } finally {
+            strategy.cleanup();
+        }
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#writeDocs(boolean)
+     * @verifies aggregate spilled full-text only after all page docs have been sent
+     */
+    @Test
+    public void writeDocs_shouldAggregateSpilledFulltextOnlyAfterAllPageDocsHaveBeenSent() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        try {
+            strategy.heapUsage = 1;
+            for (int i = 1; i <= 5; ++i) {
+                strategy.addPageDoc(createPageDoc(i));
+            }
+            SolrInputDocument rootDoc = createRootDoc();
+            strategy.setRootDoc(rootDoc);
+            strategy.writeDocs(true);
+            Assert.assertFalse(strategy.pageSentAfterFulltextAggregation);
+            Assert.assertEquals(Arrays.asList("text 1", "text 2", "text 3", "text 4", "text 5"),
+                    new ArrayList<>(rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT)));
+        } finally {
+            strategy.cleanup();
+        }
+    }
+
+    /**
+     * @see AdaptiveSolrWriteStrategy#cleanup()
+     * @verifies delete spill file
+     */
+    @Test
+    public void cleanup_shouldDeleteSpillFile() throws Exception {
+        TestStrategy strategy = new TestStrategy();
+        strategy.heapUsage = 1;
+        strategy.addPageDoc(createPageDoc(1));
+        Assert.assertTrue(Files.exists(strategy.getStore().getFile()));
+        strategy.cleanup();
+        Assert.assertFalse(Files.exists(strategy.getStore().getFile()));
+        Assert.assertEquals(0, strategy.getPageDocsSize());
+        Assert.assertFalse(strategy.isSpilling());
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.helper.Utils;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class DocumentSpillStoreTest {
+
+    private static Path tempFolder = Paths.get("build/temp_spill");
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        Files.createDirectories(tempFolder);
+        file = Paths.get(tempFolder.toString(), "test.spill");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Utils.deleteDirectory(tempFolder);
+    }
+
+    private static SolrInputDocument createDoc(String iddoc, int order) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, iddoc);
+        doc.addField(SolrConstants.ORDER, order);
+        doc.addField(SolrConstants.DATECREATED, 1234567890L);
+        doc.addField(SolrConstants.ACCESSCONDITION, "OPENACCESS");
+        doc.addField(SolrConstants.ACCESSCONDITION, "RESTRICTED");
+        return doc;
+    }
+
+    /**
+     * @see DocumentSpillStore#put(String,Object)
+     * @verifies return latest value for key
+     */
+    @Test
+    public void put_shouldReturnLatestValueForKey() throws Exception {
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            store.put("2", "text");
+            store.put("1", createDoc("1", 5));
+            SolrInputDocument doc = (SolrInputDocument) store.get("1");
+            Assert.assertEquals("1", doc.getFieldValue(SolrConstants.IDDOC));
+            Assert.assertEquals(5, doc.getFieldValue(SolrConstants.ORDER));
+            Assert.assertEquals(1234567890L, doc.getFieldValue(SolrConstants.DATECREATED));
+            Assert.assertEquals(2, doc.getFieldValues(SolrConstants.ACCESSCONDITION).size());
+            Assert.assertEquals("text", store.get("2"));
+            Assert.assertEquals(2, store.getKeys().size());
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#put(String,Object)
+     * @verifies read compressed and uncompressed entries
+     */
+    @Test
+    public void put_shouldReadCompressedAndUncompressedEntries() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            sb.append("Lorem ipsum dolor sit amet ");
+        }
+        try (DocumentSpillStore store = new DocumentSpillStore(file, true)) {
+            store.put("compressed", sb.toString());
+            Assert.assertTrue(store.getLength() < sb.length() / 2);
+        }
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("uncompressed", createDoc("1", 1));
+            Assert.assertEquals(sb.toString(), store.get("compressed"));
+            Assert.assertEquals("1", ((SolrInputDocument) store.get("uncompressed")).getFieldValue(SolrConstants.IDDOC));
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#get(String)
+     * @verifies return null for unknown key
+     */
+    @Test
+    public void get_shouldReturnNullForUnknownKey() throws Exception {
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            Assert.assertNull(store.get("2"));
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#contains(String)
+     * @verifies index entries of existing file
+     */
+    @Test
+    public void contains_shouldIndexEntriesOfExistingFile() throws Exception {
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            store.put("1", createDoc("1", 2));
+            store.put("2", createDoc("2", 3));
+        }
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            Assert.assertTrue(store.contains("1"));
+            Assert.assertTrue(store.contains("2"));
+            Assert.assertFalse(store.contains("3"));
+            Assert.assertEquals(2, ((SolrInputDocument) store.get("1")).getFieldValue(SolrConstants.ORDER));
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#contains(String)
+     * @verifies discard incomplete entry at end of file
+     */
+    @Test
+    public void contains_shouldDiscardIncompleteEntryAtEndOfFile() throws Exception {
+        long validLength;
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            validLength = store.getLength();
+            store.put("2", createDoc("2", 2));
+        }
+        // Simulate an interrupted write
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 3);
+        }
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            Assert.assertTrue(store.contains("1"));
+            Assert.assertFalse(store.contains("2"));
+            Assert.assertEquals(validLength, store.getLength());
+            Assert.assertEquals(validLength, Files.size(file));
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#truncate(long)
+     * @verifies discard entries appended after given length
+     */
+    @Test
+    public void truncate_shouldDiscardEntriesAppendedAfterGivenLength() throws Exception {
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            long length = store.getLength();
+            store.put("1", createDoc("1", 2));
+            store.put("2", createDoc("2", 3));
+            store.truncate(length);
+            Assert.assertEquals(1, ((SolrInputDocument) store.get("1")).getFieldValue(SolrConstants.ORDER));
+            Assert.assertFalse(store.contains("2"));
+            Assert.assertEquals(length, Files.size(file));
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#truncate(long)
+     * @verifies throw IOException if file shorter than given length
+     */
+    @Test(expected = IOException.class)
+    public void truncate_shouldThrowIOExceptionIfFileShorterThanGivenLength() throws Exception {
+        try (DocumentSpillStore store = new DocumentSpillStore(file, false)) {
+            store.put("1", createDoc("1", 1));
+            store.truncate(store.getLength() + 1);
+        }
+    }
+
+    /**
+     * @see DocumentSpillStore#delete()
+     * @verifies delete segment file
+     */
+    @Test
+    public void delete_shouldDeleteSegmentFile() throws Exception {
+        DocumentSpillStore store = new DocumentSpillStore(file, false);
+        store.put("1", createDoc("1", 1));
+        Assert.assertTrue(Files.isRegularFile(file));
+        store.delete();
+        Assert.assertFalse(Files.exists(file));
+    }
+}
@@ -17,14 +17,20 @@ package de.intranda.digiverso.presentation.solr.model.writestrategy;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.solr.common.SolrDocumentList;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
 import de.intranda.digiverso.presentation.solr.AbstractSolrEnabledTest;
+import de.intranda.digiverso.presentation.solr.MetsIndexer;
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
 
 public class HierarchicalLazySolrWriteStrategyTest extends AbstractSolrEnabledTest {
 
@@ -51,37 +57,58 @@ public class HierarchicalLazySolrWriteStrategyTest extends AbstractSolrEnabledTe
         Assert.assertEquals(sh, strat.solrHelper);
     }
 
-//    /**
-//     * @see HierarchicalLazySolrWriteStrategy#writeDocs()
-//     * @verifies write all structure docs correctly
-//     */
-//    @Test
-//    public void writeDocs_shouldWriteAllStructureDocsCorrectly() throws Exception {
-//        Map<String, Path> dataFolders = new HashMap<>();
-//        SolrHelper sh = new SolrHelper(server);
-//        HierarchicalLazySolrWriteStrategy strat = new HierarchicalLazySolrWriteStrategy(sh);
-//        MetsIndexer indexer = new MetsIndexer(hotfolder);
-//
-//        indexer.index(metsFile, false, dataFolders, strat, 1);
-//        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI_TOPSTRUCT + ":PPN517154005 AND " + SolrConstants.DOCTYPE + ":"
-//                + DocType.DOCSTRCT.name(), null);
-//        Assert.assertEquals(4, docList.size());
-//    }
+    /**
+     * @see HierarchicalLazySolrWriteStrategy#writeDocs(boolean)
+     * @verifies write all structure docs correctly
+     */
+    @Test
+    public void writeDocs_shouldWriteAllStructureDocsCorrectly() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        SolrHelper sh = new SolrHelper(server);
+        HierarchicalLazySolrWriteStrategy strat = new HierarchicalLazySolrWriteStrategy(sh);
+        MetsIndexer indexer = new MetsIndexer(hotfolder);
 
-//    /**
-//     * @see HierarchicalLazySolrWriteStrategy#writeDocs(boolean)
-//     * @verifies write all page docs correctly
-//     */
-//    @Test
-//    public void writeDocs_shouldWriteAllPageDocsCorrectly() throws Exception {
-//        Map<String, Path> dataFolders = new HashMap<>();
-//        SolrHelper sh = new SolrHelper(server);
-//        LazySolrWriteStrategy strat = new HierarchicalLazySolrWriteStrategy(sh);
-//        MetsIndexer indexer = new MetsIndexer(hotfolder);
-//
-//        indexer.index(metsFile, false, dataFolders, strat, 1);
-//        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI_TOPSTRUCT + ":PPN517154005 AND " + SolrConstants.DOCTYPE + ":"
-//                + DocType.PAGE.name(), null);
-//        Assert.assertEquals(16, docList.size());
-//    }
-}
\ No newline at end of file
+        indexer.index(metsFile, false, dataFolders, strat, 1);
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI_TOPSTRUCT + ":PPN517154005 AND " + SolrConstants.DOCTYPE + ":"
+                + DocType.DOCSTRCT.name(), null);
+        Assert.assertEquals(4, docList.size());
+    }
+
+    /**
+     * @see HierarchicalLazySolrWriteStrategy#writeDocs(boolean)
+     * @verifies write all page docs correctly
+     */
+    @Test
+    public void writeDocs_shouldWriteAllPageDocsCorrectly() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        SolrHelper sh = new SolrHelper(server);
+        LazySolrWriteStrategy strat = new HierarchicalLazySolrWriteStrategy(sh);
+        MetsIndexer indexer = new MetsIndexer(hotfolder);
+
+        indexer.index(metsFile, false, dataFolders, strat, 1);
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI_TOPSTRUCT + ":PPN517154005 AND " + SolrConstants.DOCTYPE + ":"
+                + DocType.PAGE.name(), null);
+        Assert.assertEquals(16, docList.size());
+    }
+
+    /**
+     * @see HierarchicalLazySolrWriteStrategy#writeDocs(boolean)
+     * @verifies write all docs as one block
+     */
+    @Test
+    public void writeDocs_shouldWriteAllDocsAsOneBlock() throws Exception {
+        Map<String, Path> dataFolders = new HashMap<>();
+        SolrHelper sh = new SolrHelper(server);
+        HierarchicalLazySolrWriteStrategy strat = new HierarchicalLazySolrWriteStrategy(sh);
+        MetsIndexer indexer = new MetsIndexer(hotfolder);
+
+        indexer.index(metsFile, false, dataFolders, strat, 1);
+        SolrDocumentList docList = hotfolder.getSolrHelper().search(SolrConstants.PI + ":PPN517154005", null);
+        Assert.assertEquals(1, docList.size());
+        String iddoc = String.valueOf(docList.get(0).getFieldValue(SolrConstants.IDDOC));
+        long recordHits = hotfolder.getSolrHelper().getNumHits(SolrConstants.PI + ":PPN517154005 OR " + SolrConstants.PI_TOPSTRUCT
+                + ":PPN517154005");
+        Assert.assertEquals(recordHits, hotfolder.getSolrHelper().getNumHits(SolrConstants.ROOT + ":" + iddoc));
+        Assert.assertTrue(hotfolder.getSolrHelper().isIntactBlock("PPN517154005", iddoc));
+    }
+}
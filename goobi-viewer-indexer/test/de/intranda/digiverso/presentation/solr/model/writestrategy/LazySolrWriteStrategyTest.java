@@ -17,7 +17,9 @@ package de.intranda.digiverso.presentation.solr.model.writestrategy;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,7 +34,9 @@ import de.intranda.digiverso.presentation.solr.AbstractSolrEnabledTest;
 import de.intranda.digiverso.presentation.solr.MetsIndexer;
 import de.intranda.digiverso.presentation.solr.helper.Hotfolder;
 import de.intranda.digiverso.presentation.solr.helper.SolrHelper;
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
 import de.intranda.digiverso.presentation.solr.model.DataRepository;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
 
@@ -79,6 +83,113 @@ public class LazySolrWriteStrategyTest extends AbstractSolrEnabledTest {
         Assert.assertEquals("PHYS_0003", docs.get(2).getFieldValue(SolrConstants.PHYSID));
     }
 
+    /**
+     * @see LazySolrWriteStrategy#getSortedPageDocs()
+     * @verifies return page docs sorted by order
+     */
+    @Test
+    public void getSortedPageDocs_shouldReturnPageDocsSortedByOrder() throws Exception {
+        LazySolrWriteStrategy strat = new LazySolrWriteStrategy(null);
+        for (int order : new int[] { 12, 3, 40, 1, 7 }) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SolrConstants.ORDER, order);
+            doc.addField(SolrConstants.PHYSID, "PHYS_" + order);
+            strat.addPageDoc(doc);
+        }
+        List<SolrInputDocument> docs = strat.getSortedPageDocs();
+        Assert.assertEquals(5, docs.size());
+        int[] expected = { 1, 3, 7, 12, 40 };
+        for (int i = 0; i < expected.length; ++i) {
+            Assert.assertEquals(expected[i], docs.get(i).getFieldValue(SolrConstants.ORDER));
+        }
+    }
+
+    /**
+     * @see LazySolrWriteStrategy#aggregate(SolrInputDocument,boolean)
+     * @verifies add default and fulltext values to root doc
+     */
+    @Test
+    public void aggregate_shouldAddDefaultAndFulltextValuesToRootDoc() throws Exception {
+        LazySolrWriteStrategy strat = new LazySolrWriteStrategy(null);
+        SolrInputDocument rootDoc = new SolrInputDocument();
+        strat.setRootDoc(rootDoc);
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("GROUPFIELD", "1");
+        doc.addField(SolrConstants.DEFAULT, "default");
+        doc.addField(SolrConstants.FULLTEXT, "fulltext");
+        strat.aggregate(doc, true);
+        Assert.assertEquals("default", rootDoc.getFieldValue(SolrConstants.SUPERDEFAULT));
+        Assert.assertEquals("fulltext", rootDoc.getFieldValue(SolrConstants.SUPERFULLTEXT));
+    }
+
+    /**
+     * @see LazySolrWriteStrategy#aggregate(SolrInputDocument,boolean)
+     * @verifies not add values if aggregateRecords false
+     */
+    @Test
+    public void aggregate_shouldNotAddValuesIfAggregateRecordsFalse() throws Exception {
+        LazySolrWriteStrategy strat = new LazySolrWriteStrategy(null);
+        SolrInputDocument rootDoc = new SolrInputDocument();
+        strat.setRootDoc(rootDoc);
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("GROUPFIELD", "1");
+        doc.addField(SolrConstants.DEFAULT, "default");
+        doc.addField(SolrConstants.FULLTEXT, "fulltext");
+        strat.aggregate(doc, false);
+        Assert.assertFalse(rootDoc.containsKey(SolrConstants.SUPERDEFAULT));
+        Assert.assertFalse(rootDoc.containsKey(SolrConstants.SUPERFULLTEXT));
+    }
+
+    /**
+     * @see LazySolrWriteStrategy#writeDocs(boolean)
+     * @verifies send docs in collected order
+     */
+    @Test
+    public void writeDocs_shouldSendDocsInCollectedOrder() throws Exception {
+        final List<Object> arrivedIddocs = Collections.synchronizedList(new ArrayList<>());
+        LazySolrWriteStrategy strat = new LazySolrWriteStrategy(new SolrHelper(server)) {
+
+            @Override
+            protected SolrUpdatePipeline createPipeline(boolean ordered) throws FatalIndexerException {
+                return new SolrUpdatePipeline(null, 1, Long.MAX_VALUE, 4, 4, ordered) {
+
+                    @Override
+                    protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+                        int iddoc = Integer.valueOf((String) docs.get(0).getFieldValue(SolrConstants.IDDOC));
+                        try {
+                            // Earlier batches take longer, so that they would be overtaken by parallel senders
+                            Thread.sleep(Math.max(0, 40 - iddoc * 2));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        arrivedIddocs.add(iddoc);
+                    }
+                };
+            }
+        };
+        strat.setRootDoc(createDoc(1, null));
+        for (int i = 2; i <= 5; ++i) {
+            strat.addDoc(createDoc(i, null));
+        }
+        // Pages are added out of order and must be sent in ORDER sequence
+        for (int order : new int[] { 4, 1, 3, 2 }) {
+            strat.addPageDoc(createDoc(5 + order, order));
+        }
+        strat.writeDocs(false);
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9), arrivedIddocs);
+    }
+
+    private static SolrInputDocument createDoc(int iddoc, Integer order) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, String.valueOf(iddoc));
+        doc.addField("GROUPFIELD", String.valueOf(iddoc));
+        if (order != null) {
+            doc.addField(SolrConstants.ORDER, order);
+            doc.addField(SolrConstants.PHYSID, "PHYS_" + order);
+        }
+        return doc;
+    }
+
     /**
      * @see LazySolrWriteStrategy#writeDocs()
      * @verifies write all structure docs correctly
@@ -0,0 +1,101 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrderedCollectorTest {
+
+    /**
+     * @see OrderedCollector#getValues()
+     * @verifies return values in insertion order
+     */
+    @Test
+    public void getValues_shouldReturnValuesInInsertionOrder() throws Exception {
+        OrderedCollector<String> collector = new OrderedCollector<>();
+        collector.add("c");
+        collector.addAll(Arrays.asList("a", "d"));
+        collector.add("b");
+        Assert.assertEquals(Arrays.asList("c", "a", "d", "b"), collector.getValues());
+        Assert.assertEquals(4, collector.size());
+    }
+
+    /**
+     * @see OrderedCollector#getValues()
+     * @verifies return values sorted by key
+     */
+    @Test
+    public void getValues_shouldReturnValuesSortedByKey() throws Exception {
+        OrderedCollector<String> collector = new OrderedCollector<>();
+        collector.add(30, "page 30");
+        collector.add(1, "page 1");
+        collector.add(12, "page 12");
+        Assert.assertEquals(Arrays.asList("page 1", "page 12", "page 30"), collector.getValues());
+    }
+
+    /**
+     * @see OrderedCollector#getValues()
+     * @verifies merge values of all threads
+     */
+    @Test
+    public void getValues_shouldMergeValuesOfAllThreads() throws Exception {
+        final OrderedCollector<Integer> collector = new OrderedCollector<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 1000; i > 0; --i) {
+            final int order = i;
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    collector.add(order, order);
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        List<Integer> values = collector.getValues();
+        Assert.assertEquals(1000, values.size());
+        for (int i = 0; i < values.size(); ++i) {
+            Assert.assertEquals(Integer.valueOf(i + 1), values.get(i));
+        }
+    }
+
+    /**
+     * @see OrderedCollector#clear()
+     * @verifies remove all values
+     */
+    @Test
+    public void clear_shouldRemoveAllValues() throws Exception {
+        OrderedCollector<String> collector = new OrderedCollector<>();
+        collector.add("a");
+        collector.add("b");
+        collector.clear();
+        Assert.assertTrue(collector.isEmpty());
+        Assert.assertTrue(collector.getValues().isEmpty());
+
+        // The collector can be reused after clearing
+        collector.add("c");
+        Assert.assertEquals(Arrays.asList("c"), collector.getValues());
+    }
+}
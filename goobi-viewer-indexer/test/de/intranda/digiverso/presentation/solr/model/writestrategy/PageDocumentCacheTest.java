@@ -0,0 +1,142 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.helper.Utils;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class PageDocumentCacheTest {
+
+    private static Path tempFolder = Paths.get("build/temp_cache");
+
+    private DocumentSpillStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        Files.createDirectories(tempFolder);
+        store = new DocumentSpillStore(Paths.get(tempFolder.toString(), "test.spill"), false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.delete();
+        Utils.deleteDirectory(tempFolder);
+    }
+
+    private static SolrInputDocument createDoc(String iddoc) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, iddoc);
+        doc.addField(SolrConstants.IDDOC_OWNER, "1");
+        return doc;
+    }
+
+    /**
+     * @see PageDocumentCache#put(String,SolrInputDocument,boolean)
+     * @verifies not write updated doc while cached
+     */
+    @Test
+    public void put_shouldNotWriteUpdatedDocWhileCached() throws Exception {
+        PageDocumentCache cache = new PageDocumentCache(store, "_UPDATED", 2);
+        SolrInputDocument doc = createDoc("10");
+        cache.put("10", doc, true);
+        cache.put("10", doc, true);
+        Assert.assertSame(doc, cache.get("10"));
+        Assert.assertEquals(0, store.getLength());
+    }
+
+    /**
+     * @see PageDocumentCache#put(String,SolrInputDocument,boolean)
+     * @verifies write updated doc on eviction
+     */
+    @Test
+    public void put_shouldWriteUpdatedDocOnEviction() throws Exception {
+        PageDocumentCache cache = new PageDocumentCache(store, "_UPDATED", 2);
+        cache.put("10", createDoc("10"), true);
+        cache.put("11", createDoc("11"), false);
+        // Access makes 10 the most recently used document, so 11 is evicted
+        cache.get("10");
+        cache.put("12", createDoc("12"), false);
+        Assert.assertEquals(2, cache.size());
+        Assert.assertNull(cache.get("11"));
+        Assert.assertFalse(store.contains("11_UPDATED"));
+
+        cache.put("13", createDoc("13"), false);
+        Assert.assertNull(cache.get("10"));
+        SolrInputDocument doc = (SolrInputDocument) store.get("10_UPDATED");
+        Assert.assertNotNull(doc);
+        Assert.assertEquals("10", doc.getFieldValue(SolrConstants.IDDOC));
+    }
+
+    /**
+     * @see PageDocumentCache#put(String,SolrInputDocument,boolean)
+     * @verifies not write unchanged doc on eviction
+     */
+    @Test
+    public void put_shouldNotWriteUnchangedDocOnEviction() throws Exception {
+        PageDocumentCache cache = new PageDocumentCache(store, "_UPDATED", 1);
+        cache.put("10", createDoc("10"), false);
+        cache.put("11", createDoc("11"), false);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(0, store.getLength());
+    }
+
+    /**
+     * @see PageDocumentCache#put(String,SolrInputDocument,boolean)
+     * @verifies write updated doc immediately if cache size is zero
+     */
+    @Test
+    public void put_shouldWriteUpdatedDocImmediatelyIfCacheSizeIsZero() throws Exception {
+        PageDocumentCache cache = new PageDocumentCache(store, "_UPDATED", 0);
+        cache.put("10", createDoc("10"), false);
+        Assert.assertEquals(0, store.getLength());
+        cache.put("10", createDoc("10"), true);
+        Assert.assertTrue(store.contains("10_UPDATED"));
+        Assert.assertNull(cache.get("10"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    /**
+     * @see PageDocumentCache#flush()
+     * @verifies write all updated docs
+     */
+    @Test
+    public void flush_shouldWriteAllUpdatedDocs() throws Exception {
+        PageDocumentCache cache = new PageDocumentCache(store, "_UPDATED", 10);
+        cache.put("10", createDoc("10"), true);
+        cache.put("11", createDoc("11"), false);
+        cache.put("12", createDoc("12"), true);
+        cache.flush();
+        Assert.assertTrue(store.contains("10_UPDATED"));
+        Assert.assertFalse(store.contains("11_UPDATED"));
+        Assert.assertTrue(store.contains("12_UPDATED"));
+        Assert.assertEquals(3, cache.size());
+
+        // Flushed documents are not written again
+        long length = store.getLength();
+        cache.flush();
+        Assert.assertEquals(length, store.getLength());
+    }
+}
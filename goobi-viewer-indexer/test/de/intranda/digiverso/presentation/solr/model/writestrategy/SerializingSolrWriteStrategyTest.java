@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
@@ -38,6 +39,7 @@ import de.intranda.digiverso.presentation.solr.helper.Utils;
 import de.intranda.digiverso.presentation.solr.model.DataRepository;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants;
 import de.intranda.digiverso.presentation.solr.model.SolrConstants.DocType;
+import de.intranda.digiverso.presentation.solr.model.writestrategy.SerializingSolrWriteStrategy.Phase;
 
 public class SerializingSolrWriteStrategyTest extends AbstractSolrEnabledTest {
 
@@ -126,4 +128,175 @@ public class SerializingSolrWriteStrategyTest extends AbstractSolrEnabledTest {
                 + DocType.PAGE.name(), null);
         Assert.assertEquals(16, docList.size());
     }
-}
\ No newline at end of file
+
+    private static SolrInputDocument createPageDoc(int order) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, String.valueOf(1000 + order));
+        doc.addField(SolrConstants.ORDER, order);
+        doc.addField(SolrConstants.PHYSID, "PHYS_000" + order);
+        doc.addField(SolrConstants.FILENAME, "0000000" + order + ".tif");
+        return doc;
+    }
+
+    private static SolrInputDocument createStructureDoc(String iddoc) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(SolrConstants.IDDOC, iddoc);
+        doc.addField(SolrConstants.DOCTYPE, DocType.DOCSTRCT.name());
+        return doc;
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#writeCheckpoint(Phase,String,Properties)
+     * @verifies write manifest and document indexes
+     */
+    @Test
+    public void writeCheckpoint_shouldWriteManifestAndDocumentIndexes() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        Properties properties = new Properties();
+        properties.setProperty("foo", "bar");
+        strat.writeCheckpoint(Phase.PAGES, "source", properties);
+        Path recordFolder = Paths.get(tempFolder.toAbsolutePath().toString(), "PPN123");
+        Assert.assertTrue(Files.isRegularFile(Paths.get(recordFolder.toString(), SerializingSolrWriteStrategy.CHECKPOINT_MANIFEST)));
+        Assert.assertTrue(Files.isRegularFile(Paths.get(recordFolder.toString(), "checkpoint.pages")));
+
+        strat.setRootDoc(createStructureDoc("1"));
+        strat.writeCheckpoint(Phase.STRUCTURE, "source", new Properties());
+        Assert.assertTrue(Files.isRegularFile(Paths.get(recordFolder.toString(), "checkpoint.docs")));
+
+        strat.cleanup();
+        Assert.assertFalse(Files.exists(recordFolder));
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#writeCheckpoint(Phase,String,Properties)
+     * @verifies throw IllegalStateException if checkpoints are not enabled
+     */
+    @Test(expected = IllegalStateException.class)
+    public void writeCheckpoint_shouldThrowIllegalStateExceptionIfCheckpointsAreNotEnabled() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder);
+        strat.writeCheckpoint(Phase.PAGES, "source", null);
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#resumeCheckpoint(String)
+     * @verifies restore page documents after PAGES checkpoint
+     */
+    @Test
+    public void resumeCheckpoint_shouldRestorePageDocumentsAfterPAGESCheckpoint() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        strat.addPageDoc(createPageDoc(2));
+        Properties properties = new Properties();
+        properties.setProperty("foo", "bar");
+        strat.writeCheckpoint(Phase.PAGES, "source", properties);
+
+        SerializingSolrWriteStrategy resumed = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        Properties manifest = resumed.resumeCheckpoint("source");
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(Phase.PAGES.name(), manifest.getProperty(SerializingSolrWriteStrategy.CHECKPOINT_PHASE));
+        Assert.assertEquals("bar", manifest.getProperty("foo"));
+        Assert.assertEquals(2, resumed.getPageDocsSize());
+        Assert.assertEquals("1002", resumed.getPageDocForOrder(2).getFieldValue(SolrConstants.IDDOC));
+        List<SolrInputDocument> docs = resumed.getPageDocsForPhysIdList(Arrays.asList(new String[] { "PHYS_0001", "PHYS_0002" }));
+        Assert.assertEquals(2, docs.size());
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#updateDoc(SolrInputDocument)
+     * @verifies not write cached page doc until checkpoint
+     */
+    @Test
+    public void updateDoc_shouldNotWriteCachedPageDocUntilCheckpoint() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        strat.setRootDoc(createStructureDoc("1"));
+        Path spillFile = Paths.get(tempFolder.toAbsolutePath().toString(), "PPN123", "docs.spill");
+        long size = Files.size(spillFile);
+        for (int i = 2; i < 5; ++i) {
+            SolrInputDocument doc = strat.getPageDocForOrder(1);
+            doc.addField(SolrConstants.IDDOC_OWNER, String.valueOf(i));
+            strat.updateDoc(doc);
+        }
+        Assert.assertEquals(size, Files.size(spillFile));
+        Assert.assertEquals(3, strat.getPageDocForOrder(1).getFieldValues(SolrConstants.IDDOC_OWNER).size());
+        strat.writeCheckpoint(Phase.STRUCTURE, "source", null);
+        Assert.assertTrue(Files.size(spillFile) > size);
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#resumeCheckpoint(String)
+     * @verifies discard page document updates after PAGES checkpoint
+     */
+    @Test
+    public void resumeCheckpoint_shouldDiscardPageDocumentUpdatesAfterPAGESCheckpoint() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        strat.writeCheckpoint(Phase.PAGES, "source", null);
+        SolrInputDocument doc = strat.getPageDocForOrder(1);
+        doc.setField(SolrConstants.IDDOC_OWNER, "1");
+        strat.updateDoc(doc);
+        Assert.assertEquals("1", strat.getPageDocForOrder(1).getFieldValue(SolrConstants.IDDOC_OWNER));
+        strat.addDoc(createStructureDoc("1"));
+
+        SerializingSolrWriteStrategy resumed = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        Assert.assertNotNull(resumed.resumeCheckpoint("source"));
+        Assert.assertNull(resumed.getPageDocForOrder(1).getFieldValue(SolrConstants.IDDOC_OWNER));
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#resumeCheckpoint(String)
+     * @verifies restore structure documents after STRUCTURE checkpoint
+     */
+    @Test
+    public void resumeCheckpoint_shouldRestoreStructureDocumentsAfterSTRUCTURECheckpoint() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        strat.writeCheckpoint(Phase.PAGES, "source", null);
+        SolrInputDocument doc = strat.getPageDocForOrder(1);
+        doc.setField(SolrConstants.IDDOC_OWNER, "2");
+        strat.updateDoc(doc);
+        strat.addDoc(createStructureDoc("2"));
+        strat.setRootDoc(createStructureDoc("1"));
+        strat.writeCheckpoint(Phase.STRUCTURE, "source", null);
+
+        SerializingSolrWriteStrategy resumed = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        Properties manifest = resumed.resumeCheckpoint("source");
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals(Phase.STRUCTURE.name(), manifest.getProperty(SerializingSolrWriteStrategy.CHECKPOINT_PHASE));
+        Assert.assertEquals(1, resumed.getPageDocsSize());
+        // Updates made before the STRUCTURE checkpoint are kept
+        Assert.assertEquals("2", resumed.getPageDocForOrder(1).getFieldValue(SolrConstants.IDDOC_OWNER));
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#resumeCheckpoint(String)
+     * @verifies return null and empty temp folder if source differs
+     */
+    @Test
+    public void resumeCheckpoint_shouldReturnNullAndEmptyTempFolderIfSourceDiffers() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+        strat.writeCheckpoint(Phase.PAGES, "source", null);
+
+        SerializingSolrWriteStrategy resumed = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        Assert.assertNull(resumed.resumeCheckpoint("other source"));
+        Assert.assertEquals(0, resumed.getPageDocsSize());
+        Path recordFolder = Paths.get(tempFolder.toAbsolutePath().toString(), "PPN123");
+        Assert.assertEquals(0, recordFolder.toFile().list().length);
+    }
+
+    /**
+     * @see SerializingSolrWriteStrategy#resumeCheckpoint(String)
+     * @verifies return null if no checkpoint exists
+     */
+    @Test
+    public void resumeCheckpoint_shouldReturnNullIfNoCheckpointExists() throws Exception {
+        SerializingSolrWriteStrategy strat = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        strat.addPageDoc(createPageDoc(1));
+
+        SerializingSolrWriteStrategy resumed = new SerializingSolrWriteStrategy(null, tempFolder, "PPN123");
+        Assert.assertNull(resumed.resumeCheckpoint("source"));
+        Assert.assertEquals(0, resumed.getPageDocsSize());
+    }
+}
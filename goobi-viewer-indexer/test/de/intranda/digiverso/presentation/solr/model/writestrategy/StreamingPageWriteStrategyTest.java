@@ -0,0 +1,156 @@
+/**
+ * This file is part of the Goobi Solr Indexer - a content indexing tool for the Goobi viewer and OAI-PMH/SRU interfaces.
+ *
+ * Visit these websites for more information.
+ *          - http://www.intranda.com
+ *          - http://digiverso.com
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.intranda.digiverso.presentation.solr.model.writestrategy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.intranda.digiverso.presentation.solr.helper.SolrUpdatePipeline;
+import de.intranda.digiverso.presentation.solr.model.FatalIndexerException;
+import de.intranda.digiverso.presentation.solr.model.SolrConstants;
+
+public class StreamingPageWriteStrategyTest {
+
+    /**
+     * Strategy that collects the written page documents instead of sending them to Solr.
+     */
+    private static class TestStrategy extends StreamingPageWriteStrategy {
+
+        private final List<SolrInputDocument> writtenDocs = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+
+        TestStrategy() {
+            super(null);
+        }
+
+        @Override
+        protected SolrUpdatePipeline createPipeline(boolean ordered) throws FatalIndexerException {
+            return new SolrUpdatePipeline(null, 2, Long.MAX_VALUE, 4, 4, ordered) {
+
+                @Override
+                protected void send(List<SolrInputDocument> docs) throws FatalIndexerException {
+                    int order = (int) docs.get(0).getFieldValue(SolrConstants.ORDER);
+                    try {
+                        // Earlier batches take longer, so that they would be overtaken by parallel senders
+                        Thread.sleep(Math.max(0, 20 - order * 2));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    writtenDocs.addAll(docs);
+                }
+            };
+        }
+    }
+
+    /**
+     * Generator that adds a FULLTEXT field with the page number.
+     */
+    private static final StreamingPageWriteStrategy.PageContentGenerator GENERATOR = new StreamingPageWriteStrategy.PageContentGenerator() {
+
+        @Override
+        public void addContent(SolrInputDocument pageDoc) throws FatalIndexerException {
+            pageDoc.addField(SolrConstants.FULLTEXT, "text " + pageDoc.getFieldValue(SolrConstants.ORDER));
+        }
+    };
+
+    private static TestStrategy createStrategy(int numPages) {
+        TestStrategy strategy = new TestStrategy();
+        for (int i = 1; i <= numPages; ++i) {
+            SolrInputDocument doc = new SolrInputDocument();
+            doc.addField(SolrConstants.IDDOC, String.valueOf(100 + i));
+            doc.addField(SolrConstants.ORDER, i);
+            doc.addField(SolrConstants.PHYSID, "PHYS_" + i);
+            strategy.addPageDoc(doc);
+        }
+        return strategy;
+    }
+
+    /**
+     * @see StreamingPageWriteStrategy#writePageDocs(StreamingPageWriteStrategy.PageContentGenerator,int,boolean)
+     * @verifies write all page docs with content
+     */
+    @Test
+    public void writePageDocs_shouldWriteAllPageDocsWithContent() throws Exception {
+        TestStrategy strategy = createStrategy(5);
+        Assert.assertEquals(5, strategy.writePageDocs(GENERATOR, 1, false));
+        Assert.assertEquals(5, strategy.writtenDocs.size());
+        for (int i = 0; i < 5; ++i) {
+            SolrInputDocument doc = strategy.writtenDocs.get(i);
+            Assert.assertEquals(i + 1, doc.getFieldValue(SolrConstants.ORDER));
+            Assert.assertEquals("text " + (i + 1), doc.getFieldValue(SolrConstants.FULLTEXT));
+            Assert.assertEquals(SolrConstants.OPEN_ACCESS_VALUE, doc.getFieldValue(SolrConstants.ACCESSCONDITION));
+        }
+
+        // Multiple threads
+        strategy = createStrategy(20);
+        Assert.assertEquals(20, strategy.writePageDocs(GENERATOR, 4, false));
+        Assert.assertEquals(20, strategy.writtenDocs.size());
+    }
+
+    /**
+     * @see StreamingPageWriteStrategy#writePageDocs(StreamingPageWriteStrategy.PageContentGenerator,int,boolean)
+     * @verifies remove written page docs
+     */
+    @Test
+    public void writePageDocs_shouldRemoveWrittenPageDocs() throws Exception {
+        TestStrategy strategy = createStrategy(3);
+        strategy.writePageDocs(GENERATOR, 1, false);
+        Assert.assertNull(strategy.getPageDocForOrder(1));
+        Assert.assertTrue(strategy.getPageDocsForPhysIdList(Collections.singletonList("PHYS_1")).isEmpty());
+        // The written pages are still counted
+        Assert.assertEquals(3, strategy.getPageDocsSize());
+    }
+
+    /**
+     * @see StreamingPageWriteStrategy#writePageDocs(StreamingPageWriteStrategy.PageContentGenerator,int,boolean)
+     * @verifies send page docs in order if single threaded
+     */
+    @Test
+    public void writePageDocs_shouldSendPageDocsInOrderIfSingleThreaded() throws Exception {
+        TestStrategy strategy = createStrategy(12);
+        Assert.assertEquals(12, strategy.writePageDocs(GENERATOR, 1, false));
+        Assert.assertEquals(12, strategy.writtenDocs.size());
+        for (int i = 0; i < 12; ++i) {
+            Assert.assertEquals(i + 1, strategy.writtenDocs.get(i).getFieldValue(SolrConstants.ORDER));
+        }
+    }
+
+    /**
+     * @see StreamingPageWriteStrategy#setRootDoc(SolrInputDocument)
+     * @verifies add aggregated page values
+     */
+    @Test
+    public void setRootDoc_shouldAddAggregatedPageValues() throws Exception {
+        TestStrategy strategy = createStrategy(2);
+        strategy.writePageDocs(GENERATOR, 1, true);
+        SolrInputDocument rootDoc = new SolrInputDocument();
+        rootDoc.addField(SolrConstants.IDDOC, "1");
+        strategy.setRootDoc(rootDoc);
+        Assert.assertEquals(2, rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT).size());
+        Assert.assertTrue(rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT).contains("text 2"));
+
+        // Not aggregated
+        strategy = createStrategy(2);
+        strategy.writePageDocs(GENERATOR, 1, false);
+        rootDoc = new SolrInputDocument();
+        strategy.setRootDoc(rootDoc);
+        Assert.assertNull(rootDoc.getFieldValues(SolrConstants.SUPERFULLTEXT));
+    }
+}